@@ -39,13 +39,16 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -53,6 +56,7 @@ import org.immutables.value.Value;
 public abstract class AbstractAsynchronousCache implements ArtifactCache {
   private static final Logger LOG = Logger.get(AbstractAsynchronousCache.class);
   private static final int MAX_CONSECUTIVE_MULTI_FETCH_ERRORS = 3;
+  private static final int MAX_CONSECUTIVE_MULTI_STORE_ERRORS = 3;
   private final String name;
   private final CacheReadMode cacheReadMode;
 
@@ -77,6 +81,11 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   private final AtomicInteger consecutiveMultiFetchErrorCount = new AtomicInteger();
   private volatile boolean markAllFetchRequestsAsSkipped = false;
 
+  // Guarded by itself, so that batches can be cut at the head of the queue by size.
+  private final Deque<StoreRequest> pendingStoreRequests = new ArrayDeque<>();
+  private volatile boolean enableMultiStore = true;
+  private final AtomicInteger consecutiveMultiStoreErrorCount = new AtomicInteger();
+
   public AbstractAsynchronousCache(
       String name,
       ArtifactCacheMode mode,
@@ -108,8 +117,14 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return projectFilesystem;
   }
 
+  /**
+   * Fetches an artifact into {@code output}, or offers its payload to {@code sink} as it is read
+   * when there is one. Caches that can't stream artifacts ignore the sink and always write to
+   * {@code output}.
+   */
   protected abstract FetchResult fetchImpl(
-      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) throws IOException;
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink)
+      throws IOException;
 
   protected abstract MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
       throws IOException;
@@ -135,6 +150,47 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return false;
   }
 
+  /**
+   * The maximum number of artifacts to include in every multiStoreImpl call. If < 2, every artifact
+   * is stored on its own.
+   */
+  protected int getMultiStoreLimit() {
+    return 0;
+  }
+
+  /** The total size of the artifacts included in a single multiStoreImpl call. */
+  protected long getMultiStoreMaxSizeBytes() {
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Stores several artifacts at once. The MultiStoreResult should contain results in the same order
+   * as the artifacts. Caches that can't batch stores just store the artifacts one by one.
+   */
+  protected MultiStoreResult multiStoreImpl(ImmutableList<Pair<ArtifactInfo, Path>> artifacts)
+      throws IOException {
+    MultiStoreResult.Builder result = MultiStoreResult.builder();
+    for (Pair<ArtifactInfo, Path> artifact : artifacts) {
+      result.addResults(storeImpl(artifact.getFirst(), artifact.getSecond()));
+    }
+    return result.build();
+  }
+
+  /**
+   * Used to answer lookups of keys this cache is already known not to have without a round-trip.
+   * Caches that don't keep such a filter return empty.
+   */
+  protected Optional<NegativeLookupFilter> getNegativeLookupFilter() {
+    return Optional.empty();
+  }
+
+  private void recordLookupResult(RuleKey ruleKey, CacheResult result) {
+    Optional<NegativeLookupFilter> filter = getNegativeLookupFilter();
+    if (filter.isPresent()) {
+      filter.get().recordResult(ruleKey, result);
+    }
+  }
+
   private void doMultiCheck(ImmutableMap<RuleKey, ClaimedFetchRequest> ruleKeyToRequest) {
     try {
       ImmutableMap<RuleKey, CacheResult> ruleKeyToResult =
@@ -258,7 +314,11 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         eventListener.fetchStarted(request.getBuildTarget(), request.getRuleKey());
     try {
       FetchResult fetchResult =
-          fetchImpl(request.getBuildTarget(), request.getRuleKey(), request.getOutput());
+          fetchImpl(
+              request.getBuildTarget(),
+              request.getRuleKey(),
+              request.getOutput(),
+              request.getSink());
       result = fetchResult.getCacheResult();
       requestEvents.finished(fetchResult);
     } catch (IOException e) {
@@ -268,6 +328,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
       result = CacheResult.error(name, mode, msg);
       requestEvents.failed(e, msg, result);
     }
+    recordLookupResult(request.getRuleKey(), result);
     request.future.set(result);
   }
 
@@ -420,6 +481,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     }
 
     public void setResult(CacheResult result) {
+      recordLookupResult(getRequest().getRuleKey(), result);
       getRequest().future.set(result);
       request = null;
     }
@@ -466,8 +528,25 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   @Override
   public final ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetchAsync(target, ruleKey, output, Optional.empty());
+  }
+
+  @Override
+  public final ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetchAsync(target, ruleKey, output, Optional.of(sink));
+  }
+
+  private ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink) {
+    Optional<NegativeLookupFilter> filter = getNegativeLookupFilter();
+    if (filter.isPresent() && filter.get().isKnownMiss(ruleKey)) {
+      eventListener.fetchFiltered(target, ruleKey);
+      return Futures.immediateFuture(CacheResult.miss());
+    }
+
     SettableFuture<CacheResult> future = SettableFuture.create();
-    FetchRequest fetchRequest = new FetchRequest(target, ruleKey, output, future);
+    FetchRequest fetchRequest = new FetchRequest(target, ruleKey, output, sink, future);
     if (isMultiCheckEnabled()) {
       addCheckRequest(fetchRequest);
     } else {
@@ -479,10 +558,36 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
   @Override
   public final ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
       ImmutableSet<RuleKey> ruleKeys) {
+    Optional<NegativeLookupFilter> filter = getNegativeLookupFilter();
+    if (!filter.isPresent()) {
+      return fetchExecutorService.submit(
+          () -> {
+            MultiContainsResult results = multiContainsImpl(ruleKeys);
+            return results.getCacheResults();
+          });
+    }
+
+    ImmutableMap.Builder<RuleKey, CacheResult> knownMisses = ImmutableMap.builder();
+    ImmutableSet.Builder<RuleKey> remaining = ImmutableSet.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      if (filter.get().isKnownMiss(ruleKey)) {
+        knownMisses.put(ruleKey, CacheResult.miss());
+      } else {
+        remaining.add(ruleKey);
+      }
+    }
+    ImmutableSet<RuleKey> remainingKeys = remaining.build();
+    if (remainingKeys.isEmpty()) {
+      return Futures.immediateFuture(knownMisses.build());
+    }
     return fetchExecutorService.submit(
         () -> {
-          MultiContainsResult results = multiContainsImpl(ruleKeys);
-          return results.getCacheResults();
+          ImmutableMap<RuleKey, CacheResult> results =
+              multiContainsImpl(remainingKeys).getCacheResults();
+          for (Map.Entry<RuleKey, CacheResult> result : results.entrySet()) {
+            filter.get().recordResult(result.getKey(), result.getValue());
+          }
+          return knownMisses.putAll(results).build();
         });
   }
 
@@ -509,22 +614,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     }
 
     StoreEvents events = eventListener.storeScheduled(info, artifactSizeBytes);
-    return storeExecutorService.submit(
-        () -> {
-          StoreEvents.StoreRequestEvents requestEvents = events.started();
-          try {
-            StoreResult result = storeImpl(info, tmp);
-            requestEvents.finished(result);
-            return null;
-          } catch (IOException e) {
-            String msg =
-                String.format(
-                    "store(%s): %s: %s",
-                    info.getRuleKeys(), e.getClass().getName(), e.getMessage());
-            requestEvents.failed(e, msg);
-            throw new RuntimeException(e);
-          }
-        });
+    return addStoreRequest(new StoreRequest(info, tmp, artifactSizeBytes, events));
   }
 
   @Override
@@ -580,6 +670,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
     ImmutableList<StoreEvents> events = eventsBuilder.build();
 
+    // These are stored in order and not batched with other stores, as later artifacts may refer
+    // to earlier ones.
     return storeExecutorService.submit(
         () -> {
           for (int i = 0; i < matchedArtifacts.size(); i++) {
@@ -589,6 +681,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
                   storeImpl(
                       matchedArtifacts.get(i).getFirst(), matchedArtifacts.get(i).getSecond());
               requestEvents.finished(result);
+              recordStored(matchedArtifacts.get(i).getFirst(), result);
             } catch (IOException e) {
               String msg =
                   String.format(
@@ -605,6 +698,122 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         });
   }
 
+  private ListenableFuture<Void> addStoreRequest(StoreRequest request) {
+    synchronized (pendingStoreRequests) {
+      pendingStoreRequests.add(request);
+    }
+    try {
+      storeExecutorService.submit(this::processStore);
+    } catch (RejectedExecutionException e) {
+      synchronized (pendingStoreRequests) {
+        pendingStoreRequests.remove(request);
+      }
+      throw e;
+    }
+    return request.future;
+  }
+
+  private void processStore() {
+    ImmutableList<StoreRequest> requests = getStoreRequests();
+    if (requests.isEmpty()) {
+      return;
+    }
+    if (requests.size() == 1) {
+      doStore(requests.get(0), requests.get(0).events.started());
+    } else {
+      doMultiStore(requests);
+    }
+  }
+
+  /**
+   * Takes the next batch of stores off the queue. Batches only grow while stores are queueing up
+   * faster than they are dispatched, so an idle cache still stores every artifact right away.
+   */
+  private ImmutableList<StoreRequest> getStoreRequests() {
+    synchronized (pendingStoreRequests) {
+      int limit = enableMultiStore ? Math.max(1, getMultiStoreLimit()) : 1;
+      long maxSizeBytes = getMultiStoreMaxSizeBytes();
+      ImmutableList.Builder<StoreRequest> requests = ImmutableList.builder();
+      long sizeBytes = 0;
+      for (int i = 0; i < limit && !pendingStoreRequests.isEmpty(); i++) {
+        StoreRequest next = pendingStoreRequests.peek();
+        if (i > 0 && sizeBytes + next.artifactSizeBytes > maxSizeBytes) {
+          break;
+        }
+        sizeBytes += next.artifactSizeBytes;
+        requests.add(pendingStoreRequests.remove());
+      }
+      return requests.build();
+    }
+  }
+
+  private void doStore(StoreRequest request, StoreEvents.StoreRequestEvents requestEvents) {
+    try {
+      StoreResult result = storeImpl(request.info, request.file);
+      requestEvents.finished(result);
+      recordStored(request.info, result);
+      request.future.set(null);
+    } catch (IOException e) {
+      String msg =
+          String.format(
+              "store(%s): %s: %s",
+              request.info.getRuleKeys(), e.getClass().getName(), e.getMessage());
+      requestEvents.failed(e, msg);
+      request.future.setException(new RuntimeException(e));
+    } catch (RuntimeException e) {
+      request.future.setException(e);
+    }
+  }
+
+  private void doMultiStore(ImmutableList<StoreRequest> requests) {
+    ImmutableList.Builder<StoreEvents.StoreRequestEvents> requestEventsBuilder =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    ImmutableList.Builder<Pair<ArtifactInfo, Path>> artifacts =
+        ImmutableList.builderWithExpectedSize(requests.size());
+    for (StoreRequest request : requests) {
+      requestEventsBuilder.add(request.events.started());
+      artifacts.add(new Pair<>(request.info, request.file));
+    }
+    ImmutableList<StoreEvents.StoreRequestEvents> requestEvents = requestEventsBuilder.build();
+
+    ImmutableList<StoreResult> results;
+    try {
+      results = multiStoreImpl(artifacts.build()).getResults();
+      Preconditions.checkState(
+          results.size() == requests.size(),
+          "MultiStore returned %s results for %s artifacts.",
+          results.size(),
+          requests.size());
+      consecutiveMultiStoreErrorCount.set(0);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "MultiStore of %d artifacts failed, storing them one by one.", requests.size());
+      if (consecutiveMultiStoreErrorCount.incrementAndGet()
+          >= MAX_CONSECUTIVE_MULTI_STORE_ERRORS) {
+        LOG.info("Too many MultiStore errors, falling back to Store only.");
+        enableMultiStore = false;
+      }
+      for (int i = 0; i < requests.size(); i++) {
+        doStore(requests.get(i), requestEvents.get(i));
+      }
+      return;
+    }
+
+    for (int i = 0; i < requests.size(); i++) {
+      StoreResult result =
+          StoreResult.builder().from(results.get(i)).setBatchSize(requests.size()).build();
+      requestEvents.get(i).finished(result);
+      recordStored(requests.get(i).info, result);
+      requests.get(i).future.set(null);
+    }
+  }
+
+  private void recordStored(ArtifactInfo info, StoreResult result) {
+    Optional<NegativeLookupFilter> filter = getNegativeLookupFilter();
+    if (filter.isPresent() && result.getWasStoreSuccessful().orElse(true)) {
+      filter.get().recordPresent(info.getRuleKeys());
+    }
+  }
+
   @Override
   public final ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
     if (!getCacheReadMode().isWritable()) {
@@ -658,6 +867,9 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
 
     FetchRequestEvents fetchStarted(BuildTarget target, RuleKey ruleKey);
 
+    /** Called for fetches answered as misses by the {@link NegativeLookupFilter}. */
+    void fetchFiltered(@Nullable BuildTarget target, RuleKey ruleKey);
+
     interface FetchRequestEvents {
       void finished(FetchResult result);
 
@@ -690,6 +902,7 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     @Nullable private final BuildTarget target;
     private final RuleKey ruleKey;
     private final LazyPath output;
+    private final Optional<ArtifactSink> sink;
     private final SettableFuture<CacheResult> future;
 
     @VisibleForTesting
@@ -698,9 +911,19 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
         RuleKey ruleKey,
         LazyPath output,
         SettableFuture<CacheResult> future) {
+      this(target, ruleKey, output, Optional.empty(), future);
+    }
+
+    private FetchRequest(
+        @Nullable BuildTarget target,
+        RuleKey ruleKey,
+        LazyPath output,
+        Optional<ArtifactSink> sink,
+        SettableFuture<CacheResult> future) {
       this.target = target;
       this.ruleKey = ruleKey;
       this.output = output;
+      this.sink = sink;
       this.future = future;
     }
 
@@ -716,6 +939,10 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     public LazyPath getOutput() {
       return output;
     }
+
+    public Optional<ArtifactSink> getSink() {
+      return sink;
+    }
   }
 
   /** Return type used by the implementations of this abstract class. */
@@ -752,6 +979,29 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     ImmutableList<FetchResult> getResults();
   }
 
+  /** An artifact waiting to be stored, possibly together with others. */
+  private static class StoreRequest {
+    private final ArtifactInfo info;
+    private final Path file;
+    private final long artifactSizeBytes;
+    private final StoreEvents events;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    StoreRequest(ArtifactInfo info, Path file, long artifactSizeBytes, StoreEvents events) {
+      this.info = info;
+      this.file = file;
+      this.artifactSizeBytes = artifactSizeBytes;
+      this.events = events;
+    }
+  }
+
+  /** Return type used by the implementations of this abstract class. */
+  @BuckStyleTuple
+  @Value.Immutable(builder = true)
+  public interface AbstractMultiStoreResult {
+    ImmutableList<StoreResult> getResults();
+  }
+
   /** Return type used by the implementations of this abstract class. */
   @BuckStyleTuple
   @Value.Immutable(builder = true)
@@ -761,5 +1011,8 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     Optional<String> getArtifactContentHash();
 
     Optional<Boolean> getWasStoreSuccessful();
+
+    /** The number of artifacts uploaded by the same request, if there were several. */
+    Optional<Integer> getBatchSize();
   }
 }
@@ -78,4 +78,46 @@ abstract class AbstractCacheCountersSummary {
   @Value.Parameter
   @JsonView(JsonViews.MachineReadableLog.class)
   public abstract AtomicInteger getFailureUploadCount();
+
+  /** @return the number of prefetched artifacts that were used by the build. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getTotalPrefetchHits() {
+    return 0;
+  }
+
+  /** @return the total size of the prefetched artifacts that the build never used. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public long getTotalPrefetchWastedBytes() {
+    return 0;
+  }
+
+  /** @return the number of fetches served by the in-memory cache tier. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public long getTotalMemoryCacheHits() {
+    return 0;
+  }
+
+  /** @return the number of fetches the in-memory cache tier passed on to the other caches. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public long getTotalMemoryCacheMisses() {
+    return 0;
+  }
+
+  /** @return the number of artifacts the in-memory cache tier dropped to make room. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public long getTotalMemoryCacheEvictions() {
+    return 0;
+  }
+
+  /** @return the number of remote fetches answered locally as known misses. */
+  @Value.Default
+  @JsonView(JsonViews.MachineReadableLog.class)
+  public int getTotalNegativeLookupFilterHits() {
+    return 0;
+  }
 }
@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import java.io.IOException;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import javax.annotation.Nullable;
@@ -45,6 +46,7 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
   protected final HttpService fetchClient;
   protected final HttpService storeClient;
   private final ErrorReporter errorReporter;
+  private final Optional<NegativeLookupFilter> negativeLookupFilter;
 
   public AbstractNetworkCache(NetworkCacheArgs args) {
     super(
@@ -66,6 +68,12 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
     this.fetchClient = args.getFetchClient();
     this.storeClient = args.getStoreClient();
     this.errorReporter = new ErrorReporter(args);
+    this.negativeLookupFilter = args.getNegativeLookupFilter();
+  }
+
+  @Override
+  protected Optional<NegativeLookupFilter> getNegativeLookupFilter() {
+    return negativeLookupFilter;
   }
 
   private static boolean isNoHealthyServersException(Throwable exception) {
@@ -140,6 +148,21 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
       };
     }
 
+    @Override
+    public void fetchFiltered(@Nullable BuildTarget target, RuleKey ruleKey) {
+      HttpArtifactCacheEvent.Started startedEvent =
+          HttpArtifactCacheEvent.newFetchStartedEvent(target, ruleKey);
+      HttpArtifactCacheEvent.Finished.Builder eventBuilder =
+          HttpArtifactCacheEvent.newFinishedEventBuilder(startedEvent);
+      eventBuilder
+          .getFetchBuilder()
+          .setRequestedRuleKey(ruleKey)
+          .setFetchResult(CacheResult.miss())
+          .setWasNegativeLookupFilterHit(true);
+      dispatcher.post(startedEvent);
+      dispatcher.post(eventBuilder.build());
+    }
+
     @Override
     public MultiFetchRequestEvents multiFetchStarted(
         ImmutableList<BuildTarget> targets, ImmutableList<RuleKey> ruleKeys) {
@@ -221,7 +244,8 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
                   .setArtifactContentHash(result.getArtifactContentHash())
                   .setRequestSizeBytes(result.getRequestSizeBytes())
                   .setWasStoreSuccessful(result.getWasStoreSuccessful())
-                  .setStoreType(StoreType.fromArtifactInfo(info));
+                  .setStoreType(StoreType.fromArtifactInfo(info))
+                  .setBatchSize(result.getBatchSize());
               dispatcher.post(finishedEventBuilder.build());
             }
 
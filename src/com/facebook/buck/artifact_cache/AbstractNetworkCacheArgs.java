@@ -63,4 +63,19 @@ interface AbstractNetworkCacheArgs {
   int getErrorTextLimit();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  /** Filter used to answer lookups of keys the cache is known not to have locally. */
+  Optional<NegativeLookupFilter> getNegativeLookupFilter();
+
+  /** Maximum number of artifacts stored with a single request. Batching is off if < 2. */
+  @Value.Default
+  default int getMultiStoreLimit() {
+    return 0;
+  }
+
+  /** Maximum total size of the artifacts stored with a single request. */
+  @Value.Default
+  default long getMultiStoreMaxSizeBytes() {
+    return Long.MAX_VALUE;
+  }
 }
@@ -46,6 +46,24 @@ public interface ArtifactCache extends AutoCloseable {
   ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, offering its payload to {@code sink} while it is
+   * being read so that it doesn't have to be written to output and read back. Caches that can't
+   * stream an artifact save it to output, as {@link #fetchAsync(BuildTarget, RuleKey, LazyPath)}
+   * does.
+   *
+   * @param target rule for which this is an artifact
+   * @param ruleKey cache fetch key
+   * @param output Path to store artifact to if it is not consumed by sink.
+   * @param sink receiver of the artifact payload.
+   * @return whether it was a {@link CacheResultType#MISS} (indicating a failure) or some type of
+   *     hit.
+   */
+  default ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetchAsync(target, ruleKey, output);
+  }
+
   /** All pending (and future) async fetches will be immediately marked as skipped. */
   void skipPendingAndFutureAsyncFetches();
 
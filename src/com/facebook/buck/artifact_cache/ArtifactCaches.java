@@ -99,6 +99,14 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private final String producerId;
   private final String producerHostname;
   private final Optional<ClientCertificateHandler> clientCertificateHandler;
+  private final MemoryArtifactCacheStore memoryCacheStore;
+  private final NegativeLookupFilters negativeLookupFilters;
+
+  // The memory store outlives the command, so only the changes since this factory was created are
+  // reported.
+  private final long initialMemoryCacheHits;
+  private final long initialMemoryCacheMisses;
+  private final long initialMemoryCacheEvictions;
 
   /** {@link TaskAction} implementation for {@link ArtifactCaches}. */
   static class ArtifactCachesCloseAction implements TaskAction<List<ArtifactCache>> {
@@ -116,6 +124,16 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
 
   @Override
   public void close() {
+    if (buckConfig.getArtifactCacheModes().contains(ArtifactCacheMode.memory)) {
+      buckEventBus.post(
+          MemoryArtifactCacheSummaryEvent.newSummary(
+              memoryCacheStore.getHitCount() - initialMemoryCacheHits,
+              memoryCacheStore.getMissCount() - initialMemoryCacheMisses,
+              memoryCacheStore.getEvictionCount() - initialMemoryCacheEvictions,
+              memoryCacheStore.getEntryCount(),
+              memoryCacheStore.getSizeBytes()));
+    }
+
     // We clean up beyond client connection lifetime since it can take a
     // long time to stat and cleanup large disk artifact cache directories
     // See https://github.com/facebook/buck/issues/1842
@@ -146,6 +164,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
    * @param producerId free-form identifier of a user or machine uploading artifacts, can be used on
    *     cache server side for monitoring
    * @param clientCertificateHandler container for client certificate information
+   * @param memoryCacheStore store backing the in-memory cache tier, shared between commands
+   * @param negativeLookupFilters filters of the remote caches, shared between commands
    */
   public ArtifactCaches(
       ArtifactCacheBuckConfig buckConfig,
@@ -161,7 +181,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       TaskManagerCommandScope managerScope,
       String producerId,
       String producerHostname,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      MemoryArtifactCacheStore memoryCacheStore,
+      NegativeLookupFilters negativeLookupFilters) {
     this.buckConfig = buckConfig;
     this.buckEventBus = buckEventBus;
     this.unconfiguredBuildTargetFactory = unconfiguredBuildTargetFactory;
@@ -176,6 +198,11 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     this.producerId = producerId;
     this.producerHostname = producerHostname;
     this.clientCertificateHandler = clientCertificateHandler;
+    this.memoryCacheStore = memoryCacheStore;
+    this.negativeLookupFilters = negativeLookupFilters;
+    this.initialMemoryCacheHits = memoryCacheStore.getHitCount();
+    this.initialMemoryCacheMisses = memoryCacheStore.getMissCount();
+    this.initialMemoryCacheEvictions = memoryCacheStore.getEvictionCount();
   }
 
   private static Request.Builder addHeadersToBuilder(
@@ -244,7 +271,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             distributedBuildModeEnabled,
             producerId,
             producerHostname,
-            clientCertificateHandler);
+            clientCertificateHandler,
+            memoryCacheStore,
+            negativeLookupFilters);
 
     artifactCaches.add(artifactCache);
 
@@ -268,7 +297,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
         managerScope,
         producerId,
         producerHostname,
-        clientCertificateHandler);
+        clientCertificateHandler,
+        memoryCacheStore,
+        negativeLookupFilters);
   }
 
   /**
@@ -310,7 +341,9 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       boolean distributedBuildModeEnabled,
       String producerId,
       String producerHostname,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      MemoryArtifactCacheStore memoryCacheStore,
+      NegativeLookupFilters negativeLookupFilters) {
     ImmutableSet<ArtifactCacheMode> modes = buckConfig.getArtifactCacheModes();
     if (modes.isEmpty()) {
       return new NoopArtifactCache();
@@ -349,7 +382,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               builder,
               HttpArtifactCache::new,
               mode,
-              clientCertificateHandler);
+              clientCertificateHandler,
+              negativeLookupFilters);
           break;
         case sqlite:
           initializeSQLiteCaches(
@@ -387,7 +421,11 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                       producerId,
                       producerHostname),
               mode,
-              clientCertificateHandler);
+              clientCertificateHandler,
+              negativeLookupFilters);
+          break;
+        case memory:
+          // Decorates the caches created for the other modes, see below.
           break;
       }
     }
@@ -401,6 +439,11 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       result = new MultiArtifactCache(artifactCaches);
     }
 
+    if (modes.contains(ArtifactCacheMode.memory)
+        && !cacheTypeBlacklist.contains(ArtifactCacheMode.memory.getCacheType())) {
+      result = new MemoryArtifactCacheDecorator(result, memoryCacheStore);
+    }
+
     // Always support reading two-level cache stores (in case we performed any in the past).
     result =
         new TwoLevelArtifactCacheDecorator(
@@ -447,7 +490,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ImmutableList.Builder<ArtifactCache> builder,
       NetworkCacheFactory factory,
       ArtifactCacheMode cacheMode,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      NegativeLookupFilters negativeLookupFilters) {
     for (HttpCacheEntry cacheEntry : artifactCacheEntries.getHttpCacheEntries()) {
       if (!cacheEntry.isWifiUsableForDistributedCache(wifiSsid)) {
         buckEventBus.post(
@@ -472,7 +516,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckConfig,
               factory,
               cacheMode,
-              clientCertificateHandler));
+              clientCertificateHandler,
+              negativeLookupFilters));
     }
   }
 
@@ -505,14 +550,20 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ListeningExecutorService storeExecutorService) {
     Path cacheDir = dirCacheConfig.getCacheDir();
     try {
-      DirArtifactCache dirArtifactCache =
+      ArtifactCache dirArtifactCache =
           new DirArtifactCache(
               "dir",
               projectFilesystem,
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
               dirCacheConfig.getMaxSizeBytes(),
-              storeExecutorService);
+              storeExecutorService,
+              dirCacheConfig.isIndexEnabled());
+      if (dirCacheConfig.isDeduplicationEnabled()) {
+        dirArtifactCache =
+            new DeduplicatingArtifactCacheDecorator(
+                dirArtifactCache, projectFilesystem, buckEventBus);
+      }
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -542,7 +593,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ArtifactCacheBuckConfig config,
       NetworkCacheFactory factory,
       ArtifactCacheMode cacheMode,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      NegativeLookupFilters negativeLookupFilters) {
     ArtifactCache cache =
         createHttpArtifactCache(
             cacheDescription,
@@ -556,7 +608,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             config,
             factory,
             cacheMode,
-            clientCertificateHandler);
+            clientCertificateHandler,
+            negativeLookupFilters);
     return new RetryingCacheDecorator(cacheMode, cache, config.getMaxFetchRetries(), buckEventBus);
   }
 
@@ -572,7 +625,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       ArtifactCacheBuckConfig config,
       NetworkCacheFactory factory,
       ArtifactCacheMode cacheMode,
-      Optional<ClientCertificateHandler> clientCertificateHandler) {
+      Optional<ClientCertificateHandler> clientCertificateHandler,
+      NegativeLookupFilters negativeLookupFilters) {
 
     // Setup the default client to use.
     OkHttpClient.Builder storeClientBuilder = new OkHttpClient.Builder();
@@ -716,6 +770,17 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .setErrorTextLimit(cacheDescription.getErrorMessageLimit())
+            .setNegativeLookupFilter(
+                config.getNegativeLookupFilterEnabled()
+                    ? Optional.of(
+                        negativeLookupFilters.getFilter(
+                            cacheMode,
+                            cacheDescription.getUrl(),
+                            config.getNegativeLookupFilterMaxKeys(),
+                            config.getNegativeLookupFilterMaxAgeSeconds()))
+                    : Optional.empty())
+            .setMultiStoreLimit(config.getHttpMultiStoreLimit())
+            .setMultiStoreMaxSizeBytes(config.getHttpMultiStoreMaxSize())
             .build());
   }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.ImmutableMap;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+/**
+ * The dictionaries artifacts are compressed with, by build rule type.
+ *
+ * <p>Artifacts are stored under their plain rule keys whether or not they were compressed with a
+ * dictionary, so a fetch is a single lookup. The ID of the dictionary is recorded in the artifact's
+ * metadata, and clients that don't have that dictionary treat the artifact as a miss (see {@link
+ * #canDecompress}). Versions of buck that predate dictionaries can't read such artifacts at all,
+ * so dictionaries should only be configured once every client sharing the cache understands them.
+ */
+public class ArtifactCompressionDictionaries {
+  private static final Logger LOG = Logger.get(ArtifactCompressionDictionaries.class);
+
+  /** Metadata key holding the ID of the dictionary an artifact was compressed with. */
+  public static final String METADATA_KEY = "ARTIFACT_COMPRESSION_DICTIONARY";
+
+  private static final String DICTIONARY_EXTENSION = ".dict";
+
+  private static final ArtifactCompressionDictionaries EMPTY =
+      new ArtifactCompressionDictionaries(ImmutableMap.of());
+
+  private final ImmutableMap<String, ArtifactCompressionDictionary> dictionariesByRuleType;
+  private final ImmutableMap<Long, ArtifactCompressionDictionary> dictionariesById;
+
+  public ArtifactCompressionDictionaries(
+      ImmutableMap<String, ArtifactCompressionDictionary> dictionariesByRuleType) {
+    this.dictionariesByRuleType = dictionariesByRuleType;
+    ImmutableMap.Builder<Long, ArtifactCompressionDictionary> byId = ImmutableMap.builder();
+    for (ArtifactCompressionDictionary dictionary : dictionariesByRuleType.values()) {
+      byId.put(dictionary.getId(), dictionary);
+    }
+    this.dictionariesById = byId.build();
+  }
+
+  public static ArtifactCompressionDictionaries empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Loads the dictionaries in {@code directory}, each named after the rule type it is for, e.g.
+   * {@code java_library.dict}. Dictionaries that can't be read are skipped, so artifacts of their
+   * rule type are compressed without one.
+   */
+  public static ArtifactCompressionDictionaries load(Path directory) {
+    if (!Files.isDirectory(directory)) {
+      LOG.warn("Artifact compression dictionary directory %s does not exist.", directory);
+      return EMPTY;
+    }
+    ImmutableMap.Builder<String, ArtifactCompressionDictionary> dictionaries =
+        ImmutableMap.builder();
+    try (DirectoryStream<Path> files =
+        Files.newDirectoryStream(directory, "*" + DICTIONARY_EXTENSION)) {
+      for (Path file : files) {
+        String fileName = file.getFileName().toString();
+        String ruleType =
+            fileName.substring(0, fileName.length() - DICTIONARY_EXTENSION.length());
+        try {
+          dictionaries.put(
+              ruleType, new ArtifactCompressionDictionary(ruleType, Files.readAllBytes(file)));
+        } catch (IOException | IllegalArgumentException e) {
+          LOG.warn(e, "Ignoring artifact compression dictionary %s.", file);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to list artifact compression dictionaries in %s.", directory);
+      return EMPTY;
+    }
+    return new ArtifactCompressionDictionaries(dictionaries.build());
+  }
+
+  public Optional<ArtifactCompressionDictionary> getForRuleType(String ruleType) {
+    return Optional.ofNullable(dictionariesByRuleType.get(ruleType));
+  }
+
+  /**
+   * @return whether the artifact with the given metadata was compressed without a dictionary or
+   *     with one that is loaded here.
+   */
+  public boolean canDecompress(Map<String, String> metadata) {
+    Optional<Long> id = getDictionaryId(metadata);
+    return !id.isPresent() || dictionariesById.containsKey(id.get());
+  }
+
+  /** @return the ID of the dictionary the artifact with the given metadata was compressed with. */
+  public static Optional<Long> getDictionaryId(Map<String, String> metadata) {
+    String id = metadata.get(METADATA_KEY);
+    if (id == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Long.parseLong(id));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Wraps the compressed archive of the artifact with the given metadata in a stream of the
+   * uncompressed archive. Closing the returned stream leaves {@code compressed} open.
+   *
+   * @throws IOException if the artifact was compressed with a dictionary that isn't loaded.
+   */
+  @SuppressWarnings("resource") // The returned stream wraps and owns the unclosable one.
+  public InputStream newDecompressingStream(Map<String, String> metadata, InputStream compressed)
+      throws IOException {
+    InputStream unclosable =
+        new FilterInputStream(compressed) {
+          @Override
+          public void close() {
+            // The caller owns the underlying stream.
+          }
+        };
+    Optional<Long> id = getDictionaryId(metadata);
+    if (!id.isPresent()) {
+      return new ZstdCompressorInputStream(unclosable);
+    }
+    ArtifactCompressionDictionary dictionary = dictionariesById.get(id.get());
+    if (dictionary == null) {
+      throw new IOException(
+          String.format("Artifact was compressed with unknown dictionary %d", id.get()));
+    }
+    return dictionary.newDecompressingStream(unclosable);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.base.Suppliers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+/**
+ * A zstandard dictionary trained on the artifacts of one build rule type, such as with {@code zstd
+ * --train}. Compressing with it lets small artifacts refer back to the content they share with
+ * other artifacts of the same type, which they can't do on their own.
+ */
+public class ArtifactCompressionDictionary {
+  /** The level the artifact archives are compressed at without a dictionary. */
+  private static final int COMPRESSION_LEVEL = 3;
+
+  private final String ruleType;
+  private final long id;
+  private final Supplier<ZstdDictCompress> compressDictionary;
+  private final Supplier<ZstdDictDecompress> decompressDictionary;
+
+  public ArtifactCompressionDictionary(String ruleType, byte[] dictionary) {
+    this.ruleType = ruleType;
+    this.id = Zstd.getDictIdFromDict(dictionary);
+    if (id == 0) {
+      throw new IllegalArgumentException(
+          String.format("The dictionary for %s is not a trained zstd dictionary.", ruleType));
+    }
+    // Digesting the dictionary is relatively expensive, so only do it for the rule types that are
+    // actually uploaded or fetched.
+    this.compressDictionary =
+        Suppliers.memoize(() -> new ZstdDictCompress(dictionary, COMPRESSION_LEVEL));
+    this.decompressDictionary = Suppliers.memoize(() -> new ZstdDictDecompress(dictionary));
+  }
+
+  public String getRuleType() {
+    return ruleType;
+  }
+
+  /** @return the ID zstd records in the frames compressed with this dictionary. */
+  public long getId() {
+    return id;
+  }
+
+  /** Wraps {@code out} in a stream compressing what is written to it with this dictionary. */
+  public OutputStream newCompressingStream(OutputStream out) throws IOException {
+    ZstdOutputStream compressing = new ZstdOutputStream(out, COMPRESSION_LEVEL);
+    compressing.setDict(compressDictionary.get());
+    return compressing;
+  }
+
+  /** Wraps {@code in} in a stream decompressing it with this dictionary. */
+  public InputStream newDecompressingStream(InputStream in) throws IOException {
+    ZstdInputStream decompressing = new ZstdInputStream(in);
+    decompressing.setDict(decompressDictionary.get());
+    return decompressing;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+
+/** Reports how many of the artifacts fetched ahead of the build were actually used. */
+public class ArtifactPrefetchSummaryEvent extends AbstractBuckEvent {
+  private final int prefetchCount;
+  private final int hitCount;
+  private final long fetchedBytes;
+  private final long wastedBytes;
+
+  private ArtifactPrefetchSummaryEvent(
+      EventKey eventKey, int prefetchCount, int hitCount, long fetchedBytes, long wastedBytes) {
+    super(eventKey);
+    this.prefetchCount = prefetchCount;
+    this.hitCount = hitCount;
+    this.fetchedBytes = fetchedBytes;
+    this.wastedBytes = wastedBytes;
+  }
+
+  public static ArtifactPrefetchSummaryEvent newSummary(
+      int prefetchCount, int hitCount, long fetchedBytes, long wastedBytes) {
+    return new ArtifactPrefetchSummaryEvent(
+        EventKey.unique(), prefetchCount, hitCount, fetchedBytes, wastedBytes);
+  }
+
+  /** @return the number of artifacts that were requested ahead of the build. */
+  public int getPrefetchCount() {
+    return prefetchCount;
+  }
+
+  /** @return the number of prefetched artifacts that were used by the build. */
+  public int getHitCount() {
+    return hitCount;
+  }
+
+  /** @return the total size of the artifacts that were prefetched. */
+  public long getFetchedBytes() {
+    return fetchedBytes;
+  }
+
+  /** @return the total size of the prefetched artifacts that the build never used. */
+  public long getWastedBytes() {
+    return wastedBytes;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format(
+        "prefetches=%d hits=%d fetched=%d wasted=%d",
+        prefetchCount, hitCount, fetchedBytes, wastedBytes);
+  }
+
+  @Override
+  public String getEventName() {
+    return "ArtifactPrefetchSummary";
+  }
+}
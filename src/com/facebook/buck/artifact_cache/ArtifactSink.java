@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the payload of a fetched artifact while it is being read from a cache, so that it can be
+ * unpacked in place rather than being written to a temporary file and re-read.
+ *
+ * <p>Caches hand the payload over before they have verified it. If a cache later finds that an
+ * accepted payload is corrupt, it calls {@link #discard()} and completes the fetch with an error.
+ * A sink may be offered payloads from several caches during a single fetch (e.g. when a fetch is
+ * retried or falls through to another cache); only the last accepted payload is kept.
+ */
+public interface ArtifactSink {
+
+  /**
+   * Consumes an artifact payload.
+   *
+   * @param metadata metadata the payload was stored with.
+   * @param payload stream over the payload. It is owned by the cache and must not be closed.
+   * @return whether the payload was consumed. When {@code false} is returned the stream must not
+   *     have been read from, and the cache falls back to writing the payload to the fetch output.
+   * @throws IOException if the payload could not be consumed. Implementations clean up any partial
+   *     state before throwing.
+   */
+  boolean accept(ImmutableMap<String, String> metadata, InputStream payload) throws IOException;
+
+  /** Undoes the effects of the last successful {@link #accept} call. */
+  void discard();
+}
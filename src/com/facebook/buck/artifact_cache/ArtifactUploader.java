@@ -37,6 +37,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -47,6 +48,7 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Optional;
 import java.util.SortedSet;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -67,24 +69,45 @@ public class ArtifactUploader {
       SortedSet<Path> pathsToIncludeInArchive,
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
-      long buildTimeMs) {
+      long buildTimeMs,
+      Optional<ArtifactCompressionDictionary> compressionDictionary) {
     NamedTemporaryFile archive;
     try {
       archive =
           getTemporaryArtifactArchive(
-              buildTarget, projectFilesystem, ruleKeys, eventBus, pathsToIncludeInArchive);
+              buildTarget,
+              projectFilesystem,
+              ruleKeys,
+              eventBus,
+              pathsToIncludeInArchive,
+              compressionDictionary);
     } catch (BuckUncheckedExecutionException e) {
       LOG.error(e.getMessage());
       LOG.debug(e.toString() + "\n" + Throwables.getStackTraceAsString(e));
       return Futures.immediateFuture(null);
     }
 
+    // Clients look the dictionary an artifact was compressed with up in its metadata. The build
+    // metadata may still name the dictionary of an artifact this one was fetched as, so always
+    // replace it.
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    buildMetadata.forEach(
+        (key, value) -> {
+          if (!key.equals(ArtifactCompressionDictionaries.METADATA_KEY)) {
+            metadata.put(key, value);
+          }
+        });
+    compressionDictionary.ifPresent(
+        dictionary ->
+            metadata.put(
+                ArtifactCompressionDictionaries.METADATA_KEY, Long.toString(dictionary.getId())));
+
     // Store the artifact, including any additional metadata.
     ListenableFuture<Void> storeFuture =
         artifactCache.store(
             ArtifactInfo.builder()
                 .setRuleKeys(ruleKeys)
-                .setMetadata(buildMetadata)
+                .setMetadata(metadata.build())
                 .setBuildTarget(buildTarget)
                 .setBuildTimeMs(buildTimeMs)
                 .build(),
@@ -161,15 +184,25 @@ public class ArtifactUploader {
       ProjectFilesystem projectFilesystem,
       ImmutableSet<RuleKey> ruleKeys,
       BuckEventBus eventBus,
-      SortedSet<Path> pathsToIncludeInArchive) {
+      SortedSet<Path> pathsToIncludeInArchive,
+      Optional<ArtifactCompressionDictionary> compressionDictionary) {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(ArtifactCompressionEvent.Operation.COMPRESS, ruleKeys);
     eventBus.post(started);
+    ArtifactCompressionEvent.Finished finished = ArtifactCompressionEvent.finished(started);
     try (CloseableHolder<NamedTemporaryFile> archive =
         new CloseableHolder<>(
             new NamedTemporaryFile(
                 "buck_artifact_" + MostFiles.sanitize(buildTarget.getShortName()), ".tar.zst"))) {
-      compress(projectFilesystem, pathsToIncludeInArchive, archive.get().get());
+      Path out = archive.get().get();
+      long uncompressedSize =
+          compress(projectFilesystem, pathsToIncludeInArchive, out, compressionDictionary);
+      finished =
+          ArtifactCompressionEvent.finished(
+              started,
+              uncompressedSize,
+              Files.size(out),
+              compressionDictionary.map(ArtifactCompressionDictionary::getId));
       return archive.release();
     } catch (IOException e) {
       throw new BuckUncheckedExecutionException(
@@ -178,7 +211,7 @@ public class ArtifactUploader {
           buildTarget,
           Joiner.on('\n').join(ImmutableSortedSet.copyOf(pathsToIncludeInArchive)));
     } finally {
-      eventBus.post(ArtifactCompressionEvent.finished(started));
+      eventBus.post(finished);
     }
   }
 
@@ -187,32 +220,55 @@ public class ArtifactUploader {
   static void compress(
       ProjectFilesystem projectFilesystem, Collection<Path> pathsToIncludeInArchive, Path out)
       throws IOException {
+    compress(projectFilesystem, pathsToIncludeInArchive, out, Optional.empty());
+  }
+
+  /**
+   * Archive and compress 'pathsToIncludeInArchive' into 'out', using tar+zstandard with the given
+   * dictionary, if any.
+   *
+   * @return the size of the archive before compression.
+   */
+  @VisibleForTesting
+  static long compress(
+      ProjectFilesystem projectFilesystem,
+      Collection<Path> pathsToIncludeInArchive,
+      Path out,
+      Optional<ArtifactCompressionDictionary> compressionDictionary)
+      throws IOException {
     try (OutputStream o = new BufferedOutputStream(Files.newOutputStream(out));
-        OutputStream z = new ZstdCompressorOutputStream(o);
-        TarArchiveOutputStream archive = new TarArchiveOutputStream(z)) {
-      archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-      for (Path path : pathsToIncludeInArchive) {
-        boolean isRegularFile = !projectFilesystem.isDirectory(path);
-
-        // Add a file entry.
-        TarArchiveEntry e = new TarArchiveEntry(path.toString() + (isRegularFile ? "" : "/"));
-        int mode = (int) projectFilesystem.getPosixFileMode(path);
-        // If permissions don't allow for owner to r or w, update to u+=rw and g+=r
-        e.setMode((mode & 384) == 0 ? (mode | 416) : mode);
-        e.setModTime(ZipConstants.getFakeTime());
-
-        if (isRegularFile) {
-          e.setSize(projectFilesystem.getFileSize(path));
-          archive.putArchiveEntry(e);
-          try (InputStream input = projectFilesystem.newFileInputStream(path)) {
-            ByteStreams.copy(input, archive);
+        OutputStream z =
+            compressionDictionary.isPresent()
+                ? compressionDictionary.get().newCompressingStream(o)
+                : new ZstdCompressorOutputStream(o)) {
+      // The archive closes the whole chain, so the counting stream must not be closed on its own.
+      CountingOutputStream uncompressed = new CountingOutputStream(z);
+      try (TarArchiveOutputStream archive = new TarArchiveOutputStream(uncompressed)) {
+        archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        for (Path path : pathsToIncludeInArchive) {
+          boolean isRegularFile = !projectFilesystem.isDirectory(path);
+
+          // Add a file entry.
+          TarArchiveEntry e = new TarArchiveEntry(path.toString() + (isRegularFile ? "" : "/"));
+          int mode = (int) projectFilesystem.getPosixFileMode(path);
+          // If permissions don't allow for owner to r or w, update to u+=rw and g+=r
+          e.setMode((mode & 384) == 0 ? (mode | 416) : mode);
+          e.setModTime(ZipConstants.getFakeTime());
+
+          if (isRegularFile) {
+            e.setSize(projectFilesystem.getFileSize(path));
+            archive.putArchiveEntry(e);
+            try (InputStream input = projectFilesystem.newFileInputStream(path)) {
+              ByteStreams.copy(input, archive);
+            }
+          } else {
+            archive.putArchiveEntry(e);
           }
-        } else {
-          archive.putArchiveEntry(e);
+          archive.closeArchiveEntry();
         }
-        archive.closeArchiveEntry();
+        archive.finish();
       }
-      archive.finish();
+      return uncompressed.getCount();
     }
   }
 }
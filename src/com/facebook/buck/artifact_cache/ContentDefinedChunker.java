@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content around them rather than on
+ * their offset, using a gear rolling hash. Inserting or removing bytes only changes the chunks
+ * around the edit, so files that differ in a few places still share most of their chunks.
+ */
+class ContentDefinedChunker {
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Random values mixed into the rolling hash, one per byte value. The seed is fixed, as changing
+   * it would move every chunk boundary and stop new chunks from matching already stored ones.
+   */
+  private static final long[] GEAR = createGearTable(0x6275636b64656475L);
+
+  private final int minChunkSize;
+  private final int maxChunkSize;
+  private final long boundaryMask;
+
+  /**
+   * @param averageChunkSize the expected distance between two boundaries past {@code
+   *     minChunkSize}, which must be a power of two.
+   */
+  ContentDefinedChunker(int minChunkSize, int averageChunkSize, int maxChunkSize) {
+    Preconditions.checkArgument(minChunkSize > 0, "minChunkSize must be positive");
+    Preconditions.checkArgument(
+        Integer.bitCount(averageChunkSize) == 1, "averageChunkSize must be a power of two");
+    Preconditions.checkArgument(
+        maxChunkSize >= minChunkSize, "maxChunkSize must not be smaller than minChunkSize");
+    this.minChunkSize = minChunkSize;
+    this.maxChunkSize = maxChunkSize;
+    // Use the high bits of the hash, as they depend on more of the preceding bytes.
+    int maskBits = Integer.numberOfTrailingZeros(averageChunkSize);
+    this.boundaryMask = ((1L << maskBits) - 1) << (Long.SIZE - maskBits);
+  }
+
+  /**
+   * Reads {@code input} to the end, passing every chunk to {@code consumer}. The buffer passed to
+   * the consumer is reused for the following chunks.
+   */
+  void split(InputStream input, ChunkConsumer consumer) throws IOException {
+    byte[] chunk = new byte[maxChunkSize];
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int length = 0;
+    long hash = 0;
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      for (int i = 0; i < read; i++) {
+        chunk[length++] = buffer[i];
+        hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+        if ((length >= minChunkSize && (hash & boundaryMask) == 0) || length == maxChunkSize) {
+          consumer.accept(chunk, length);
+          length = 0;
+          hash = 0;
+        }
+      }
+    }
+    if (length > 0) {
+      consumer.accept(chunk, length);
+    }
+  }
+
+  private static long[] createGearTable(long seed) {
+    Random random = new Random(seed);
+    long[] table = new long[256];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = random.nextLong();
+    }
+    return table;
+  }
+
+  /** Receives the chunks of a stream in order. */
+  @FunctionalInterface
+  interface ChunkConsumer {
+    void accept(byte[] buffer, int length) throws IOException;
+  }
+}
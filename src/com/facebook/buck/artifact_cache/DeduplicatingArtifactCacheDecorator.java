@@ -0,0 +1,567 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+/**
+ * Stores artifacts in the wrapped cache as content-defined chunks, so that artifacts which only
+ * differ in a few places, such as zips with a handful of changed entries, share the storage for
+ * everything else. This extends the content hash indirection of {@link
+ * TwoLevelArtifactCacheDecorator} from whole artifacts to chunks: the data is stored using the
+ * scheme rulekey -> (metadata, chunk list) and chunk hash -> chunk, and chunks the wrapped cache
+ * already has are not stored again.
+ *
+ * <p>Artifacts are zstd-compressed archives, in which a small change shifts all the compressed
+ * bytes after it. So the chunks are cut from the uncompressed archive, and each one is compressed
+ * into its own zstd frame. The concatenated frames decompress to the original archive, so the
+ * reassembled artifact can be read like the one that was stored. Other artifacts are chunked as
+ * they are.
+ *
+ * <p>Artifacts are reassembled from their chunks when they are fetched. Entries that were stored
+ * whole, e.g. because they are small or were stored before this decorator was used, are fetched
+ * unchanged. A missing chunk makes the whole fetch a miss.
+ */
+public class DeduplicatingArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  @VisibleForTesting static final String METADATA_KEY = "DEDUP_CACHE_CHUNK_COUNT";
+  private static final String CHUNK_KEY_SUFFIX = "cdc0";
+  private static final String COMPRESSED_CHUNK_KEY_SUFFIX = "cdc1";
+  private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD};
+  private static final String COUNTER_CATEGORY = "buck_dedup_cache_stats";
+
+  private static final int MIN_CHUNK_SIZE = 16 * 1024;
+  private static final int AVERAGE_CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+  private static final HashFunction CHUNK_HASH_FUNCTION = Hashing.sha1();
+
+  private static final Logger LOG = Logger.get(DeduplicatingArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ProjectFilesystem projectFilesystem;
+  private final ContentDefinedChunker chunker;
+  private final long minimumDeduplicatedArtifactSize;
+
+  private final AtomicLong logicalBytes = new AtomicLong();
+  private final AtomicLong storedChunkBytes = new AtomicLong();
+  private final IntegerCounter logicalBytesCounter;
+  private final IntegerCounter storedChunkBytesCounter;
+  private final IntegerCounter reusedChunksCounter;
+
+  public DeduplicatingArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ProjectFilesystem projectFilesystem,
+      Optional<BuckEventBus> buckEventBus) {
+    this(
+        delegate,
+        projectFilesystem,
+        buckEventBus,
+        new ContentDefinedChunker(MIN_CHUNK_SIZE, AVERAGE_CHUNK_SIZE, MAX_CHUNK_SIZE),
+        2 * MIN_CHUNK_SIZE);
+  }
+
+  @VisibleForTesting
+  DeduplicatingArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ProjectFilesystem projectFilesystem,
+      Optional<BuckEventBus> buckEventBus,
+      ContentDefinedChunker chunker,
+      long minimumDeduplicatedArtifactSize) {
+    this.delegate = delegate;
+    this.projectFilesystem = projectFilesystem;
+    this.chunker = chunker;
+    this.minimumDeduplicatedArtifactSize = minimumDeduplicatedArtifactSize;
+
+    logicalBytesCounter =
+        new IntegerCounter(COUNTER_CATEGORY, "logical_bytes_stored", ImmutableMap.of());
+    storedChunkBytesCounter =
+        new IntegerCounter(COUNTER_CATEGORY, "chunk_bytes_stored", ImmutableMap.of());
+    reusedChunksCounter = new IntegerCounter(COUNTER_CATEGORY, "reused_chunks", ImmutableMap.of());
+    buckEventBus.ifPresent(
+        eventBus ->
+            eventBus.post(
+                new CounterRegistry.AsyncCounterRegistrationEvent(
+                    ImmutableList.of(
+                        logicalBytesCounter, storedChunkBytesCounter, reusedChunksCounter))));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetch(target, ruleKey, output, Optional.empty());
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetch(target, ruleKey, output, Optional.of(sink));
+  }
+
+  private ListenableFuture<CacheResult> fetch(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink) {
+    // The payload of a chunked entry is its chunk list, so only whole entries are streamed.
+    return Futures.transformAsync(
+        fetchFromDelegate(target, ruleKey, output, sink.map(WholeEntrySink::new)),
+        (CacheResult fetchResult) -> {
+          if (fetchResult.getType() != CacheResultType.HIT
+              || !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+            return Futures.immediateFuture(fetchResult);
+          }
+
+          ImmutableList<Chunk> chunks;
+          try {
+            chunks = readChunkList(output.get());
+          } catch (IOException e) {
+            return Futures.immediateFuture(fetchError(fetchResult, e));
+          }
+          LOG.verbose("Found a chunked artifact for %s with %d chunks.", ruleKey, chunks.size());
+          return fetchChunks(target, fetchResult, chunks, output, sink);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<CacheResult> fetchChunks(
+      @Nullable BuildTarget target,
+      CacheResult fetchResult,
+      ImmutableList<Chunk> chunks,
+      LazyPath output,
+      Optional<ArtifactSink> sink) {
+    Map<RuleKey, Path> chunkPaths = new HashMap<>();
+    List<ListenableFuture<CacheResult>> chunkFetches = new ArrayList<>();
+    try {
+      for (Chunk chunk : chunks) {
+        if (!chunkPaths.containsKey(chunk.key)) {
+          Path chunkPath = createTempFile("chunk");
+          chunkPaths.put(chunk.key, chunkPath);
+          chunkFetches.add(delegate.fetchAsync(target, chunk.key, LazyPath.ofInstance(chunkPath)));
+        }
+      }
+    } catch (IOException e) {
+      deleteTempFiles(chunkPaths.values());
+      return Futures.immediateFuture(fetchError(fetchResult, e));
+    }
+
+    return Futures.transform(
+        Futures.allAsList(chunkFetches),
+        chunkResults -> {
+          try {
+            for (CacheResult chunkResult : chunkResults) {
+              if (chunkResult.getType() != CacheResultType.HIT) {
+                LOG.verbose("Missed a chunk lookup.");
+                return chunkResult.getType() == CacheResultType.ERROR
+                    ? chunkResult
+                    : CacheResult.miss();
+              }
+            }
+            return assemble(fetchResult, chunks, chunkPaths, output, sink);
+          } catch (IOException e) {
+            return fetchError(fetchResult, e);
+          } finally {
+            deleteTempFiles(chunkPaths.values());
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private CacheResult assemble(
+      CacheResult fetchResult,
+      ImmutableList<Chunk> chunks,
+      Map<RuleKey, Path> chunkPaths,
+      LazyPath output,
+      Optional<ArtifactSink> sink)
+      throws IOException {
+    ImmutableMap<String, String> metadata =
+        ImmutableMap.copyOf(
+            Maps.filterKeys(fetchResult.getMetadata(), key -> !key.equals(METADATA_KEY)));
+
+    Path assembled = createTempFile("artifact");
+    try {
+      long sizeBytes = 0;
+      try (OutputStream out = projectFilesystem.newFileOutputStream(assembled)) {
+        for (Chunk chunk : chunks) {
+          try (InputStream in = projectFilesystem.newFileInputStream(chunkPaths.get(chunk.key))) {
+            long copied = ByteStreams.copy(in, out);
+            if (copied != chunk.length) {
+              throw new IOException(
+                  String.format(
+                      "Chunk %s has %d bytes instead of %d.", chunk.key, copied, chunk.length));
+            }
+            sizeBytes += copied;
+          }
+        }
+      }
+
+      boolean streamed = false;
+      if (sink.isPresent()) {
+        try (InputStream in = projectFilesystem.newFileInputStream(assembled)) {
+          streamed = sink.get().accept(metadata, in);
+        }
+      }
+      if (streamed) {
+        // The output only holds the chunk list.
+        projectFilesystem.deleteFileAtPathIfExists(output.get());
+      } else {
+        projectFilesystem.move(assembled, output.get(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      return fetchResult.withMetadata(metadata).withArtifactSizeBytes(sizeBytes);
+    } finally {
+      projectFilesystem.deleteFileAtPathIfExists(assembled);
+    }
+  }
+
+  private ListenableFuture<CacheResult> fetchFromDelegate(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<? extends ArtifactSink> sink) {
+    return sink.isPresent()
+        ? delegate.fetchAsync(target, ruleKey, output, sink.get())
+        : delegate.fetchAsync(target, ruleKey, output);
+  }
+
+  private static CacheResult fetchError(CacheResult fetchResult, IOException e) {
+    LOG.warn(e, "Failed to reassemble a chunked artifact.");
+    return CacheResult.error(
+        fetchResult.getCacheSource(),
+        fetchResult.cacheMode().orElse(ArtifactCacheMode.dir),
+        String.format("%s: %s", e.getClass(), e.getMessage()));
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    if (!getCacheReadMode().isWritable()) {
+      return Futures.immediateFuture(null);
+    }
+
+    Map<RuleKey, Path> chunkPaths = new HashMap<>();
+    ImmutableList<Chunk> chunks;
+    try {
+      if (projectFilesystem.getFileSize(output.getPath()) < minimumDeduplicatedArtifactSize) {
+        return delegate.store(info, output);
+      }
+      chunks = splitIntoChunks(output.getPath(), isCompressed(info, output.getPath()), chunkPaths);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to split %s into chunks, storing it whole.", output.getPath());
+      deleteTempFiles(chunkPaths.values());
+      return delegate.store(info, output);
+    }
+
+    // Chunks that can't be checked are stored again, so that the temp files are always cleaned up.
+    ListenableFuture<ImmutableMap<RuleKey, CacheResult>> checkedChunks =
+        Futures.catching(
+            delegate.multiContainsAsync(ImmutableSet.copyOf(chunkPaths.keySet())),
+            Exception.class,
+            e -> ImmutableMap.of(),
+            MoreExecutors.directExecutor());
+    return Futures.transformAsync(
+        checkedChunks,
+        presentChunks -> storeChunks(info, output, chunks, chunkPaths, presentChunks),
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * @return whether the artifact is compressed with zstd, without a dictionary. Artifacts
+   *     compressed with a dictionary are chunked as they are, since their chunks couldn't be
+   *     decompressed on their own.
+   */
+  private boolean isCompressed(ArtifactInfo info, Path path) throws IOException {
+    if (info.getMetadata().containsKey(ArtifactCompressionDictionaries.METADATA_KEY)) {
+      return false;
+    }
+    byte[] magic = new byte[ZSTD_MAGIC.length];
+    try (InputStream in = projectFilesystem.newFileInputStream(path)) {
+      return ByteStreams.read(in, magic, 0, magic.length) == magic.length
+          && Arrays.equals(magic, ZSTD_MAGIC);
+    }
+  }
+
+  private ListenableFuture<Void> storeChunks(
+      ArtifactInfo info,
+      BorrowablePath output,
+      ImmutableList<Chunk> chunks,
+      Map<RuleKey, Path> chunkPaths,
+      ImmutableMap<RuleKey, CacheResult> presentChunks) {
+    List<Path> tempFiles = new ArrayList<>();
+    ImmutableList.Builder<Pair<ArtifactInfo, BorrowablePath>> artifacts = ImmutableList.builder();
+    long artifactSizeBytes = 0;
+    long newChunkBytes = 0;
+    int reusedChunks = 0;
+    try {
+      Set<RuleKey> seenChunks = new HashSet<>();
+      Set<RuleKey> newChunks = new HashSet<>();
+      for (Chunk chunk : chunks) {
+        artifactSizeBytes += chunk.length;
+        CacheResult present = presentChunks.get(chunk.key);
+        if (!seenChunks.add(chunk.key)
+            || (present != null && present.getType() == CacheResultType.CONTAINS)) {
+          reusedChunks++;
+          continue;
+        }
+        Path chunkPath = chunkPaths.get(chunk.key);
+        newChunks.add(chunk.key);
+        tempFiles.add(chunkPath);
+        newChunkBytes += chunk.length;
+        artifacts.add(
+            new Pair<>(
+                ArtifactInfo.builder()
+                    .addRuleKeys(chunk.key)
+                    .setBuildTarget(info.getBuildTarget())
+                    .setBuildTimeMs(info.getBuildTimeMs())
+                    .build(),
+                BorrowablePath.borrowablePath(chunkPath)));
+      }
+      // The chunks the wrapped cache already has are not needed anymore.
+      deleteTempFiles(Maps.filterKeys(chunkPaths, key -> !newChunks.contains(key)).values());
+
+      Path chunkListPath = createTempFile("chunks");
+      tempFiles.add(chunkListPath);
+      writeChunkList(chunkListPath, chunks);
+      artifacts.add(
+          new Pair<>(
+              ArtifactInfo.builder()
+                  .from(info)
+                  .setMetadata(
+                      ImmutableMap.<String, String>builder()
+                          .putAll(info.getMetadata())
+                          .put(METADATA_KEY, String.valueOf(chunks.size()))
+                          .build())
+                  .build(),
+              BorrowablePath.borrowablePath(chunkListPath)));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store %s as chunks, storing it whole.", info.getRuleKeys());
+      deleteTempFiles(chunkPaths.values());
+      deleteTempFiles(tempFiles);
+      return delegate.store(info, output);
+    }
+
+    logicalBytes.addAndGet(artifactSizeBytes);
+    storedChunkBytes.addAndGet(newChunkBytes);
+    logicalBytesCounter.inc(artifactSizeBytes);
+    storedChunkBytesCounter.inc(newChunkBytes);
+    reusedChunksCounter.inc(reusedChunks);
+
+    // The chunks go first, so that the chunk list is never visible before all of its chunks.
+    ListenableFuture<Void> stored = delegate.store(artifacts.build());
+    stored.addListener(() -> deleteTempFiles(tempFiles), MoreExecutors.directExecutor());
+    return stored;
+  }
+
+  /**
+   * Splits the artifact into chunks, and writes each distinct chunk to a temp file in {@code
+   * chunkPaths}. Chunks of compressed artifacts are cut from the decompressed data, named after
+   * it, and compressed on their own.
+   */
+  private ImmutableList<Chunk> splitIntoChunks(
+      Path path, boolean compressed, Map<RuleKey, Path> chunkPaths) throws IOException {
+    ImmutableList.Builder<Chunk> chunks = ImmutableList.builder();
+    try (InputStream file = projectFilesystem.newFileInputStream(path);
+        InputStream in = compressed ? new ZstdCompressorInputStream(file) : file) {
+      chunker.split(
+          in,
+          (buffer, length) -> {
+            String hash = CHUNK_HASH_FUNCTION.hashBytes(buffer, 0, length).toString();
+            RuleKey key =
+                new RuleKey(hash + (compressed ? COMPRESSED_CHUNK_KEY_SUFFIX : CHUNK_KEY_SUFFIX));
+            Path chunkPath = chunkPaths.get(key);
+            if (chunkPath == null) {
+              chunkPath = createTempFile("chunk");
+              chunkPaths.put(key, chunkPath);
+              try (OutputStream out = projectFilesystem.newFileOutputStream(chunkPath);
+                  OutputStream chunk = compressed ? new ZstdCompressorOutputStream(out) : out) {
+                chunk.write(buffer, 0, length);
+              }
+            }
+            chunks.add(new Chunk(key, projectFilesystem.getFileSize(chunkPath)));
+          });
+    }
+    return chunks.build();
+  }
+
+  private void writeChunkList(Path path, ImmutableList<Chunk> chunks) throws IOException {
+    try (BufferedWriter writer =
+        new BufferedWriter(
+            new OutputStreamWriter(projectFilesystem.newFileOutputStream(path), Charsets.UTF_8))) {
+      for (Chunk chunk : chunks) {
+        writer.write(chunk.key.toString());
+        writer.write(' ');
+        writer.write(String.valueOf(chunk.length));
+        writer.newLine();
+      }
+    }
+  }
+
+  private ImmutableList<Chunk> readChunkList(Path path) throws IOException {
+    ImmutableList.Builder<Chunk> chunks = ImmutableList.builder();
+    for (String line : projectFilesystem.readLines(path)) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      List<String> parts = Splitter.on(' ').splitToList(line);
+      if (parts.size() != 2) {
+        throw new IOException(String.format("Invalid chunk list entry: %s", line));
+      }
+      try {
+        chunks.add(new Chunk(new RuleKey(parts.get(0)), Long.parseLong(parts.get(1))));
+      } catch (IllegalArgumentException e) {
+        throw new IOException(String.format("Invalid chunk list entry: %s", line), e);
+      }
+    }
+    return chunks.build();
+  }
+
+  private Path createTempFile(String prefix) throws IOException {
+    Path tmpDir = projectFilesystem.getBuckPaths().getTmpDir();
+    projectFilesystem.mkdirs(tmpDir);
+    return projectFilesystem.resolve(projectFilesystem.createTempFile(tmpDir, prefix, ".tmp"));
+  }
+
+  private void deleteTempFiles(Iterable<Path> paths) {
+    for (Path path : paths) {
+      try {
+        projectFilesystem.deleteFileAtPathIfExists(path);
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to delete temp file %s.", path);
+      }
+    }
+  }
+
+  /** Contains is supposed to be best-effort, but super-fast => Assume the chunks are present. */
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    // Only the chunk lists are deleted, as chunks may be shared with other artifacts. Unused chunks
+    // are evicted by the wrapped cache like any other entry.
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  /**
+   * @return the ratio of the size of the artifacts stored as chunks to the size of the chunks that
+   *     had to be stored for them, which is 1 if no chunk could be reused.
+   */
+  public double getDeduplicationRatio() {
+    long logical = logicalBytes.get();
+    long stored = storedChunkBytes.get();
+    if (logical == 0) {
+      return 1.0;
+    }
+    return stored == 0 ? Double.POSITIVE_INFINITY : (double) logical / stored;
+  }
+
+  @Override
+  public void close() {
+    if (logicalBytes.get() > 0) {
+      LOG.info(
+          "Stored %d bytes of artifacts as %d bytes of new chunks (deduplication ratio %.2f).",
+          logicalBytes.get(), storedChunkBytes.get(), getDeduplicationRatio());
+    }
+    delegate.close();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  private static class Chunk {
+    private final RuleKey key;
+    private final long length;
+
+    Chunk(RuleKey key, long length) {
+      this.key = key;
+      this.length = length;
+    }
+  }
+
+  /** Passes on payloads of whole entries, and declines chunk lists. */
+  private static class WholeEntrySink implements ArtifactSink {
+    private final ArtifactSink delegate;
+
+    WholeEntrySink(ArtifactSink delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean accept(ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException {
+      return !metadata.containsKey(METADATA_KEY) && delegate.accept(metadata, payload);
+    }
+
+    @Override
+    public void discard() {
+      delegate.discard();
+    }
+  }
+}
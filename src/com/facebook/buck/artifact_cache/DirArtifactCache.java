@@ -39,13 +39,16 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +74,7 @@ public class DirArtifactCache implements ArtifactCache {
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
   private final ListeningExecutorService storeExecutorService;
+  private final Optional<DirArtifactCacheIndex> index;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -81,6 +85,30 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Long> maxCacheSizeBytes,
       ListeningExecutorService storeExecutorService)
       throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        cacheReadMode,
+        maxCacheSizeBytes,
+        storeExecutorService,
+        /* indexEnabled */ false);
+  }
+
+  /**
+   * @param indexEnabled Whether to keep a persistent index of the sizes and access order of the
+   *     files in the cache, so that trimming it does not need to walk the cache directory. The
+   *     index is built from the existing cache contents the first time it is enabled.
+   */
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheReadMode,
+      Optional<Long> maxCacheSizeBytes,
+      ListeningExecutorService storeExecutorService,
+      boolean indexEnabled)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
@@ -93,12 +121,32 @@ public class DirArtifactCache implements ArtifactCache {
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    // Only caches we write to ever trim themselves, so read-only caches never need the index.
+    Path cacheDirInFs = filesystem.resolve(cacheDir);
+    if (indexEnabled && cacheReadMode.isWritable()) {
+      this.index =
+          Optional.of(DirArtifactCacheIndex.open(cacheDirInFs, this::getAllFilesInCache));
+    } else {
+      this.index = Optional.empty();
+      if (cacheReadMode.isWritable()) {
+        // Files stored from now on won't be tracked, so make sure a stale index is rebuilt the next
+        // time it is enabled.
+        DirArtifactCacheIndex.discard(cacheDirInFs);
+      }
+    }
   }
 
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
-    return Futures.immediateFuture(fetch(ruleKey, output));
+    return Futures.immediateFuture(fetch(ruleKey, output, Optional.empty()));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return Futures.immediateFuture(fetch(ruleKey, output, Optional.of(sink)));
   }
 
   @Override
@@ -106,7 +154,7 @@ public class DirArtifactCache implements ArtifactCache {
     // Async requests are not supported by DirArtifactCache, so do nothing
   }
 
-  private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+  private CacheResult fetch(RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink) {
     CacheResult result;
     try {
       // First, build up the metadata from the metadata file.
@@ -126,13 +174,34 @@ public class DirArtifactCache implements ArtifactCache {
         }
       }
 
-      // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      // Now hand the artifact to the sink, or copy it out if the sink won't take it.
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+      boolean streamed = false;
+      if (sink.isPresent()) {
+        try (InputStream in = filesystem.newFileInputStream(artifactPath)) {
+          streamed = sink.get().accept(metadata.build(), in);
+        }
+      }
+      if (!streamed) {
+        filesystem.copyFile(artifactPath, output.get());
+      }
+
+      if (index.isPresent()) {
+        index.get().recordAccess(filesystem.resolve(getPathForRuleKey(ruleKey, Optional.empty())));
+        index
+            .get()
+            .recordAccess(filesystem.resolve(getPathForRuleKey(ruleKey, Optional.of(".metadata"))));
+      }
 
       result =
-          CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+          CacheResult.hit(
+              name,
+              CACHE_MODE,
+              metadata.build(),
+              filesystem.getFileSize(streamed ? artifactPath : output.get()));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
+      forgetIndexedFiles(ruleKey);
     } catch (IOException e) {
       LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output);
       result =
@@ -186,7 +255,11 @@ public class DirArtifactCache implements ArtifactCache {
             storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
           }
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+        long artifactSize = filesystem.getFileSize(artifactPath);
+        bytesSinceLastDeleteOldFiles += artifactSize;
+        if (index.isPresent()) {
+          index.get().recordStore(filesystem.resolve(artifactPath), artifactSize);
+        }
 
         // Now, write the meta data artifact.
         Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
@@ -201,7 +274,11 @@ public class DirArtifactCache implements ArtifactCache {
             }
           }
           filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+          long metadataSize = filesystem.getFileSize(metadataPath);
+          bytesSinceLastDeleteOldFiles += metadataSize;
+          if (index.isPresent()) {
+            index.get().recordStore(filesystem.resolve(metadataPath), metadataSize);
+          }
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
@@ -233,6 +310,11 @@ public class DirArtifactCache implements ArtifactCache {
       Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
 
       boolean contains = filesystem.exists(artifactPath) && filesystem.exists(metadataPath);
+      if (contains) {
+        // Callers such as DeduplicatingArtifactCacheDecorator reuse the entries they find instead
+        // of fetching them, so keep them from being evicted as unused.
+        touch(artifactPath, metadataPath);
+      }
       results.put(ruleKey, contains ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
       LOG.verbose(
           "Artifact contains request for rulekey [%s] was a cache %s.",
@@ -242,6 +324,24 @@ public class DirArtifactCache implements ArtifactCache {
     return results.build();
   }
 
+  private void touch(Path artifactPath, Path metadataPath) {
+    if (index.isPresent()) {
+      index.get().recordAccess(filesystem.resolve(artifactPath));
+      index.get().recordAccess(filesystem.resolve(metadataPath));
+    } else if (cacheReadMode.isWritable() && maxCacheSizeBytes.isPresent()) {
+      // Without the index, old files are found by their access time.
+      FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+      try {
+        for (Path path : ImmutableList.of(artifactPath, metadataPath)) {
+          Files.getFileAttributeView(filesystem.resolve(path), BasicFileAttributeView.class)
+              .setTimes(null, now, null);
+        }
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to update the access time of %s.", artifactPath);
+      }
+    }
+  }
+
   private void deleteSync(RuleKey ruleKey) {
     Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
     Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
@@ -249,6 +349,10 @@ public class DirArtifactCache implements ArtifactCache {
     try {
       filesystem.deleteFileAtPathIfExists(metadataPath);
       filesystem.deleteFileAtPathIfExists(artifactPath);
+      if (index.isPresent()) {
+        index.get().recordRemoval(filesystem.resolve(metadataPath));
+        index.get().recordRemoval(filesystem.resolve(artifactPath));
+      }
     } catch (IOException e) {
       String message =
           String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
@@ -320,12 +424,30 @@ public class DirArtifactCache implements ArtifactCache {
     return cacheReadMode;
   }
 
+  private void forgetIndexedFiles(RuleKey ruleKey) {
+    if (!index.isPresent()) {
+      return;
+    }
+    // The files were removed behind our back, so stop accounting for them.
+    index.get().recordRemoval(filesystem.resolve(getPathForRuleKey(ruleKey, Optional.empty())));
+    index
+        .get()
+        .recordRemoval(filesystem.resolve(getPathForRuleKey(ruleKey, Optional.of(".metadata"))));
+  }
+
   @Override
   public void close() {
     // Do a cache clean up on exit only if cache was written to.
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
+    if (index.isPresent()) {
+      try {
+        index.get().close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close dir cache index in [%s].", cacheDir);
+      }
+    }
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -338,20 +460,47 @@ public class DirArtifactCache implements ArtifactCache {
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
       synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
+        if (index.isPresent()) {
+          deleteOldFilesUsingIndex(index.get());
+        } else {
+          newDirectoryCleaner().clean(cacheDirInFs);
+        }
       }
     } catch (IOException e) {
       LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
   }
 
+  private void deleteOldFilesUsingIndex(DirArtifactCacheIndex index) throws IOException {
+    ImmutableList<Path> toDelete =
+        index.selectForEviction(
+            maxCacheSizeBytes.get(), (long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
+    // Entries are only dropped once their files are gone, so files that fail to be deleted are
+    // still accounted for and picked again by the next eviction.
+    List<Path> deleted = new ArrayList<>(toDelete.size());
+    try {
+      for (Path path : toDelete) {
+        LOG.verbose("Deleting path [%s] from dir cache.", path);
+        try {
+          Files.deleteIfExists(path);
+          deleted.add(path);
+        } catch (IOException e) {
+          LOG.warn(e, "Failed to delete path [%s] from dir cache.", path);
+        }
+      }
+    } finally {
+      index.recordRemovals(deleted);
+    }
+  }
+
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     List<Path> allFiles = new ArrayList<>();
+    Path cacheDirInFs = filesystem.resolve(cacheDir);
     Path tempFolderPath = getPathToTempFolder();
     try {
       Files.walkFileTree(
-          filesystem.resolve(cacheDir),
+          cacheDirInFs,
           ImmutableSet.of(),
           Integer.MAX_VALUE,
           new SimpleFileVisitor<Path>() {
@@ -369,6 +518,9 @@ public class DirArtifactCache implements ArtifactCache {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                 throws IOException {
+              if (DirArtifactCacheIndex.isIndexFile(cacheDirInFs, file)) {
+                return FileVisitResult.CONTINUE;
+              }
               allFiles.add(file);
               return super.visitFile(file, attrs);
             }
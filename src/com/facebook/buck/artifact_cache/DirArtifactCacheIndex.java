@@ -0,0 +1,560 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Persistent access index for {@link DirArtifactCache}.
+ *
+ * <p>The index records the size of every file in the cache, ordered from least to most recently
+ * used, in an append-only log stored next to the artifacts. This lets the cache pick files to
+ * evict without walking (and stat'ing) the whole cache directory. On startup the log is replayed
+ * into memory; if it does not exist yet, it is built once from the files already in the cache.
+ * The log is rewritten in compacted form once most of its records are stale.
+ *
+ * <p>Several Buck processes may share a cache directory, so every change to the log is made while
+ * holding a lock on a separate lock file. Before changing the log, a process first applies the
+ * records the other processes appended since it last looked, so that all of them evict from the
+ * same view of the cache. A compacted log is a new file with a new generation in its header, which
+ * tells the other processes to replay it from the start.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  static final String INDEX_FILE_NAME = ".dir_cache_index";
+  private static final String LOCK_FILE_NAME = INDEX_FILE_NAME + ".lock";
+
+  private static final int MAGIC = 0xB0C4D1C0;
+  private static final int FORMAT_VERSION = 2;
+  // Magic, format version and generation.
+  private static final int HEADER_SIZE_BYTES = 16;
+  private static final byte RECORD_PUT = 'P';
+  private static final byte RECORD_REMOVE = 'R';
+  // Don't bother compacting small logs, replaying them is cheap anyway.
+  private static final long MIN_RECORDS_TO_COMPACT = 10_000;
+  // Compact once the log holds this many records per live entry.
+  private static final long STALE_RECORDS_RATIO_TO_COMPACT = 4;
+  // Access records are only used for ordering, so they are written in batches.
+  private static final int MAX_PENDING_ACCESSES = 1_000;
+
+  // File locks are held by the whole JVM, so indexes of the same cache in this process take turns
+  // before locking the file.
+  private static final ConcurrentMap<Path, Object> LOCKS_BY_INDEX = new ConcurrentHashMap<>();
+
+  private static final Random GENERATIONS = new Random();
+
+  private final Path root;
+  private final Path indexFile;
+  private final Supplier<List<Path>> filesInCache;
+  private final Object processLock;
+  // Access ordered, so iteration starts at the least recently used file.
+  private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+  private final List<String> pendingAccesses = new ArrayList<>();
+  private long totalSizeBytes = 0L;
+  private long recordsInLog = 0L;
+  // Records written by the current update, not yet in the log.
+  private long recordsWritten = 0L;
+  @Nullable private FileChannel lockChannel;
+  @Nullable private FileChannel log;
+  private long logGeneration;
+  // Where the records this process hasn't applied yet start.
+  private long readPosition;
+
+  private DirArtifactCacheIndex(Path root, Supplier<List<Path>> filesInCache) {
+    this.root = root;
+    this.indexFile = root.resolve(INDEX_FILE_NAME);
+    this.filesInCache = filesInCache;
+    this.processLock = getProcessLock(root);
+  }
+
+  /**
+   * Opens the index of the cache rooted at {@code root}, building it from {@code filesInCache} if
+   * the cache has not been indexed before or the existing index is unreadable.
+   */
+  static DirArtifactCacheIndex open(Path root, Supplier<List<Path>> filesInCache)
+      throws IOException {
+    DirArtifactCacheIndex index = new DirArtifactCacheIndex(root, filesInCache);
+    index.lockChannel =
+        FileChannel.open(
+            root.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      index.update(out -> {});
+    } catch (IOException | RuntimeException e) {
+      index.closeChannels();
+      throw e;
+    }
+    return index;
+  }
+
+  /** Deletes the index of the cache rooted at {@code root}, if there is one. */
+  static void discard(Path root) throws IOException {
+    if (!Files.exists(root.resolve(INDEX_FILE_NAME))) {
+      return;
+    }
+    synchronized (getProcessLock(root)) {
+      try (FileChannel channel =
+              FileChannel.open(
+                  root.resolve(LOCK_FILE_NAME),
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.WRITE);
+          FileLock ignored = channel.lock()) {
+        Files.deleteIfExists(root.resolve(INDEX_FILE_NAME));
+      }
+    }
+  }
+
+  /** @return whether {@code file} is the index file (or a temporary copy of it) of the cache. */
+  static boolean isIndexFile(Path root, Path file) {
+    return root.equals(file.getParent())
+        && file.getFileName().toString().startsWith(INDEX_FILE_NAME);
+  }
+
+  /** Records that {@code file} of the given size was written to the cache. */
+  synchronized void recordStore(Path file, long sizeBytes) {
+    String key = toKey(file);
+    try {
+      // Losing a store record would leak the file, so it's written right away.
+      update(
+          out -> {
+            Long previous = sizes.put(key, sizeBytes);
+            if (previous != null) {
+              totalSizeBytes -= previous;
+            }
+            totalSizeBytes += sizeBytes;
+            writePut(out, key, sizeBytes);
+          });
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record store of [%s] in dir cache index.", file);
+    }
+  }
+
+  /** Records that {@code file} was read from the cache, making it the most recently used. */
+  synchronized void recordAccess(Path file) {
+    String key = toKey(file);
+    if (sizes.get(key) == null) {
+      return;
+    }
+    pendingAccesses.add(key);
+    if (pendingAccesses.size() < MAX_PENDING_ACCESSES) {
+      return;
+    }
+    try {
+      update(out -> {});
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record accesses in dir cache index.");
+    }
+  }
+
+  /** Records that {@code file} was removed from the cache. */
+  synchronized void recordRemoval(Path file) {
+    recordRemovals(ImmutableList.of(file));
+  }
+
+  /** Records that {@code files} were removed from the cache. */
+  synchronized void recordRemovals(Collection<Path> files) {
+    try {
+      update(
+          out -> {
+            for (Path file : files) {
+              String key = toKey(file);
+              Long size = sizes.remove(key);
+              if (size != null) {
+                totalSizeBytes -= size;
+                writeRemove(out, key);
+              }
+            }
+          });
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to record removal of %d files in dir cache index.", files.size());
+    }
+  }
+
+  /**
+   * Selects the least recently used files whose removal brings the total size down to {@code
+   * maxBytesAfterDeletion}, but only if it currently exceeds {@code maxTotalSizeBytes}. The files
+   * stay in the index until their removal is recorded with {@link #recordRemovals}, so files that
+   * fail to be deleted are still accounted for.
+   *
+   * @return the absolute paths of the files that should be deleted from the cache, least recently
+   *     used first.
+   */
+  synchronized ImmutableList<Path> selectForEviction(
+      long maxTotalSizeBytes, long maxBytesAfterDeletion) throws IOException {
+    ImmutableList.Builder<Path> toDelete = ImmutableList.builder();
+    // Other processes may have stored files since, so the decision is made under the lock.
+    update(
+        out -> {
+          if (totalSizeBytes <= maxTotalSizeBytes) {
+            return;
+          }
+          long remainingBytes = totalSizeBytes;
+          Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+          while (remainingBytes > maxBytesAfterDeletion && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            remainingBytes -= entry.getValue();
+            toDelete.add(root.resolve(entry.getKey()));
+          }
+        });
+    return toDelete.build();
+  }
+
+  synchronized long getTotalSizeBytes() {
+    return totalSizeBytes;
+  }
+
+  synchronized int getEntryCount() {
+    return sizes.size();
+  }
+
+  @VisibleForTesting
+  synchronized ImmutableList<Path> getEntriesLeastRecentlyUsedFirst() {
+    ImmutableList.Builder<Path> entries = ImmutableList.builderWithExpectedSize(sizes.size());
+    for (String key : sizes.keySet()) {
+      entries.add(root.resolve(key));
+    }
+    return entries.build();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (lockChannel == null) {
+      return;
+    }
+    try {
+      update(out -> {});
+    } finally {
+      closeChannels();
+    }
+  }
+
+  private static Object getProcessLock(Path root) {
+    return LOCKS_BY_INDEX.computeIfAbsent(
+        root.toAbsolutePath().normalize(), ignored -> new Object());
+  }
+
+  private String toKey(Path file) {
+    return root.relativize(file).toString();
+  }
+
+  /**
+   * Catches up with the records appended by other processes, then appends the records written by
+   * {@code change} and any pending accesses, all while holding the lock on the log.
+   */
+  private void update(LogChange change) throws IOException {
+    if (lockChannel == null) {
+      throw new IOException(String.format("Dir cache index at %s is closed", indexFile));
+    }
+    synchronized (processLock) {
+      try (FileLock ignored = lockChannel.lock()) {
+        boolean needsRewrite = catchUp();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        recordsWritten = 0L;
+        for (String key : pendingAccesses) {
+          Long size = sizes.get(key);
+          if (size != null) {
+            writePut(out, key, size);
+          }
+        }
+        pendingAccesses.clear();
+        change.write(out);
+        out.flush();
+
+        if (needsRewrite
+            || (recordsInLog >= MIN_RECORDS_TO_COMPACT
+                && recordsInLog > STALE_RECORDS_RATIO_TO_COMPACT * sizes.size())) {
+          rewriteLog();
+        } else if (bytes.size() > 0) {
+          append(bytes.toByteArray());
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the records that were appended to the log since this process last read it, replaying
+   * the whole log if it was replaced, or building the index from the cache contents if there is
+   * no usable log.
+   *
+   * @return whether the log has to be rewritten.
+   */
+  private boolean catchUp() throws IOException {
+    if (log != null && isCurrentLog()) {
+      return readRecords();
+    }
+
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+    sizes.clear();
+    totalSizeBytes = 0L;
+    recordsInLog = 0L;
+    try {
+      log = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      logGeneration = readHeader();
+      readPosition = HEADER_SIZE_BYTES;
+      return readRecords();
+    } catch (NoSuchFileException e) {
+      LOG.info("No index found for dir cache at %s, building it from the cache contents.", root);
+    } catch (IOException e) {
+      LOG.warn(e, "Dir cache index at %s is corrupt, rebuilding it.", root);
+    }
+    rebuild(filesInCache.get());
+    return true;
+  }
+
+  private boolean isCurrentLog() throws IOException {
+    try (InputStream fileStream = Files.newInputStream(indexFile);
+        DataInputStream in = new DataInputStream(fileStream)) {
+      return in.readInt() == MAGIC
+          && in.readInt() == FORMAT_VERSION
+          && in.readLong() == logGeneration;
+    } catch (NoSuchFileException | EOFException e) {
+      return false;
+    }
+  }
+
+  private long readHeader() throws IOException {
+    try (DataInputStream in = new DataInputStream(readLogFrom(0L))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unsupported dir cache index format");
+      }
+      return in.readLong();
+    }
+  }
+
+  /**
+   * Applies the records from {@link #readPosition} to the end of the log.
+   *
+   * @return whether the log has to be rewritten, e.g. because its last record was truncated.
+   */
+  private boolean readRecords() throws IOException {
+    try (CountingInputStream counting =
+            new CountingInputStream(new BufferedInputStream(readLogFrom(readPosition)));
+        DataInputStream in = new DataInputStream(counting)) {
+      while (true) {
+        long recordStart = readPosition + counting.getCount();
+        byte type;
+        try {
+          type = in.readByte();
+        } catch (EOFException e) {
+          readPosition = recordStart;
+          return false;
+        }
+        try {
+          String key = in.readUTF();
+          if (type == RECORD_PUT) {
+            long size = in.readLong();
+            Long previous = sizes.put(key, size);
+            if (previous != null) {
+              totalSizeBytes -= previous;
+            }
+            totalSizeBytes += size;
+          } else if (type == RECORD_REMOVE) {
+            Long previous = sizes.remove(key);
+            if (previous != null) {
+              totalSizeBytes -= previous;
+            }
+          } else {
+            throw new IOException(String.format("Unknown dir cache index record type %d", type));
+          }
+          recordsInLog++;
+        } catch (EOFException e) {
+          // A process died half way through writing the last record. Everything before it is
+          // still valid.
+          LOG.info("Dropping truncated record at the end of dir cache index at %s.", indexFile);
+          readPosition = recordStart;
+          return true;
+        }
+      }
+    }
+  }
+
+  private void rebuild(List<Path> filesInCache) throws IOException {
+    sizes.clear();
+    totalSizeBytes = 0L;
+
+    List<FileStats> stats = new ArrayList<>(filesInCache.size());
+    for (Path file : filesInCache) {
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        stats.add(
+            new FileStats(
+                toKey(file),
+                attributes.size(),
+                attributes.creationTime().toMillis(),
+                attributes.lastAccessTime().toMillis()));
+      } catch (NoSuchFileException e) {
+        // Deleted while we were building the index, nothing to track.
+      }
+    }
+    // Same ordering DirArtifactCache uses when trimming the cache without an index.
+    stats.sort(
+        (a, b) ->
+            ComparisonChain.start()
+                .compare(a.lastAccessMillis, b.lastAccessMillis)
+                .compare(a.creationMillis, b.creationMillis)
+                .result());
+    for (FileStats stat : stats) {
+      sizes.put(stat.key, stat.sizeBytes);
+      totalSizeBytes += stat.sizeBytes;
+    }
+  }
+
+  /**
+   * Atomically replaces the log with one holding a single record per live entry, under a new
+   * generation.
+   */
+  private void rewriteLog() throws IOException {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
+    long generation = GENERATIONS.nextLong();
+    Path tmp = root.resolve(INDEX_FILE_NAME + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeLong(generation);
+      for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+        writePut(out, entry.getKey(), entry.getValue());
+      }
+    }
+    Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    log = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    logGeneration = generation;
+    readPosition = log.size();
+    recordsInLog = sizes.size();
+  }
+
+  private void append(byte[] records) throws IOException {
+    FileChannel channel = getLog();
+    // Drop anything a crashed process left after the last complete record.
+    channel.truncate(readPosition);
+    ByteBuffer buffer = ByteBuffer.wrap(records);
+    long position = readPosition;
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    readPosition = position;
+    recordsInLog += recordsWritten;
+  }
+
+  private void writePut(DataOutputStream out, String key, long sizeBytes) throws IOException {
+    out.writeByte(RECORD_PUT);
+    out.writeUTF(key);
+    out.writeLong(sizeBytes);
+    recordsWritten++;
+  }
+
+  private void writeRemove(DataOutputStream out, String key) throws IOException {
+    out.writeByte(RECORD_REMOVE);
+    out.writeUTF(key);
+    recordsWritten++;
+  }
+
+  /**
+   * @return a stream over the log from {@code position}. Closing it leaves the log open, as it is
+   *     kept open for the lifetime of the index.
+   */
+  private InputStream readLogFrom(long position) throws IOException {
+    return new FilterInputStream(Channels.newInputStream(getLog().position(position))) {
+      @Override
+      public void close() {}
+    };
+  }
+
+  private FileChannel getLog() throws IOException {
+    if (log == null) {
+      throw new IOException(String.format("Dir cache index at %s is closed", indexFile));
+    }
+    return log;
+  }
+
+  private void closeChannels() throws IOException {
+    try {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+    } finally {
+      if (lockChannel != null) {
+        lockChannel.close();
+        lockChannel = null;
+      }
+    }
+  }
+
+  /** Writes records describing a change to the index, after applying it in memory. */
+  private interface LogChange {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private static class FileStats {
+    private final String key;
+    private final long sizeBytes;
+    private final long creationMillis;
+    private final long lastAccessMillis;
+
+    private FileStats(String key, long sizeBytes, long creationMillis, long lastAccessMillis) {
+      this.key = key;
+      this.sizeBytes = sizeBytes;
+      this.creationMillis = creationMillis;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+  }
+}
@@ -23,8 +23,12 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.slb.HttpResponse;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -34,6 +38,9 @@ import java.net.URLEncoder;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 import okhttp3.MediaType;
@@ -55,15 +62,20 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
 
   private final Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
+  private final int multiStoreLimit;
+  private final long multiStoreMaxSizeBytes;
 
   public HttpArtifactCache(NetworkCacheArgs args) {
     super(args);
     this.unconfiguredBuildTargetFactory = args.getUnconfiguredBuildTargetFactory();
     this.targetConfigurationSerializer = args.getTargetConfigurationSerializer();
+    this.multiStoreLimit = args.getMultiStoreLimit();
+    this.multiStoreMaxSizeBytes = args.getMultiStoreMaxSizeBytes();
   }
 
   @Override
-  protected FetchResult fetchImpl(@Nullable BuildTarget target, RuleKey ruleKey, LazyPath output)
+  protected FetchResult fetchImpl(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink)
       throws IOException {
     FetchResult.Builder resultBuilder = FetchResult.builder();
     Request.Builder requestBuilder = new Request.Builder().get();
@@ -94,19 +106,41 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
-        // Setup a temporary file, which sits next to the destination, to write to and
-        // make sure all parent dirs exist.
-        Path file = output.get();
-        getProjectFilesystem().createParentDirs(file);
-        Path temp =
-            getProjectFilesystem()
-                .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
-
+        // Offer the payload to the sink, if there is one, so that it can be unpacked while it is
+        // being downloaded. Otherwise, write it to a temporary file, which sits next to the
+        // destination.
+        AtomicBoolean streamed = new AtomicBoolean();
+        AtomicReference<Path> tempRef = new AtomicReference<>();
         FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
+        try {
           fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(
+                  input,
+                  (ruleKeys, metadata, payload) -> {
+                    if (sink.isPresent()
+                        && ruleKeys.contains(ruleKey)
+                        && sink.get().accept(metadata, payload)) {
+                      streamed.set(true);
+                      return;
+                    }
+                    Path file = output.get();
+                    getProjectFilesystem().createParentDirs(file);
+                    tempRef.set(
+                        getProjectFilesystem()
+                            .createTempFile(
+                                file.getParent(), file.getFileName().toString(), ".tmp"));
+                    try (OutputStream tempFileOutputStream =
+                        getProjectFilesystem().newFileOutputStream(tempRef.get())) {
+                      ByteStreams.copy(payload, tempFileOutputStream);
+                    }
+                  });
+        } catch (IOException e) {
+          if (streamed.get()) {
+            sink.get().discard();
+          }
+          throw e;
         }
+        Path temp = tempRef.get();
 
         resultBuilder
             .setBuildTarget(
@@ -121,6 +155,9 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
         if (!fetchedData.getRuleKeys().contains(ruleKey)) {
           String msg = "incorrect key name";
           reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+          if (streamed.get()) {
+            sink.get().discard();
+          }
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
@@ -129,12 +166,18 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
         if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
           String msg = "artifact had invalid checksum";
           reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          getProjectFilesystem().deleteFileAtPath(temp);
+          if (streamed.get()) {
+            sink.get().discard();
+          } else {
+            getProjectFilesystem().deleteFileAtPath(temp);
+          }
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
         // Finally, move the temp file into it's final place.
-        getProjectFilesystem().move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        if (!streamed.get()) {
+          getProjectFilesystem().move(temp, output.get(), StandardCopyOption.REPLACE_EXISTING);
+        }
 
         LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
         return resultBuilder
@@ -150,8 +193,49 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
   }
 
   @Override
-  protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys) {
-    throw new UnsupportedOperationException("multiContains is not supported");
+  protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    Request.Builder requestBuilder =
+        new Request.Builder()
+            .post(
+                RequestBody.create(
+                    OCTET_STREAM_CONTENT_TYPE,
+                    HttpArtifactCacheBinaryProtocol.createMultiContainsRequest(ruleKeys)));
+
+    try (HttpResponse response = fetchClient.makeRequest("/artifacts/contains", requestBuilder)) {
+      try (DataInputStream input =
+          new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+          throw new IOException(
+              String.format(
+                  "unexpected server response: [%d:%s]",
+                  response.statusCode(), response.statusMessage()));
+        }
+
+        ImmutableList<Boolean> containedKeys =
+            HttpArtifactCacheBinaryProtocol.readMultiContainsResponse(input);
+        if (containedKeys.size() != ruleKeys.size()) {
+          throw new IOException(
+              String.format(
+                  "expected %d results but got %d", ruleKeys.size(), containedKeys.size()));
+        }
+
+        ImmutableMap.Builder<RuleKey, CacheResult> results =
+            ImmutableMap.builderWithExpectedSize(ruleKeys.size());
+        int i = 0;
+        for (RuleKey ruleKey : ruleKeys) {
+          results.put(
+              ruleKey,
+              containedKeys.get(i++)
+                  ? CacheResult.contains(getName(), getMode())
+                  : CacheResult.miss());
+        }
+        return MultiContainsResult.builder()
+            .setResponseSizeBytes(response.contentLength())
+            .setCacheResults(results.build())
+            .build();
+      }
+    }
   }
 
   @Override
@@ -210,6 +294,99 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     return resultBuilder.build();
   }
 
+  @Override
+  protected int getMultiStoreLimit() {
+    return multiStoreLimit;
+  }
+
+  @Override
+  protected long getMultiStoreMaxSizeBytes() {
+    return multiStoreMaxSizeBytes;
+  }
+
+  @Override
+  protected MultiStoreResult multiStoreImpl(ImmutableList<Pair<ArtifactInfo, Path>> artifacts)
+      throws IOException {
+    ImmutableList.Builder<HttpArtifactCacheBinaryProtocol.StoreRequest> storeRequests =
+        ImmutableList.builderWithExpectedSize(artifacts.size());
+    for (Pair<ArtifactInfo, Path> artifact : artifacts) {
+      Path file = artifact.getSecond();
+      storeRequests.add(
+          new HttpArtifactCacheBinaryProtocol.StoreRequest(
+              artifact.getFirst(),
+              new ByteSource() {
+                @Override
+                public InputStream openStream() throws IOException {
+                  return getProjectFilesystem().newFileInputStream(file);
+                }
+              }));
+    }
+    ImmutableList<HttpArtifactCacheBinaryProtocol.StoreRequest> requests = storeRequests.build();
+    HttpArtifactCacheBinaryProtocol.MultiStoreRequest multiStoreRequest =
+        new HttpArtifactCacheBinaryProtocol.MultiStoreRequest(requests);
+
+    AtomicReference<ImmutableList<StoreWriteResult>> writeResults = new AtomicReference<>();
+    Request.Builder builder =
+        new Request.Builder()
+            .post(
+                new RequestBody() {
+                  @Override
+                  public MediaType contentType() {
+                    return OCTET_STREAM_CONTENT_TYPE;
+                  }
+
+                  @Override
+                  public long contentLength() {
+                    return multiStoreRequest.getContentLength();
+                  }
+
+                  @Override
+                  public void writeTo(BufferedSink bufferedSink) throws IOException {
+                    writeResults.set(multiStoreRequest.write(bufferedSink.outputStream()));
+                  }
+                });
+
+    try (HttpResponse response = storeClient.makeRequest("/artifacts/multi_store", builder)) {
+      try (DataInputStream input =
+          new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+          throw new IOException(
+              String.format(
+                  "unexpected server response: [%d:%s]",
+                  response.statusCode(), response.statusMessage()));
+        }
+
+        ImmutableList<Boolean> storedArtifacts =
+            HttpArtifactCacheBinaryProtocol.readMultiStoreResponse(input);
+        if (storedArtifacts.size() != artifacts.size()) {
+          throw new IOException(
+              String.format(
+                  "expected %d results but got %d", artifacts.size(), storedArtifacts.size()));
+        }
+        if (writeResults.get() == null) {
+          throw new IOException("the request body was never written, so nothing was stored");
+        }
+
+        MultiStoreResult.Builder result = MultiStoreResult.builder();
+        for (int i = 0; i < artifacts.size(); i++) {
+          if (!storedArtifacts.get(i)) {
+            reportFailureWithFormatKey(
+                "multiStore(%s, %s): artifact was not stored.",
+                response.requestUrl(), artifacts.get(i).getFirst().getRuleKeys());
+          }
+          result.addResults(
+              StoreResult.builder()
+                  .setRequestSizeBytes(requests.get(i).getContentLength())
+                  .setArtifactContentHash(
+                      writeResults.get().get(i).getArtifactContentHashCode().toString())
+                  .setWasStoreSuccessful(storedArtifacts.get(i))
+                  .build());
+        }
+        return result.build();
+      }
+    }
+  }
+
   @Override
   protected CacheDeleteResult deleteImpl(List<RuleKey> ruleKeys) {
     throw new RuntimeException("Delete operation is not yet supported");
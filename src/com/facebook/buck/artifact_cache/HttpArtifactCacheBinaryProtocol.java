@@ -22,6 +22,7 @@ import com.facebook.buck.util.hash.HasherInputStream;
 import com.facebook.buck.util.hash.HasherOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -30,10 +31,13 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -61,24 +65,144 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /**
+   * Reads a fetch response, handing the payload to {@code payloadReader} as it is read rather than
+   * copying it to a sink. The reader is called once the metadata header has been read, but before
+   * the checksum covering the payload can be verified, so callers must check the returned result
+   * before trusting anything the reader did with the payload.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, PayloadReader payloadReader) throws IOException {
+
+    MetadataAndPayloadReadResultInternal resultInternal =
+        readMetadataAndPayload(input, payloadReader);
+
+    FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
+    return result.build();
+  }
+
   public static StoreResponseReadResult readStoreRequest(
       DataInputStream input, OutputStream payloadSink) throws IOException {
-    ImmutableSet.Builder<RuleKey> rawRuleKeys = ImmutableSet.builder();
-    int ruleKeysCount = input.readInt();
-    for (int i = 0; i < ruleKeysCount; i++) {
-      rawRuleKeys.add(new RuleKey(input.readUTF()));
-    }
+    ImmutableSet<RuleKey> rawRuleKeys = readKeys(input);
 
     MetadataAndPayloadReadResultInternal resultInternal =
         readMetadataAndPayload(input, payloadSink);
 
     StoreResponseReadResult.Builder result = StoreResponseReadResult.builder().from(resultInternal);
-    result.setRawKeys(rawRuleKeys.build());
+    result.setRawKeys(rawRuleKeys);
     return result.build();
   }
 
+  /**
+   * Creates the body of a request asking which of the given keys the server has artifacts for. The
+   * keys are written the same way as the keys of a store request.
+   */
+  public static byte[] createMultiContainsRequest(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    return createKeysHeader(ruleKeys);
+  }
+
+  public static ImmutableSet<RuleKey> readMultiContainsRequest(DataInputStream input)
+      throws IOException {
+    return readKeys(input);
+  }
+
+  /**
+   * Creates the body of a response to a multi contains request: the number of keys, followed by a
+   * byte per key, in request order, which is 1 if the server has an artifact for the key.
+   */
+  public static byte[] createMultiContainsResponse(ImmutableList<Boolean> containedKeys)
+      throws IOException {
+    return createFlags(containedKeys);
+  }
+
+  public static ImmutableList<Boolean> readMultiContainsResponse(DataInputStream input)
+      throws IOException {
+    return readFlags(input);
+  }
+
+  /**
+   * Reads a multi store request: the number of artifacts, followed by the size and the contents of
+   * a store request for each of them. The store requests are handed to {@code reader} one by one.
+   */
+  public static void readMultiStoreRequest(DataInputStream input, StoreRequestReader reader)
+      throws IOException {
+    int count = input.readInt();
+    if (count < 0) {
+      throw new IOException(String.format("Invalid number of artifacts: %d.", count));
+    }
+    for (int i = 0; i < count; i++) {
+      long size = input.readLong();
+      if (size < 0) {
+        throw new IOException(String.format("Invalid store request size: %d.", size));
+      }
+      // The reader may close the stream it is given, which must not close the whole request.
+      try (DataInputStream storeRequest =
+          new DataInputStream(
+              new FilterInputStream(ByteStreams.limit(input, size)) {
+                @Override
+                public void close() {}
+              })) {
+        reader.read(storeRequest);
+        ByteStreams.exhaust(storeRequest);
+      }
+    }
+  }
+
+  /**
+   * Creates the body of a response to a multi store request: the number of artifacts, followed by
+   * a byte per artifact, in request order, which is 1 if the artifact was stored.
+   */
+  public static byte[] createMultiStoreResponse(ImmutableList<Boolean> storedArtifacts)
+      throws IOException {
+    return createFlags(storedArtifacts);
+  }
+
+  public static ImmutableList<Boolean> readMultiStoreResponse(DataInputStream input)
+      throws IOException {
+    return readFlags(input);
+  }
+
+  private static byte[] createFlags(ImmutableList<Boolean> flags) throws IOException {
+    try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out)) {
+      data.writeInt(flags.size());
+      for (boolean flag : flags) {
+        data.writeByte(flag ? 1 : 0);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  private static ImmutableList<Boolean> readFlags(DataInputStream input) throws IOException {
+    int size = input.readInt();
+    if (size < 0) {
+      throw new IOException(String.format("Invalid number of keys: %d.", size));
+    }
+    ImmutableList.Builder<Boolean> flags = ImmutableList.builderWithExpectedSize(size);
+    for (int i = 0; i < size; i++) {
+      flags.add(input.readByte() != 0);
+    }
+    return flags.build();
+  }
+
+  private static ImmutableSet<RuleKey> readKeys(DataInputStream input) throws IOException {
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    int ruleKeysCount = input.readInt();
+    for (int i = 0; i < ruleKeysCount; i++) {
+      ruleKeys.add(new RuleKey(input.readUTF()));
+    }
+    return ruleKeys.build();
+  }
+
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input, (ruleKeys, metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, PayloadReader payloadReader) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -90,6 +214,8 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -102,7 +228,7 @@ public class HttpArtifactCacheBinaryProtocol {
         // building up.
         int size = metadataIn.readInt();
         for (int i = 0; i < size; i++) {
-          result.addRuleKeys(new RuleKey(metadataIn.readUTF()));
+          ruleKeys.add(new RuleKey(metadataIn.readUTF()));
         }
 
         // Read in the actual metadata map, and add it the hash.
@@ -112,7 +238,7 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadata.put(key, new String(val, Charsets.UTF_8));
         }
       }
 
@@ -123,12 +249,20 @@ public class HttpArtifactCacheBinaryProtocol {
       result.setExpectedHashCode(HashCode.fromBytes(hashCodeBytes));
     }
 
-    // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    ImmutableSet<RuleKey> readRuleKeys = ruleKeys.build();
+    ImmutableMap<String, String> readMetadata = metadata.build();
+    result.setRuleKeys(readRuleKeys).setMetadata(readMetadata);
+
+    // The remaining data is the payload, which we hand to the reader, and also include in our
+    // verification checksum. Whatever the reader leaves unread is drained so that the checksum
+    // covers the whole payload.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload =
-        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+    try (CountingInputStream payload =
+        new CountingInputStream(
+            new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input)))) {
+      payloadReader.read(readRuleKeys, readMetadata, payload);
+      ByteStreams.exhaust(payload);
+      result.setResponseSizeBytes(payload.getCount());
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -226,6 +360,52 @@ public class HttpArtifactCacheBinaryProtocol {
     }
   }
 
+  /** Several store requests sent together in one request body. */
+  public static class MultiStoreRequest {
+    private final ImmutableList<StoreRequest> storeRequests;
+    private final long contentLength;
+
+    public MultiStoreRequest(ImmutableList<StoreRequest> storeRequests) {
+      this.storeRequests = storeRequests;
+      long length = Integer.SIZE / Byte.SIZE;
+      for (StoreRequest storeRequest : storeRequests) {
+        length += Long.SIZE / Byte.SIZE + storeRequest.getContentLength();
+      }
+      this.contentLength = length;
+    }
+
+    public long getContentLength() {
+      return contentLength;
+    }
+
+    /** @return the results of writing each of the store requests, in order. */
+    public ImmutableList<StoreWriteResult> write(OutputStream requestSink) throws IOException {
+      ImmutableList.Builder<StoreWriteResult> results =
+          ImmutableList.builderWithExpectedSize(storeRequests.size());
+      try (DataOutputStream dataOutputStream = new DataOutputStream(requestSink)) {
+        dataOutputStream.writeInt(storeRequests.size());
+        for (StoreRequest storeRequest : storeRequests) {
+          dataOutputStream.writeLong(storeRequest.getContentLength());
+          // Each store request closes the stream it writes to once it is done.
+          results.add(
+              storeRequest.write(
+                  new FilterOutputStream(dataOutputStream) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                      out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                      flush();
+                    }
+                  }));
+        }
+      }
+      return results.build();
+    }
+  }
+
   public static class FetchResponse {
     private final ByteSource payloadSource;
     private final byte[] rawMetadata;
@@ -254,6 +434,20 @@ public class HttpArtifactCacheBinaryProtocol {
     }
   }
 
+  /** Consumes one of the store requests of a multi store request. */
+  @FunctionalInterface
+  public interface StoreRequestReader {
+    void read(DataInputStream storeRequest) throws IOException;
+  }
+
+  /** Consumes the payload of a response once the metadata header preceding it has been read. */
+  @FunctionalInterface
+  public interface PayloadReader {
+    void read(
+        ImmutableSet<RuleKey> ruleKeys, ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException;
+  }
+
   abstract static class MetadataAndPayloadReadResult {
     public abstract ImmutableSet<RuleKey> getRuleKeys();
 
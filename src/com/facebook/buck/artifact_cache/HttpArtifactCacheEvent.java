@@ -292,6 +292,9 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
     Optional<String> getErrorMessage();
 
     ImmutableSet<RuleKey> getAssociatedRuleKeys();
+
+    /** Whether the fetch was answered locally by a {@link NegativeLookupFilter}. */
+    Optional<Boolean> wasNegativeLookupFilterHit();
   }
 
   @Value.Immutable
@@ -310,6 +313,9 @@ public abstract class HttpArtifactCacheEvent extends ArtifactCacheEvent {
     Optional<String> getErrorMessage();
 
     StoreType getStoreType();
+
+    /** The number of artifacts uploaded by the same request, if there were several. */
+    Optional<Integer> getBatchSize();
   }
 
   static class MultiFetchStarted extends Started {
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Decorator that keeps small artifacts that go through the wrapped cache in a {@link
+ * MemoryArtifactCacheStore}, so that repeated fetches of them don't touch the disk or the network.
+ *
+ * <p>Artifacts are added to the store when they are stored, and when they are fetched from the
+ * wrapped cache. Fetches served from memory are reported with {@link ArtifactCacheMode#memory}.
+ */
+public class MemoryArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+  private static final Logger LOG = Logger.get(MemoryArtifactCacheDecorator.class);
+
+  private static final String CACHE_NAME = "memory";
+
+  private final ArtifactCache delegate;
+  private final MemoryArtifactCacheStore store;
+
+  public MemoryArtifactCacheDecorator(ArtifactCache delegate, MemoryArtifactCacheStore store) {
+    this.delegate = delegate;
+    this.store = store;
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetch(target, ruleKey, output, Optional.empty());
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetch(target, ruleKey, output, Optional.of(sink));
+  }
+
+  private ListenableFuture<CacheResult> fetch(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<ArtifactSink> sink) {
+    Optional<MemoryArtifactCacheStore.Entry> entry = store.get(ruleKey);
+    if (entry.isPresent()) {
+      try {
+        return Futures.immediateFuture(fetchFromMemory(entry.get(), output, sink));
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to fetch %s from memory, falling back to the wrapped cache.", ruleKey);
+        store.remove(ruleKey);
+      }
+    }
+
+    if (!sink.isPresent()) {
+      return Futures.transform(
+          delegate.fetchAsync(target, ruleKey, output),
+          result -> {
+            if (result.getType() == CacheResultType.HIT) {
+              addFetchedArtifact(ruleKey, result, output);
+            }
+            return result;
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    CapturingSink capturingSink = new CapturingSink(sink.get());
+    return Futures.transform(
+        delegate.fetchAsync(target, ruleKey, output, capturingSink),
+        result -> {
+          if (result.getType() == CacheResultType.HIT) {
+            Optional<byte[]> captured = capturingSink.getCapturedPayload();
+            if (captured.isPresent()) {
+              store.put(
+                  ruleKey,
+                  new MemoryArtifactCacheStore.Entry(result.getMetadata(), captured.get()));
+            } else if (!capturingSink.wasAccepted()) {
+              addFetchedArtifact(ruleKey, result, output);
+            }
+          }
+          return result;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private CacheResult fetchFromMemory(
+      MemoryArtifactCacheStore.Entry entry, LazyPath output, Optional<ArtifactSink> sink)
+      throws IOException {
+    byte[] payload = entry.getPayload();
+    if (!sink.isPresent()
+        || !sink.get().accept(entry.getMetadata(), new ByteArrayInputStream(payload))) {
+      Path outputPath = output.get();
+      Files.createDirectories(outputPath.getParent());
+      Files.write(outputPath, payload);
+    }
+    return CacheResult.hit(
+        CACHE_NAME, ArtifactCacheMode.memory, entry.getMetadata(), payload.length);
+  }
+
+  private void addFetchedArtifact(RuleKey ruleKey, CacheResult result, LazyPath output) {
+    Optional<Long> sizeBytes = result.artifactSizeBytes();
+    if (sizeBytes.isPresent() && !store.accepts(sizeBytes.get())) {
+      return;
+    }
+    try {
+      Optional<byte[]> payload = readIfSmallEnough(output.get());
+      if (payload.isPresent()) {
+        store.put(ruleKey, new MemoryArtifactCacheStore.Entry(result.getMetadata(), payload.get()));
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to read fetched artifact %s into memory.", ruleKey);
+    }
+  }
+
+  private Optional<byte[]> readIfSmallEnough(Path path) throws IOException {
+    if (!store.accepts(Files.size(path))) {
+      return Optional.empty();
+    }
+    return Optional.of(Files.readAllBytes(path));
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    if (getCacheReadMode().isWritable()) {
+      // Read the artifact before handing it over, as the delegate is allowed to move it.
+      try {
+        Optional<byte[]> payload = readIfSmallEnough(output.getPath());
+        if (payload.isPresent()) {
+          MemoryArtifactCacheStore.Entry entry =
+              new MemoryArtifactCacheStore.Entry(info.getMetadata(), payload.get());
+          for (RuleKey ruleKey : info.getRuleKeys()) {
+            store.put(ruleKey, entry);
+          }
+        }
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to read stored artifact %s into memory.", info.getRuleKeys());
+      }
+    }
+    return delegate.store(info, output);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, CacheResult> inMemory = ImmutableMap.builder();
+    ImmutableSet.Builder<RuleKey> remaining = ImmutableSet.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      if (store.contains(ruleKey)) {
+        inMemory.put(ruleKey, CacheResult.contains(CACHE_NAME, ArtifactCacheMode.memory));
+      } else {
+        remaining.add(ruleKey);
+      }
+    }
+
+    ImmutableSet<RuleKey> remainingKeys = remaining.build();
+    if (remainingKeys.isEmpty()) {
+      return Futures.immediateFuture(inMemory.build());
+    }
+    return Futures.transform(
+        delegate.multiContainsAsync(remainingKeys),
+        results -> inMemory.putAll(results).build(),
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    for (RuleKey ruleKey : ruleKeys) {
+      store.remove(ruleKey);
+    }
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    LOG.debug(
+        "Memory cache holds %d artifacts (%d bytes) after %d hits, %d misses and %d evictions.",
+        store.getEntryCount(),
+        store.getSizeBytes(),
+        store.getHitCount(),
+        store.getMissCount(),
+        store.getEvictionCount());
+    delegate.close();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Forwards payloads to another sink, keeping a copy of the ones that are small enough to be held
+   * in memory.
+   */
+  private class CapturingSink implements ArtifactSink {
+    private final ArtifactSink delegateSink;
+    @Nullable private byte[] capturedPayload;
+    private boolean accepted;
+
+    CapturingSink(ArtifactSink delegateSink) {
+      this.delegateSink = delegateSink;
+    }
+
+    @Override
+    public synchronized boolean accept(
+        ImmutableMap<String, String> metadata, InputStream payload) throws IOException {
+      CapturingInputStream capturingStream = new CapturingInputStream(payload);
+      if (!delegateSink.accept(metadata, capturingStream)) {
+        return false;
+      }
+      try {
+        // The sink may not have read all the way to the end of the payload.
+        ByteStreams.exhaust(capturingStream);
+      } catch (IOException e) {
+        delegateSink.discard();
+        throw e;
+      }
+      capturedPayload = capturingStream.getCapturedBytes().orElse(null);
+      accepted = true;
+      return true;
+    }
+
+    @Override
+    public synchronized void discard() {
+      capturedPayload = null;
+      accepted = false;
+      delegateSink.discard();
+    }
+
+    synchronized boolean wasAccepted() {
+      return accepted;
+    }
+
+    synchronized Optional<byte[]> getCapturedPayload() {
+      return Optional.ofNullable(capturedPayload);
+    }
+  }
+
+  /** Copies the bytes read through it, until there are too many to be held in memory. */
+  private class CapturingInputStream extends FilterInputStream {
+    @Nullable private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+    CapturingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1 && captured != null) {
+        captured.write(b);
+        checkCapturedSize();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0 && captured != null) {
+        captured.write(b, off, read);
+        checkCapturedSize();
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes can't be captured, so stop capturing.
+      captured = null;
+      return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() {
+      // The stream is owned by the wrapped cache.
+    }
+
+    private void checkCapturedSize() {
+      if (captured != null && !store.accepts(captured.size())) {
+        captured = null;
+      }
+    }
+
+    Optional<byte[]> getCapturedBytes() {
+      return Optional.ofNullable(captured).map(ByteArrayOutputStream::toByteArray);
+    }
+  }
+}
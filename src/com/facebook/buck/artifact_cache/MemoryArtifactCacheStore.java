@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Byte-bounded, least recently used store of small artifacts, backing {@link
+ * MemoryArtifactCacheDecorator}.
+ *
+ * <p>The store is meant to outlive a single command, so that artifacts stored or fetched by one
+ * build in the daemon can be served from memory to the next one.
+ */
+public class MemoryArtifactCacheStore {
+
+  /** An artifact held in memory. */
+  public static class Entry {
+    private final ImmutableMap<String, String> metadata;
+    private final byte[] payload;
+
+    public Entry(ImmutableMap<String, String> metadata, byte[] payload) {
+      this.metadata = metadata;
+      this.payload = payload;
+    }
+
+    public ImmutableMap<String, String> getMetadata() {
+      return metadata;
+    }
+
+    /** @return the artifact contents. Callers must not modify the returned array. */
+    public byte[] getPayload() {
+      return payload;
+    }
+
+    long getSizeBytes() {
+      long size = payload.length;
+      for (Map.Entry<String, String> entry : metadata.entrySet()) {
+        size += 2L * (entry.getKey().length() + entry.getValue().length());
+      }
+      return size;
+    }
+  }
+
+  private final long maxSizeBytes;
+  private final long maxEntrySizeBytes;
+
+  // Access ordered, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<RuleKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long sizeBytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  public MemoryArtifactCacheStore(long maxSizeBytes, long maxEntrySizeBytes) {
+    Preconditions.checkArgument(maxSizeBytes >= 0, "maxSizeBytes must not be negative");
+    Preconditions.checkArgument(maxEntrySizeBytes >= 0, "maxEntrySizeBytes must not be negative");
+    this.maxSizeBytes = maxSizeBytes;
+    this.maxEntrySizeBytes = Math.min(maxSizeBytes, maxEntrySizeBytes);
+  }
+
+  /** @return whether an artifact of the given size can be held by this store. */
+  public boolean accepts(long artifactSizeBytes) {
+    return artifactSizeBytes <= maxEntrySizeBytes;
+  }
+
+  public synchronized Optional<Entry> get(RuleKey ruleKey) {
+    Entry entry = entries.get(ruleKey);
+    if (entry == null) {
+      misses++;
+      return Optional.empty();
+    }
+    hits++;
+    return Optional.of(entry);
+  }
+
+  public synchronized boolean contains(RuleKey ruleKey) {
+    return entries.containsKey(ruleKey);
+  }
+
+  /**
+   * Adds an artifact to the store, evicting the least recently used artifacts to make room for it.
+   * Artifacts that are too big for the store are ignored.
+   */
+  public synchronized void put(RuleKey ruleKey, Entry entry) {
+    long entrySizeBytes = entry.getSizeBytes();
+    if (!accepts(entrySizeBytes)) {
+      return;
+    }
+    remove(ruleKey);
+    entries.put(ruleKey, entry);
+    sizeBytes += entrySizeBytes;
+
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      sizeBytes -= iterator.next().getSizeBytes();
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized void remove(RuleKey ruleKey) {
+    Entry removed = entries.remove(ruleKey);
+    if (removed != null) {
+      sizeBytes -= removed.getSizeBytes();
+    }
+  }
+
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+
+/** Reports how the in-memory cache tier was used by a command. */
+public class MemoryArtifactCacheSummaryEvent extends AbstractBuckEvent {
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final int entryCount;
+  private final long sizeBytes;
+
+  private MemoryArtifactCacheSummaryEvent(
+      EventKey eventKey,
+      long hitCount,
+      long missCount,
+      long evictionCount,
+      int entryCount,
+      long sizeBytes) {
+    super(eventKey);
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.entryCount = entryCount;
+    this.sizeBytes = sizeBytes;
+  }
+
+  public static MemoryArtifactCacheSummaryEvent newSummary(
+      long hitCount, long missCount, long evictionCount, int entryCount, long sizeBytes) {
+    return new MemoryArtifactCacheSummaryEvent(
+        EventKey.unique(), hitCount, missCount, evictionCount, entryCount, sizeBytes);
+  }
+
+  /** @return the number of fetches served from memory during the command. */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /** @return the number of fetches that had to go to the wrapped cache during the command. */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /** @return the number of artifacts dropped from memory to make room during the command. */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** @return the number of artifacts held in memory at the end of the command. */
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /** @return the size of the artifacts held in memory at the end of the command. */
+  public long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format(
+        "hits=%d misses=%d evictions=%d entries=%d size=%d",
+        hitCount, missCount, evictionCount, entryCount, sizeBytes);
+  }
+
+  @Override
+  public String getEventName() {
+    return "MemoryArtifactCacheSummary";
+  }
+}
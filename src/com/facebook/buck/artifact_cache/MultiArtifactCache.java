@@ -68,10 +68,28 @@ public class MultiArtifactCache implements ArtifactCache {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetch(target, ruleKey, output, Optional.empty());
+  }
+
+  /**
+   * Like {@link #fetchAsync(BuildTarget, RuleKey, LazyPath)}, but streams the artifact into sink
+   * when it is found in a cache that has no writable caches in front of it. Artifacts that need to
+   * be propagated to other caches are always saved to output.
+   */
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetch(target, ruleKey, output, Optional.of(sink));
+  }
+
+  private ListenableFuture<CacheResult> fetch(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink) {
     ListenableFuture<CacheResult> cacheResult = Futures.immediateFuture(CacheResult.miss());
     AtomicReference<ArtifactCache> lastCache = new AtomicReference<>();
 
+    boolean canStream = sink.isPresent();
     for (ArtifactCache artifactCache : artifactCaches) {
+      boolean streamFromThisCache = canStream;
       cacheResult =
           Futures.transformAsync(
               cacheResult,
@@ -81,9 +99,12 @@ public class MultiArtifactCache implements ArtifactCache {
                 }
 
                 lastCache.set(artifactCache);
-                return artifactCache.fetchAsync(target, ruleKey, output);
+                return streamFromThisCache
+                    ? artifactCache.fetchAsync(target, ruleKey, output, sink.get())
+                    : artifactCache.fetchAsync(target, ruleKey, output);
               },
               MoreExecutors.directExecutor());
+      canStream &= !artifactCache.getCacheReadMode().isWritable();
     }
 
     // Propagate the artifact to previous writable caches.
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the rule keys a remote cache reported as missing, so that later lookups of the same
+ * keys can be answered locally instead of costing another round-trip.
+ *
+ * <p>The filter is exact and only learns from the responses of the cache it is attached to, so it
+ * never turns a hit into a miss for a key the cache has not already reported missing. Keys that
+ * are stored to, or found in, the cache are forgotten again. Filters are kept by the daemon across
+ * commands (see {@link NegativeLookupFilters}), so a miss is also forgotten after {@code maxAge},
+ * in case another machine uploaded the artifact since. Fetches answered by the filter are flagged
+ * in the {@link HttpArtifactCacheEvent}s of the cache and counted in the cache summary.
+ */
+public class NegativeLookupFilter {
+  private static final Logger LOG = Logger.get(NegativeLookupFilter.class);
+
+  private final int maxKnownMisses;
+  private final long maxAgeSeconds;
+  private final Cache<RuleKey, Boolean> knownMisses;
+
+  public NegativeLookupFilter(int maxKnownMisses, long maxAgeSeconds) {
+    this(maxKnownMisses, maxAgeSeconds, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  NegativeLookupFilter(int maxKnownMisses, long maxAgeSeconds, Ticker ticker) {
+    Preconditions.checkArgument(maxKnownMisses >= 0, "maxKnownMisses must not be negative");
+    Preconditions.checkArgument(maxAgeSeconds >= 0, "maxAgeSeconds must not be negative");
+    this.maxKnownMisses = maxKnownMisses;
+    this.maxAgeSeconds = maxAgeSeconds;
+    this.knownMisses =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxKnownMisses)
+            .expireAfterWrite(maxAgeSeconds, TimeUnit.SECONDS)
+            .ticker(ticker)
+            .build();
+  }
+
+  /**
+   * Checks the given keys against the cache in batches of {@code batchSize}, so that the filters of
+   * the caches behind it learn the misses before the keys are fetched one by one.
+   *
+   * @return the results of all batches. A batch that failed is {@code null}.
+   */
+  public static ListenableFuture<List<ImmutableMap<RuleKey, CacheResult>>> warmUp(
+      ArtifactCache cache, Iterable<RuleKey> ruleKeys, int batchSize) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+    List<ListenableFuture<ImmutableMap<RuleKey, CacheResult>>> batches = new ArrayList<>();
+    for (List<RuleKey> batch : Iterables.partition(ruleKeys, batchSize)) {
+      batches.add(cache.multiContainsAsync(ImmutableSet.copyOf(batch)));
+    }
+    LOG.debug("Warming up negative lookup filters with %d batches.", batches.size());
+    return Futures.successfulAsList(batches);
+  }
+
+  /** @return whether the cache is known not to have an artifact for the given key. */
+  public boolean isKnownMiss(RuleKey ruleKey) {
+    return knownMisses.getIfPresent(ruleKey) != null;
+  }
+
+  /** Updates the filter with the result the cache returned for the given key. */
+  public void recordResult(RuleKey ruleKey, CacheResult result) {
+    if (result.getType() == CacheResultType.MISS) {
+      knownMisses.put(ruleKey, true);
+    } else if (result.getType().isSuccess()) {
+      knownMisses.invalidate(ruleKey);
+    }
+  }
+
+  /** Forgets that the given keys were missing, e.g. because artifacts were stored for them. */
+  public void recordPresent(Iterable<RuleKey> ruleKeys) {
+    knownMisses.invalidateAll(ruleKeys);
+  }
+
+  /** @return whether the filter was created with the given settings. */
+  boolean hasSettings(int maxKnownMisses, long maxAgeSeconds) {
+    return this.maxKnownMisses == maxKnownMisses && this.maxAgeSeconds == maxAgeSeconds;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link NegativeLookupFilter}s of the remote caches, kept by the daemon so that the misses a
+ * cache reported during one command still save round-trips in the next one.
+ */
+public class NegativeLookupFilters {
+  private final ConcurrentMap<String, NegativeLookupFilter> filters = new ConcurrentHashMap<>();
+
+  /**
+   * @return the filter for the remote cache at {@code url}. A filter created with different
+   *     settings is replaced by a new, empty one.
+   */
+  public NegativeLookupFilter getFilter(
+      ArtifactCacheMode mode, URI url, int maxKnownMisses, long maxAgeSeconds) {
+    return filters.compute(
+        mode + " " + url,
+        (key, filter) ->
+            filter != null && filter.hasSettings(maxKnownMisses, maxAgeSeconds)
+                ? filter
+                : new NegativeLookupFilter(maxKnownMisses, maxAgeSeconds));
+  }
+}
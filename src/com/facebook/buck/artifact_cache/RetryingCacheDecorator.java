@@ -36,6 +36,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
@@ -63,8 +64,19 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetchWithRetries(ruleKey, () -> delegate.fetchAsync(target, ruleKey, output));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetchWithRetries(ruleKey, () -> delegate.fetchAsync(target, ruleKey, output, sink));
+  }
+
+  private ListenableFuture<CacheResult> fetchWithRetries(
+      RuleKey ruleKey, Supplier<ListenableFuture<CacheResult>> fetch) {
     List<String> allCacheErrors = new ArrayList<>();
-    ListenableFuture<CacheResult> resultFuture = delegate.fetchAsync(target, ruleKey, output);
+    ListenableFuture<CacheResult> resultFuture = fetch.get();
     for (int retryCount = 1; retryCount < maxFetchRetries; retryCount++) {
       int retryCountForLambda = retryCount;
       resultFuture =
@@ -78,7 +90,7 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
                 LOG.info(
                     "Failed to fetch %s after %d/%d attempts, exception: %s",
                     ruleKey, retryCountForLambda + 1, maxFetchRetries, result.cacheError());
-                return delegate.fetchAsync(target, ruleKey, output);
+                return fetch.get();
               });
     }
     return Futures.transform(
@@ -29,12 +29,16 @@ import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.file.MostFiles;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.function.ThrowingFunction;
+import com.facebook.buck.util.function.ThrowingSupplier;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Functions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -42,7 +46,9 @@ import com.google.common.hash.HashCode;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -64,7 +70,14 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -75,6 +88,10 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>The database runs in WAL mode, so lookups go through a pool of read-only connections and never
+ * wait for writes. All writes go through a single connection owned by a dedicated writer thread.
+ * Access times are only used for eviction, so they are coalesced in memory and written in batches.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -86,6 +103,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  private static final int DEFAULT_READ_CONNECTIONS =
+      Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+  // Number of distinct accessed keys after which their access times are written out.
+  private static final int ACCESS_TIME_FLUSH_THRESHOLD = 256;
+  private static final long WRITER_SHUTDOWN_TIMEOUT_SECONDS = 30;
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -97,6 +119,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final CacheReadMode cacheMode;
 
   private final ConnectionInfo db;
+  private final ReaderPool readers;
+  private final ListeningExecutorService writer;
+
+  private final Set<RuleKey> pendingMetadataAccesses = ConcurrentHashMap.newKeySet();
+  private final Set<RuleKey> pendingContentAccesses = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean accessTimeFlushScheduled = new AtomicBoolean(false);
 
   static {
     SQLiteUtils.initialize();
@@ -136,6 +164,15 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     this.db = new ConnectionInfo(cacheDir);
+    this.readers = new ReaderPool(cacheDir, DEFAULT_READ_CONNECTIONS);
+    this.writer =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("SQLiteArtifactCache writer-%d")
+                    // Don't keep the process alive if the cache is never closed.
+                    .setDaemon(true)
+                    .build()));
   }
 
   @Override
@@ -171,7 +208,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
-      Optional<Content> content = db.selectContent(contentHash);
+      Optional<Content> content = readers.run(reader -> reader.selectContent(contentHash));
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
         String filepath = content.get().filepath;
@@ -184,12 +221,16 @@ public class SQLiteArtifactCache implements ArtifactCache {
           filesystem.copyFile(filesystem.resolve(filepath), output.get());
         } else {
           // artifact stored on disk was removed by another cache, remove database entry
-          db.deleteContent(contentHash);
+          write(
+              () -> {
+                db.deleteContent(contentHash);
+                return null;
+              });
           return result = CacheResult.miss();
         }
 
         long size = content.get().size;
-        db.accessContent(contentHash);
+        recordAccess(pendingContentAccesses, contentHash);
 
         return result = CacheResult.hit(name, CACHE_MODE, ImmutableMap.of(), size);
       }
@@ -214,9 +255,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
-      Optional<byte[]> metadata = db.selectMetadata(ruleKey);
+      Optional<byte[]> metadata = readers.run(reader -> reader.selectMetadata(ruleKey));
       if (metadata.isPresent()) {
-        db.accessMetadata(ruleKey);
+        recordAccess(pendingMetadataAccesses, ruleKey);
         output.get(); // for MultiArtifactCache, force evaluation of the output path
 
         return result = CacheResult.hit(name, CACHE_MODE, unmarshalMetadata(metadata.get()), 0);
@@ -280,7 +321,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
 
     try {
-      db.storeMetadata(info.getRuleKeys(), marshalMetadata(metadata));
+      byte[] data = marshalMetadata(metadata);
+      write(
+          () -> {
+            db.storeMetadata(info.getRuleKeys(), data);
+            return null;
+          });
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Metadata store(%s) error", info.getRuleKeys());
     }
@@ -299,7 +345,12 @@ public class SQLiteArtifactCache implements ArtifactCache {
       long size = filesystem.getFileSize(content.getPath());
       if (size <= maxInlinedBytes) {
         // artifact is small enough to inline in the database
-        db.storeArtifact(toStore, Files.readAllBytes(content.getPath()), size);
+        byte[] artifact = Files.readAllBytes(content.getPath());
+        write(
+            () -> {
+              db.storeArtifact(toStore, artifact, size);
+              return null;
+            });
       } else if (!toStore.isEmpty()) {
         // artifact is too large to inline, store on disk and put path in database
         Path artifactPath = getArtifactPath(toStore.iterator().next());
@@ -311,7 +362,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
           storeArtifactOutput(content.getPath(), artifactPath);
         }
 
-        db.storeFilepath(toStore, artifactPath.toString(), size);
+        write(
+            () -> {
+              db.storeFilepath(toStore, artifactPath.toString(), size);
+              return null;
+            });
       }
     } catch (IOException | SQLException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", contentHashes, content);
@@ -325,13 +380,14 @@ public class SQLiteArtifactCache implements ArtifactCache {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
     for (RuleKey contentHash : contentHashes) {
       // if the content already exists in the cache, skip it
-      Optional<Content> existingArtifact = db.selectContent(contentHash);
+      Optional<Content> existingArtifact =
+          readers.run(reader -> reader.selectContent(contentHash));
       if (existingArtifact.isPresent()) {
         byte[] inlined = existingArtifact.get().artifact;
         String artifactPath = existingArtifact.get().filepath;
 
         if (Objects.nonNull(inlined) || filesystem.exists(filesystem.resolve(artifactPath))) {
-          db.accessContent(contentHash);
+          recordAccess(pendingContentAccesses, contentHash);
           continue;
         }
       }
@@ -398,18 +454,80 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
-  /** Removes metadata older than a computed eviction time. */
-  @VisibleForTesting
-  ListenableFuture<Void> removeOldMetadata() {
-    Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
+  /**
+   * Notes that {@code key} was accessed, scheduling a batched update of access times on the writer
+   * thread once enough accesses have accumulated.
+   */
+  private void recordAccess(Set<RuleKey> pendingAccesses, RuleKey key) {
+    pendingAccesses.add(key);
+    if (pendingMetadataAccesses.size() + pendingContentAccesses.size()
+            >= ACCESS_TIME_FLUSH_THRESHOLD
+        && accessTimeFlushScheduled.compareAndSet(false, true)
+        && !writer.isShutdown()) {
+      try {
+        writer.submit(this::flushAccessTimes);
+      } catch (RejectedExecutionException e) {
+        // The cache is being closed, which flushes the access times recorded so far. Losing the
+        // ones of the fetches racing with it only makes their entries look a little older.
+        LOG.debug("Dropping access time update of closed SQLite cache");
+      }
+    }
+  }
+
+  /** Writes all pending access times. Must only be called on the writer thread. */
+  private void flushAccessTimes() {
+    accessTimeFlushScheduled.set(false);
     try {
-      int deleted = db.deleteMetadata(evictionTime);
-      LOG.verbose("Removed %d metadata rows not accessed since %s", deleted, evictionTime);
+      db.updateAccessTimes(drain(pendingMetadataAccesses), drain(pendingContentAccesses));
     } catch (SQLException e) {
-      LOG.error(e, "Failed to clean database");
+      LOG.warn(e, "Failed to update access times");
     }
+  }
 
-    return Futures.immediateFuture(null);
+  private static ImmutableSet<RuleKey> drain(Set<RuleKey> keys) {
+    ImmutableSet.Builder<RuleKey> drained = ImmutableSet.builder();
+    for (RuleKey key : keys) {
+      if (keys.remove(key)) {
+        drained.add(key);
+      }
+    }
+    return drained.build();
+  }
+
+  /** Runs {@code operation} on the writer thread and waits for it to finish. */
+  private <T> T write(ThrowingSupplier<T, SQLException> operation) throws SQLException {
+    if (writer.isShutdown()) {
+      throw new SQLException("SQLite cache has been closed");
+    }
+    try {
+      return writer.submit(operation::get).get();
+    } catch (RejectedExecutionException e) {
+      throw new SQLException("SQLite cache has been closed", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for SQLite cache write", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), SQLException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new SQLException(e.getCause());
+    }
+  }
+
+  /** Removes metadata older than a computed eviction time. */
+  @VisibleForTesting
+  ListenableFuture<Void> removeOldMetadata() {
+    return writer.submit(
+        () -> {
+          flushAccessTimes();
+          Timestamp evictionTime = Timestamp.from(Instant.now().minus(DEFAULT_EVICTION_TIME));
+          try {
+            int deleted = db.deleteMetadata(evictionTime);
+            LOG.verbose("Removed %d metadata rows not accessed since %s", deleted, evictionTime);
+          } catch (SQLException e) {
+            LOG.error(e, "Failed to clean database");
+          }
+          return null;
+        });
   }
 
   /** Deletes files that haven't been accessed recently from the directory cache. */
@@ -419,15 +537,24 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return Futures.immediateFuture(null);
     }
 
+    return writer.submit(
+        () -> {
+          flushAccessTimes();
+          removeOldContentOnWriter();
+          return null;
+        });
+  }
+
+  private void removeOldContentOnWriter() {
     long totalSizeBytes;
     try {
       totalSizeBytes = db.totalSize();
       if (totalSizeBytes <= maxCacheSizeBytes.get()) {
-        return Futures.immediateFuture(null);
+        return;
       }
     } catch (SQLException e) {
       LOG.error(e, "Failed to find total artifact size.");
-      return Futures.immediateFuture(null);
+      return;
     }
 
     try {
@@ -444,8 +571,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
     } catch (IOException | SQLException e) {
       LOG.error(e, "Failed to clean path [%s].", filesystem.resolve(cacheDir));
     }
-
-    return Futures.immediateFuture(null);
   }
 
   @Override
@@ -461,6 +586,17 @@ public class SQLiteArtifactCache implements ArtifactCache {
       LOG.error("Failed to clean SQLite cache");
     }
 
+    // Access times recorded since the last flush still need to make it to the database.
+    writer.submit(this::flushAccessTimes);
+    try {
+      if (!MostExecutors.shutdown(writer, WRITER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Timed out waiting for SQLite cache writes to finish");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    readers.close();
     db.close();
   }
 
@@ -539,12 +675,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return keys.build();
   }
 
+  /**
+   * Read-write connection to the cache database. Apart from test utilities, it must only be used
+   * from the writer thread.
+   */
   private static class ConnectionInfo {
     private final Connection connection;
 
-    private final PreparedStatement fetchMetadata;
-    private final PreparedStatement fetchContent;
-
     private final PreparedStatement updateMetadataTime;
     private final PreparedStatement updateContentTime;
 
@@ -561,12 +698,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
     private final PreparedStatement contentSize;
 
     private ConnectionInfo(Path cacheDir) throws SQLException {
-      // date format must be set to match CURRENT_TIMESTAMP
-      Properties properties = new SQLiteConfig().toProperties();
-      properties.setProperty(
-          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
-          DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+      connection = openConnection(cacheDir, new SQLiteConfig());
       connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
       connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
 
@@ -602,11 +734,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
                   + "OR artifact ISNULL AND filepath NOT NULL)) "
                   + "WITHOUT ROWID");
 
-      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
-      fetchContent =
-          connection.prepareStatement(
-              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
-
       updateMetadataTime =
           connection.prepareStatement(
               "UPDATE metadata SET accessed = CURRENT_TIMESTAMP WHERE rulekey = ?");
@@ -638,31 +765,36 @@ public class SQLiteArtifactCache implements ArtifactCache {
       BusyHandler.setHandler(connection, new RetryBusyHandler());
     }
 
-    private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
-      fetchMetadata.setBytes(1, getBytes(ruleKey));
-      ResultSet rs = fetchMetadata.executeQuery();
-      return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
-    }
-
-    private synchronized Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
-      fetchContent.setBytes(1, getBytes(contentHash));
-      ResultSet rs = fetchContent.executeQuery();
-      return rs.next()
-          ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
-          : Optional.empty();
-    }
-
-    private synchronized void accessMetadata(RuleKey ruleKey) throws SQLException {
-      updateMetadataTime.setBytes(1, getBytes(ruleKey));
-      updateMetadataTime.executeUpdate();
-    }
+    /** Updates the access times of all the given keys in a single transaction. */
+    private void updateAccessTimes(
+        ImmutableSet<RuleKey> ruleKeys, ImmutableSet<RuleKey> contentHashes)
+        throws SQLException {
+      if (ruleKeys.isEmpty() && contentHashes.isEmpty()) {
+        return;
+      }
 
-    private synchronized void accessContent(RuleKey contentHash) throws SQLException {
-      updateContentTime.setBytes(1, getBytes(contentHash));
-      updateContentTime.executeUpdate();
+      connection.setAutoCommit(false);
+      try {
+        for (RuleKey ruleKey : ruleKeys) {
+          updateMetadataTime.setBytes(1, getBytes(ruleKey));
+          updateMetadataTime.addBatch();
+        }
+        updateMetadataTime.executeBatch();
+        for (RuleKey contentHash : contentHashes) {
+          updateContentTime.setBytes(1, getBytes(contentHash));
+          updateContentTime.addBatch();
+        }
+        updateContentTime.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
     }
 
-    private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
+    private void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
         throws SQLException {
       for (RuleKey ruleKey : ruleKeys) {
         storeMetadata.setBytes(1, getBytes(ruleKey));
@@ -672,7 +804,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
       storeMetadata.executeBatch();
     }
 
-    private synchronized void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
+    private void storeArtifact(Iterable<RuleKey> hashes, byte[] artifact, long size)
         throws SQLException {
       for (RuleKey contentHash : hashes) {
         storeArtifact.setBytes(1, getBytes(contentHash));
@@ -683,7 +815,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
       storeArtifact.executeBatch();
     }
 
-    private synchronized void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
+    private void storeFilepath(Iterable<RuleKey> ruleKeys, String filepath, long size)
         throws SQLException {
       for (RuleKey ruleKey : ruleKeys) {
         storeFilepath.setBytes(1, getBytes(ruleKey));
@@ -694,22 +826,22 @@ public class SQLiteArtifactCache implements ArtifactCache {
       storeFilepath.executeBatch();
     }
 
-    private synchronized int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
+    private int deleteMetadata(Timestamp evictionCutoff) throws SQLException {
       deleteMetadataBeforeCutoff.setTimestamp(1, evictionCutoff);
       return deleteMetadataBeforeCutoff.executeUpdate();
     }
 
-    private synchronized int deleteContent(Timestamp evictionCutoff) throws SQLException {
+    private int deleteContent(Timestamp evictionCutoff) throws SQLException {
       deleteContentBeforeCutoff.setTimestamp(1, evictionCutoff);
       return deleteContentBeforeCutoff.executeUpdate();
     }
 
-    private synchronized void deleteContent(RuleKey contentHash) throws SQLException {
+    private void deleteContent(RuleKey contentHash) throws SQLException {
       deleteContentForHash.setBytes(1, getBytes(contentHash));
       deleteContentForHash.executeUpdate();
     }
 
-    private synchronized long totalSize() throws SQLException {
+    private long totalSize() throws SQLException {
       ResultSet rs = contentSize.executeQuery();
       if (!rs.next()) {
         throw new SQLException("Query failed: total size of artifacts");
@@ -718,7 +850,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
       return rs.getLong(1);
     }
 
-    private synchronized Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
+    private Pair<Iterable<String>, Timestamp> getContentToEvict(long minToDelete)
         throws SQLException {
       ImmutableList.Builder<String> filepaths = ImmutableList.builder();
       long deleted = 0;
@@ -762,6 +894,91 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
+  /** Read-only connection with its own prepared statements. */
+  private static class ReadConnection {
+    private final Connection connection;
+    private final PreparedStatement fetchMetadata;
+    private final PreparedStatement fetchContent;
+
+    private ReadConnection(Path cacheDir) throws SQLException {
+      SQLiteConfig config = new SQLiteConfig();
+      config.setReadOnly(true);
+      connection = openConnection(cacheDir, config);
+      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
+      fetchContent =
+          connection.prepareStatement(
+              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+    }
+
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      fetchMetadata.setBytes(1, ConnectionInfo.getBytes(ruleKey));
+      try (ResultSet rs = fetchMetadata.executeQuery()) {
+        return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+      }
+    }
+
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      fetchContent.setBytes(1, ConnectionInfo.getBytes(contentHash));
+      try (ResultSet rs = fetchContent.executeQuery()) {
+        return rs.next()
+            ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+            : Optional.empty();
+      }
+    }
+  }
+
+  /** Fixed size pool of {@link ReadConnection}s, each used by at most one thread at a time. */
+  private static class ReaderPool {
+    private final BlockingQueue<ReadConnection> idle;
+    private final ImmutableList<ReadConnection> all;
+
+    private ReaderPool(Path cacheDir, int size) throws SQLException {
+      ImmutableList.Builder<ReadConnection> connections = ImmutableList.builder();
+      for (int i = 0; i < size; i++) {
+        connections.add(new ReadConnection(cacheDir));
+      }
+      all = connections.build();
+      idle = new ArrayBlockingQueue<>(size, false, all);
+    }
+
+    private <T> T run(ThrowingFunction<ReadConnection, T, SQLException> operation)
+        throws SQLException {
+      ReadConnection reader;
+      try {
+        reader = idle.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a SQLite connection", e);
+      }
+      try {
+        return operation.apply(reader);
+      } finally {
+        idle.add(reader);
+      }
+    }
+
+    private void close() {
+      for (ReadConnection reader : all) {
+        try {
+          reader.connection.close();
+        } catch (SQLException e) {
+          LOG.warn(e, "Failed to close SQLite read connection");
+        }
+      }
+    }
+  }
+
+  private static Connection openConnection(Path cacheDir, SQLiteConfig config)
+      throws SQLException {
+    // date format must be set to match CURRENT_TIMESTAMP
+    Properties properties = config.toProperties();
+    properties.setProperty(
+        SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+    return DriverManager.getConnection(
+        "jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+  }
+
   private static class Content {
     private final byte[] artifact;
     private final String filepath;
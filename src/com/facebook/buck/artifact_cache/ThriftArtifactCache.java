@@ -61,6 +61,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -116,7 +117,8 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
   }
 
   @Override
-  protected FetchResult fetchImpl(@Nullable BuildTarget target, RuleKey ruleKey, LazyPath output)
+  protected FetchResult fetchImpl(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink)
       throws IOException {
     FetchResult.Builder resultBuilder = FetchResult.builder();
 
@@ -40,6 +40,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
@@ -122,8 +123,20 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return fetch(target, ruleKey, output, Optional.empty());
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return fetch(target, ruleKey, output, Optional.of(sink));
+  }
+
+  private ListenableFuture<CacheResult> fetch(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink) {
+    // The payload of a first-level entry is empty, so only single-level entries are streamed.
     return Futures.transformAsync(
-        delegate.fetchAsync(target, ruleKey, output),
+        fetchFromDelegate(target, ruleKey, output, sink.map(SingleLevelEntrySink::new)),
         (CacheResult fetchResult) -> {
           if (!fetchResult.getType().isSuccess()) {
             LOG.verbose("Missed first-level lookup.");
@@ -136,7 +149,7 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
 
           String contentHashKey = fetchResult.getMetadata().get(METADATA_KEY);
           ListenableFuture<CacheResult> outputFileFetchResultFuture =
-              delegate.fetchAsync(target, new RuleKey(contentHashKey), output);
+              fetchFromDelegate(target, new RuleKey(contentHashKey), output, sink);
 
           return Futures.transformAsync(
               outputFileFetchResultFuture,
@@ -184,6 +197,16 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
         MoreExecutors.directExecutor());
   }
 
+  private ListenableFuture<CacheResult> fetchFromDelegate(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<? extends ArtifactSink> sink) {
+    return sink.isPresent()
+        ? delegate.fetchAsync(target, ruleKey, output, sink.get())
+        : delegate.fetchAsync(target, ruleKey, output);
+  }
+
   @Override
   public void skipPendingAndFutureAsyncFetches() {
     delegate.skipPendingAndFutureAsyncFetches();
@@ -306,4 +329,24 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
       LOG.debug("Exception when deleting temp file %s.", emptyFilePath, e);
     }
   }
+
+  /** Passes on payloads of single-level entries, and declines first-level entries. */
+  private static class SingleLevelEntrySink implements ArtifactSink {
+    private final ArtifactSink delegate;
+
+    SingleLevelEntrySink(ArtifactSink delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean accept(ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException {
+      return !metadata.containsKey(METADATA_KEY) && delegate.accept(metadata, payload);
+    }
+
+    @Override
+    public void discard() {
+      delegate.discard();
+    }
+  }
 }
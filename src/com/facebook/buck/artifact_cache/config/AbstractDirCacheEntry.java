@@ -31,4 +31,16 @@ abstract class AbstractDirCacheEntry {
   public abstract Optional<Long> getMaxSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /** Whether the cache keeps a persistent index of its contents to trim itself without a scan. */
+  @Value.Default
+  public boolean isIndexEnabled() {
+    return false;
+  }
+
+  /** Whether artifacts are stored as content-defined chunks that are shared between artifacts. */
+  @Value.Default
+  public boolean isDeduplicationEnabled() {
+    return false;
+  }
 }
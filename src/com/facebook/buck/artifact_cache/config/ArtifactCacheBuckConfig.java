@@ -85,6 +85,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_INDEX_ENABLED_FIELD = "dir_index_enabled";
+  private static final String DIR_DEDUP_ENABLED_FIELD = "dir_dedup_enabled";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
       ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
@@ -126,6 +128,14 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
       "two_level_cache_maximum_size";
   private static final long TWO_LEVEL_CACHING_MIN_SIZE_DEFAULT = 20 * 1024L;
 
+  private static final String COMPRESSION_DICTIONARIES_DIR_FIELD_NAME =
+      "compression_dictionaries_dir";
+
+  private static final String MEMORY_MAX_SIZE_FIELD_NAME = "memory_max_size";
+  private static final long MEMORY_MAX_SIZE_DEFAULT = 64 * 1024 * 1024L;
+  private static final String MEMORY_MAX_ARTIFACT_SIZE_FIELD_NAME = "memory_max_artifact_size";
+  private static final long MEMORY_MAX_ARTIFACT_SIZE_DEFAULT = 1024 * 1024L;
+
   private static final String HYBRID_THRIFT_ENDPOINT = "hybrid_thrift_endpoint";
   private static final String REPOSITORY = "repository";
   private static final String DEFAULT_REPOSITORY = "";
@@ -136,6 +146,16 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   public static final String MULTI_CHECK = "multi_check";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
+  private static final String NEGATIVE_LOOKUP_FILTER_ENABLED = "negative_lookup_filter_enabled";
+  private static final String NEGATIVE_LOOKUP_FILTER_MAX_KEYS = "negative_lookup_filter_max_keys";
+  private static final int DEFAULT_NEGATIVE_LOOKUP_FILTER_MAX_KEYS = 100000;
+  private static final String NEGATIVE_LOOKUP_FILTER_MAX_AGE_SECONDS =
+      "negative_lookup_filter_max_age_seconds";
+  private static final long DEFAULT_NEGATIVE_LOOKUP_FILTER_MAX_AGE_SECONDS = 300;
+  private static final String HTTP_MULTI_STORE_LIMIT = "http_multi_store_limit";
+  private static final int DEFAULT_HTTP_MULTI_STORE_LIMIT = 0;
+  private static final String HTTP_MULTI_STORE_MAX_SIZE = "http_multi_store_max_size";
+  private static final long DEFAULT_HTTP_MULTI_STORE_MAX_SIZE = 4 * 1024 * 1024L;
 
   private static final String DOWNLOAD_HEAVY_BUILD_CACHE_FETCH_THREADS =
       "download_heavy_build_http_cache_fetch_threads";
@@ -165,6 +185,40 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     return buckConfig.getBooleanValue(CACHE_SECTION_NAME, MULTI_CHECK, false);
   }
 
+  /** @return whether remote caches should answer lookups of keys known to be missing locally. */
+  public boolean getNegativeLookupFilterEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, NEGATIVE_LOOKUP_FILTER_ENABLED, false);
+  }
+
+  /** @return number of missing keys each remote cache remembers. */
+  public int getNegativeLookupFilterMaxKeys() {
+    return buckConfig
+        .getInteger(CACHE_SECTION_NAME, NEGATIVE_LOOKUP_FILTER_MAX_KEYS)
+        .orElse(DEFAULT_NEGATIVE_LOOKUP_FILTER_MAX_KEYS);
+  }
+
+  /** @return how long a remote cache remembers that a key was missing, across commands. */
+  public long getNegativeLookupFilterMaxAgeSeconds() {
+    return buckConfig
+        .getLong(CACHE_SECTION_NAME, NEGATIVE_LOOKUP_FILTER_MAX_AGE_SECONDS)
+        .orElse(DEFAULT_NEGATIVE_LOOKUP_FILTER_MAX_AGE_SECONDS);
+  }
+
+  /** @return maximum number of artifacts uploaded to an http cache in a single request. */
+  public int getHttpMultiStoreLimit() {
+    return buckConfig
+        .getInteger(CACHE_SECTION_NAME, HTTP_MULTI_STORE_LIMIT)
+        .orElse(DEFAULT_HTTP_MULTI_STORE_LIMIT);
+  }
+
+  /** @return maximum total size of the artifacts uploaded to an http cache in a single request. */
+  public long getHttpMultiStoreMaxSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, HTTP_MULTI_STORE_MAX_SIZE)
+        .map(SizeUnit::parseBytes)
+        .orElse(DEFAULT_HTTP_MULTI_STORE_MAX_SIZE);
+  }
+
   @Override
   public BuckConfig getDelegate() {
     return buckConfig;
@@ -387,6 +441,32 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .map(SizeUnit::parseBytes);
   }
 
+  /**
+   * @return the directory holding the zstandard dictionaries the artifacts of each rule type are
+   *     compressed with, if any.
+   */
+  public Optional<Path> getCompressionDictionariesDir() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, COMPRESSION_DICTIONARIES_DIR_FIELD_NAME)
+        .map(dir -> buckConfig.resolvePathThatMayBeOutsideTheProjectFilesystem(Paths.get(dir)));
+  }
+
+  /** @return total size of the artifacts held by the in-memory cache tier. */
+  public long getMemoryCacheMaxSizeBytes() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, MEMORY_MAX_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(MEMORY_MAX_SIZE_DEFAULT);
+  }
+
+  /** @return size of the largest artifact the in-memory cache tier will hold. */
+  public long getMemoryCacheMaxArtifactSizeBytes() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, MEMORY_MAX_ARTIFACT_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(MEMORY_MAX_ARTIFACT_SIZE_DEFAULT);
+  }
+
   /**
    * If true, fail if client TLS certificate or key paths are unspecified, don't exist, are not the
    * right format or have expired
@@ -524,6 +604,9 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setIndexEnabled(buckConfig.getBooleanValue(section, DIR_INDEX_ENABLED_FIELD, false))
+        .setDeduplicationEnabled(
+            buckConfig.getBooleanValue(section, DIR_DEDUP_ENABLED_FIELD, false))
         .build();
   }
 
@@ -21,7 +21,8 @@ public enum ArtifactCacheMode {
   dir(CacheType.local),
   http(CacheType.remote),
   sqlite(CacheType.local),
-  thrift_over_http(CacheType.remote);
+  thrift_over_http(CacheType.remote),
+  memory(CacheType.local);
 
   private final CacheType type;
 
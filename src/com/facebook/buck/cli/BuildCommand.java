@@ -50,6 +50,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.InvocationInfo;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.parser.SpeculativeParsing;
+import com.facebook.buck.parser.TargetNodeFingerprinter;
 import com.facebook.buck.parser.TargetNodeSpec;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
@@ -511,8 +512,7 @@ public class BuildCommand extends AbstractCommand {
         }
 
         try (RuleKeyCacheScope<RuleKey> ruleKeyCacheScope =
-            getDefaultRuleKeyCacheScope(
-                params, graphsAndBuildTargets.getGraphs().getActionGraphAndBuilder())) {
+            getDefaultRuleKeyCacheScope(params, graphsAndBuildTargets.getGraphs())) {
           exitCode =
               executeLocalBuild(
                   params,
@@ -830,12 +830,18 @@ public class BuildCommand extends AbstractCommand {
   }
 
   RuleKeyCacheScope<RuleKey> getDefaultRuleKeyCacheScope(
-      CommandRunnerParams params, ActionGraphAndBuilder actionGraphAndBuilder) {
+      CommandRunnerParams params, ActionAndTargetGraphs graphs) {
     return getDefaultRuleKeyCacheScope(
         params,
         new RuleKeyCacheRecycler.SettingsAffectingCache(
             params.getBuckConfig().getView(BuildBuckConfig.class).getKeySeed(),
-            actionGraphAndBuilder.getActionGraph()));
+            graphs.getActionGraphAndBuilder().getActionGraph(),
+            Optional.of(
+                new TargetNodeFingerprinter(
+                    params.getParser().getPermState(),
+                    params.getCell(),
+                    graphs.getTargetGraphForLocalBuild().getTargetGraph(),
+                    params.getBuckEventBus()))));
   }
 
   @Override
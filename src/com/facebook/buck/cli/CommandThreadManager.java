@@ -29,7 +29,9 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -45,11 +47,15 @@ public class CommandThreadManager implements AutoCloseable {
   private static final long DEFAULT_SHUTDOWN_TIMEOUT = 30;
   private static final TimeUnit DEFAULT_SHUTDOWN_TIMEOUT_UNIT = TimeUnit.MINUTES;
 
+  // Threads of the pool for blocking jobs that have been idle this long are stopped.
+  private static final long BLOCKING_THREAD_KEEP_ALIVE_SECONDS = 60;
+
   // Use a thread group purely as a debugging aid to help enumerate the threads we should
   // print an error message for.
   private final ThreadGroup threadGroup;
 
   private final ExecutorService executorService;
+  private final Optional<ExecutorService> blockingExecutorService;
   private final ListeningExecutorService listeningExecutorService;
   private final WeightedListeningExecutorService weightedListeningExecutorService;
 
@@ -64,24 +70,53 @@ public class CommandThreadManager implements AutoCloseable {
       int managedThreadCount,
       long shutdownTimeout,
       TimeUnit shutdownTimeoutUnit) {
+    this(
+        name,
+        semaphore,
+        defaultAmounts,
+        managedThreadCount,
+        Optional.empty(),
+        shutdownTimeout,
+        shutdownTimeoutUnit);
+  }
+
+  /**
+   * @param blockingThreadCount if present, jobs submitted through {@link
+   *     WeightedListeningExecutorService#forBlockingWork()} run on a separate pool of up to this
+   *     many threads, which are started as needed.
+   */
+  public CommandThreadManager(
+      String name,
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultAmounts,
+      int managedThreadCount,
+      Optional<Integer> blockingThreadCount,
+      long shutdownTimeout,
+      TimeUnit shutdownTimeoutUnit) {
     this.threadGroup = new ThreadGroup(name);
 
     // TODO(cjhopman): This should probably take a Function<ThreadGroup, ListeningExecutorService>
     // so that all that this class is really in charge of is properly shutting it down and providing
     // useful information when that fails.
     this.executorService =
-        MostExecutors.newMultiThreadExecutor(
-            new ThreadFactoryBuilder()
-                .setNameFormat(name + "-%d")
-                .setThreadFactory(
-                    new CommandThreadFactory(
-                        r -> new Thread(threadGroup, r),
-                        GlobalStateManager.singleton().getThreadToCommandRegister()))
-                .build(),
-            managedThreadCount);
+        MostExecutors.newMultiThreadExecutor(newThreadFactory(name + "-%d"), managedThreadCount);
+    this.blockingExecutorService =
+        blockingThreadCount.map(
+            count ->
+                MostExecutors.newElasticThreadExecutor(
+                    newThreadFactory(name + "-blocking-%d"),
+                    count,
+                    BLOCKING_THREAD_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS));
     this.listeningExecutorService = MoreExecutors.listeningDecorator(executorService);
     this.weightedListeningExecutorService =
-        new WeightedListeningExecutorService(semaphore, defaultAmounts, listeningExecutorService);
+        new WeightedListeningExecutorService(
+            semaphore,
+            defaultAmounts,
+            listeningExecutorService,
+            blockingExecutorService
+                .<ListeningExecutorService>map(MoreExecutors::listeningDecorator)
+                .orElse(listeningExecutorService));
     this.shutdownTimeout = shutdownTimeout;
     this.shutdownTimeoutUnit = shutdownTimeoutUnit;
   }
@@ -108,9 +143,12 @@ public class CommandThreadManager implements AutoCloseable {
     this(
         name,
         new ListeningMultiSemaphore(
-            concurrencyLimit.maximumAmounts, concurrencyLimit.resourceAllocationFairness),
+            concurrencyLimit.maximumAmounts,
+            concurrencyLimit.resourceAllocationFairness,
+            concurrencyLimit.memoryPressureCap),
         concurrencyLimit.defaultAmounts,
         concurrencyLimit.managedThreadCount,
+        concurrencyLimit.blockingThreadCount,
         shutdownTimeout,
         shutdownTimeoutUnit);
   }
@@ -119,6 +157,16 @@ public class CommandThreadManager implements AutoCloseable {
     this(name, concurrencyLimit, DEFAULT_SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT_UNIT);
   }
 
+  private ThreadFactory newThreadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder()
+        .setNameFormat(nameFormat)
+        .setThreadFactory(
+            new CommandThreadFactory(
+                r -> new Thread(threadGroup, r),
+                GlobalStateManager.singleton().getThreadToCommandRegister()))
+        .build();
+  }
+
   public ExecutorService getExecutorService() {
     return executorService;
   }
@@ -136,6 +184,11 @@ public class CommandThreadManager implements AutoCloseable {
     boolean shutdown =
         MostExecutors.shutdown(
             weightedListeningExecutorService, shutdownTimeout, shutdownTimeoutUnit);
+    if (blockingExecutorService.isPresent()) {
+      shutdown &=
+          MostExecutors.shutdown(
+              blockingExecutorService.get(), shutdownTimeout, shutdownTimeoutUnit);
+    }
 
     // If the shutdown failed, print the stacks for all the blocked threads.
     if (!shutdown) {
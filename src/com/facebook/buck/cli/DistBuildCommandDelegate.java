@@ -151,8 +151,7 @@ public class DistBuildCommandDelegate {
 
     ExitCode exitCode;
     try (RuleKeyCacheScope<RuleKey> ruleKeyCacheScope =
-        buildCommand.getDefaultRuleKeyCacheScope(
-            params, graphsAndBuildTargets.getGraphs().getActionGraphAndBuilder())) {
+        buildCommand.getDefaultRuleKeyCacheScope(params, graphsAndBuildTargets.getGraphs())) {
       try {
         exitCode =
             executeDistBuild(
@@ -144,6 +144,10 @@ public class FetchCommand extends BuildCommand {
                   params.getTargetConfigurationSerializer(),
                   params.getBuildInfoStoreManager(),
                   cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+                  cachingBuildEngineBuckConfig.getArtifactPrefetchInfo(),
+                  Optional.empty(),
+                  Optional.empty(),
+                  Optional.empty(),
                   cachingBuildEngineBuckConfig.getConsoleLogBuildRuleFailuresInline(),
                   RuleKeyFactories.of(
                       params.getRuleKeyConfiguration(),
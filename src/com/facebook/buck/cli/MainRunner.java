@@ -98,6 +98,7 @@ import com.facebook.buck.event.listener.PublicAnnouncementManager;
 import com.facebook.buck.event.listener.RenderingConsole;
 import com.facebook.buck.event.listener.RuleKeyDiagnosticsListener;
 import com.facebook.buck.event.listener.RuleKeyLoggerListener;
+import com.facebook.buck.event.listener.RuleKeyProfilerLoggerListener;
 import com.facebook.buck.event.listener.SilentConsoleEventBusListener;
 import com.facebook.buck.event.listener.SimpleConsoleEventBusListener;
 import com.facebook.buck.event.listener.SuperConsoleConfig;
@@ -898,7 +899,10 @@ public final class MainRunner {
                 if (!cell.equals(rootCell)) {
                   allCaches.add(
                       DefaultFileHashCache.createBuckOutFileHashCache(
-                          cell.getFilesystem(), buildBuckConfig.getFileHashCacheMode()));
+                          cell.getFilesystem(),
+                          buildBuckConfig.getFileHashCacheMode(),
+                          buildBuckConfig.getJarMemberHashMode(),
+                          buildBuckConfig.getFileHashCacheIoThreads()));
                 }
               });
 
@@ -907,10 +911,15 @@ public final class MainRunner {
       // times in a single run.
       allCaches.add(
           DefaultFileHashCache.createDefaultFileHashCache(
-              rootCellProjectFilesystem, buildBuckConfig.getFileHashCacheMode()));
+              rootCellProjectFilesystem,
+              buildBuckConfig.getFileHashCacheMode(),
+              buildBuckConfig.getJarMemberHashMode(),
+              buildBuckConfig.getFileHashCacheIoThreads()));
       allCaches.addAll(
           DefaultFileHashCache.createOsRootDirectoriesCaches(
-              projectFilesystemFactory, buildBuckConfig.getFileHashCacheMode()));
+              projectFilesystemFactory,
+              buildBuckConfig.getFileHashCacheMode(),
+              buildBuckConfig.getFileHashCacheIoThreads()));
 
       StackedFileHashCache fileHashCache = new StackedFileHashCache(allCaches.build());
 
@@ -1127,7 +1136,9 @@ public final class MainRunner {
                     managerScope,
                     getArtifactProducerId(executionEnvironment),
                     executionEnvironment.getHostname(),
-                    ClientCertificateHandler.fromConfiguration(cacheBuckConfig));
+                    ClientCertificateHandler.fromConfiguration(cacheBuckConfig),
+                    buckGlobalState.getMemoryArtifactCacheStore(),
+                    buckGlobalState.getNegativeLookupFilters());
 
             // Once command completes it should be safe to not wait for executors and other stateful
             // objects to terminate and release semaphore right away. It will help to retry
@@ -1436,6 +1447,7 @@ public final class MainRunner {
                 new CacheStatsEvent(
                     "versioned_target_graph_cache",
                     parserAndCaches.getVersionedTargetGraphCache().getCacheStats()));
+            buckGlobalState.persistFileHashCaches();
           }
         } finally {
           if (exitCode != ExitCode.SUCCESS) {
@@ -2114,6 +2126,8 @@ public final class MainRunner {
     }
 
     eventListenersBuilder.add(new ParserProfilerLoggerListener(invocationInfo, projectFilesystem));
+    eventListenersBuilder.add(
+        new RuleKeyProfilerLoggerListener(invocationInfo, projectFilesystem));
 
     eventListenersBuilder.add(new LoadBalancerEventsListener(counterRegistry));
     eventListenersBuilder.add(new CacheRateStatsListener(buckEventBus));
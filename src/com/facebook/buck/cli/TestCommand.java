@@ -590,6 +590,10 @@ public class TestCommand extends BuildCommand {
                     params.getTargetConfigurationSerializer(),
                     params.getBuildInfoStoreManager(),
                     cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
+                    cachingBuildEngineBuckConfig.getArtifactPrefetchInfo(),
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.empty(),
                     cachingBuildEngineBuckConfig.getConsoleLogBuildRuleFailuresInline(),
                     RuleKeyFactories.of(
                         params.getRuleKeyConfiguration(),
@@ -17,6 +17,8 @@
 package com.facebook.buck.command;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCompressionDictionaries;
+import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.engine.BuildEngine;
@@ -121,6 +123,13 @@ public class Build implements Closeable {
         .setBuildId(buildId)
         .putAllEnvironment(executionContext.getEnvironment())
         .setKeepGoing(isKeepGoing)
+        .setArtifactCompressionDictionaries(
+            rootCell
+                .getBuckConfig()
+                .getView(ArtifactCacheBuckConfig.class)
+                .getCompressionDictionariesDir()
+                .map(ArtifactCompressionDictionaries::load)
+                .orElse(ArtifactCompressionDictionaries.empty()))
         .build();
   }
 
@@ -21,8 +21,13 @@ import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleC
 import com.facebook.buck.core.build.engine.BuildEngineResult;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.CachingBuildEngineBuckConfig;
+import com.facebook.buck.core.build.engine.config.SpeculativeBuildInfo;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine;
+import com.facebook.buck.core.build.engine.schedule.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.engine.schedule.PredictedCriticalPathEvent;
+import com.facebook.buck.core.build.engine.schedule.RuleResourceUsageHistory;
+import com.facebook.buck.core.build.engine.schedule.SpeculativeBuildPolicy;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.cell.Cell;
@@ -40,6 +45,7 @@ import com.facebook.buck.core.rulekey.config.RuleKeyConfig;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
@@ -48,6 +54,8 @@ import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
 import com.facebook.buck.rules.keys.RuleKeyCacheScope;
 import com.facebook.buck.rules.keys.RuleKeyFactories;
+import com.facebook.buck.rules.keys.RuleKeyProfiler;
+import com.facebook.buck.rules.keys.RuleKeyProfilerReportEvent;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
 import com.facebook.buck.rules.modern.builders.ModernBuildRuleBuilderFactory;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleConfig;
@@ -85,6 +93,10 @@ public class LocalBuildExecutor implements BuildExecutor {
   private final UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory;
   private final TargetConfiguration targetConfiguration;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
+  private final Optional<RuleKeyProfiler> ruleKeyProfiler;
+  private final Optional<BuildRuleDurationHistory> ruleDurationHistory;
+  private final Optional<RuleResourceUsageHistory> resourceUsageHistory;
+  private final Optional<SpeculativeBuildPolicy> speculativeBuildPolicy;
 
   private final CachingBuildEngine cachingBuildEngine;
   private final Build build;
@@ -121,6 +133,32 @@ public class LocalBuildExecutor implements BuildExecutor {
     this.unconfiguredBuildTargetFactory = unconfiguredBuildTargetFactory;
     this.targetConfiguration = targetConfiguration;
     this.targetConfigurationSerializer = targetConfigurationSerializer;
+    this.ruleKeyProfiler =
+        args.getBuckConfig().getView(RuleKeyConfig.class).isRuleKeyProfilingEnabled()
+            ? Optional.of(new RuleKeyProfiler())
+            : Optional.empty();
+    CachingBuildEngineBuckConfig engineConfig =
+        args.getBuckConfig().getView(CachingBuildEngineBuckConfig.class);
+    SpeculativeBuildInfo speculativeBuildInfo = engineConfig.getSpeculativeBuildInfo();
+    this.ruleDurationHistory =
+        engineConfig.isCriticalPathSchedulingEnabled() || speculativeBuildInfo.isEnabled()
+            ? Optional.of(BuildRuleDurationHistory.load(getRuleDurationHistoryPath()))
+            : Optional.empty();
+    this.speculativeBuildPolicy =
+        ruleDurationHistory
+            .filter(history -> speculativeBuildInfo.isEnabled())
+            .map(
+                history ->
+                    new SpeculativeBuildPolicy(
+                        history,
+                        speculativeBuildInfo.getBudgetMillis(),
+                        speculativeBuildInfo.getMaxRuleMillis()));
+    this.resourceUsageHistory =
+        args.getBuckConfig().getView(ResourcesConfig.class).isLearnedResourceAmountsEnabled()
+            ? Optional.of(RuleResourceUsageHistory.load(getResourceUsageHistoryPath()))
+            : Optional.empty();
+    // The usage of external processes is reported on the event bus once they finish.
+    resourceUsageHistory.ifPresent(history -> args.getBuckEventBus().register(history));
 
     // Init resources.
     this.cachingBuildEngine = createCachingBuildEngine(remoteExecutionAutoEnabled);
@@ -203,6 +241,31 @@ public class LocalBuildExecutor implements BuildExecutor {
     // Destroy resources.
     build.close();
     cachingBuildEngine.close();
+
+    ruleKeyProfiler.ifPresent(
+        profiler -> args.getBuckEventBus().post(RuleKeyProfilerReportEvent.of(profiler)));
+    cachingBuildEngine
+        .getPredictedCriticalPath()
+        .ifPresent(path -> args.getBuckEventBus().post(PredictedCriticalPathEvent.of(path)));
+    ruleDurationHistory.ifPresent(BuildRuleDurationHistory::save);
+    resourceUsageHistory.ifPresent(
+        history -> {
+          args.getBuckEventBus().unregister(history);
+          history.save();
+        });
+  }
+
+  private Path getRuleDurationHistoryPath() {
+    return getPersistentCachePath("rule_durations");
+  }
+
+  private Path getResourceUsageHistoryPath() {
+    return getPersistentCachePath("rule_resource_usage");
+  }
+
+  private Path getPersistentCachePath(String name) {
+    ProjectFilesystem filesystem = args.getRootCell().getFilesystem();
+    return filesystem.resolve(filesystem.getBuckPaths().getPersistentCacheDir().resolve(name));
   }
 
   private ImmutableList<BuildRule> getRulesToBuild(Iterable<String> targetsToBuild) {
@@ -241,6 +304,10 @@ public class LocalBuildExecutor implements BuildExecutor {
         targetConfigurationSerializer,
         args.getBuildInfoStoreManager(),
         engineConfig.getResourceAwareSchedulingInfo(),
+        engineConfig.getArtifactPrefetchInfo(),
+        engineConfig.isCriticalPathSchedulingEnabled() ? ruleDurationHistory : Optional.empty(),
+        resourceUsageHistory,
+        speculativeBuildPolicy,
         engineConfig.getConsoleLogBuildRuleFailuresInline(),
         RuleKeyFactories.of(
             args.getRuleKeyConfiguration(),
@@ -248,7 +315,8 @@ public class LocalBuildExecutor implements BuildExecutor {
             actionGraphAndBuilder.getActionGraphBuilder(),
             args.getBuckConfig().getView(BuildBuckConfig.class).getBuildInputRuleKeyFileSizeLimit(),
             ruleKeyCacheScope.getCache(),
-            ruleKeyLogger),
+            ruleKeyLogger,
+            ruleKeyProfiler),
         remoteBuildRuleCompletionWaiter,
         args.getManifestService());
   }
@@ -22,7 +22,9 @@ import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.UnconfiguredBuildTargetView;
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import com.facebook.buck.rules.keys.config.RuleKeyHashFunction;
 import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.JarMemberHashMode;
 import com.google.common.annotations.VisibleForTesting;
 import java.util.Optional;
 import org.immutables.value.Value;
@@ -66,6 +68,14 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
     return parseInt(getDelegate().getValue(CACHE_SECTION, "key_seed").orElse("0"));
   }
 
+  /** @return the hash function to calculate rule keys with. */
+  @Value.Lazy
+  public RuleKeyHashFunction getRuleKeyHashFunction() {
+    return getDelegate()
+        .getEnum(CACHE_SECTION, "rule_key_hash_function", RuleKeyHashFunction.class)
+        .orElse(RuleKeyHashFunction.DEFAULT);
+  }
+
   /** @return the number of threads Buck should use. */
   @Value.Lazy
   public int getNumThreads() {
@@ -206,6 +216,15 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
     return getDelegate().getBooleanValue(BUILD_SECTION, "rule_key_caching", false);
   }
 
+  /**
+   * @return whether to keep the rule keys cached between builds on disk, so that a new daemon can
+   *     reuse them.
+   */
+  @Value.Lazy
+  public boolean getRuleKeyCacheSnapshot() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "rule_key_cache_snapshot", false);
+  }
+
   /** Whether to create symlinks of build output in buck-out/last. */
   @Value.Lazy
   public boolean createBuildOutputSymLinksEnabled() {
@@ -240,6 +259,28 @@ public abstract class AbstractBuildBuckConfig implements ConfigView<BuckConfig>
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /** @return how the file hash caches obtain the hashes of the members of jars. */
+  @Value.Lazy
+  public JarMemberHashMode getJarMemberHashMode() {
+    return getDelegate()
+        .getEnum(BUILD_SECTION, "jar_member_hash_mode", JarMemberHashMode.class)
+        .orElse(JarMemberHashMode.DEFAULT);
+  }
+
+  /** @return the number of threads the file hash caches read files on when hashing many at once. */
+  @Value.Lazy
+  public int getFileHashCacheIoThreads() {
+    int ioThreads =
+        getDelegate()
+            .getInteger(BUILD_SECTION, "file_hash_cache_io_threads")
+            .orElse(Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())));
+    if (ioThreads < 1) {
+      throw new HumanReadableException(
+          "%s.file_hash_cache_io_threads must be at least 1, got %s", BUILD_SECTION, ioThreads);
+    }
+    return ioThreads;
+  }
+
   /** @return a target that points to a {@code platform} rule that describes the host platform. */
   @Value.Lazy
   public Optional<UnconfiguredBuildTargetView> getHostPlatform() {
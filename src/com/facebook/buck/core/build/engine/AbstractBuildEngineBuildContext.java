@@ -16,6 +16,7 @@
 package com.facebook.buck.core.build.engine;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCompressionDictionaries;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
@@ -54,6 +55,12 @@ abstract class AbstractBuildEngineBuildContext {
     return false;
   }
 
+  /** The dictionaries artifacts of each rule type are compressed with. */
+  @Value.Default
+  public ArtifactCompressionDictionaries getArtifactCompressionDictionaries() {
+    return ArtifactCompressionDictionaries.empty();
+  }
+
   /**
    * Creates an {@link OnDiskBuildInfo}.
    *
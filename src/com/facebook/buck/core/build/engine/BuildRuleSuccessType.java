@@ -35,9 +35,25 @@ public enum BuildRuleSuccessType {
       Property.SHOULD_CLEAR_AND_WRITE_METADATA_ON_DISK,
       Property.OUTPUTS_HAVE_CHANGED),
 
+  /**
+   * Built locally while the artifact was being fetched from the {@link
+   * com.facebook.buck.artifact_cache.ArtifactCache}, with the build getting to write the outputs
+   * first. The result isn't uploaded, as the cache most likely has the artifact being fetched.
+   */
+  BUILT_LOCALLY_RACING_CACHE(
+      "BUILT",
+      Property.SHOULD_CLEAR_AND_WRITE_METADATA_ON_DISK,
+      Property.OUTPUTS_HAVE_CHANGED),
+
   /** Fetched via the {@link com.facebook.buck.artifact_cache.ArtifactCache}. */
   FETCHED_FROM_CACHE("CACHE", Property.OUTPUTS_HAVE_CHANGED),
 
+  /**
+   * Fetched via the {@link com.facebook.buck.artifact_cache.ArtifactCache} while the rule was being
+   * built locally, with the fetch getting to write the outputs first.
+   */
+  FETCHED_FROM_CACHE_RACING_LOCAL_BUILD("CACHE", Property.OUTPUTS_HAVE_CHANGED),
+
   /**
    * Fetched via the {@link com.facebook.buck.artifact_cache.ArtifactCache} using an input-based
    * rule key.
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.cache.manager;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactPrefetchSummaryEvent;
+import com.facebook.buck.artifact_cache.ArtifactSink;
+import com.facebook.buck.artifact_cache.CacheDecorator;
+import com.facebook.buck.artifact_cache.CacheDeleteResult;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.NegativeLookupFilter;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Fetches artifacts from an {@link ArtifactCache} before the build engine asks for them, and holds
+ * on to them until it does.
+ *
+ * <p>The build engine checks the cache for a rule before it builds the rule's dependencies, so
+ * without prefetching the dependencies are only looked up once their dependent missed. Prefetching
+ * the dependencies while the dependent is still being looked up takes those round-trips off the
+ * critical path.
+ *
+ * <p>Fetches going through {@link #getCache()} are served from the matching prefetch, if any. The
+ * number of prefetches in flight and the size of the artifacts waiting to be used are bounded, so
+ * that prefetching cannot get far ahead of the build.
+ */
+public class ArtifactPrefetcher implements Closeable {
+  private static final Logger LOG = Logger.get(ArtifactPrefetcher.class);
+
+  private static final int WARM_UP_BATCH_SIZE = 100;
+
+  private final ArtifactCache delegate;
+  private final BuckEventBus eventBus;
+  private final int maxPendingFetches;
+  private final long maxHeldBytes;
+  private final ArtifactCache cache;
+
+  private final ConcurrentMap<RuleKey, Prefetch> prefetches = new ConcurrentHashMap<>();
+  private final ConcurrentMap<RuleKey, List<RuleKey>> prefetchesByDependent =
+      new ConcurrentHashMap<>();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final AtomicInteger pendingFetches = new AtomicInteger();
+  private final AtomicLong heldBytes = new AtomicLong();
+  private final AtomicInteger prefetchCount = new AtomicInteger();
+  private final AtomicInteger hitCount = new AtomicInteger();
+  private final AtomicLong fetchedBytes = new AtomicLong();
+  private final AtomicLong wastedBytes = new AtomicLong();
+
+  public ArtifactPrefetcher(
+      ArtifactCache delegate, BuckEventBus eventBus, int maxPendingFetches, long maxHeldBytes) {
+    this.delegate = delegate;
+    this.eventBus = eventBus;
+    this.maxPendingFetches = maxPendingFetches;
+    this.maxHeldBytes = maxHeldBytes;
+    this.cache = new PrefetchingArtifactCache();
+  }
+
+  /**
+   * Starts fetching the artifact for the given rule key, unless it was already requested or the
+   * prefetch budget is used up. The artifact is downloaded to the temp dir of {@code filesystem},
+   * so that it can be moved into place cheaply once it is used.
+   *
+   * @return whether a fetch was started.
+   */
+  public boolean prefetch(BuildTarget target, ProjectFilesystem filesystem, RuleKey ruleKey) {
+    if (closed.get() || heldBytes.get() >= maxHeldBytes || prefetches.containsKey(ruleKey)) {
+      return false;
+    }
+    if (pendingFetches.incrementAndGet() > maxPendingFetches) {
+      pendingFetches.decrementAndGet();
+      return false;
+    }
+
+    LazyPath output =
+        new LazyPath() {
+          @Override
+          protected Path create() throws IOException {
+            return filesystem.resolve(
+                filesystem.createTempFile(
+                    "buck_prefetch_" + MostFiles.sanitize(target.getShortName()), ".zip"));
+          }
+        };
+    Prefetch prefetch = new Prefetch(output);
+    ListenableFuture<CacheResult> result = prefetch.result;
+    // Added before the prefetch is published, so it runs before the listener of discard().
+    result.addListener(
+        () -> {
+          pendingFetches.decrementAndGet();
+          Optional<CacheResult> cacheResult = getHit(result);
+          if (cacheResult.isPresent()) {
+            prefetch.sizeBytes = getSizeBytes(cacheResult.get(), output);
+            heldBytes.addAndGet(prefetch.sizeBytes);
+            fetchedBytes.addAndGet(prefetch.sizeBytes);
+          }
+        },
+        MoreExecutors.directExecutor());
+    if (prefetches.putIfAbsent(ruleKey, prefetch) != null) {
+      pendingFetches.decrementAndGet();
+      return false;
+    }
+    prefetchCount.incrementAndGet();
+    LOG.verbose("Prefetching %s with rule key %s.", target, ruleKey);
+    prefetch.result.setFuture(delegate.fetchAsync(target, ruleKey, output));
+    return true;
+  }
+
+  /**
+   * Checks which of the given artifacts the cache has, in batches, and starts fetching the ones it
+   * did not report missing. The check also warms up the {@link NegativeLookupFilter}s of the remote
+   * caches, so the misses are answered locally once the build engine asks for them.
+   *
+   * <p>The artifacts are only needed if the artifact of {@code dependent} is missing, so they are
+   * dropped once a fetch of {@code dependent} through {@link #getCache()} hits.
+   */
+  public void prefetchAll(RuleKey dependent, List<Request> requests) {
+    if (closed.get() || requests.isEmpty()) {
+      return;
+    }
+    prefetchesByDependent.put(
+        dependent, ImmutableList.copyOf(Iterables.transform(requests, Request::getRuleKey)));
+    List<List<Request>> batches = Lists.partition(requests, WARM_UP_BATCH_SIZE);
+    ListenableFuture<List<ImmutableMap<RuleKey, CacheResult>>> checks =
+        NegativeLookupFilter.warmUp(
+            delegate, Iterables.transform(requests, Request::getRuleKey), WARM_UP_BATCH_SIZE);
+    checks.addListener(
+        () -> {
+          List<ImmutableMap<RuleKey, CacheResult>> results = Futures.getUnchecked(checks);
+          for (int i = 0; i < batches.size(); i++) {
+            // Prefetch the whole batch if the check failed, the fetch reports errors on its own.
+            ImmutableMap<RuleKey, CacheResult> batchResults = results.get(i);
+            for (Request request : batches.get(i)) {
+              CacheResult result =
+                  batchResults == null ? null : batchResults.get(request.getRuleKey());
+              if (result == null || result.getType() != CacheResultType.MISS) {
+                prefetch(request.target, request.filesystem, request.ruleKey);
+              }
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** @return a cache that serves fetches from the prefetched artifacts where possible. */
+  public ArtifactCache getCache() {
+    return cache;
+  }
+
+  public int getPrefetchCount() {
+    return prefetchCount.get();
+  }
+
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getWastedBytes() {
+    return wastedBytes.get();
+  }
+
+  private ListenableFuture<CacheResult> fetchPrefetched(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<ArtifactSink> sink) {
+    // Discarding as part of the fetch, rather than in a listener, frees the budget before the
+    // rule that fetched the artifact moves on.
+    return Futures.transform(
+        fetchPrefetchedOrFromDelegate(target, ruleKey, output, sink),
+        result -> {
+          List<RuleKey> dependencies = prefetchesByDependent.remove(ruleKey);
+          if (dependencies != null && result.getType() == CacheResultType.HIT) {
+            dependencies.forEach(this::discard);
+          }
+          return result;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<CacheResult> fetchPrefetchedOrFromDelegate(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<ArtifactSink> sink) {
+    Prefetch prefetch = prefetches.remove(ruleKey);
+    if (prefetch == null) {
+      return fetchFromDelegate(target, ruleKey, output, sink);
+    }
+    // A failed prefetch is not an error for the build, it just means the artifact is fetched again.
+    ListenableFuture<Optional<CacheResult>> prefetched =
+        Futures.catching(
+            Futures.transform(prefetch.result, Optional::of, MoreExecutors.directExecutor()),
+            Exception.class,
+            e -> Optional.empty(),
+            MoreExecutors.directExecutor());
+    return Futures.transformAsync(
+        prefetched,
+        result -> {
+          if (result.isPresent() && result.get().getType() == CacheResultType.MISS) {
+            return Futures.immediateFuture(result.get());
+          }
+          if (result.isPresent() && result.get().getType() == CacheResultType.HIT) {
+            heldBytes.addAndGet(-prefetch.sizeBytes);
+            try {
+              deliver(prefetch.output.get(), result.get(), output, sink);
+              hitCount.incrementAndGet();
+              return Futures.immediateFuture(result.get());
+            } catch (IOException e) {
+              LOG.warn(e, "Failed to use prefetched artifact %s, fetching it again.", ruleKey);
+            } finally {
+              deleteQuietly(prefetch.output);
+            }
+          } else {
+            deleteQuietly(prefetch.output);
+          }
+          return fetchFromDelegate(target, ruleKey, output, sink);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void deliver(
+      Path prefetched, CacheResult result, LazyPath output, Optional<ArtifactSink> sink)
+      throws IOException {
+    if (sink.isPresent()) {
+      boolean accepted;
+      try (InputStream payload = Files.newInputStream(prefetched)) {
+        accepted = sink.get().accept(result.getMetadata(), payload);
+      } catch (IOException e) {
+        sink.get().discard();
+        throw e;
+      }
+      if (accepted) {
+        return;
+      }
+    }
+    Files.move(prefetched, output.get(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private ListenableFuture<CacheResult> fetchFromDelegate(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      Optional<ArtifactSink> sink) {
+    return sink.isPresent()
+        ? delegate.fetchAsync(target, ruleKey, output, sink.get())
+        : delegate.fetchAsync(target, ruleKey, output);
+  }
+
+  private static Optional<CacheResult> getHit(ListenableFuture<CacheResult> result) {
+    if (!result.isDone() || result.isCancelled()) {
+      return Optional.empty();
+    }
+    try {
+      CacheResult cacheResult = Futures.getDone(result);
+      return cacheResult.getType() == CacheResultType.HIT
+          ? Optional.of(cacheResult)
+          : Optional.empty();
+    } catch (ExecutionException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static long getSizeBytes(CacheResult result, LazyPath output) {
+    if (result.artifactSizeBytes().isPresent()) {
+      return result.artifactSizeBytes().get();
+    }
+    try {
+      return Files.size(output.get());
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static void deleteQuietly(LazyPath path) {
+    try {
+      Files.deleteIfExists(path.get());
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to delete prefetched artifact %s.", path);
+    }
+  }
+
+  /**
+   * Drops the prefetched artifact for the given key, if any, and releases the space it takes up in
+   * the budget. Still pending prefetches are dropped once they complete.
+   */
+  private void discard(RuleKey ruleKey) {
+    Prefetch prefetch = prefetches.remove(ruleKey);
+    if (prefetch == null) {
+      return;
+    }
+    // Listeners run in the order they were added, so this runs after the size was counted.
+    prefetch.result.addListener(
+        () -> {
+          if (getHit(prefetch.result).isPresent()) {
+            heldBytes.addAndGet(-prefetch.sizeBytes);
+            wastedBytes.addAndGet(prefetch.sizeBytes);
+          }
+          deleteQuietly(prefetch.output);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    prefetches.keySet().forEach(this::discard);
+    prefetchesByDependent.clear();
+
+    LOG.debug(
+        "Prefetched %d artifacts (%d bytes), %d of them were used, %d bytes were wasted.",
+        prefetchCount.get(), fetchedBytes.get(), hitCount.get(), wastedBytes.get());
+    if (prefetchCount.get() > 0) {
+      eventBus.post(
+          ArtifactPrefetchSummaryEvent.newSummary(
+              prefetchCount.get(), hitCount.get(), fetchedBytes.get(), wastedBytes.get()));
+    }
+  }
+
+  /** An artifact to prefetch, see {@link #prefetchAll}. */
+  public static class Request {
+    private final BuildTarget target;
+    private final ProjectFilesystem filesystem;
+    private final RuleKey ruleKey;
+
+    public Request(BuildTarget target, ProjectFilesystem filesystem, RuleKey ruleKey) {
+      this.target = target;
+      this.filesystem = filesystem;
+      this.ruleKey = ruleKey;
+    }
+
+    public RuleKey getRuleKey() {
+      return ruleKey;
+    }
+  }
+
+  /** A fetch that was started ahead of the build engine asking for it. */
+  private static class Prefetch {
+    private final LazyPath output;
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+    private volatile long sizeBytes;
+
+    Prefetch(LazyPath output) {
+      this.output = output;
+    }
+  }
+
+  /** Serves fetches from the prefetched artifacts, and forwards everything else. */
+  private class PrefetchingArtifactCache implements ArtifactCache, CacheDecorator {
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(
+        @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+      return fetchPrefetched(target, ruleKey, output, Optional.empty());
+    }
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(
+        @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+      return fetchPrefetched(target, ruleKey, output, Optional.of(sink));
+    }
+
+    @Override
+    public void skipPendingAndFutureAsyncFetches() {
+      delegate.skipPendingAndFutureAsyncFetches();
+    }
+
+    @Override
+    public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+      return delegate.store(info, output);
+    }
+
+    @Override
+    public ListenableFuture<Void> store(
+        ImmutableList<Pair<ArtifactInfo, BorrowablePath>> artifacts) {
+      return delegate.store(artifacts);
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+        ImmutableSet<RuleKey> ruleKeys) {
+      return delegate.multiContainsAsync(ruleKeys);
+    }
+
+    @Override
+    public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+      return delegate.deleteAsync(ruleKeys);
+    }
+
+    @Override
+    public CacheReadMode getCacheReadMode() {
+      return delegate.getCacheReadMode();
+    }
+
+    @Override
+    public void close() {
+      // The prefetcher does not own the wrapped cache.
+    }
+
+    @Override
+    public ArtifactCache getDelegate() {
+      return delegate;
+    }
+  }
+}
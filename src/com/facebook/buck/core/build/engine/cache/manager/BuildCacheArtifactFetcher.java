@@ -17,10 +17,11 @@
 package com.facebook.buck.core.build.engine.cache.manager;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCompressionDictionaries;
+import com.facebook.buck.artifact_cache.ArtifactSink;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
-import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
@@ -33,17 +34,23 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
-import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Untar;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
 
 public class BuildCacheArtifactFetcher {
 
@@ -56,6 +63,7 @@ public class BuildCacheArtifactFetcher {
   private final BuckEventBus eventBus;
   private final BuildInfoStoreManager buildInfoStoreManager;
   private final OnDiskBuildInfo onDiskBuildInfo;
+  private final ArtifactCompressionDictionaries compressionDictionaries;
 
   public BuildCacheArtifactFetcher(
       BuildRule rule,
@@ -64,7 +72,8 @@ public class BuildCacheArtifactFetcher {
       OnOutputsWillChange onOutputsWillChange,
       BuckEventBus eventBus,
       BuildInfoStoreManager buildInfoStoreManager,
-      OnDiskBuildInfo onDiskBuildInfo) {
+      OnDiskBuildInfo onDiskBuildInfo,
+      ArtifactCompressionDictionaries compressionDictionaries) {
     this.rule = rule;
     this.buildRuleScopeManager = buildRuleScopeManager;
     this.executorService = executorService;
@@ -72,6 +81,7 @@ public class BuildCacheArtifactFetcher {
     this.eventBus = eventBus;
     this.buildInfoStoreManager = buildInfoStoreManager;
     this.onDiskBuildInfo = onDiskBuildInfo;
+    this.compressionDictionaries = compressionDictionaries;
   }
 
   private Scope buildRuleScope() {
@@ -91,17 +101,21 @@ public class BuildCacheArtifactFetcher {
         new LazyPath() {
           @Override
           protected Path create() throws IOException {
-            return Files.createTempFile(
-                "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
-                ".zip");
+            // Keep it on the same filesystem as prefetched artifacts, which are moved here.
+            return filesystem.resolve(
+                filesystem.createTempFile(
+                    "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
+                    ".zip"));
           }
         };
 
-    // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from the remote cache into the on-disk cache and unzip it
-    // from there.
+    // Caches that support it unpack the artifact while it is being fetched, in which case the
+    // temp file is never created. The rest fall back to downloading it to the temp file.
+    ArtifactUnpacker unpacker = new ArtifactUnpacker(ruleKey, filesystem);
+    ListenableFuture<CacheResult> fetchResult =
+        artifactCache.fetchAsync(rule.getBuildTarget(), ruleKey, lazyZipPath, unpacker);
     return Futures.transformAsync(
-        fetch(artifactCache, ruleKey, lazyZipPath),
+        fetch(ruleKey, artifactCache, fetchResult),
         cacheResult -> {
           try (Scope ignored = buildRuleScope()) {
             // Verify that the rule key we used to fetch the artifact is one of the rule keys
@@ -121,15 +135,22 @@ public class BuildCacheArtifactFetcher {
             }
 
             return Futures.immediateFuture(
-                extractArtifactFromCacheResult(ruleKey, lazyZipPath, filesystem, cacheResult));
+                extractArtifactFromCacheResult(
+                    ruleKey, lazyZipPath, unpacker, filesystem, cacheResult));
           }
         });
   }
 
   public ListenableFuture<CacheResult> fetch(
       ArtifactCache artifactCache, RuleKey ruleKey, LazyPath outputPath) {
+    return fetch(
+        ruleKey, artifactCache, artifactCache.fetchAsync(rule.getBuildTarget(), ruleKey, outputPath));
+  }
+
+  private ListenableFuture<CacheResult> fetch(
+      RuleKey ruleKey, ArtifactCache artifactCache, ListenableFuture<CacheResult> fetchResult) {
     return Futures.transform(
-        artifactCache.fetchAsync(rule.getBuildTarget(), ruleKey, outputPath),
+        fetchResult,
         (CacheResult cacheResult) -> {
           try (Scope ignored = buildRuleScope()) {
             if (cacheResult.getType() != CacheResultType.HIT) {
@@ -168,22 +189,61 @@ public class BuildCacheArtifactFetcher {
   }
 
   private CacheResult extractArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+      RuleKey ruleKey,
+      LazyPath lazyZipPath,
+      ArtifactUnpacker unpacker,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult)
       throws IOException {
 
     // We only unpack artifacts from hits.
     if (!cacheResult.getType().isSuccess()) {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
+      unpacker.discard();
       return cacheResult;
     }
-    onOutputsWillChange.call();
 
     Preconditions.checkState(cacheResult.metadata().isPresent());
     Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
     LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
+    Preconditions.checkState(
+        cacheResult.getMetadata().containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID),
+        "Cache artifact for rulekey %s is missing metadata %s.",
+        ruleKey,
+        BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
+
+    Optional<ImmutableSet<Path>> streamedFiles = unpacker.getExtractedFiles();
+    if (streamedFiles.isPresent()) {
+      // The artifact has already been unpacked while it was being fetched, and the cache has since
+      // verified it, so all that is left to do is to check its contents and commit the metadata.
+      try {
+        commitExtractedArtifact(streamedFiles.get(), cacheResult);
+      } catch (IOException e) {
+        throw extractionFailure(ruleKey, e);
+      }
+      return cacheResult;
+    }
 
     // It should be fine to get the path straight away, since cache already did it's job.
     Path zipPath = lazyZipPath.getUnchecked();
+    if (!compressionDictionaries.canDecompress(cacheResult.getMetadata())) {
+      // Stored by a client with a compression dictionary this one doesn't have. Building the rule
+      // is the only way to get its outputs.
+      LOG.warn(
+          "%s: artifact for rule key %s was compressed with unknown dictionary %s, ignoring it.",
+          rule.getBuildTarget(),
+          ruleKey,
+          cacheResult.getMetadata().get(ArtifactCompressionDictionaries.METADATA_KEY));
+      Files.deleteIfExists(zipPath);
+      return CacheResult.miss();
+    }
+    try {
+      onOutputsWillChange.call();
+    } catch (IOException e) {
+      // The outputs were left as they are, so there's nothing to debug in the artifact.
+      Files.deleteIfExists(zipPath);
+      throw e;
+    }
 
     // We unzip the file in the root of the project directory.
     // Ideally, the following would work:
@@ -195,53 +255,137 @@ public class BuildCacheArtifactFetcher {
     //
     // Unfortunately, this does not appear to work, in practice, because MostFiles fails when trying
     // to resolve a Path for a zip entry against a file Path on disk.
+    try {
+      ImmutableSet<Path> extractedFiles;
+      try (InputStream archive = new BufferedInputStream(Files.newInputStream(zipPath))) {
+        extractedFiles = extract(ruleKey, cacheResult.getMetadata(), archive, filesystem);
+      }
+
+      commitExtractedArtifact(extractedFiles, cacheResult);
+
+      // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
+      // around for debugging purposes.
+      Files.delete(zipPath);
+    } catch (IOException e) {
+      throw extractionFailure(ruleKey, e);
+    }
+
+    return cacheResult;
+  }
+
+  /**
+   * Unpacks a compressed artifact archive into {@code filesystem}, using the compression dictionary
+   * named in its metadata if there is one.
+   */
+  private ImmutableSet<Path> extract(
+      RuleKey ruleKey,
+      Map<String, String> metadata,
+      InputStream payload,
+      ProjectFilesystem filesystem)
+      throws IOException {
     ArtifactCompressionEvent.Started started =
         ArtifactCompressionEvent.started(
             ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey));
     eventBus.post(started);
+    ArtifactCompressionEvent.Finished finished = ArtifactCompressionEvent.finished(started);
     try {
-      // First, clear out the pre-existing metadata directory.  We have to do this *before*
-      // unpacking the zipped artifact, as it includes files that will be stored in the metadata
-      // directory.
-      BuildInfoStore buildInfoStore = buildInfoStoreManager.get(rule.getProjectFilesystem());
-
-      Preconditions.checkState(
-          cacheResult.getMetadata().containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID),
-          "Cache artifact for rulekey %s is missing metadata %s.",
-          ruleKey,
-          BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
+      CountingInputStream compressed = new CountingInputStream(payload);
+      try (CountingInputStream uncompressed =
+          new CountingInputStream(
+              compressionDictionaries.newDecompressingStream(metadata, compressed))) {
+        ImmutableSet<Path> extractedFiles =
+            Untar.tarUnarchiver()
+                .extractArchive(
+                    uncompressed, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+        finished =
+            ArtifactCompressionEvent.finished(
+                started,
+                uncompressed.getCount(),
+                compressed.getCount(),
+                ArtifactCompressionDictionaries.getDictionaryId(metadata));
+        return extractedFiles;
+      }
+    } finally {
+      eventBus.post(finished);
+    }
+  }
 
-      ImmutableSet<Path> extractedFiles =
-          ArchiveFormat.TAR_ZSTD
-              .getUnarchiver()
-              .extractArchive(
-                  zipPath.toAbsolutePath(),
-                  filesystem,
-                  ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+  /** Checks the unpacked contents of an artifact and marks the rule as fetched from cache. */
+  private void commitExtractedArtifact(ImmutableSet<Path> extractedFiles, CacheResult cacheResult)
+      throws IOException {
+    onDiskBuildInfo.validateArtifact(extractedFiles);
 
-      onDiskBuildInfo.validateArtifact(extractedFiles);
+    // TODO(cjhopman): This should probably record metadata with the buildInfoRecorder, not
+    // directly into the buildInfoStore.
+    // Also write out the build metadata.
+    buildInfoStoreManager
+        .get(rule.getProjectFilesystem())
+        .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+  }
 
-      // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-      // around for debugging purposes.
-      Files.delete(zipPath);
+  private static IOException extractionFailure(RuleKey ruleKey, IOException e) {
+    return new IOException(
+        String.format(
+            "%s extracting artifact for Rule Key: %s. Suggested fix: try `buck clean`",
+            e.getMessage(), ruleKey),
+        e.getCause());
+  }
 
-      // TODO(cjhopman): This should probably record metadata with the buildInfoRecorder, not
-      // directly into the buildInfoStore.
-      // Also write out the build metadata.
-      buildInfoStore.updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
-    } catch (IOException e) {
-      throw new IOException(
-          String.format(
-              "%s extracting artifact for Rule Key: %s. Suggested fix: try `buck clean`",
-              e.getMessage(), ruleKey),
-          e.getCause());
-    } finally {
-      eventBus.post(ArtifactCompressionEvent.finished(started));
+  /**
+   * Unpacks an artifact into the project filesystem while it is being fetched. The files are only
+   * trusted once the fetch has completed with a hit, and the rule isn't marked as fetched from
+   * cache until then: {@link OnOutputsWillChange} clears the rule's metadata before anything is
+   * unpacked. If unpacking fails half way through, the files written so far are deleted, and if
+   * the cache later finds the payload corrupt (e.g. its checksum doesn't match), {@link #discard}
+   * deletes everything that was unpacked.
+   */
+  private class ArtifactUnpacker implements ArtifactSink {
+    private final RuleKey ruleKey;
+    private final ProjectFilesystem filesystem;
+    @Nullable private ImmutableSet<Path> extractedFiles;
+
+    ArtifactUnpacker(RuleKey ruleKey, ProjectFilesystem filesystem) {
+      this.ruleKey = ruleKey;
+      this.filesystem = filesystem;
     }
 
-    return cacheResult;
+    @Override
+    public synchronized boolean accept(ImmutableMap<String, String> metadata, InputStream payload)
+        throws IOException {
+      extractedFiles = null;
+      if (!compressionDictionaries.canDecompress(metadata)) {
+        return false;
+      }
+      onOutputsWillChange.call();
+
+      extractedFiles = extract(ruleKey, metadata, payload, filesystem);
+      return true;
+    }
+
+    @Override
+    public synchronized void discard() {
+      if (extractedFiles == null) {
+        return;
+      }
+      for (Path path : extractedFiles) {
+        try {
+          filesystem.deleteFileAtPathIfExists(path);
+        } catch (IOException e) {
+          LOG.warn(e, "Failed to delete %s unpacked from a corrupt artifact.", path);
+        }
+      }
+      extractedFiles = null;
+    }
+
+    synchronized Optional<ImmutableSet<Path>> getExtractedFiles() {
+      return Optional.ofNullable(extractedFiles);
+    }
   }
 
+  /**
+   * Called before a fetched artifact is written over the rule's outputs. Throwing leaves the outputs
+   * as they are and fails the fetch.
+   */
   @FunctionalInterface
   public interface OnOutputsWillChange {
     void call() throws IOException;
@@ -17,6 +17,7 @@
 package com.facebook.buck.core.build.engine.cache.manager;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCompressionDictionaries;
 import com.facebook.buck.artifact_cache.ArtifactUploader;
 import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
@@ -45,6 +46,7 @@ public class BuildCacheArtifactUploader {
   private final BuckEventBus eventBus;
   private final ArtifactCache artifactCache;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final ArtifactCompressionDictionaries compressionDictionaries;
 
   public BuildCacheArtifactUploader(
       RuleKey defaultKey,
@@ -54,7 +56,8 @@ public class BuildCacheArtifactUploader {
       ManifestRuleKeyManager manifestRuleKeyManager,
       BuckEventBus eventBus,
       ArtifactCache artifactCache,
-      Optional<Long> artifactCacheSizeLimit) {
+      Optional<Long> artifactCacheSizeLimit,
+      ArtifactCompressionDictionaries compressionDictionaries) {
     this.defaultKey = defaultKey;
     this.inputBasedKey = inputBasedKey;
     this.onDiskBuildInfo = onDiskBuildInfo;
@@ -63,6 +66,7 @@ public class BuildCacheArtifactUploader {
     this.eventBus = eventBus;
     this.artifactCache = artifactCache;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.compressionDictionaries = compressionDictionaries;
   }
 
   /**
@@ -119,7 +123,8 @@ public class BuildCacheArtifactUploader {
         onDiskBuildInfo.getPathsForArtifact(),
         rule.getBuildTarget(),
         rule.getProjectFilesystem(),
-        buildTimeMs);
+        buildTimeMs,
+        compressionDictionaries.getForRuleType(rule.getType()));
   }
 
   /** @return whether we should upload the given rules artifacts to cache. */
@@ -244,7 +244,9 @@ public class BuildRuleScopeManager {
     private BuildRuleEvent.Finished getEvent(BuildRuleEvent.Resumed resumedEvent) {
       boolean failureOrBuiltLocally =
           input.getStatus() == BuildRuleStatus.FAIL
-              || (input.isSuccess() && input.getSuccess() == BuildRuleSuccessType.BUILT_LOCALLY);
+              || (input.isSuccess()
+                  && (input.getSuccess() == BuildRuleSuccessType.BUILT_LOCALLY
+                      || input.getSuccess() == BuildRuleSuccessType.BUILT_LOCALLY_RACING_CACHE));
       // Log the result to the event bus.
       return BuildRuleEvent.finished(
           resumedEvent,
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.core.build.engine.config;
+
+import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import org.immutables.value.Value;
+
+/** Controls how far ahead of the rules being built the build engine fetches cached artifacts. */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractArtifactPrefetchInfo {
+
+  public static final ArtifactPrefetchInfo DISABLED = ArtifactPrefetchInfo.of(0, 0, 0);
+
+  /** @return how many levels of dependencies below a scheduled rule to prefetch. */
+  public abstract int getDepth();
+
+  /** @return the maximum number of prefetches that may be in flight at the same time. */
+  public abstract int getMaxPendingFetches();
+
+  /** @return the maximum number of bytes of prefetched artifacts waiting to be used. */
+  public abstract long getMaxHeldBytes();
+
+  public boolean isEnabled() {
+    return getDepth() > 0;
+  }
+}
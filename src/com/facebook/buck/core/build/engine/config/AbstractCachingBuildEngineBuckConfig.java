@@ -23,6 +23,7 @@ import com.facebook.buck.core.resources.ResourcesConfig;
 import com.facebook.buck.core.util.immutables.BuckStyleTuple;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.util.ThrowingCloseableMemoizedSupplier;
+import com.facebook.buck.util.unit.SizeUnit;
 import java.io.IOException;
 import java.util.Optional;
 import org.immutables.value.Value;
@@ -79,4 +80,41 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
         resourcesConfig.getDefaultResourceAmounts(),
         resourcesConfig.getResourceAmountsPerRuleType());
   }
+
+  /**
+   * @return whether to build the rules with the longest chains of dependents first, as estimated
+   *     from the durations of past builds.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getDelegate().getBooleanValue("build", "critical_path_scheduling", false);
+  }
+
+  /**
+   * @return which rules the build engine builds locally while their artifacts are being fetched
+   *     from the cache.
+   */
+  public SpeculativeBuildInfo getSpeculativeBuildInfo() {
+    long budgetMillis = getDelegate().getLong("build", "speculative_build_budget_ms").orElse(0L);
+    if (budgetMillis <= 0) {
+      return SpeculativeBuildInfo.DISABLED;
+    }
+    return SpeculativeBuildInfo.of(
+        budgetMillis,
+        getDelegate().getLong("build", "speculative_build_max_rule_ms").orElse(2000L));
+  }
+
+  /** @return how the build engine prefetches cached artifacts of dependencies. */
+  public ArtifactPrefetchInfo getArtifactPrefetchInfo() {
+    int depth = getDelegate().getInteger("build", "artifact_prefetch_depth").orElse(0);
+    if (depth <= 0) {
+      return ArtifactPrefetchInfo.DISABLED;
+    }
+    return ArtifactPrefetchInfo.of(
+        depth,
+        getDelegate().getInteger("build", "artifact_prefetch_max_pending").orElse(32),
+        getDelegate()
+            .getValue("build", "artifact_prefetch_max_size")
+            .map(SizeUnit::parseBytes)
+            .orElse(256 * 1024 * 1024L));
+  }
 }
@@ -22,6 +22,7 @@ import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
 import org.immutables.value.Value;
 
 @Value.Immutable
@@ -40,10 +41,19 @@ abstract class AbstractResourceAwareSchedulingInfo {
   public abstract ImmutableMap<String, ResourceAmounts> getAmountsPerRuleType();
 
   public ResourceAmounts getResourceAmountsForRule(BuildRule rule) {
+    return getResourceAmountsForRule(rule, Optional.empty());
+  }
+
+  /**
+   * @param learnedAmounts the resources {@code rule} is estimated to need from past builds, which
+   *     are used unless amounts are configured for its type.
+   */
+  public ResourceAmounts getResourceAmountsForRule(
+      BuildRule rule, Optional<ResourceAmounts> learnedAmounts) {
     if (isRuleResourceFree(rule)) {
       return ResourceAmounts.zero();
     } else {
-      return getResourceAmountsForRuleOrDefaultAmounts(rule);
+      return getResourceAmountsForRuleOrDefaultAmounts(rule, learnedAmounts);
     }
   }
 
@@ -59,12 +69,13 @@ abstract class AbstractResourceAwareSchedulingInfo {
     return !rule.hasBuildSteps();
   }
 
-  private ResourceAmounts getResourceAmountsForRuleOrDefaultAmounts(BuildRule rule) {
+  private ResourceAmounts getResourceAmountsForRuleOrDefaultAmounts(
+      BuildRule rule, Optional<ResourceAmounts> learnedAmounts) {
     Preconditions.checkArgument(isResourceAwareSchedulingEnabled());
     if (getAmountsPerRuleType().containsKey(rule.getType())) {
       return getAmountsPerRuleType().get(rule.getType());
     } else {
-      return getDefaultResourceAmounts();
+      return learnedAmounts.orElse(getDefaultResourceAmounts());
     }
   }
 }
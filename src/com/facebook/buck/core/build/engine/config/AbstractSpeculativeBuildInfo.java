@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.config;
+
+import com.facebook.buck.core.util.immutables.BuckStyleTuple;
+import org.immutables.value.Value;
+
+/**
+ * Controls which rules the build engine builds locally while their artifacts are being fetched from
+ * the cache.
+ */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractSpeculativeBuildInfo {
+
+  public static final SpeculativeBuildInfo DISABLED = SpeculativeBuildInfo.of(0, 0);
+
+  /**
+   * @return the total time, in milliseconds, that rules built locally while being fetched are
+   *     expected to take over a build.
+   */
+  public abstract long getBudgetMillis();
+
+  /** @return the longest a rule may be expected to take to build to be built while fetched. */
+  public abstract long getMaxRuleMillis();
+
+  public boolean isEnabled() {
+    return getBudgetMillis() > 0 && getMaxRuleMillis() > 0;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decides which of a fetch of a rule's artifact and a local build of the same rule, running at the
+ * same time, gets to write the rule's outputs.
+ *
+ * <p>The outputs are claimed by whichever side is about to change them first. A fetch holds its
+ * claim until it completes, and gives it up if it completes without a hit, so that the local build
+ * can then go ahead as it would have after a miss. A local build never gives up its claim.
+ */
+class CacheFetchRace {
+
+  enum State {
+    /** Neither side has started changing the outputs. */
+    OPEN,
+    /** The fetch is writing the outputs. */
+    FETCHING,
+    /** The fetch has written the outputs. */
+    FETCHED,
+    /** The local build owns the outputs. */
+    BUILDING_LOCALLY,
+  }
+
+  private final AtomicReference<State> state = new AtomicReference<>(State.OPEN);
+
+  /**
+   * Claims the outputs for the fetch. The fetch may claim them again, e.g. when it is retried.
+   *
+   * @return whether the fetch may change the outputs.
+   */
+  boolean claimForFetch() {
+    return state.compareAndSet(State.OPEN, State.FETCHING) || state.get() == State.FETCHING;
+  }
+
+  /** Releases the claim of the fetch, keeping the outputs if it ended with a hit. */
+  void fetchFinished(boolean hit) {
+    state.compareAndSet(State.FETCHING, hit ? State.FETCHED : State.OPEN);
+  }
+
+  /**
+   * Claims the outputs for the local build.
+   *
+   * @return whether the local build may change the outputs. If not, the fetch is writing them or
+   *     has written them.
+   */
+  boolean claimForLocalBuild() {
+    return state.compareAndSet(State.OPEN, State.BUILDING_LOCALLY)
+        || state.get() == State.BUILDING_LOCALLY;
+  }
+
+  State getState() {
+    return state.get();
+  }
+}
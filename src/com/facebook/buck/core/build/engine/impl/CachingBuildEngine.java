@@ -18,6 +18,7 @@ package com.facebook.buck.core.build.engine.impl;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleCompletionWaiter;
@@ -31,9 +32,16 @@ import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoRecorder;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
+import com.facebook.buck.core.build.engine.cache.manager.ArtifactPrefetcher;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
+import com.facebook.buck.core.build.engine.config.ArtifactPrefetchInfo;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
+import com.facebook.buck.core.build.engine.schedule.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.engine.schedule.CriticalPathPriorities;
+import com.facebook.buck.core.build.engine.schedule.PredictedCriticalPathEntry;
+import com.facebook.buck.core.build.engine.schedule.RuleResourceUsageHistory;
+import com.facebook.buck.core.build.engine.schedule.SpeculativeBuildPolicy;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
@@ -47,6 +55,7 @@ import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.attr.HasRuntimeDeps;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.rules.keys.RuleKeyDiagnostics;
@@ -74,6 +83,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -90,6 +100,8 @@ import javax.annotation.Nullable;
  * tries to fetch its output from an {@link ArtifactCache} to avoid doing any computation.
  */
 public class CachingBuildEngine implements BuildEngine, Closeable {
+  private static final Logger LOG = Logger.get(CachingBuildEngine.class);
+
   public static final ResourceAmounts CACHE_CHECK_RESOURCE_AMOUNTS = ResourceAmounts.of(0, 0, 1, 1);
 
   public static final ResourceAmounts RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS =
@@ -131,8 +143,16 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final FileHashCache fileHashCache;
   @VisibleForTesting final RuleKeyFactories ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
+  private final ArtifactPrefetchInfo artifactPrefetchInfo;
+  private final Set<BuildTarget> prefetchCheckedDeps = Sets.newConcurrentHashSet();
+  private final ConcurrentMap<ArtifactCache, ArtifactPrefetcher> prefetchers =
+      Maps.newConcurrentMap();
 
   private final RuleDepsCache ruleDeps;
+  private final Optional<BuildRuleDurationHistory> ruleDurationHistory;
+  private final Optional<CriticalPathPriorities> criticalPathPriorities;
+  private final Optional<RuleResourceUsageHistory> resourceUsageHistory;
+  private final Optional<SpeculativeBuildPolicy> speculativeBuildPolicy;
   private final Optional<UnskippedBuildEngineActionTracker> unskippedRulesTracker;
   private final BuildRuleDurationTracker buildRuleDurationTracker = new BuildRuleDurationTracker();
   private final RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics;
@@ -162,6 +182,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       TargetConfigurationSerializer targetConfigurationSerializer,
       BuildInfoStoreManager buildInfoStoreManager,
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      ArtifactPrefetchInfo artifactPrefetchInfo,
+      Optional<BuildRuleDurationHistory> ruleDurationHistory,
+      Optional<RuleResourceUsageHistory> resourceUsageHistory,
+      Optional<SpeculativeBuildPolicy> speculativeBuildPolicy,
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
@@ -181,6 +205,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         ruleKeyFactories,
         remoteBuildRuleCompletionWaiter,
         resourceAwareSchedulingInfo,
+        artifactPrefetchInfo,
+        ruleDurationHistory,
+        resourceUsageHistory,
+        speculativeBuildPolicy,
         new RuleKeyDiagnostics<>(
             rule ->
                 ruleKeyFactories
@@ -211,6 +239,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       RuleKeyFactories ruleKeyFactories,
       RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter,
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
+      ArtifactPrefetchInfo artifactPrefetchInfo,
+      Optional<BuildRuleDurationHistory> ruleDurationHistory,
+      Optional<RuleResourceUsageHistory> resourceUsageHistory,
+      Optional<SpeculativeBuildPolicy> speculativeBuildPolicy,
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
       boolean consoleLogBuildFailuresInline,
       Optional<ManifestService> manifestService) {
@@ -229,10 +261,16 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.fileHashCache = cachingBuildEngineDelegate.getFileHashCache();
     this.ruleKeyFactories = ruleKeyFactories;
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
+    this.artifactPrefetchInfo = artifactPrefetchInfo;
     this.buildInfoStoreManager = buildInfoStoreManager;
     this.remoteBuildRuleCompletionWaiter = remoteBuildRuleCompletionWaiter;
 
     this.ruleDeps = new DefaultRuleDepsCache(resolver, actionToBuildRuleResolver);
+    this.ruleDurationHistory = ruleDurationHistory;
+    this.resourceUsageHistory = resourceUsageHistory;
+    this.speculativeBuildPolicy = speculativeBuildPolicy;
+    this.criticalPathPriorities =
+        ruleDurationHistory.map(history -> new CriticalPathPriorities(ruleDeps, history));
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
@@ -258,6 +296,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       }
       terminateBuildWithFailure(new CancellationException("Cancelling due to engine shutdown."));
       Futures.allAsList(asyncCallbacks).get();
+      prefetchers.values().forEach(ArtifactPrefetcher::close);
     } catch (InterruptedException e) {
       e.printStackTrace();
     } catch (IOException | ExecutionException e) {
@@ -341,6 +380,15 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private void registerTopLevelRule(BuildRule rule, BuckEventBus eventBus) {
     unskippedRulesTracker.ifPresent(tracker -> tracker.registerTopLevelRule(rule, eventBus));
+    criticalPathPriorities.ifPresent(priorities -> priorities.addTopLevelRule(rule));
+  }
+
+  /**
+   * @return the chain of rules that was estimated to take the longest to build, if rules are
+   *     scheduled by their estimated critical path.
+   */
+  public Optional<ImmutableList<PredictedCriticalPathEntry>> getPredictedCriticalPath() {
+    return criticalPathPriorities.map(CriticalPathPriorities::getPredictedCriticalPath);
   }
 
   private void markRuleAsUsed(BuildRule rule, BuckEventBus eventBus) {
@@ -372,7 +420,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     ListenableFuture<BuildResult> result =
         Futures.transformAsync(
             ruleKey,
-            input -> processBuildRule(rule, buildContext, executionContext),
+            input -> {
+              prefetchDeps(rule, input, buildContext);
+              return processBuildRule(rule, buildContext, executionContext);
+            },
             serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
     if (!(rule instanceof HasRuntimeDeps)) {
       future.setFuture(result);
@@ -469,6 +520,100 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     return buildMode == BuildType.POPULATE_FROM_REMOTE_CACHE || buildContext.isKeepGoing();
   }
 
+  private Optional<ArtifactPrefetcher> getPrefetcher(BuildEngineBuildContext buildContext) {
+    if (!artifactPrefetchInfo.isEnabled()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        prefetchers.computeIfAbsent(
+            buildContext.getArtifactCache(),
+            cache ->
+                new ArtifactPrefetcher(
+                    cache,
+                    buildContext.getEventBus(),
+                    artifactPrefetchInfo.getMaxPendingFetches(),
+                    artifactPrefetchInfo.getMaxHeldBytes())));
+  }
+
+  /**
+   * The cache is checked for a rule before its dependencies are built, so its dependencies are
+   * only looked up once it missed. Start fetching the artifacts of the dependencies a few levels
+   * down while the rule itself is being looked up, so that they are ready if it does miss.
+   *
+   * <p>Finding the dependencies to prefetch reads their build metadata from disk, so it is done on
+   * the build executor rather than on the thread scheduling the rule.
+   */
+  private void prefetchDeps(
+      BuildRule rule, RuleKey ruleKey, BuildEngineBuildContext buildContext) {
+    Optional<ArtifactPrefetcher> prefetcher = getPrefetcher(buildContext);
+    if (!prefetcher.isPresent()
+        || !rule.isCacheable()
+        || buildMode == BuildType.POPULATE_FROM_REMOTE_CACHE) {
+      return;
+    }
+    serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS)
+        .execute(
+            () -> {
+              try {
+                prefetchDeps(rule, ruleKey, buildContext, prefetcher.get());
+              } catch (RuntimeException e) {
+                LOG.warn(e, "Failed to prefetch the dependencies of %s.", rule.getBuildTarget());
+              }
+            });
+  }
+
+  private void prefetchDeps(
+      BuildRule rule,
+      RuleKey ruleKey,
+      BuildEngineBuildContext buildContext,
+      ArtifactPrefetcher prefetcher) {
+    if (hasMatchingLocalKey(rule, ruleKey, buildContext)) {
+      return;
+    }
+
+    List<ArtifactPrefetcher.Request> requests = new ArrayList<>();
+    List<BuildRule> level = ImmutableList.of(rule);
+    for (int depth = 0; depth < artifactPrefetchInfo.getDepth() && !level.isEmpty(); depth++) {
+      List<BuildRule> nextLevel = new ArrayList<>();
+      for (BuildRule parent : level) {
+        for (BuildRule dep : ruleDeps.get(parent)) {
+          // Deps reachable from several rules are only checked for the first one.
+          if (!dep.isCacheable()
+              || results.containsKey(dep.getBuildTarget())
+              || !prefetchCheckedDeps.add(dep.getBuildTarget())) {
+            continue;
+          }
+          // Rule keys are calculated bottom up, so the keys of the deps are usually known by now.
+          // Don't wait for the ones that aren't.
+          ListenableFuture<RuleKey> depKey = calculateRuleKey(dep, buildContext);
+          if (!depKey.isDone()) {
+            continue;
+          }
+          RuleKey key = Futures.getUnchecked(depKey);
+          if (hasMatchingLocalKey(dep, key, buildContext)) {
+            continue;
+          }
+          requests.add(
+              new ArtifactPrefetcher.Request(
+                  dep.getBuildTarget(), dep.getProjectFilesystem(), key));
+          nextLevel.add(dep);
+        }
+      }
+      level = nextLevel;
+    }
+    prefetcher.prefetchAll(ruleKey, requests);
+  }
+
+  private boolean hasMatchingLocalKey(
+      BuildRule rule, RuleKey ruleKey, BuildEngineBuildContext buildContext) {
+    OnDiskBuildInfo onDiskBuildInfo =
+        buildContext.createOnDiskBuildInfoFor(
+            rule.getBuildTarget(),
+            rule.getProjectFilesystem(),
+            buildInfoStoreManager.get(rule.getProjectFilesystem()));
+    return ruleKey.equals(onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY).orElse(null));
+  }
+
   private ListenableFuture<BuildResult> processBuildRule(
       BuildRule rule, BuildEngineBuildContext buildContext, ExecutionContext executionContext) {
 
@@ -504,7 +649,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             service,
             this.ruleDeps,
             rule,
-            buildContext,
+            getPrefetcher(buildContext)
+                .map(prefetcher -> buildContext.withArtifactCache(prefetcher.getCache()))
+                .orElse(buildContext),
             executionContext,
             onDiskBuildInfo,
             buildInfoRecorder,
@@ -562,5 +709,62 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public long getSchedulingPriority(BuildRule rule) {
+      return cachingBuildEngine
+          .criticalPathPriorities
+          .map(priorities -> priorities.getRemainingMillis(rule))
+          .orElse(0L);
+    }
+
+    @Override
+    public Optional<ResourceAmounts> getLearnedResourceAmounts(BuildRule rule) {
+      return cachingBuildEngine.resourceUsageHistory.flatMap(
+          history -> history.getEstimatedAmounts(rule));
+    }
+
+    @Override
+    public void onRuleBuiltLocally(BuildRule rule, long durationMillis, long cpuMillis) {
+      // Speculative builds are decided from the same durations as critical path scheduling, and
+      // share the history when both are enabled.
+      Optional<BuildRuleDurationHistory> durationHistory =
+          cachingBuildEngine.ruleDurationHistory.isPresent()
+              ? cachingBuildEngine.ruleDurationHistory
+              : cachingBuildEngine.speculativeBuildPolicy.map(
+                  SpeculativeBuildPolicy::getDurationHistory);
+      durationHistory.ifPresent(history -> history.record(rule, durationMillis));
+      cachingBuildEngine.resourceUsageHistory.ifPresent(
+          history -> history.recordLocalBuild(rule, durationMillis, cpuMillis));
+    }
+
+    @Override
+    public OptionalLong reserveSpeculativeBuild(BuildRule rule, long outputSizeBytes) {
+      return cachingBuildEngine
+          .speculativeBuildPolicy
+          .map(policy -> policy.reserve(rule, outputSizeBytes))
+          .orElse(OptionalLong.empty());
+    }
+
+    @Override
+    public void refundSpeculativeBuild(long reservedMillis) {
+      cachingBuildEngine.speculativeBuildPolicy.ifPresent(policy -> policy.refund(reservedMillis));
+    }
+
+    @Override
+    public void onRuleKeyCacheChecked(CacheResult cacheResult, long durationMillis) {
+      if (!cachingBuildEngine.speculativeBuildPolicy.isPresent()) {
+        return;
+      }
+      SpeculativeBuildPolicy policy = cachingBuildEngine.speculativeBuildPolicy.get();
+      if (cacheResult.getType() == CacheResultType.MISS) {
+        policy.recordMiss(durationMillis);
+      } else if (cacheResult.getType() == CacheResultType.HIT) {
+        String outputSize = cacheResult.getMetadata().get(BuildInfo.MetadataKey.OUTPUT_SIZE);
+        if (outputSize != null) {
+          policy.recordHit(Long.parseLong(outputSize), durationMillis);
+        }
+      }
+    }
   }
 }
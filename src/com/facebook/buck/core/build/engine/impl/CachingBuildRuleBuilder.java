@@ -47,6 +47,7 @@ import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine.StepType;
 import com.facebook.buck.core.build.engine.manifest.ManifestFetchResult;
 import com.facebook.buck.core.build.engine.manifest.ManifestStoreResult;
+import com.facebook.buck.core.build.engine.schedule.RuleResourceUsageHistory;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.engine.type.UploadToCacheResultType;
@@ -113,6 +114,8 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashSet;
@@ -120,8 +123,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import javax.annotation.Nonnull;
@@ -159,6 +164,7 @@ class CachingBuildRuleBuilder {
 
   private final DependencyFileRuleKeyManager dependencyFileRuleKeyManager;
   private final BuildCacheArtifactFetcher buildCacheArtifactFetcher;
+  private final BuildCacheArtifactFetcher racingCacheArtifactFetcher;
   private final InputBasedRuleKeyManager inputBasedRuleKeyManager;
   private final ManifestRuleKeyManager manifestRuleKeyManager;
   private final BuildCacheArtifactUploader buildCacheArtifactUploader;
@@ -191,6 +197,7 @@ class CachingBuildRuleBuilder {
 
   private @Nullable volatile Throwable firstFailure = null;
   private @Nullable volatile StrategyBuildResult strategyResult = null;
+  private @Nullable volatile CacheFetchRace cacheFetchRace = null;
 
   public CachingBuildRuleBuilder(
       BuildRuleBuilderDelegate buildRuleBuilderDelegate,
@@ -270,11 +277,24 @@ class CachingBuildRuleBuilder {
         new BuildCacheArtifactFetcher(
             rule,
             buildRuleScopeManager,
-            serviceByAdjustingDefaultWeightsTo(CachingBuildEngine.CACHE_CHECK_RESOURCE_AMOUNTS),
+            serviceByAdjustingDefaultWeightsTo(CachingBuildEngine.CACHE_CHECK_RESOURCE_AMOUNTS)
+                .forBlockingWork(),
             this::onOutputsWillChange,
             eventBus,
             buildInfoStoreManager,
-            onDiskBuildInfo);
+            onDiskBuildInfo,
+            buildContext.getArtifactCompressionDictionaries());
+    this.racingCacheArtifactFetcher =
+        new BuildCacheArtifactFetcher(
+            rule,
+            buildRuleScopeManager,
+            serviceByAdjustingDefaultWeightsTo(CachingBuildEngine.CACHE_CHECK_RESOURCE_AMOUNTS)
+                .forBlockingWork(),
+            this::onFetchedOutputsWillChange,
+            eventBus,
+            buildInfoStoreManager,
+            onDiskBuildInfo,
+            buildContext.getArtifactCompressionDictionaries());
     inputBasedRuleKeyManager =
         new InputBasedRuleKeyManager(
             eventBus,
@@ -316,7 +336,8 @@ class CachingBuildRuleBuilder {
             manifestRuleKeyManager,
             eventBus,
             artifactCache,
-            artifactCacheSizeLimit);
+            artifactCacheSizeLimit,
+            buildContext.getArtifactCompressionDictionaries());
     this.customBuildRuleStrategy = customBuildRuleStrategy;
   }
 
@@ -475,7 +496,9 @@ class CachingBuildRuleBuilder {
         break;
 
       case BUILT_LOCALLY:
+      case BUILT_LOCALLY_RACING_CACHE:
       case FETCHED_FROM_CACHE:
+      case FETCHED_FROM_CACHE_RACING_LOCAL_BUILD:
       case FETCHED_FROM_CACHE_INPUT_BASED:
       case FETCHED_FROM_CACHE_MANIFEST_BASED:
         throw new RuntimeException(String.format("Unexpected success type %s.", success));
@@ -519,9 +542,11 @@ class CachingBuildRuleBuilder {
 
         switch (success) {
           case BUILT_LOCALLY:
-            finalizeBuiltLocally();
+          case BUILT_LOCALLY_RACING_CACHE:
+            finalizeBuiltLocally(success);
             break;
           case FETCHED_FROM_CACHE:
+          case FETCHED_FROM_CACHE_RACING_LOCAL_BUILD:
           case FETCHED_FROM_CACHE_INPUT_BASED:
           case FETCHED_FROM_CACHE_MANIFEST_BASED:
             finalizeFetchedFromCache(success);
@@ -600,6 +625,7 @@ class CachingBuildRuleBuilder {
 
     switch (success) {
       case FETCHED_FROM_CACHE:
+      case FETCHED_FROM_CACHE_RACING_LOCAL_BUILD:
         break;
       case FETCHED_FROM_CACHE_MANIFEST_BASED:
         if (SupportsInputBasedRuleKey.isSupported(rule)) {
@@ -619,6 +645,7 @@ class CachingBuildRuleBuilder {
         break;
 
       case BUILT_LOCALLY:
+      case BUILT_LOCALLY_RACING_CACHE:
 
       case MATCHING_RULE_KEY:
       case MATCHING_INPUT_BASED_RULE_KEY:
@@ -643,9 +670,8 @@ class CachingBuildRuleBuilder {
     }
   }
 
-  private void finalizeBuiltLocally()
+  private void finalizeBuiltLocally(BuildRuleSuccessType success)
       throws IOException, StepFailedException, InterruptedException {
-    BuildRuleSuccessType success = BuildRuleSuccessType.BUILT_LOCALLY;
     if (rule instanceof HasPostBuildSteps) {
       executePostBuildSteps(((HasPostBuildSteps) rule).getPostBuildSteps(buildRuleBuildContext));
     }
@@ -987,25 +1013,36 @@ class CachingBuildRuleBuilder {
     AtomicReference<CacheResult> rulekeyCacheResult = new AtomicReference<>();
     ListenableFuture<Optional<BuildResult>> buildResultFuture;
 
-    // 2. Rule key cache lookup.
-    buildResultFuture =
-        // TODO(cjhopman): This should follow the same, simple pattern as everything else. With a
-        // large ui.thread_line_limit, SuperConsole tries to redraw more lines than are available.
-        // These cache threads make it more likely to hit that problem when SuperConsole is aware
-        // of them.
-        Futures.transform(
-            performRuleKeyCacheCheck(/* cacheHitExpected */ false),
-            cacheResult -> {
-              Objects.requireNonNull(cacheResult);
-              cacheResult.getType().verifyValidFinalType();
-              rulekeyCacheResult.set(cacheResult);
-              return getBuildResultForRuleKeyCacheResult(cacheResult);
-            },
-            MoreExecutors.directExecutor());
+    // 2. Rule key cache lookup. Rules that are expected to build well before the fetch completes
+    // are built locally at the same time, rather than waiting for the fetch to miss.
+    OptionalLong speculativeBuildMillis = reserveSpeculativeBuild();
+    CacheFetchRace race = speculativeBuildMillis.isPresent() ? new CacheFetchRace() : null;
+    cacheFetchRace = race;
+    ListenableFuture<Optional<BuildResult>> fetchResultFuture;
+    if (race == null) {
+      buildResultFuture =
+          // TODO(cjhopman): This should follow the same, simple pattern as everything else. With a
+          // large ui.thread_line_limit, SuperConsole tries to redraw more lines than are
+          // available. These cache threads make it more likely to hit that problem when
+          // SuperConsole is aware of them.
+          Futures.transform(
+              performRuleKeyCacheCheck(/* cacheHitExpected */ false),
+              cacheResult -> {
+                Objects.requireNonNull(cacheResult);
+                cacheResult.getType().verifyValidFinalType();
+                rulekeyCacheResult.set(cacheResult);
+                return getBuildResultForRuleKeyCacheResult(cacheResult);
+              },
+              MoreExecutors.directExecutor());
+      fetchResultFuture = buildResultFuture;
 
-    // 3. Before unlocking dependencies, ensure build rule hasn't started remotely.
-    buildResultFuture =
-        attemptDistributedBuildSynchronization(buildResultFuture, rulekeyCacheResult);
+      // 3. Before unlocking dependencies, ensure build rule hasn't started remotely.
+      buildResultFuture =
+          attemptDistributedBuildSynchronization(buildResultFuture, rulekeyCacheResult);
+    } else {
+      fetchResultFuture = fetchRacingLocalBuild(race, rulekeyCacheResult);
+      buildResultFuture = Futures.immediateFuture(Optional.empty());
+    }
 
     // 4. Build deps.
     buildResultFuture =
@@ -1024,6 +1061,14 @@ class CachingBuildRuleBuilder {
                       CachingBuildEngine.SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
             });
 
+    // Everything from here on may change the outputs, so a local build racing the fetch has to
+    // claim them first.
+    if (race != null) {
+      buildResultFuture =
+          transformBuildResultAsyncIfNotPresent(
+              buildResultFuture, () -> claimOutputsForLocalBuild(race, fetchResultFuture));
+    }
+
     // 5. Return to the current rule and check if it was (or is being) built in a pipeline with
     // one of its dependencies
     if (SupportsPipelining.isSupported(rule)) {
@@ -1078,20 +1123,32 @@ class CachingBuildRuleBuilder {
 
     // 10. Before building locally, do a final check that rule hasn't started building remotely.
     // (as time has passed due to building of dependencies)
-    buildResultFuture =
-        attemptDistributedBuildSynchronization(buildResultFuture, rulekeyCacheResult);
+    if (race == null) {
+      buildResultFuture =
+          attemptDistributedBuildSynchronization(buildResultFuture, rulekeyCacheResult);
+    }
 
     // 11. Build the current rule locally, if we have to.
     buildResultFuture =
         transformBuildResultAsyncIfNotPresent(
             buildResultFuture,
-            () ->
-                buildLocally(
-                    Objects.requireNonNull(rulekeyCacheResult.get()),
-                    service
-                        // This needs to adjust the default amounts even in the non-resource-aware
-                        // scheduling case so that RuleScheduleInfo works correctly.
-                        .withDefaultAmounts(getRuleResourceAmounts())));
+            () -> {
+              // A build racing the fetch may start before the fetch has completed.
+              CacheResult cacheResult =
+                  race == null
+                      ? Objects.requireNonNull(rulekeyCacheResult.get())
+                      : Optional.ofNullable(rulekeyCacheResult.get()).orElse(CacheResult.skipped());
+              return buildLocally(
+                  cacheResult,
+                  service
+                      // This needs to adjust the default amounts even in the non-resource-aware
+                      // scheduling case so that RuleScheduleInfo works correctly.
+                      .withDefaultAmounts(getRuleResourceAmounts())
+                      .withPriority(buildRuleBuilderDelegate.getSchedulingPriority(rule))
+                      // Steps mostly wait on processes, so the rule's resource amounts rather
+                      // than the managed threads limit how many rules build at once.
+                      .forBlockingWork());
+            });
 
     if (SupportsPipelining.isSupported(rule)) {
       buildResultFuture.addListener(
@@ -1099,6 +1156,16 @@ class CachingBuildRuleBuilder {
           MoreExecutors.directExecutor());
     }
 
+    // 12. Finish a race with whichever of the fetch and the local build got the outputs.
+    if (race != null) {
+      buildResultFuture =
+          finishCacheFetchRace(
+              race,
+              speculativeBuildMillis.getAsLong(),
+              fetchResultFuture,
+              buildResultFuture);
+    }
+
     // Unwrap the result.
     return Futures.transform(buildResultFuture, Optional::get, MoreExecutors.directExecutor());
   }
@@ -1107,6 +1174,124 @@ class CachingBuildRuleBuilder {
     return firstFailure == null;
   }
 
+  /**
+   * Takes the time the rule is expected to take to build locally out of the budget for racing
+   * fetches, if the rule can be built while its artifact is being fetched and is expected to build
+   * well before the fetch completes.
+   */
+  private OptionalLong reserveSpeculativeBuild() {
+    if (!rule.isCacheable()
+        || buildMode == BuildType.POPULATE_FROM_REMOTE_CACHE
+        // Building a rule locally needs its deps, which shallow builds only fetch on a miss.
+        || (buildMode == BuildType.SHALLOW && !rule.getBuildDeps().isEmpty())
+        || SupportsPipelining.isSupported(rule)
+        || (customBuildRuleStrategy.isPresent() && customBuildRuleStrategy.get().canBuild(rule))
+        || remoteBuildRuleCompletionWaiter.shouldWaitForRemoteCompletionOfBuildRule(
+            rule.getFullyQualifiedName())) {
+      return OptionalLong.empty();
+    }
+    // The size of the outputs when the rule was last built stands in for the size of the artifact.
+    Optional<String> outputSize = onDiskBuildInfo.getValue(MetadataKey.OUTPUT_SIZE);
+    if (!outputSize.isPresent()) {
+      return OptionalLong.empty();
+    }
+    return buildRuleBuilderDelegate.reserveSpeculativeBuild(
+        rule, Long.parseLong(outputSize.get()));
+  }
+
+  private ListenableFuture<Optional<BuildResult>> fetchRacingLocalBuild(
+      CacheFetchRace race, AtomicReference<CacheResult> rulekeyCacheResult) {
+    ListenableFuture<Optional<BuildResult>> fetchResult =
+        Futures.transform(
+            performRuleKeyCacheCheck(/* cacheHitExpected */ false, racingCacheArtifactFetcher),
+            cacheResult -> {
+              Objects.requireNonNull(cacheResult);
+              cacheResult.getType().verifyValidFinalType();
+              rulekeyCacheResult.set(cacheResult);
+              boolean hit = cacheResult.getType().isSuccess();
+              race.fetchFinished(hit);
+              if (!hit) {
+                return Optional.empty();
+              }
+              return Optional.of(
+                  success(BuildRuleSuccessType.FETCHED_FROM_CACHE_RACING_LOCAL_BUILD, cacheResult));
+            },
+            MoreExecutors.directExecutor());
+    // A fetch that fails, or that loses the race, leaves the rule to the local build.
+    return Futures.catching(
+        fetchResult,
+        Throwable.class,
+        throwable -> {
+          LOG.debug(throwable, "Fetch of %s racing a local build didn't complete.", rule);
+          race.fetchFinished(false);
+          return Optional.empty();
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Claims the outputs for building the rule locally. If the fetch racing the build is writing the
+   * outputs or has written them, the build only goes ahead if the fetch doesn't end with a hit.
+   */
+  private ListenableFuture<Optional<BuildResult>> claimOutputsForLocalBuild(
+      CacheFetchRace race, ListenableFuture<Optional<BuildResult>> fetchResult) {
+    if (race.claimForLocalBuild()) {
+      // The fetch is dropped when it gets to writing the outputs, rather than cancelled, so that
+      // the cache can clean up after it.
+      return Futures.immediateFuture(Optional.empty());
+    }
+    return Futures.transformAsync(
+        fetchResult,
+        fetched ->
+            fetched.isPresent()
+                ? Futures.immediateFuture(fetched)
+                : claimOutputsForLocalBuild(race, fetchResult),
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * @return the result of the fetch as soon as it hits, without waiting for the rule's deps, or
+   *     else the result of the local build.
+   */
+  private ListenableFuture<Optional<BuildResult>> finishCacheFetchRace(
+      CacheFetchRace race,
+      long reservedMillis,
+      ListenableFuture<Optional<BuildResult>> fetchResult,
+      ListenableFuture<Optional<BuildResult>> localResult) {
+    SettableFuture<Optional<BuildResult>> result = SettableFuture.create();
+    fetchResult.addListener(
+        () -> {
+          if (Futures.getUnchecked(fetchResult).isPresent()) {
+            result.setFuture(fetchResult);
+          }
+        },
+        MoreExecutors.directExecutor());
+    localResult.addListener(
+        () -> {
+          if (race.getState() == CacheFetchRace.State.BUILDING_LOCALLY) {
+            result.setFuture(localResult);
+            return;
+          }
+          // The rule wasn't built locally, e.g. because a dep failed, so the fetch decides.
+          buildRuleBuilderDelegate.refundSpeculativeBuild(reservedMillis);
+          result.setFuture(
+              Futures.transformAsync(
+                  fetchResult,
+                  fetched -> fetched.isPresent() ? Futures.immediateFuture(fetched) : localResult,
+                  MoreExecutors.directExecutor()));
+        },
+        MoreExecutors.directExecutor());
+    return result;
+  }
+
+  /** @return the CPU time of the current thread in nanoseconds, or 0 if it cannot be measured. */
+  private static long getCurrentThreadCpuTime() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    return threads.isCurrentThreadCpuTimeSupported()
+        ? Math.max(0, threads.getCurrentThreadCpuTime())
+        : 0;
+  }
+
   private ListenableFuture<Optional<BuildResult>> attemptDistributedBuildSynchronization(
       ListenableFuture<Optional<BuildResult>> buildResultFuture,
       AtomicReference<CacheResult> rulekeyCacheResult) {
@@ -1166,14 +1351,18 @@ class CachingBuildRuleBuilder {
   }
 
   private ListenableFuture<CacheResult> performRuleKeyCacheCheck(boolean cacheHitExpected) {
+    return performRuleKeyCacheCheck(cacheHitExpected, buildCacheArtifactFetcher);
+  }
+
+  private ListenableFuture<CacheResult> performRuleKeyCacheCheck(
+      boolean cacheHitExpected, BuildCacheArtifactFetcher fetcher) {
     long cacheRequestTimestampMillis = System.currentTimeMillis();
     return Futures.transform(
-        buildCacheArtifactFetcher
-            .tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
-                defaultKey,
-                artifactCache,
-                // TODO(simons): This should be a shared between all tests, not one per cell
-                rule.getProjectFilesystem()),
+        fetcher.tryToFetchArtifactFromBuildCacheAndOverlayOnTopOfProjectFilesystem(
+            defaultKey,
+            artifactCache,
+            // TODO(simons): This should be a shared between all tests, not one per cell
+            rule.getProjectFilesystem()),
         cacheResult -> {
           RuleKeyCacheResult ruleKeyCacheResult =
               RuleKeyCacheResult.builder()
@@ -1186,6 +1375,8 @@ class CachingBuildRuleBuilder {
                   .build();
           ruleKeyCacheCheckTimestampsMillis =
               new Pair<>(cacheRequestTimestampMillis, System.currentTimeMillis());
+          buildRuleBuilderDelegate.onRuleKeyCacheChecked(
+              cacheResult, System.currentTimeMillis() - cacheRequestTimestampMillis);
           eventBus.post(new RuleKeyCacheResultEvent(ruleKeyCacheResult, cacheHitExpected));
           return cacheResult;
         },
@@ -1252,6 +1443,14 @@ class CachingBuildRuleBuilder {
     // TODO(cjhopman): Delete old outputs.
   }
 
+  /** Called before a fetch racing a local build of the rule changes the outputs. */
+  private void onFetchedOutputsWillChange() throws IOException {
+    if (!Objects.requireNonNull(cacheFetchRace).claimForFetch()) {
+      throw new IOException(String.format("%s is already being built locally.", rule));
+    }
+    onOutputsWillChange();
+  }
+
   private void onRuleAboutToBeBuilt() {
     try {
       onOutputsWillChange();
@@ -1309,7 +1508,8 @@ class CachingBuildRuleBuilder {
 
   private ResourceAmounts getRuleResourceAmounts() {
     if (resourceAwareSchedulingInfo.isResourceAwareSchedulingEnabled()) {
-      return resourceAwareSchedulingInfo.getResourceAmountsForRule(rule);
+      return resourceAwareSchedulingInfo.getResourceAmountsForRule(
+          rule, buildRuleBuilderDelegate.getLearnedResourceAmounts(rule));
     } else {
       return getResourceAmountsForRuleWithCustomScheduleInfo();
     }
@@ -1404,7 +1604,9 @@ class CachingBuildRuleBuilder {
                       CachingBuildEngine.BUILD_RULE_TYPE_CONTEXT_KEY,
                       rule.getType(),
                       CachingBuildEngine.STEP_TYPE_CONTEXT_KEY,
-                      StepType.BUILD_STEP.toString())));
+                      StepType.BUILD_STEP.toString(),
+                      RuleResourceUsageHistory.BUILD_TARGET_CONTEXT_KEY,
+                      rule.getFullyQualifiedName())));
     }
 
     public SettableFuture<Optional<BuildResult>> getFuture() {
@@ -1421,16 +1623,28 @@ class CachingBuildRuleBuilder {
           LOG.debug("Building locally: %s", rule);
           // Attempt to get an approximation of how long it takes to actually run the command.
           long start = System.nanoTime();
+          long startCpu = getCurrentThreadCpuTime();
           executeCommands(ruleExecutionContext, buildRuleBuildContext, buildableContext);
           long end = System.nanoTime();
+          long endCpu = getCurrentThreadCpuTime();
           LOG.debug(
               "Build completed: %s %s (%dns)",
               rule.getType(), rule.getFullyQualifiedName(), end - start);
+          buildRuleBuilderDelegate.onRuleBuiltLocally(
+              rule,
+              TimeUnit.NANOSECONDS.toMillis(end - start),
+              TimeUnit.NANOSECONDS.toMillis(endCpu - startCpu));
         }
 
         // Set the future outside of the scope, to match the behavior of other steps that use
         // futures provided by the ExecutorService.
-        future.set(Optional.of(success(BuildRuleSuccessType.BUILT_LOCALLY, cacheResult)));
+        future.set(
+            Optional.of(
+                success(
+                    cacheFetchRace == null
+                        ? BuildRuleSuccessType.BUILT_LOCALLY
+                        : BuildRuleSuccessType.BUILT_LOCALLY_RACING_CACHE,
+                    cacheResult)));
       } catch (Throwable t) {
         future.setException(t);
       }
@@ -1485,5 +1699,34 @@ class CachingBuildRuleBuilder {
     void addAsyncCallback(ListenableFuture<Void> callback);
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    /**
+     * @return the priority of building {@code rule} locally over the other rules waiting for
+     *     resources.
+     */
+    long getSchedulingPriority(BuildRule rule);
+
+    /** @return the resources {@code rule} is estimated to need from the builds before. */
+    Optional<ResourceAmounts> getLearnedResourceAmounts(BuildRule rule);
+
+    /**
+     * @param cpuMillis the CPU time of the thread that ran the steps of {@code rule}, or 0 if it
+     *     could not be measured.
+     */
+    void onRuleBuiltLocally(BuildRule rule, long durationMillis, long cpuMillis);
+
+    /**
+     * Takes the time {@code rule} is expected to take to build locally out of the budget for
+     * building rules while their artifacts are being fetched, if it should be built that way.
+     *
+     * @param outputSizeBytes the size of the outputs of {@code rule} when it was last built.
+     * @return the time taken out of the budget, if any.
+     */
+    OptionalLong reserveSpeculativeBuild(BuildRule rule, long outputSizeBytes);
+
+    /** Gives back time taken out of the budget for a rule that didn't get built locally. */
+    void refundSpeculativeBuild(long reservedMillis);
+
+    void onRuleKeyCacheChecked(CacheResult cacheResult, long durationMillis);
   }
 }
@@ -22,6 +22,7 @@ import com.facebook.buck.core.sourcepath.ArchiveMemberSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolver;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.types.Pair;
@@ -39,8 +40,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -227,6 +230,8 @@ public class Manifest {
             path -> sourcePathToManifestHeader(path, resolver),
             interestingPaths::contains);
 
+    prefetchHashes(fileHashLoader, resolver, mappedUniverse.values());
+
     // Find a matching entry.
     for (Pair<RuleKey, int[]> entry : entries) {
       if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
@@ -236,6 +241,30 @@ public class Manifest {
     return Optional.empty();
   }
 
+  /**
+   * Loads the hashes of the files that entries may be matched against in one batch, so that those
+   * which are not cached yet are hashed in parallel rather than one at a time while matching.
+   */
+  private static void prefetchHashes(
+      FileHashLoader fileHashLoader, SourcePathResolver resolver, Iterable<SourcePath> paths) {
+    Map<ProjectFilesystem, List<Path>> pathsByFilesystem = new LinkedHashMap<>();
+    for (SourcePath path : paths) {
+      if (!(path instanceof ArchiveMemberSourcePath)) {
+        pathsByFilesystem
+            .computeIfAbsent(resolver.getFilesystem(path), filesystem -> new ArrayList<>())
+            .add(resolver.getRelativePath(path));
+      }
+    }
+    for (Map.Entry<ProjectFilesystem, List<Path>> entry : pathsByFilesystem.entrySet()) {
+      try {
+        fileHashLoader.getAll(entry.getKey(), entry.getValue());
+      } catch (IOException e) {
+        // Missing files don't match, and other failures are reported when the path is hashed again.
+        LOG.verbose(e, "Failed to prefetch hashes");
+      }
+    }
+  }
+
   private static String sourcePathToManifestHeader(SourcePath input, SourcePathResolver resolver) {
     return sourcePathToManifestPathKey(input, resolver).toString();
   }
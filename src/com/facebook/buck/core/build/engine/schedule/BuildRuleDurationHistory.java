@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long building rules locally took in past builds, kept in buck-out across builds and daemons.
+ *
+ * <p>Durations are kept by build target, together with the type of the target's rule. A target
+ * that was never built, or whose rule type changed since, is estimated from the average duration
+ * of the targets of its rule type.
+ */
+public class BuildRuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(BuildRuleDurationHistory.class);
+
+  private static final int MAGIC = 0x42524448;
+  private static final int VERSION = 1;
+
+  /** The weight of a new duration in the moving average kept for a target. */
+  private static final double NEW_DURATION_WEIGHT = 0.5;
+
+  /** The estimate of rules of types that were never built, so that paths are still counted. */
+  @VisibleForTesting static final long UNKNOWN_RULE_MILLIS = 1;
+
+  private final Path absolutePath;
+  private final ConcurrentMap<String, Entry> entries;
+  private final Map<String, TypeAverage> averagesByType = new HashMap<>();
+  private volatile boolean modified = false;
+
+  private BuildRuleDurationHistory(Path absolutePath, ConcurrentMap<String, Entry> entries) {
+    this.absolutePath = absolutePath;
+    this.entries = entries;
+    for (Entry entry : entries.values()) {
+      averagesByType.computeIfAbsent(entry.type, type -> new TypeAverage()).add(entry.millis);
+    }
+  }
+
+  /**
+   * Reads the history kept at {@code absolutePath}. A missing or unreadable history is treated as
+   * empty, and is replaced when the history is saved.
+   */
+  public static BuildRuleDurationHistory load(Path absolutePath) {
+    ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<>();
+    if (Files.exists(absolutePath)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(absolutePath)))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          LOG.info("Ignoring rule durations in %s written by another version.", absolutePath);
+        } else {
+          int entryCount = in.readInt();
+          for (int i = 0; i < entryCount; i++) {
+            String target = in.readUTF();
+            loaded.put(target, new Entry(in.readUTF(), in.readLong()));
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Failed to read rule durations from %s.", absolutePath);
+        loaded.clear();
+      }
+    }
+    LOG.debug("Loaded the durations of %d rules from %s.", loaded.size(), absolutePath);
+    return new BuildRuleDurationHistory(absolutePath, loaded);
+  }
+
+  /** @return how long building {@code rule} took in past builds, if it was built before. */
+  public Optional<Long> getRecordedMillis(BuildRule rule) {
+    Entry entry = entries.get(rule.getFullyQualifiedName());
+    if (entry == null || !entry.type.equals(rule.getType())) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.millis);
+  }
+
+  /**
+   * @return how long building {@code rule} is expected to take: the time it took in past builds,
+   *     or else the average time of rules of its type.
+   */
+  public long getEstimatedMillis(BuildRule rule) {
+    Optional<Long> recorded = getRecordedMillis(rule);
+    if (recorded.isPresent()) {
+      return recorded.get();
+    }
+    synchronized (averagesByType) {
+      TypeAverage average = averagesByType.get(rule.getType());
+      return average == null ? UNKNOWN_RULE_MILLIS : average.get();
+    }
+  }
+
+  /** Records that building {@code rule} locally took {@code millis}. */
+  public void record(BuildRule rule, long millis) {
+    String type = rule.getType();
+    Entry newEntry =
+        entries.compute(
+            rule.getFullyQualifiedName(),
+            (target, entry) -> {
+              if (entry == null || !entry.type.equals(type)) {
+                return new Entry(type, millis);
+              }
+              return new Entry(
+                  type,
+                  Math.round(
+                      NEW_DURATION_WEIGHT * millis + (1 - NEW_DURATION_WEIGHT) * entry.millis));
+            });
+    synchronized (averagesByType) {
+      averagesByType.computeIfAbsent(type, t -> new TypeAverage()).add(newEntry.millis);
+    }
+    modified = true;
+  }
+
+  /** Writes the history back to disk, if durations were recorded since it was loaded. */
+  public void save() {
+    if (!modified) {
+      return;
+    }
+    try {
+      Files.createDirectories(absolutePath.getParent());
+      Path tempPath = Files.createTempFile(absolutePath.getParent(), "rule_durations", ".tmp");
+      try {
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          // Durations may be recorded concurrently, so they're counted before they're written.
+          List<Map.Entry<String, Entry>> entriesToWrite = new ArrayList<>(entries.entrySet());
+          out.writeInt(entriesToWrite.size());
+          for (Map.Entry<String, Entry> entry : entriesToWrite) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().type);
+            out.writeLong(entry.getValue().millis);
+          }
+        }
+        Files.move(
+            tempPath,
+            absolutePath,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+      } finally {
+        Files.deleteIfExists(tempPath);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write rule durations to %s.", absolutePath);
+    }
+  }
+
+  private static final class Entry {
+    private final String type;
+    private final long millis;
+
+    Entry(String type, long millis) {
+      this.type = type;
+      this.millis = millis;
+    }
+  }
+
+  /**
+   * The average of the durations of a rule type. Every duration counts, including the ones that
+   * were replaced since, which is close enough for an estimate.
+   */
+  private static final class TypeAverage {
+    private long totalMillis = 0;
+    private long count = 0;
+
+    void add(long millis) {
+      totalMillis += millis;
+      count++;
+    }
+
+    long get() {
+      return Math.max(UNKNOWN_RULE_MILLIS, totalMillis / count);
+    }
+  }
+}
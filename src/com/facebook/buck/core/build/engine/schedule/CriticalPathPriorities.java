@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.rules.BuildRule;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Estimates, for each rule of a build, how long the longest chain of rules from it to a top level
+ * rule will take to build, from the durations of past builds. Building the rules with the longest
+ * remaining chains first keeps a long chain of rules from starting late while short rules fill the
+ * build threads.
+ */
+public class CriticalPathPriorities {
+
+  private final RuleDepsCache ruleDeps;
+  private final BuildRuleDurationHistory history;
+  private final Map<BuildRule, Node> nodes = new HashMap<>();
+
+  public CriticalPathPriorities(RuleDepsCache ruleDeps, BuildRuleDurationHistory history) {
+    this.ruleDeps = ruleDeps;
+    this.history = history;
+  }
+
+  /**
+   * Adds {@code rule} and the rules it depends on to the build. Adding a top level rule can only
+   * lengthen the chains of the rules it depends on, so those are updated in place.
+   */
+  public synchronized void addTopLevelRule(BuildRule rule) {
+    if (nodes.containsKey(rule)) {
+      return;
+    }
+
+    // Visit the rules that are new to the build depth first. Their reverse post order has every
+    // rule before the rules it depends on.
+    List<Node> postOrder = new ArrayList<>();
+    Deque<Iterator<BuildRule>> depIterators = new ArrayDeque<>();
+    Deque<Node> path = new ArrayDeque<>();
+    path.push(addNode(rule));
+    depIterators.push(ruleDeps.get(rule).iterator());
+    while (!path.isEmpty()) {
+      Iterator<BuildRule> deps = depIterators.peek();
+      if (!deps.hasNext()) {
+        postOrder.add(path.pop());
+        depIterators.pop();
+        continue;
+      }
+      BuildRule dep = deps.next();
+      if (!nodes.containsKey(dep)) {
+        path.push(addNode(dep));
+        depIterators.push(ruleDeps.get(dep).iterator());
+      }
+    }
+
+    // Each new rule comes after the rules that depend on it, so its chain is final by the time it
+    // is passed on to its deps. The chains of rules that were added before are lengthened as the
+    // new rules that depend on them are found.
+    for (int i = postOrder.size() - 1; i >= 0; i--) {
+      Node node = postOrder.get(i);
+      for (BuildRule dep : ruleDeps.get(node.rule)) {
+        Node depNode = nodes.get(dep);
+        if (depNode.visited) {
+          lengthenChain(depNode, node);
+        } else {
+          offerDependent(depNode, node);
+        }
+      }
+    }
+    for (Node node : postOrder) {
+      node.visited = true;
+    }
+  }
+
+  private Node addNode(BuildRule rule) {
+    Node node = new Node(rule, Math.max(1, history.getEstimatedMillis(rule)));
+    nodes.put(rule, node);
+    return node;
+  }
+
+  private static boolean offerDependent(Node node, Node dependent) {
+    long remainingMillis = node.estimatedMillis + dependent.remainingMillis;
+    if (remainingMillis <= node.remainingMillis) {
+      return false;
+    }
+    node.remainingMillis = remainingMillis;
+    node.next = dependent;
+    return true;
+  }
+
+  /** Propagates a longer chain through a rule that was added to the build before. */
+  private void lengthenChain(Node node, Node dependent) {
+    Deque<Node[]> work = new ArrayDeque<>();
+    work.push(new Node[] {node, dependent});
+    while (!work.isEmpty()) {
+      Node[] edge = work.pop();
+      if (offerDependent(edge[0], edge[1])) {
+        for (BuildRule dep : ruleDeps.get(edge[0].rule)) {
+          work.push(new Node[] {nodes.get(dep), edge[0]});
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the estimated time from the start of building {@code rule} to the end of the longest
+   *     chain of rules that depend on it, in milliseconds, or 0 if it is not part of the build.
+   */
+  public synchronized long getRemainingMillis(BuildRule rule) {
+    Node node = nodes.get(rule);
+    return node == null ? 0 : node.remainingMillis;
+  }
+
+  /**
+   * @return the chain of rules that is estimated to take the longest to build, from the first rule
+   *     to build to the last.
+   */
+  public synchronized ImmutableList<PredictedCriticalPathEntry> getPredictedCriticalPath() {
+    Node longest = null;
+    for (Node node : nodes.values()) {
+      if (longest == null || node.remainingMillis > longest.remainingMillis) {
+        longest = node;
+      }
+    }
+    ImmutableList.Builder<PredictedCriticalPathEntry> path = ImmutableList.builder();
+    for (Node node = longest; node != null; node = node.next) {
+      path.add(
+          new ImmutablePredictedCriticalPathEntry(
+              node.rule.getBuildTarget(), node.rule.getType(), node.estimatedMillis));
+    }
+    return path.build();
+  }
+
+  private static final class Node {
+    private final BuildRule rule;
+    private final long estimatedMillis;
+    private long remainingMillis;
+    /** The rule that depends on this one and starts the longest chain after it. */
+    @Nullable private Node next = null;
+    /** Whether the rule was added while adding an earlier top level rule. */
+    private boolean visited = false;
+
+    Node(BuildRule rule, long estimatedMillis) {
+      this.rule = rule;
+      this.estimatedMillis = estimatedMillis;
+      this.remainingMillis = estimatedMillis;
+    }
+  }
+}
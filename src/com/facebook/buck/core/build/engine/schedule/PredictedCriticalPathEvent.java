@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Carries the critical path that the build engine predicted when it scheduled the rules of a build,
+ * so that it can be compared with the actual one at the end of the build.
+ */
+public class PredictedCriticalPathEvent extends AbstractBuckEvent {
+
+  private final ImmutableList<PredictedCriticalPathEntry> criticalPath;
+
+  protected PredictedCriticalPathEvent(
+      EventKey eventKey, ImmutableList<PredictedCriticalPathEntry> criticalPath) {
+    super(eventKey);
+    this.criticalPath = criticalPath;
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format("%d rules, %d ms", criticalPath.size(), getEstimatedMillis());
+  }
+
+  @Override
+  public String getEventName() {
+    return "PredictedCriticalPathEvent";
+  }
+
+  /** @return the rules on the predicted critical path, from the first rule to build to the last. */
+  public ImmutableList<PredictedCriticalPathEntry> getCriticalPath() {
+    return criticalPath;
+  }
+
+  /** @return how long building the rules on the predicted critical path was expected to take. */
+  public long getEstimatedMillis() {
+    return criticalPath.stream().mapToLong(PredictedCriticalPathEntry::getEstimatedMillis).sum();
+  }
+
+  public static PredictedCriticalPathEvent of(
+      ImmutableList<PredictedCriticalPathEntry> criticalPath) {
+    return new PredictedCriticalPathEvent(EventKey.unique(), criticalPath);
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.ProcessResourceConsumption;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.perf.ProcessTracker.ProcessResourceConsumptionEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The resources that building rules locally used in past builds, kept in buck-out across builds
+ * and daemons, from which the resources of the next builds of the rules are estimated.
+ *
+ * <p>CPU time is measured on the thread that runs the steps of a rule, and taken from the external
+ * processes that the steps launch, which are also where peak memory and I/O come from. The usage
+ * of external processes is reported by {@link com.facebook.buck.util.perf.ProcessTracker} once
+ * they finish, so this has to be registered with the event bus of the build.
+ *
+ * <p>The last {@link #SAMPLES_PER_RULE} builds of each target are kept. A target that was never
+ * built, or whose rule type changed since, is estimated from the targets of its rule type.
+ */
+public class RuleResourceUsageHistory {
+
+  private static final Logger LOG = Logger.get(RuleResourceUsageHistory.class);
+
+  /** The key of the build target in the context of the processes launched by build steps. */
+  public static final String BUILD_TARGET_CONTEXT_KEY = "build_target";
+
+  private static final int MAGIC = 0x52525548;
+  private static final int VERSION = 1;
+
+  @VisibleForTesting static final int SAMPLES_PER_RULE = 5;
+
+  /**
+   * Disk IO resource unit size has been chosen arbitrarily, so that the default disk IO cap of
+   * {@link ResourceAmountsEstimator} is reached at a few hundred megabytes per second.
+   */
+  @VisibleForTesting static final long DISK_IO_UNIT_BYTES_PER_SECOND = 4 * 1024 * 1024;
+
+  private final Path absolutePath;
+  private final ConcurrentMap<String, Entry> entries;
+  private final Map<String, Usage> usageByType = new HashMap<>();
+  private final ConcurrentMap<String, PendingUsage> pending = new ConcurrentHashMap<>();
+  private volatile boolean modified = false;
+
+  private RuleResourceUsageHistory(Path absolutePath, ConcurrentMap<String, Entry> entries) {
+    this.absolutePath = absolutePath;
+    this.entries = entries;
+    for (Entry entry : entries.values()) {
+      addToType(entry.type, entry.getUsage());
+    }
+  }
+
+  /**
+   * Reads the history kept at {@code absolutePath}. A missing or unreadable history is treated as
+   * empty, and is replaced when the history is saved.
+   */
+  public static RuleResourceUsageHistory load(Path absolutePath) {
+    ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<>();
+    if (Files.exists(absolutePath)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(absolutePath)))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          LOG.info("Ignoring rule resource usage in %s written by another version.", absolutePath);
+        } else {
+          int entryCount = in.readInt();
+          for (int i = 0; i < entryCount; i++) {
+            String target = in.readUTF();
+            String type = in.readUTF();
+            int sampleCount = in.readInt();
+            ImmutableList.Builder<Usage> samples = ImmutableList.builder();
+            for (int j = 0; j < sampleCount; j++) {
+              samples.add(new Usage(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            loaded.put(target, new Entry(type, samples.build()));
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn(e, "Failed to read rule resource usage from %s.", absolutePath);
+        loaded.clear();
+      }
+    }
+    LOG.debug("Loaded the resource usage of %d rules from %s.", loaded.size(), absolutePath);
+    return new RuleResourceUsageHistory(absolutePath, loaded);
+  }
+
+  /**
+   * @return the resources {@code rule} is expected to need, from the resources it used in past
+   *     builds, or else the resources rules of its type used.
+   */
+  public Optional<ResourceAmounts> getEstimatedAmounts(BuildRule rule) {
+    Entry entry = entries.get(rule.getFullyQualifiedName());
+    if (entry != null && entry.type.equals(rule.getType())) {
+      return Optional.of(toResourceAmounts(entry.getUsage()));
+    }
+    synchronized (usageByType) {
+      return Optional.ofNullable(usageByType.get(rule.getType()))
+          .map(RuleResourceUsageHistory::toResourceAmounts);
+    }
+  }
+
+  @VisibleForTesting
+  static ResourceAmounts toResourceAmounts(Usage usage) {
+    long wallMillis = Math.max(1, usage.wallMillis);
+    long cpu = Math.max(1, Math.round((double) usage.cpuMillis / wallMillis));
+    long memory =
+        Math.max(
+            ResourceAmountsEstimator.DEFAULT_MEMORY_AMOUNT,
+            divideRoundingUp(usage.peakMemoryBytes, ResourceAmountsEstimator.MEMORY_UNIT_BYTES));
+    long diskIO =
+        divideRoundingUp(usage.ioBytes * 1000 / wallMillis, DISK_IO_UNIT_BYTES_PER_SECOND);
+    return ResourceAmounts.of(
+        (int) Math.min(Integer.MAX_VALUE, cpu),
+        (int) memory,
+        (int) diskIO,
+        ResourceAmountsEstimator.DEFAULT_NETWORK_IO_AMOUNT);
+  }
+
+  private static long divideRoundingUp(long value, long divisor) {
+    return Math.min(Integer.MAX_VALUE, (value + divisor - 1) / divisor);
+  }
+
+  /**
+   * Records that building {@code rule} locally took {@code wallMillis}, of which the thread that
+   * ran its steps spent {@code cpuMillis} on the CPU.
+   */
+  public void recordLocalBuild(BuildRule rule, long wallMillis, long cpuMillis) {
+    pending
+        .computeIfAbsent(rule.getFullyQualifiedName(), target -> new PendingUsage())
+        .addLocalBuild(rule.getType(), wallMillis, cpuMillis);
+  }
+
+  /** Adds the usage of a finished process to the rule whose build steps launched it. */
+  @Subscribe
+  public void processFinished(ProcessResourceConsumptionEvent event) {
+    Optional<String> target =
+        event.getContext().map(context -> context.get(BUILD_TARGET_CONTEXT_KEY));
+    Optional<ProcessResourceConsumption> consumption = event.getResourceConsumption();
+    if (target.isPresent() && consumption.isPresent()) {
+      recordProcess(target.get(), consumption.get());
+    }
+  }
+
+  @VisibleForTesting
+  void recordProcess(String target, ProcessResourceConsumption consumption) {
+    pending.computeIfAbsent(target, t -> new PendingUsage()).addProcess(consumption);
+  }
+
+  /**
+   * Adds the usage of the rules built since the history was loaded or last saved, and writes the
+   * history back to disk if any were.
+   */
+  public void save() {
+    commitPendingUsage();
+    if (!modified) {
+      return;
+    }
+    try {
+      Files.createDirectories(absolutePath.getParent());
+      Path tempPath =
+          Files.createTempFile(absolutePath.getParent(), "rule_resource_usage", ".tmp");
+      try {
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          List<Map.Entry<String, Entry>> entriesToWrite = new ArrayList<>(entries.entrySet());
+          out.writeInt(entriesToWrite.size());
+          for (Map.Entry<String, Entry> entry : entriesToWrite) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().type);
+            out.writeInt(entry.getValue().samples.size());
+            for (Usage usage : entry.getValue().samples) {
+              out.writeLong(usage.wallMillis);
+              out.writeLong(usage.cpuMillis);
+              out.writeLong(usage.peakMemoryBytes);
+              out.writeLong(usage.ioBytes);
+            }
+          }
+        }
+        Files.move(
+            tempPath,
+            absolutePath,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+      } finally {
+        Files.deleteIfExists(tempPath);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write rule resource usage to %s.", absolutePath);
+    }
+  }
+
+  /**
+   * Moves the usage of the rules that were built locally into their samples. Processes of rules
+   * that were not built locally, such as rules whose build failed, are dropped.
+   */
+  @VisibleForTesting
+  void commitPendingUsage() {
+    for (String target : ImmutableList.copyOf(pending.keySet())) {
+      PendingUsage usage = pending.remove(target);
+      Optional<String> type = usage.getType();
+      if (!type.isPresent()) {
+        continue;
+      }
+      Usage sample = usage.toUsage();
+      entries.compute(
+          target,
+          (t, oldEntry) -> {
+            ImmutableList.Builder<Usage> samples = ImmutableList.builder();
+            if (oldEntry != null && oldEntry.type.equals(type.get())) {
+              samples.addAll(
+                  oldEntry.samples.subList(
+                      Math.max(0, oldEntry.samples.size() - SAMPLES_PER_RULE + 1),
+                      oldEntry.samples.size()));
+            }
+            samples.add(sample);
+            return new Entry(type.get(), samples.build());
+          });
+      addToType(type.get(), sample);
+      modified = true;
+    }
+  }
+
+  private void addToType(String type, Usage usage) {
+    synchronized (usageByType) {
+      usageByType.merge(type, usage, Usage::combine);
+    }
+  }
+
+  @VisibleForTesting
+  ImmutableMap<String, Integer> getSampleCounts() {
+    ImmutableMap.Builder<String, Integer> counts = ImmutableMap.builder();
+    entries.forEach((target, entry) -> counts.put(target, entry.samples.size()));
+    return counts.build();
+  }
+
+  /** The resources used by a build of a rule, or by several builds taken together. */
+  @VisibleForTesting
+  static final class Usage {
+    private final long wallMillis;
+    private final long cpuMillis;
+    private final long peakMemoryBytes;
+    private final long ioBytes;
+
+    Usage(long wallMillis, long cpuMillis, long peakMemoryBytes, long ioBytes) {
+      this.wallMillis = wallMillis;
+      this.cpuMillis = cpuMillis;
+      this.peakMemoryBytes = peakMemoryBytes;
+      this.ioBytes = ioBytes;
+    }
+
+    /**
+     * Takes times and I/O together, so that their ratios are averages, and the highest peak
+     * memory, so that memory is not underestimated.
+     */
+    static Usage combine(Usage first, Usage second) {
+      return new Usage(
+          first.wallMillis + second.wallMillis,
+          first.cpuMillis + second.cpuMillis,
+          Math.max(first.peakMemoryBytes, second.peakMemoryBytes),
+          first.ioBytes + second.ioBytes);
+    }
+  }
+
+  private static final class Entry {
+    private final String type;
+    private final ImmutableList<Usage> samples;
+
+    Entry(String type, ImmutableList<Usage> samples) {
+      this.type = type;
+      this.samples = samples;
+    }
+
+    Usage getUsage() {
+      return samples.stream().reduce(Usage::combine).orElse(new Usage(0, 0, 0, 0));
+    }
+  }
+
+  /** The usage of a rule in the current build, which processes may add to concurrently. */
+  private static final class PendingUsage {
+    private Optional<String> type = Optional.empty();
+    private long wallMillis = 0;
+    private long cpuMillis = 0;
+    private long peakMemoryBytes = 0;
+    private long ioBytes = 0;
+
+    synchronized void addLocalBuild(String type, long wallMillis, long cpuMillis) {
+      this.type = Optional.of(type);
+      this.wallMillis += wallMillis;
+      this.cpuMillis += cpuMillis;
+    }
+
+    synchronized void addProcess(ProcessResourceConsumption consumption) {
+      cpuMillis += consumption.getCpuTotal();
+      peakMemoryBytes = Math.max(peakMemoryBytes, consumption.getMemResident());
+      ioBytes += consumption.getIoTotal();
+    }
+
+    synchronized Optional<String> getType() {
+      return type;
+    }
+
+    synchronized Usage toUsage() {
+      return new Usage(wallMillis, cpuMillis, peakMemoryBytes, ioBytes);
+    }
+  }
+}
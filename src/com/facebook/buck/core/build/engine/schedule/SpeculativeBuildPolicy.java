@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which rules to build locally while their artifacts are being fetched from the cache, by
+ * comparing how long building them took in past builds with how long fetching them is expected to
+ * take.
+ *
+ * <p>A fetch is expected to take the latency of the cache, as seen in how long misses take, plus
+ * the size of the rule's outputs over the bandwidth seen in hits. Whichever of the fetch and the
+ * local build gets to write the outputs first wins, so every such local build may be wasted work,
+ * and the time they are expected to take is charged to a budget for the whole build.
+ */
+public class SpeculativeBuildPolicy {
+
+  /** The weight of a new sample in the moving averages of the latency and bandwidth. */
+  private static final double NEW_SAMPLE_WEIGHT = 0.2;
+
+  /** How many times longer than building a rule fetching it must take for the two to race. */
+  @VisibleForTesting static final double MIN_FETCH_TO_BUILD_RATIO = 2;
+
+  private final BuildRuleDurationHistory durationHistory;
+  private final long maxRuleMillis;
+  private final AtomicLong remainingBudgetMillis;
+
+  private double latencyMillis = 0;
+  private double bytesPerMilli = 0;
+
+  public SpeculativeBuildPolicy(
+      BuildRuleDurationHistory durationHistory, long budgetMillis, long maxRuleMillis) {
+    this.durationHistory = durationHistory;
+    this.maxRuleMillis = maxRuleMillis;
+    this.remainingBudgetMillis = new AtomicLong(budgetMillis);
+  }
+
+  public BuildRuleDurationHistory getDurationHistory() {
+    return durationHistory;
+  }
+
+  /**
+   * Takes the time {@code rule} is expected to take to build out of the budget, if it is cheap
+   * enough to build while its artifact is being fetched and is expected to be built well before the
+   * fetch completes.
+   *
+   * @param outputSizeBytes the size of the outputs of {@code rule} when it was last built.
+   * @return the time taken out of the budget, to be given back with {@link #refund} if the rule
+   *     doesn't get built.
+   */
+  public OptionalLong reserve(BuildRule rule, long outputSizeBytes) {
+    Optional<Long> buildMillis = durationHistory.getRecordedMillis(rule);
+    if (!buildMillis.isPresent() || buildMillis.get() > maxRuleMillis) {
+      return OptionalLong.empty();
+    }
+    OptionalDouble fetchMillis = predictFetchMillis(outputSizeBytes);
+    if (!fetchMillis.isPresent()
+        || fetchMillis.getAsDouble() < MIN_FETCH_TO_BUILD_RATIO * buildMillis.get()) {
+      return OptionalLong.empty();
+    }
+
+    long millis = Math.max(1, buildMillis.get());
+    while (true) {
+      long remaining = remainingBudgetMillis.get();
+      if (remaining < millis) {
+        return OptionalLong.empty();
+      }
+      if (remainingBudgetMillis.compareAndSet(remaining, remaining - millis)) {
+        return OptionalLong.of(millis);
+      }
+    }
+  }
+
+  /** Gives back time taken out of the budget for a rule that didn't get built. */
+  public void refund(long millis) {
+    remainingBudgetMillis.addAndGet(millis);
+  }
+
+  /** Records that looking up an artifact that isn't in the cache took {@code millis}. */
+  public synchronized void recordMiss(long millis) {
+    latencyMillis = average(latencyMillis, millis);
+  }
+
+  /**
+   * Records that fetching the artifact of a rule with outputs of {@code outputSizeBytes} took
+   * {@code millis}.
+   */
+  public synchronized void recordHit(long outputSizeBytes, long millis) {
+    if (outputSizeBytes <= 0) {
+      // Fetching an empty artifact only takes the latency of the cache.
+      latencyMillis = average(latencyMillis, millis);
+      return;
+    }
+    double transferMillis = Math.max(1, millis - latencyMillis);
+    bytesPerMilli = average(bytesPerMilli, outputSizeBytes / transferMillis);
+  }
+
+  /**
+   * @return how long fetching an artifact with outputs of {@code outputSizeBytes} is expected to
+   *     take, or nothing if no artifact was fetched yet.
+   */
+  @VisibleForTesting
+  synchronized OptionalDouble predictFetchMillis(long outputSizeBytes) {
+    if (bytesPerMilli <= 0) {
+      return OptionalDouble.empty();
+    }
+    return OptionalDouble.of(latencyMillis + outputSizeBytes / bytesPerMilli);
+  }
+
+  private static double average(double average, double sample) {
+    return average <= 0 ? sample : NEW_SAMPLE_WEIGHT * sample + (1 - NEW_SAMPLE_WEIGHT) * average;
+  }
+}
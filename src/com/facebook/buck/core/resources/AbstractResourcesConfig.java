@@ -20,13 +20,19 @@ import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import com.facebook.buck.util.ProcessHelper;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.concurrent.SystemMemoryPressureCap;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
 import org.immutables.value.Value;
 
 @Value.Immutable(builder = false, copy = false)
@@ -35,6 +41,8 @@ abstract class AbstractResourcesConfig implements ConfigView<BuckConfig> {
   public static final String RESOURCES_SECTION_HEADER = "resources";
   public static final String RESOURCES_PER_RULE_SECTION_HEADER = "resources_per_rule";
 
+  private static final long MEMORY_PRESSURE_REFRESH_INTERVAL_MS = 500;
+
   @Override
   @Value.Parameter
   public abstract BuckConfig getDelegate();
@@ -144,6 +152,56 @@ abstract class AbstractResourcesConfig implements ConfigView<BuckConfig> {
         getResourceAllocationFairness(),
         getManagedThreadCount(),
         getDefaultResourceAmounts(),
-        getMaximumResourceAmounts());
+        getMaximumResourceAmounts(),
+        getMemoryPressureCap(),
+        getBlockingThreadCount());
+  }
+
+  /**
+   * @return the maximum number of threads of a separate pool that runs the jobs that spend most of
+   *     their time blocked, such as building rules locally and fetching from caches, if they should
+   *     run on one. How many of those jobs run at once is then limited by their resource amounts
+   *     rather than by the managed threads.
+   */
+  @Value.Lazy
+  public Optional<Integer> getBlockingThreadCount() {
+    if (!isResourceAwareSchedulingEnabled()) {
+      return Optional.empty();
+    }
+    OptionalInt count = getDelegate().getInteger(RESOURCES_SECTION_HEADER, "blocking_thread_count");
+    return count.isPresent() ? Optional.of(count.getAsInt()) : Optional.empty();
+  }
+
+  /**
+   * @return whether to estimate the resources of rules from what they used when they were built
+   *     before, for rule types without configured amounts.
+   */
+  @Value.Lazy
+  public boolean isLearnedResourceAmountsEnabled() {
+    return isResourceAwareSchedulingEnabled()
+        && getDelegate()
+            .getBooleanValue(RESOURCES_SECTION_HEADER, "learned_resource_amounts_enabled", false);
+  }
+
+  /**
+   * @return the memory to leave available to the rest of the system when starting jobs that need
+   *     memory, in bytes, if jobs should wait for memory at all.
+   */
+  @Value.Lazy
+  public Optional<Long> getMemoryPressureReserve() {
+    return getDelegate()
+        .getValue(RESOURCES_SECTION_HEADER, "memory_pressure_reserve")
+        .map(SizeUnit::parseBytes);
+  }
+
+  private Optional<SystemMemoryPressureCap> getMemoryPressureCap() {
+    return getMemoryPressureReserve()
+        .map(
+            reserve ->
+                new SystemMemoryPressureCap(
+                    ProcessHelper.getInstance()::getAvailableMemory,
+                    reserve,
+                    MEMORY_PRESSURE_REFRESH_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS));
   }
 }
@@ -37,4 +37,12 @@ public abstract class AbstractRuleKeyConfig implements ConfigView<BuckConfig> {
         .getEnum(LOG_SECTION, "rule_key_diagnostics_mode", RuleKeyDiagnosticsMode.class)
         .orElse(RuleKeyDiagnosticsMode.NEVER);
   }
+
+  /**
+   * @return whether to record where the time computing rule keys goes and write a report of it to
+   *     the log directory at the end of the build.
+   */
+  public boolean isRuleKeyProfilingEnabled() {
+    return getDelegate().getBooleanValue(LOG_SECTION, "rule_key_profiling", false);
+  }
 }
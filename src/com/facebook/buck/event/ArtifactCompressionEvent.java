@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
 
 /** Event for artifact compression / decompression */
 public abstract class ArtifactCompressionEvent extends AbstractBuckEvent
@@ -66,7 +67,19 @@ public abstract class ArtifactCompressionEvent extends AbstractBuckEvent
 
   /** Create a new Finished event for corresponding Started event */
   public static Finished finished(Started started) {
-    return new Finished(started);
+    return new Finished(started, 0, 0, Optional.empty());
+  }
+
+  /**
+   * Create a new Finished event for corresponding Started event that successfully went through the
+   * given number of bytes.
+   */
+  public static Finished finished(
+      Started started,
+      long uncompressedSizeBytes,
+      long compressedSizeBytes,
+      Optional<Long> dictionaryId) {
+    return new Finished(started, uncompressedSizeBytes, compressedSizeBytes, dictionaryId);
   }
 
   /** Event for when a artifact starts compression/decompression */
@@ -85,18 +98,48 @@ public abstract class ArtifactCompressionEvent extends AbstractBuckEvent
 
   /** Event for when a artifact finishes compression/decompression */
   public static class Finished extends ArtifactCompressionEvent {
-    protected Finished(Started started) {
+    protected Finished(
+        Started started,
+        long uncompressedSizeBytes,
+        long compressedSizeBytes,
+        Optional<Long> dictionaryId) {
       super(started.getEventKey(), started.getOperation(), started.getRuleKeys());
       startedTimeStamp = started.getTimestampMillis();
+      this.uncompressedSizeBytes = uncompressedSizeBytes;
+      this.compressedSizeBytes = compressedSizeBytes;
+      this.dictionaryId = dictionaryId;
     }
 
     private final long startedTimeStamp;
+    private final long uncompressedSizeBytes;
+    private final long compressedSizeBytes;
+    private final Optional<Long> dictionaryId;
 
     /** Returns the timestamp of corresponding started event */
     public long getStartedTimeStamp() {
       return startedTimeStamp;
     }
 
+    /** Returns the size of the archive before compression, or 0 if the operation failed. */
+    public long getUncompressedSizeBytes() {
+      return uncompressedSizeBytes;
+    }
+
+    /** Returns the size of the compressed archive, or 0 if the operation failed. */
+    public long getCompressedSizeBytes() {
+      return compressedSizeBytes;
+    }
+
+    /** Returns the ID of the zstd dictionary the archive was compressed with, if any. */
+    public Optional<Long> getDictionaryId() {
+      return dictionaryId;
+    }
+
+    /** Returns how many times smaller the compressed archive is, or 0 if the sizes are unknown. */
+    public double getCompressionRatio() {
+      return compressedSizeBytes == 0 ? 0 : (double) uncompressedSizeBytes / compressedSizeBytes;
+    }
+
     @Override
     public String getEventName() {
       return String.format(
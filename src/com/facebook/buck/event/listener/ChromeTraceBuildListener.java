@@ -54,6 +54,7 @@ import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.State;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionSessionEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionStatsProvider;
+import com.facebook.buck.rules.keys.RuleKeyProfilerReportEvent;
 import com.facebook.buck.step.StepEvent;
 import com.facebook.buck.support.bgtasks.BackgroundTask;
 import com.facebook.buck.support.bgtasks.ImmutableBackgroundTask;
@@ -614,7 +615,18 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void artifactCompressionFinished(ArtifactCompressionEvent.Finished finished) {
-    writeArtifactCompressionEvent(finished, ChromeTraceEvent.Phase.END);
+    ImmutableMap.Builder<String, String> args = ImmutableMap.builder();
+    args.put("rule_key", Joiner.on(", ").join(finished.getRuleKeys()));
+    if (finished.getCompressedSizeBytes() > 0) {
+      args.put("uncompressed_size", Long.toString(finished.getUncompressedSizeBytes()))
+          .put("compressed_size", Long.toString(finished.getCompressedSizeBytes()))
+          .put("compression_ratio", String.format("%.2f", finished.getCompressionRatio()));
+    }
+    finished
+        .getDictionaryId()
+        .ifPresent(dictionaryId -> args.put("dictionary_id", Long.toString(dictionaryId)));
+    writeChromeTraceEvent(
+        "buck", finished.getCategory(), ChromeTraceEvent.Phase.END, args.build(), finished);
   }
 
   public void writeArtifactCompressionEvent(
@@ -735,6 +747,16 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         memory);
   }
 
+  @Subscribe
+  public void ruleKeyProfilerReported(RuleKeyProfilerReportEvent event) {
+    writeChromeTraceEvent(
+        "rule_keys",
+        "rule_key_profile_ms",
+        ChromeTraceEvent.Phase.COUNTER,
+        event.getMillisByType(),
+        event);
+  }
+
   @Subscribe
   public void processResourceConsumption(ProcessTracker.ProcessResourceConsumptionEvent event) {
     Optional<ProcessResourceConsumption> resourceConsumption = event.getResourceConsumption();
@@ -15,6 +15,8 @@
  */
 package com.facebook.buck.event.listener;
 
+import com.facebook.buck.core.build.engine.schedule.PredictedCriticalPathEntry;
+import com.facebook.buck.core.build.engine.schedule.PredictedCriticalPathEvent;
 import com.facebook.buck.core.build.event.BuildRuleExecutionEvent;
 import com.facebook.buck.core.build.event.FinalizingBuildRuleEvent;
 import com.facebook.buck.core.model.BuildTarget;
@@ -39,9 +41,11 @@ import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
@@ -69,6 +73,8 @@ public class CriticalPathEventListener implements BuckEventListener {
 
   private final Map<BuildTarget, Long> buildTargetToExecutionTimeMap = new HashMap<>();
 
+  @Nullable private PredictedCriticalPathEvent predictedCriticalPath;
+
   public CriticalPathEventListener(Path outputPath) {
     this.outputPath = Objects.requireNonNull(outputPath);
   }
@@ -89,6 +95,12 @@ public class CriticalPathEventListener implements BuckEventListener {
     handleBuildRule(buildRule, buildTargetToExecutionTimeMap.getOrDefault(buildTarget, 0L));
   }
 
+  /** Subscribes to {@link PredictedCriticalPathEvent} events */
+  @Subscribe
+  public void subscribe(PredictedCriticalPathEvent event) {
+    predictedCriticalPath = event;
+  }
+
   /** Subscribes to {@link RemoteBuildRuleExecutionEvent} events */
   @Subscribe
   public void subscribe(RemoteBuildRuleExecutionEvent event) {
@@ -164,10 +176,58 @@ public class CriticalPathEventListener implements BuckEventListener {
   private void dumpCriticalPath() throws IOException {
     try (BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
       writeHeader(writer);
-      for (Pair<BuildTarget, CriticalPathNode> pair : getCriticalPath()) {
+      Collection<Pair<BuildTarget, CriticalPathNode>> criticalPath = getCriticalPath();
+      for (Pair<BuildTarget, CriticalPathNode> pair : criticalPath) {
         writer.write(convertToLine(pair));
         writer.newLine();
       }
+      if (predictedCriticalPath != null) {
+        writer.newLine();
+        writePredictedCriticalPath(writer, predictedCriticalPath, criticalPath);
+      }
+    }
+  }
+
+  /**
+   * Writes the critical path that rules were scheduled by, as estimated before the build, next to
+   * the time its rules actually took.
+   */
+  private void writePredictedCriticalPath(
+      BufferedWriter writer,
+      PredictedCriticalPathEvent predicted,
+      Collection<Pair<BuildTarget, CriticalPathNode>> criticalPath)
+      throws IOException {
+    Set<BuildTarget> actualTargets = new HashSet<>();
+    for (Pair<BuildTarget, CriticalPathNode> pair : criticalPath) {
+      actualTargets.add(pair.getFirst());
+    }
+    writer.write(
+        String.format(
+            "Predicted critical path: %d ms estimated, actual critical path: %d ms",
+            predicted.getEstimatedMillis(), longestTimeSoFar));
+    writer.newLine();
+    writer.write(
+        String.format(
+            FORMAT,
+            "Estimated time",
+            "Elapsed time",
+            "On critical path",
+            "Rule Type",
+            "Build Target"));
+    writer.newLine();
+    writer.write(Strings.repeat("-", 180));
+    writer.newLine();
+    for (PredictedCriticalPathEntry entry : predicted.getCriticalPath()) {
+      CriticalPathNode node = buildTargetToCriticalPathNodeMap.get(entry.getTarget());
+      writer.write(
+          String.format(
+              FORMAT,
+              entry.getEstimatedMillis(),
+              node == null ? "-" : node.getElapsedTimeMs(),
+              actualTargets.contains(entry.getTarget()) ? "yes" : "no",
+              entry.getType(),
+              entry.getTarget().getFullyQualifiedName()));
+      writer.newLine();
     }
   }
 
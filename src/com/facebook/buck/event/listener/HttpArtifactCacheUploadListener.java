@@ -43,6 +43,7 @@ public class HttpArtifactCacheUploadListener implements BuckEventListener {
   private boolean hasCounterBeenSent;
 
   private int artifactCount;
+  private int batchedArtifactCount;
   private long totalUploadedBytes;
   private long totalNetworkTimeMillis;
 
@@ -56,6 +57,7 @@ public class HttpArtifactCacheUploadListener implements BuckEventListener {
     this.lastUploadFinishMillis = 0;
     this.hasCounterBeenSent = false;
     this.artifactCount = 0;
+    this.batchedArtifactCount = 0;
     this.totalUploadedBytes = 0;
     this.totalNetworkTimeMillis = -1;
   }
@@ -86,6 +88,9 @@ public class HttpArtifactCacheUploadListener implements BuckEventListener {
     if (event.getStoreData().getArtifactSizeBytes().isPresent()) {
       totalUploadedBytes += event.getStoreData().getArtifactSizeBytes().get();
     }
+    if (event.getStoreData().getBatchSize().orElse(1) > 1) {
+      ++batchedArtifactCount;
+    }
     lastUploadFinishMillis = event.getTimestampMillis();
     if (outstandingUploads == 0) {
       totalNetworkTimeMillis += event.getTimestampMillis() - lastUploadStartMillis;
@@ -117,6 +122,7 @@ public class HttpArtifactCacheUploadListener implements BuckEventListener {
             .setCategory("buck_http_cache_upload_stats")
             .putValues("upload_thread_count", uploadThreadCount)
             .putValues("artifact_count", artifactCount)
+            .putValues("batched_artifact_count", batchedArtifactCount)
             .putValues("total_uploaded_bytes", totalUploadedBytes);
 
     if (totalNetworkTimeMillis != -1) {
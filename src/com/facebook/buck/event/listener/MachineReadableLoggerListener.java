@@ -24,10 +24,12 @@ import static com.facebook.buck.log.MachineReadableLogConfig.PREFIX_INVOCATION_I
 import static com.facebook.buck.log.MachineReadableLogConfig.PREFIX_PERFTIMES;
 
 import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.ArtifactPrefetchSummaryEvent;
 import com.facebook.buck.artifact_cache.CacheCountersSummary;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.MemoryArtifactCacheSummaryEvent;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.core.build.event.BuildEvent;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
@@ -102,6 +104,16 @@ public class MachineReadableLoggerListener implements BuckEventListener {
   // Cache upload statistics
   private AtomicInteger cacheUploadSuccessCount = new AtomicInteger();
   private AtomicInteger cacheUploadFailureCount = new AtomicInteger();
+  private AtomicInteger negativeLookupFilterHits = new AtomicInteger();
+
+  // Artifact prefetch statistics
+  private AtomicInteger prefetchHits = new AtomicInteger();
+  private AtomicLong prefetchWastedBytes = new AtomicLong();
+
+  // In-memory cache tier statistics
+  private AtomicLong memoryCacheHits = new AtomicLong();
+  private AtomicLong memoryCacheMisses = new AtomicLong();
+  private AtomicLong memoryCacheEvictions = new AtomicLong();
 
   public MachineReadableLoggerListener(
       InvocationInfo info,
@@ -235,9 +247,26 @@ public class MachineReadableLoggerListener implements BuckEventListener {
       } else {
         cacheUploadFailureCount.incrementAndGet();
       }
+    } else if (event.getOperation() == ArtifactCacheEvent.Operation.FETCH) {
+      if (event.getFetchData().wasNegativeLookupFilterHit().orElse(false)) {
+        negativeLookupFilterHits.incrementAndGet();
+      }
     }
   }
 
+  @Subscribe
+  public void onArtifactPrefetchSummary(ArtifactPrefetchSummaryEvent event) {
+    prefetchHits.addAndGet(event.getHitCount());
+    prefetchWastedBytes.addAndGet(event.getWastedBytes());
+  }
+
+  @Subscribe
+  public void onMemoryArtifactCacheSummary(MemoryArtifactCacheSummaryEvent event) {
+    memoryCacheHits.addAndGet(event.getHitCount());
+    memoryCacheMisses.addAndGet(event.getMissCount());
+    memoryCacheEvictions.addAndGet(event.getEvictionCount());
+  }
+
   private Path getLogFilePath() {
     return filesystem
         .resolve(info.getLogDirectoryPath())
@@ -271,18 +300,27 @@ public class MachineReadableLoggerListener implements BuckEventListener {
             }
             writeToLogImpl(
                 PREFIX_CACHE_STATS,
-                CacheCountersSummary.of(
-                    cacheModeHits,
-                    cacheModeErrors,
-                    cacheModeBytes,
-                    cacheModeHits.values().stream().mapToInt(AtomicInteger::get).sum(),
-                    cacheModeErrors.values().stream().mapToInt(AtomicInteger::get).sum(),
-                    cacheMisses.get(),
-                    cacheIgnores.get(),
-                    cacheModeBytes.values().stream().mapToLong(AtomicLong::get).sum(),
-                    localKeyUnchangedHits.get(),
-                    cacheUploadSuccessCount,
-                    cacheUploadFailureCount));
+                CacheCountersSummary.builder()
+                    .from(
+                        CacheCountersSummary.of(
+                            cacheModeHits,
+                            cacheModeErrors,
+                            cacheModeBytes,
+                            cacheModeHits.values().stream().mapToInt(AtomicInteger::get).sum(),
+                            cacheModeErrors.values().stream().mapToInt(AtomicInteger::get).sum(),
+                            cacheMisses.get(),
+                            cacheIgnores.get(),
+                            cacheModeBytes.values().stream().mapToLong(AtomicLong::get).sum(),
+                            localKeyUnchangedHits.get(),
+                            cacheUploadSuccessCount,
+                            cacheUploadFailureCount))
+                    .setTotalPrefetchHits(prefetchHits.get())
+                    .setTotalPrefetchWastedBytes(prefetchWastedBytes.get())
+                    .setTotalMemoryCacheHits(memoryCacheHits.get())
+                    .setTotalMemoryCacheMisses(memoryCacheMisses.get())
+                    .setTotalMemoryCacheEvictions(memoryCacheEvictions.get())
+                    .setTotalNegativeLookupFilterHits(negativeLookupFilterHits.get())
+                    .build());
 
             outputStream.write(
                 String.format(
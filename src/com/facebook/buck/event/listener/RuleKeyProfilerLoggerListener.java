@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.log.InvocationInfo;
+import com.facebook.buck.rules.keys.RuleKeyProfilerReportEvent;
+import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Writes the reports of the rule key profiler to the log directory of the command. */
+public class RuleKeyProfilerLoggerListener implements BuckEventListener {
+
+  private final InvocationInfo info;
+  private final ProjectFilesystem filesystem;
+
+  public RuleKeyProfilerLoggerListener(InvocationInfo info, ProjectFilesystem filesystem) {
+    this.info = info;
+    this.filesystem = filesystem;
+  }
+
+  @Subscribe
+  public void ruleKeyProfilerReported(RuleKeyProfilerReportEvent event) throws IOException {
+    Path reportPath = info.getLogDirectoryPath().resolve("rule_key_profile.log");
+    filesystem.createParentDirs(reportPath);
+    filesystem.writeContentsToPath(event.getReport(), reportPath);
+  }
+}
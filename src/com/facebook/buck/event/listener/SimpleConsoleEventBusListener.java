@@ -16,8 +16,10 @@
 package com.facebook.buck.event.listener;
 
 import static com.facebook.buck.core.build.engine.BuildRuleSuccessType.BUILT_LOCALLY;
+import static com.facebook.buck.core.build.engine.BuildRuleSuccessType.BUILT_LOCALLY_RACING_CACHE;
 
 import com.facebook.buck.core.build.engine.BuildRuleStatus;
+import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
 import com.facebook.buck.core.build.event.BuildEvent;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
 import com.facebook.buck.core.model.BuildId;
@@ -318,7 +320,9 @@ public class SimpleConsoleEventBusListener extends AbstractConsoleEventBusListen
             formatElapsedTime(finished.getDuration().getWallMillisDuration()),
             finished.getBuildRule().getFullyQualifiedName());
 
-    if ((BUILT_LOCALLY.equals(finished.getSuccessType().orElse(null)) && !hideSucceededRules)
+    BuildRuleSuccessType successType = finished.getSuccessType().orElse(null);
+    if (((successType == BUILT_LOCALLY || successType == BUILT_LOCALLY_RACING_CACHE)
+            && !hideSucceededRules)
         || console.getVerbosity().shouldPrintBinaryRunInformation()) {
       console.logLines(line);
     }
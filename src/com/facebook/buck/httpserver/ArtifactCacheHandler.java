@@ -26,6 +26,8 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
 import com.google.common.util.concurrent.Futures;
@@ -84,6 +86,11 @@ public class ArtifactCacheHandler extends AbstractHandler {
       status = handleGet(baseRequest, response);
     } else if (method.equals("PUT")) {
       status = handlePut(baseRequest, response);
+    } else if (method.equals("POST")
+        && baseRequest.getHttpURI().getPath().equals("/artifacts/multi_store")) {
+      status = handleMultiStore(baseRequest, response);
+    } else if (method.equals("POST")) {
+      status = handleMultiContains(baseRequest, response);
     }
     return status;
   }
@@ -132,7 +139,61 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
   }
 
+  private int handleMultiContains(Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    if (!baseRequest.getHttpURI().getPath().equals("/artifacts/contains")) {
+      response.getWriter().write("Incorrect url format.");
+      return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    ImmutableSet<RuleKey> ruleKeys;
+    try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream())) {
+      ruleKeys = HttpArtifactCacheBinaryProtocol.readMultiContainsRequest(requestInputData);
+    }
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(artifactCache.get().multiContainsAsync(ruleKeys));
+    ImmutableList.Builder<Boolean> containedKeys =
+        ImmutableList.builderWithExpectedSize(ruleKeys.size());
+    for (RuleKey ruleKey : ruleKeys) {
+      CacheResult result = results.get(ruleKey);
+      containedKeys.add(result != null && result.getType().isSuccess());
+    }
+
+    byte[] responseData =
+        HttpArtifactCacheBinaryProtocol.createMultiContainsResponse(containedKeys.build());
+    response.setContentLength(responseData.length);
+    response.getOutputStream().write(responseData);
+    return HttpServletResponse.SC_OK;
+  }
+
+  private int handleMultiStore(Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    ImmutableList.Builder<Boolean> storedArtifacts = ImmutableList.builder();
+    try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream())) {
+      HttpArtifactCacheBinaryProtocol.readMultiStoreRequest(
+          requestInputData, storeRequest -> storedArtifacts.add(store(storeRequest)));
+    }
+
+    byte[] responseData =
+        HttpArtifactCacheBinaryProtocol.createMultiStoreResponse(storedArtifacts.build());
+    response.setContentLength(responseData.length);
+    response.getOutputStream().write(responseData);
+    return HttpServletResponse.SC_OK;
+  }
+
   private int handlePut(Request baseRequest, HttpServletResponse response) throws IOException {
+    try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream())) {
+      if (!store(requestInputData)) {
+        response.getWriter().write("Checksum mismatch.");
+        return HttpServletResponse.SC_NOT_ACCEPTABLE;
+      }
+    }
+    return HttpServletResponse.SC_ACCEPTED;
+  }
+
+  /** @return whether the artifact was stored, which it isn't if its checksum does not match. */
+  private boolean store(DataInputStream requestInputData) throws IOException {
     Path temp = null;
     try {
       projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
@@ -141,16 +202,14 @@ public class ArtifactCacheHandler extends AbstractHandler {
               projectFilesystem.getBuckPaths().getScratchDir(), "incoming_upload", ".tmp");
 
       StoreResponseReadResult storeRequest;
-      try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream());
-          OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
+      try (OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
         storeRequest =
             HttpArtifactCacheBinaryProtocol.readStoreRequest(
                 requestInputData, tempFileOutputStream);
       }
 
       if (!storeRequest.getActualHashCode().equals(storeRequest.getExpectedHashCode())) {
-        response.getWriter().write("Checksum mismatch.");
-        return HttpServletResponse.SC_NOT_ACCEPTABLE;
+        return false;
       }
 
       artifactCache
@@ -161,7 +220,7 @@ public class ArtifactCacheHandler extends AbstractHandler {
                   .setMetadata(storeRequest.getMetadata())
                   .build(),
               BorrowablePath.borrowablePath(temp));
-      return HttpServletResponse.SC_ACCEPTED;
+      return true;
     } finally {
       if (temp != null) {
         projectFilesystem.deleteFileAtPathIfExists(temp);
@@ -86,6 +86,12 @@ abstract class AbstractBuckPaths {
     return getBuckOut().resolve("cache");
   }
 
+  /** The directory for the state buck keeps across daemon restarts, such as file hashes. */
+  @Value.Derived
+  public Path getPersistentCacheDir() {
+    return getBuckOut().resolve("persistent_cache");
+  }
+
   @Value.Derived
   public Path getTmpDir() {
     return getBuckOut().resolve("tmp");
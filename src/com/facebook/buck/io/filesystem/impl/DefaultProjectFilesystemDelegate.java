@@ -19,14 +19,21 @@ package com.facebook.buck.io.filesystem.impl;
 import com.facebook.buck.io.filesystem.ProjectFilesystemDelegate;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Funnels;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Default implementation of {@link ProjectFilesystemDelegate} that talks to the filesystem via
@@ -34,6 +41,12 @@ import java.nio.file.Path;
  */
 public final class DefaultProjectFilesystemDelegate implements ProjectFilesystemDelegate {
 
+  /** Files at least this large are hashed through a direct buffer. */
+  private static final long LARGE_FILE_SIZE = 1024 * 1024;
+
+  private static final ThreadLocal<ByteBuffer> LARGE_FILE_BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(256 * 1024));
+
   private final Path root;
 
   public DefaultProjectFilesystemDelegate(Path root) {
@@ -48,22 +61,19 @@ public final class DefaultProjectFilesystemDelegate implements ProjectFilesystem
   @Override
   public Sha1HashCode computeSha1(Path pathRelativeToProjectRootOrJustAbsolute) throws IOException {
     Path fileToHash = getPathForRelativePath(pathRelativeToProjectRootOrJustAbsolute);
-    try {
-      // Normally, we would just use `Files.hash(fileToHash.toFile(), Hashing.sha1())`, but if
-      // fileToHash is backed by Jimfs, its toFile() method throws an UnsupportedOperationException.
-      // Creating the input stream via java.nio.file.Files.newInputStream() avoids this issue.
-      ByteSource source =
-          new ByteSource() {
-            @Override
-            public InputStream openStream() throws IOException {
-              // No need to wrap with BufferedInputStream because ByteSource uses
-              // ByteStreams.copy(), which already buffers.
-              return Files.newInputStream(fileToHash);
-            }
-          };
-      HashCode hashCode = source.hash(Hashing.sha1());
-
-      return Sha1HashCode.fromHashCode(hashCode);
+    // Normally, we would just use `Files.hash(fileToHash.toFile(), Hashing.sha1())`, but if
+    // fileToHash is backed by Jimfs, its toFile() method throws an UnsupportedOperationException.
+    // Reading through java.nio.file.Files.newByteChannel() avoids this issue, and gives the size of
+    // the open file without reading its attributes again.
+    try (SeekableByteChannel channel = Files.newByteChannel(fileToHash)) {
+      if (channel.size() >= LARGE_FILE_SIZE) {
+        return Sha1HashCode.fromHashCode(computeSha1OfLargeFile(channel));
+      }
+      Hasher hasher = Hashing.sha1().newHasher();
+      // No need to wrap with BufferedInputStream because ByteStreams.copy() already buffers.
+      ByteStreams.copy(Channels.newInputStream(channel), Funnels.asOutputStream(hasher));
+
+      return Sha1HashCode.fromHashCode(hasher.hash());
 
     } catch (IOException e) {
       String msg =
@@ -73,6 +83,32 @@ public final class DefaultProjectFilesystemDelegate implements ProjectFilesystem
     }
   }
 
+  /**
+   * Hashes a large file in reads of a reused buffer, which are much larger than the ones of the
+   * stream copy. The buffer is direct, so file channels read into it without going through a
+   * temporary direct buffer, but the digest still copies the bytes out of it. The file is not
+   * mapped, because mapped files can not be deleted on Windows until the mapping is garbage
+   * collected.
+   */
+  private static HashCode computeSha1OfLargeFile(ReadableByteChannel channel) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    ByteBuffer buffer = LARGE_FILE_BUFFER.get();
+    while (true) {
+      buffer.clear();
+      if (channel.read(buffer) < 0) {
+        break;
+      }
+      buffer.flip();
+      digest.update(buffer);
+    }
+    return HashCode.fromBytes(digest.digest());
+  }
+
   @Override
   public Path getPathForRelativePath(Path pathRelativeToProjectRoot) {
     // We often create {@link Path} instances using
@@ -26,5 +26,6 @@ public enum Capability {
   WILDMATCH_GLOB,
   WILDMATCH_MULTISLASH,
   GLOB_GENERATOR,
-  CLOCK_SYNC_TIMEOUT
+  CLOCK_SYNC_TIMEOUT,
+  CONTENT_SHA1HEX
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io.watchman;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+
+/**
+ * Buck sends this event with the SHA-1 hashes Watchman computed for the contents of files, so that
+ * they don't have to be read to be hashed again. It follows the events for the changes to the same
+ * files.
+ */
+@BuckStyleValue
+public abstract class WatchmanContentHashEvent implements WatchmanEvent {
+
+  @Override
+  public abstract Path getCellPath();
+
+  /** SHA-1 hashes of the contents of files, by path relative to the cell path. */
+  public abstract ImmutableMap<Path, HashCode> getContentHashes();
+}
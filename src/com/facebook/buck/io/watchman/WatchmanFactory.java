@@ -66,6 +66,7 @@ public class WatchmanFactory {
           .put("wildmatch_multislash", Capability.WILDMATCH_MULTISLASH)
           .put("glob_generator", Capability.GLOB_GENERATOR)
           .put("clock-sync-timeout", Capability.CLOCK_SYNC_TIMEOUT)
+          .put("field-content.sha1hex", Capability.CONTENT_SHA1HEX)
           .build();
   static final Path WATCHMAN = Paths.get("watchman");
   private static final int WATCHMAN_CLOCK_SYNC_TIMEOUT = 100;
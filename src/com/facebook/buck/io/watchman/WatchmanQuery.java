@@ -23,6 +23,8 @@ import com.google.common.collect.ImmutableMap;
 @BuckStyleValue
 abstract class WatchmanQuery {
 
+  static final String CONTENT_SHA1HEX_FIELD = "content.sha1hex";
+
   abstract String getQueryPath();
 
   abstract ImmutableMap<String, Object> getQueryParams();
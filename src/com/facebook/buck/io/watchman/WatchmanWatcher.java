@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
@@ -168,7 +169,12 @@ public class WatchmanWatcher {
     Map<String, Object> sinceParams = new LinkedHashMap<>();
     sinceParams.put("expression", Lists.newArrayList("not", excludeAnyOf));
     sinceParams.put("empty_on_fresh_instance", true);
-    sinceParams.put("fields", Lists.newArrayList("name", "exists", "new", "type"));
+    List<String> fields = Lists.newArrayList("name", "exists", "new", "type");
+    if (watchmanCapabilities.contains(Capability.CONTENT_SHA1HEX)) {
+      // Watchman caches the hashes, so buck doesn't have to read the changed files to hash them.
+      fields.add(WatchmanQuery.CONTENT_SHA1HEX_FIELD);
+    }
+    sinceParams.put("fields", fields);
     if (watchPrefix.isPresent()) {
       sinceParams.put("relative_root", watchPrefix.get());
     }
@@ -365,6 +371,7 @@ public class WatchmanWatcher {
 
         FileSystem fileSystem = cellPath.getFileSystem();
         List<WatchmanMultiplePathEvent.Change> changes = new ArrayList<>(files.size());
+        Map<Path, HashCode> contentHashes = new LinkedHashMap<>();
         for (Map<String, Object> file : files) {
           String fileName = (String) file.get("name");
           if (fileName == null) {
@@ -412,12 +419,21 @@ public class WatchmanWatcher {
             // WatchmanPathEvent
             postWatchEvent(buckEventBus, ImmutableWatchmanPathEvent.of(cellPath, kind, filePath));
           }
+
+          if (type == Type.FILE && kind != WatchmanEvent.Kind.DELETE) {
+            addContentHash(contentHashes, filePath, file);
+          }
         }
 
         if (!changes.isEmpty()) {
           postWatchEvent(buckEventBus, new ImmutableWatchmanMultiplePathEvent(cellPath, changes));
         }
 
+        if (!contentHashes.isEmpty()) {
+          postWatchEvent(
+              buckEventBus, new ImmutableWatchmanContentHashEvent(cellPath, contentHashes));
+        }
+
         if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
           filesHaveChanged.set(true);
         }
@@ -439,6 +455,20 @@ public class WatchmanWatcher {
     }
   }
 
+  private static void addContentHash(
+      Map<Path, HashCode> contentHashes, Path filePath, Map<String, Object> file) {
+    // Watchman declines to hash some files, such as ones that are too large or were deleted before
+    // it got to them, and returns an error object in place of the hash. Buck hashes those itself.
+    Object sha1 = file.get(WatchmanQuery.CONTENT_SHA1HEX_FIELD);
+    if (sha1 instanceof String && ((String) sha1).length() == 40) {
+      try {
+        contentHashes.put(filePath, HashCode.fromString((String) sha1));
+      } catch (IllegalArgumentException e) {
+        LOG.debug("Ignoring invalid content hash %s of %s", sha1, filePath);
+      }
+    }
+  }
+
   private void postWatchEvent(BuckEventBus eventBus, WatchmanEvent event) {
     LOG.debug("Posting WatchEvent: %s", event);
     fileChangeEventBus.post(event);
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.json.JsonObjectHashing;
+import com.facebook.buck.parser.config.ParserConfig;
+import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.util.hashing.StringHashing;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Fingerprints the definitions of build targets from the raw attributes the parser cached for them
+ * and the fingerprints of the targets they depend on, so that they can be compared across daemons.
+ *
+ * <p>Targets whose build files aren't in the parser's cache have no fingerprint.
+ */
+public class TargetNodeFingerprinter implements Function<BuildTarget, Optional<HashCode>> {
+
+  private final DaemonicParserState parserState;
+  private final Cell rootCell;
+  private final TargetGraph targetGraph;
+  private final BuckEventBus eventBus;
+  private final ConcurrentMap<BuildTarget, Optional<HashCode>> fingerprints =
+      new ConcurrentHashMap<>();
+
+  public TargetNodeFingerprinter(
+      DaemonicParserState parserState,
+      Cell rootCell,
+      TargetGraph targetGraph,
+      BuckEventBus eventBus) {
+    this.parserState = parserState;
+    this.rootCell = rootCell;
+    this.targetGraph = targetGraph;
+    this.eventBus = eventBus;
+  }
+
+  @Override
+  public Optional<HashCode> apply(BuildTarget target) {
+    // Fingerprints are calculated recursively, so `computeIfAbsent` can't be used here.
+    Optional<HashCode> fingerprint = fingerprints.get(target);
+    if (fingerprint == null) {
+      fingerprint = fingerprint(target);
+      fingerprints.put(target, fingerprint);
+    }
+    return fingerprint;
+  }
+
+  private Optional<HashCode> fingerprint(BuildTarget target) {
+    Optional<TargetNode<?>> node = targetGraph.getOptional(target);
+    if (!node.isPresent()) {
+      node = targetGraph.getOptional(target.withoutFlavors());
+    }
+    if (!node.isPresent()) {
+      return Optional.empty();
+    }
+    Optional<Map<String, Object>> rawAttributes = getRawAttributes(target);
+    if (!rawAttributes.isPresent()) {
+      return Optional.empty();
+    }
+
+    Hasher hasher = Hashing.sha1().newHasher();
+    StringHashing.hashStringAndLength(hasher, target.toString());
+    JsonObjectHashing.hashJsonObject(hasher, rawAttributes.get());
+    for (BuildTarget dep : ImmutableSortedSet.copyOf(node.get().getParseDeps())) {
+      Optional<HashCode> depFingerprint = apply(dep);
+      if (!depFingerprint.isPresent()) {
+        return Optional.empty();
+      }
+      StringHashing.hashStringAndLength(hasher, dep.toString());
+      hasher.putBytes(depFingerprint.get().asBytes());
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  private Optional<Map<String, Object>> getRawAttributes(BuildTarget target) {
+    Cell cell = rootCell.getCell(target);
+    Path buildFile =
+        cell.getBuckConfigView(ParserConfig.class)
+            .getAbsolutePathToBuildFileUnsafe(cell, target.getUnconfiguredBuildTargetView());
+    try {
+      return parserState
+          .getRawNodeCache()
+          .lookupComputedNode(cell, buildFile, eventBus)
+          .map(manifest -> manifest.getTargets().get(target.getShortName()));
+    } catch (BuildTargetException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -68,10 +68,37 @@ abstract class AbstractRuleKeyFactories {
       long inputRuleKeyFileSizeLimit,
       TrackedRuleKeyCache<RuleKey> defaultRuleKeyFactoryCache,
       Optional<ThriftRuleKeyLogger> ruleKeyLogger) {
+    return of(
+        ruleKeyConfiguration,
+        fileHashLoader,
+        resolver,
+        inputRuleKeyFileSizeLimit,
+        defaultRuleKeyFactoryCache,
+        ruleKeyLogger,
+        Optional.empty());
+  }
+
+  /**
+   * Creates the rule key factories of a build. If a {@code profiler} is given, the computation of
+   * the default rule keys is recorded to it.
+   */
+  public static RuleKeyFactories of(
+      RuleKeyConfiguration ruleKeyConfiguration,
+      FileHashLoader fileHashLoader,
+      BuildRuleResolver resolver,
+      long inputRuleKeyFileSizeLimit,
+      TrackedRuleKeyCache<RuleKey> defaultRuleKeyFactoryCache,
+      Optional<ThriftRuleKeyLogger> ruleKeyLogger,
+      Optional<RuleKeyProfiler> profiler) {
     RuleKeyFieldLoader fieldLoader = new RuleKeyFieldLoader(ruleKeyConfiguration);
     return RuleKeyFactories.of(
         new DefaultRuleKeyFactory(
-            fieldLoader, fileHashLoader, resolver, defaultRuleKeyFactoryCache, ruleKeyLogger),
+            fieldLoader,
+            fileHashLoader,
+            resolver,
+            defaultRuleKeyFactoryCache,
+            ruleKeyLogger,
+            profiler),
         new InputBasedRuleKeyFactory(
             fieldLoader, fileHashLoader, resolver, inputRuleKeyFileSizeLimit, ruleKeyLogger),
         new DefaultDependencyFileRuleKeyFactory(
@@ -71,14 +71,14 @@ public class ContentAgnosticRuleKeyFactory implements RuleKeyFactory<RuleKey> {
   }
 
   private RuleKey calculateBuildRuleKey(BuildRule buildRule) {
-    Builder<HashCode> builder = new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    Builder<HashCode> builder = new Builder<>(ruleKeyFieldLoader.createHasher(ruleKeyLogger));
     ruleKeyFieldLoader.setFields(builder, buildRule, RuleKeyType.CONTENT_AGNOSTIC);
     return builder.build(RuleKey::new);
   }
 
   private RuleKey calculateAppendableKey(AddsToRuleKey appendable) {
     Builder<HashCode> subKeyBuilder =
-        new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+        new Builder<>(ruleKeyFieldLoader.createHasher(ruleKeyLogger));
     AlterRuleKeys.amendKey(subKeyBuilder, appendable);
     return subKeyBuilder.build(RuleKey::new);
   }
@@ -81,10 +81,30 @@ public final class DefaultDependencyFileRuleKeyFactory implements DependencyFile
   public RuleKeyAndInputs build(
       SupportsDependencyFileRuleKey rule, ImmutableList<DependencyFileEntry> depFileEntries)
       throws IOException {
+    prefetchHashes(rule, depFileEntries);
     // Note, we do not cache this as it didn't show performance improvements.
     return buildKey(rule, KeyType.DEP_FILE, depFileEntries);
   }
 
+  /**
+   * The dep file lists the inputs whose hashes the key needs up front, so they are loaded in one
+   * batch, which hashes those that are not cached yet in parallel.
+   */
+  private void prefetchHashes(
+      SupportsDependencyFileRuleKey rule, ImmutableList<DependencyFileEntry> depFileEntries) {
+    ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
+    for (DependencyFileEntry entry : depFileEntries) {
+      if (!entry.pathWithinArchive().isPresent()) {
+        paths.add(entry.pathToFile());
+      }
+    }
+    try {
+      fileHashLoader.getAll(rule.getProjectFilesystem(), paths.build());
+    } catch (IOException e) {
+      // Failures are reported when the key itself hashes the path.
+    }
+  }
+
   @Override
   public RuleKeyAndInputs buildManifestKey(SupportsDependencyFileRuleKey rule) throws IOException {
     // Note, we do not cache this as it didn't show performance improvements.
@@ -103,7 +123,7 @@ public final class DefaultDependencyFileRuleKeyFactory implements DependencyFile
             depFileEntries,
             rule.getCoveredByDepFilePredicate(ruleFinder.getSourcePathResolver()),
             rule.getExistenceOfInterestPredicate(ruleFinder.getSourcePathResolver()),
-            RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+            ruleKeyFieldLoader.createHasher(ruleKeyLogger));
     ruleKeyFieldLoader.setFields(builder, rule, keyType.toRuleKeyType());
     Result<RuleKey> result = builder.buildResult(RuleKey::new);
     return RuleKeyAndInputs.of(result.getRuleKey(), result.getSourcePaths());
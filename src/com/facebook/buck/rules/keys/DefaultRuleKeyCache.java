@@ -28,15 +28,15 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -53,17 +53,31 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   /**
    * The underlying rule key cache. We use object identity for indexing.
    *
-   * <p>All modifications to the Nodes are synchronized by using the compute* functions on
-   * ConcurrentHashMap.
+   * <p>All modifications to the Nodes are synchronized by using {@link
+   * StripedIdentityTable#compute}.
    */
-  private final ConcurrentHashMap<IdentityWrapper<Object>, Node<Object, V>> cache =
-      new ConcurrentHashMap<>();
+  private final StripedIdentityTable<Node<V>> cache = new StripedIdentityTable<>();
 
   /** A map for rule key inputs to nodes that use them. */
-  private final ConcurrentHashMap<RuleKeyInput, Stream.Builder<Object>> inputsIndex =
-      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<RuleKeyInput, NodeList> inputsIndex = new ConcurrentHashMap<>();
 
-  private <K> V calculateNode(K node, Function<K, RuleKeyResult<V>> create) {
+  /** Whether nodes keep the results their values were calculated from, for snapshots. */
+  private final boolean keepResults;
+
+  public DefaultRuleKeyCache() {
+    this(false);
+  }
+
+  /**
+   * @param keepResults whether to keep the results rule keys were calculated from, so that they
+   *     can be returned by {@link #getCachedBuildRuleResults()}. Only needed when the cache is
+   *     written to a {@link RuleKeyCacheSnapshot}.
+   */
+  public DefaultRuleKeyCache(boolean keepResults) {
+    this.keepResults = keepResults;
+  }
+
+  private <K> V calculateNode(K node, Function<K, RuleKeyResult<V>> create, Node<V> cacheNode) {
     Preconditions.checkArgument(
         node instanceof BuildRule || node instanceof AddsToRuleKey,
         "%s must be one of either a `BuildRule` or `AddsToRuleKey`",
@@ -72,43 +86,55 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     RuleKeyResult<V> result = create.apply(node);
     for (Object dependency : result.deps) {
       cache.compute(
-          new IdentityWrapper<>(dependency),
+          dependency,
           (key, value) -> {
             if (value == null) {
               value = new Node<>();
             }
-            value.dependents.add(node);
+            value.add(node);
             return value;
           });
     }
     for (RuleKeyInput input : result.inputs) {
       inputsIndex.compute(
           input,
-          (key, builder) -> {
-            if (builder == null) {
-              builder = Stream.builder();
+          (key, nodes) -> {
+            if (nodes == null) {
+              nodes = new NodeList();
             }
-            builder.add(node);
-            return builder;
+            nodes.add(node);
+            return nodes;
           });
     }
 
+    if (keepResults) {
+      cacheNode.result = result;
+    }
     return result.result;
   }
 
   private <K> V getNode(
       K node, Function<K, RuleKeyResult<V>> create, CacheStatsTracker statsTracker) {
     CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
+    // Look the node up without locking first, as most requests are hits.
+    Node<V> cachedNode = cache.get(node);
+    Supplier<V> cachedValue = cachedNode == null ? null : cachedNode.value;
+    if (cachedValue != null) {
+      request.recordHit();
+      return cachedValue.get();
+    }
     Supplier<V> supplier =
         cache.compute(
-                new IdentityWrapper<>(node),
+                node,
                 (key, value) -> {
                   if (value == null) {
                     value = new Node<>();
                   }
                   if (value.value == null) {
                     request.recordMiss();
-                    value.value = MoreSuppliers.memoize(() -> calculateNode(node, create));
+                    Node<V> cacheNode = value;
+                    value.value =
+                        MoreSuppliers.memoize(() -> calculateNode(node, create, cacheNode));
                     request.recordLoadSuccess();
                   } else {
                     request.recordHit();
@@ -123,10 +149,11 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   @Override
   public V get(BuildRule rule, CacheStatsTracker statsTracker) {
     CacheStatsTracker.CacheRequest request = statsTracker.startRequest();
-    Node<Object, V> node = cache.get(new IdentityWrapper<Object>(rule));
-    if (node != null && node.value != null) {
+    Node<V> node = cache.get(rule);
+    Supplier<V> value = node == null ? null : node.value;
+    if (value != null) {
       request.recordHit();
-      return Objects.requireNonNull(node.value).get();
+      return value.get();
     }
     request.recordMiss();
     return null;
@@ -149,7 +176,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   }
 
   private boolean isCachedNode(Object object) {
-    return cache.containsKey(new IdentityWrapper<>(object));
+    return cache.containsKey(object);
   }
 
   @VisibleForTesting
@@ -162,38 +189,33 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     return isCachedNode(appendable);
   }
 
-  /** Recursively invalidate nodes up the dependency tree. */
-  private void invalidateNodes(Stream<Object> nodes, CacheStatsTracker statsTracker) {
-    List<Stream<Object>> dependents = new ArrayList<>();
-    nodes.forEach(
-        key -> {
-          Node<Object, V> node = cache.remove(new IdentityWrapper<>(key));
-          // This node may have already been removed due to being someone else's reverse dependency.
-          if (node != null) {
-            LOG.verbose("invalidating node %s", key);
-            dependents.add(node.dependents.build());
-            statsTracker.recordEviction();
-          }
-        });
-    if (!dependents.isEmpty()) {
-      invalidateNodes(dependents.stream().flatMap(x -> x), statsTracker);
+  /** Invalidate the given nodes and all their transitive dependents. */
+  private void invalidateNodes(NodeList nodes, CacheStatsTracker statsTracker) {
+    while (nodes.size > 0) {
+      Object key = nodes.removeLast();
+      Node<V> node = cache.remove(key);
+      // This node may have already been removed due to being someone else's reverse dependency.
+      if (node != null) {
+        LOG.verbose("invalidating node %s", key);
+        // Nothing can depend on the node anymore once it is removed, so its dependents are final.
+        nodes.addAll(node);
+        statsTracker.recordEviction();
+      }
     }
   }
 
   /** Invalidate the given inputs and all their transitive dependents. */
   @Override
   public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
-    List<Stream<Object>> nodes = new ArrayList<>();
+    NodeList nodes = new NodeList();
     for (RuleKeyInput input : inputs) {
       LOG.verbose("invalidating input %s", input);
-      Stream.Builder<Object> inputNodes = inputsIndex.remove(input);
+      NodeList inputNodes = inputsIndex.remove(input);
       if (inputNodes != null) {
-        nodes.add(inputNodes.build());
+        nodes.addAll(inputNodes);
       }
     }
-    if (!nodes.isEmpty()) {
-      invalidateNodes(nodes.stream().flatMap(x -> x), statsTracker);
-    }
+    invalidateNodes(nodes, statsTracker);
   }
 
   /**
@@ -239,63 +261,118 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     ImmutableList.Builder<Map.Entry<BuildRule, V>> builder = ImmutableList.builder();
     cache.forEach(
         (key, value) -> {
-          if (key.delegate instanceof BuildRule) {
+          if (key instanceof BuildRule) {
             Supplier<V> supplier = value.value;
             if (supplier != null) {
-              builder.add(new AbstractMap.SimpleEntry<>((BuildRule) key.delegate, supplier.get()));
+              builder.add(new AbstractMap.SimpleEntry<>((BuildRule) key, supplier.get()));
             }
           }
         });
     return builder.build();
   }
 
-  private static final class Node<T, V> {
-    /**
-     * Accumulator of nodes that depends on this one. Used to invalidate those nodes when this node
-     * is invalidated.
-     */
-    private final Stream.Builder<T> dependents;
-
-    /**
-     * The cached value, stored in a memoized supplier. A memoized supplier is used to allow the
-     * value computation to be serialized separately from the lock in the ConcurrentHashMap that the
-     * nodes are stored in.
-     *
-     * <p>This value is nullable because the instance can be created in response to recording a
-     * dependent.
-     */
-    @Nullable private volatile Supplier<V> value;
+  /**
+   * Returns the results the cached rule keys of build rules were calculated from. The inputs and
+   * deps of the {@link AddsToRuleKey}s a rule key depends on are folded into its own, so that the
+   * deps of the returned results are all {@link BuildRule}s. Empty unless the cache was created
+   * to keep results.
+   */
+  @Override
+  public ImmutableList<Map.Entry<BuildRule, RuleKeyResult<V>>> getCachedBuildRuleResults() {
+    Map<Object, Optional<RuleKeyResult<V>>> foldedAppendables = new IdentityHashMap<>();
+    ImmutableList.Builder<Map.Entry<BuildRule, RuleKeyResult<V>>> builder = ImmutableList.builder();
+    cache.forEach(
+        (key, value) -> {
+          RuleKeyResult<V> result = value.result;
+          if (key instanceof BuildRule && result != null) {
+            foldAppendables(result, foldedAppendables)
+                .ifPresent(
+                    folded -> builder.add(new AbstractMap.SimpleEntry<>((BuildRule) key, folded)));
+          }
+        });
+    return builder.build();
+  }
 
-    public Node() {
-      this.dependents = Stream.builder();
-      this.value = null;
+  /** @return the result with the inputs and deps of its {@link AddsToRuleKey} deps folded in. */
+  private Optional<RuleKeyResult<V>> foldAppendables(
+      RuleKeyResult<V> result, Map<Object, Optional<RuleKeyResult<V>>> foldedAppendables) {
+    ImmutableSet.Builder<Object> deps = ImmutableSet.builder();
+    ImmutableSet.Builder<RuleKeyInput> inputs = ImmutableSet.builder();
+    inputs.addAll(result.inputs);
+    for (Object dep : result.deps) {
+      if (dep instanceof BuildRule) {
+        deps.add(dep);
+        continue;
+      }
+      Optional<RuleKeyResult<V>> folded = foldedAppendables.get(dep);
+      if (folded == null) {
+        Node<V> node = cache.get(dep);
+        RuleKeyResult<V> appendableResult = node == null ? null : node.result;
+        // The appendable may have been invalidated since, in which case neither are its inputs
+        // and deps known anymore.
+        folded =
+            appendableResult == null
+                ? Optional.empty()
+                : foldAppendables(appendableResult, foldedAppendables);
+        foldedAppendables.put(dep, folded);
+      }
+      if (!folded.isPresent()) {
+        return Optional.empty();
+      }
+      deps.addAll(folded.get().deps);
+      inputs.addAll(folded.get().inputs);
     }
+    return Optional.of(new RuleKeyResult<>(result.result, deps.build(), inputs.build()));
   }
 
   /**
-   * A wrapper class which uses identity equality and hash code. Intended to wrap keys used in a
-   * map.
+   * A compact list of nodes, used to index the nodes that depend on a node or an input. Appending
+   * is not thread-safe, it is synchronized by the maps the lists are stored in.
    */
-  private static final class IdentityWrapper<T> {
+  private static class NodeList {
+    private static final Object[] EMPTY = new Object[0];
 
-    private final T delegate;
+    private Object[] nodes = EMPTY;
+    private int size = 0;
 
-    private IdentityWrapper(T delegate) {
-      this.delegate = delegate;
+    void add(Object node) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, Math.max(2, size + (size >> 1)));
+      }
+      nodes[size++] = node;
     }
 
-    @Override
-    public int hashCode() {
-      return System.identityHashCode(delegate);
+    void addAll(NodeList other) {
+      if (size + other.size > nodes.length) {
+        nodes = Arrays.copyOf(nodes, Math.max(size + other.size, size + (size >> 1)));
+      }
+      System.arraycopy(other.nodes, 0, nodes, size, other.size);
+      size += other.size;
     }
 
-    @Override
-    public boolean equals(Object obj) {
-      if (!(obj instanceof DefaultRuleKeyCache.IdentityWrapper)) {
-        return false;
-      }
-      IdentityWrapper<?> other = (IdentityWrapper<?>) obj;
-      return delegate == other.delegate;
+    Object removeLast() {
+      Object node = nodes[--size];
+      nodes[size] = null;
+      return node;
     }
   }
+
+  /** A cached rule key, and the list of the nodes that depend on it. */
+  private static final class Node<V> extends NodeList {
+    /**
+     * The cached value, stored in a memoized supplier. A memoized supplier is used to allow the
+     * value computation to be serialized separately from the lock of the stripe of the table that
+     * the nodes are stored in.
+     *
+     * <p>This value is nullable because the instance can be created in response to recording a
+     * dependent.
+     */
+    @Nullable private volatile Supplier<V> value;
+
+    /**
+     * The result the value was calculated from, once it has been calculated, if the cache keeps
+     * results.
+     */
+    @Nullable private volatile RuleKeyResult<V> result;
+  }
 }
@@ -25,7 +25,9 @@ import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
+import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.annotations.VisibleForTesting;
@@ -44,18 +46,30 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
   private final SourcePathRuleFinder ruleFinder;
   private final RuleKeyCache<RuleKey> ruleKeyCache;
   private final Optional<ThriftRuleKeyLogger> ruleKeyLogger;
+  private final Optional<RuleKeyProfiler> profiler;
 
   public DefaultRuleKeyFactory(
       RuleKeyFieldLoader ruleKeyFieldLoader,
       FileHashLoader hashLoader,
       SourcePathRuleFinder ruleFinder,
       RuleKeyCache<RuleKey> ruleKeyCache,
-      Optional<ThriftRuleKeyLogger> ruleKeyLogger) {
+      Optional<ThriftRuleKeyLogger> ruleKeyLogger,
+      Optional<RuleKeyProfiler> profiler) {
     this.ruleKeyFieldLoader = ruleKeyFieldLoader;
     this.hashLoader = hashLoader;
     this.ruleFinder = ruleFinder;
     this.ruleKeyCache = ruleKeyCache;
     this.ruleKeyLogger = ruleKeyLogger;
+    this.profiler = profiler;
+  }
+
+  public DefaultRuleKeyFactory(
+      RuleKeyFieldLoader ruleKeyFieldLoader,
+      FileHashLoader hashLoader,
+      SourcePathRuleFinder ruleFinder,
+      RuleKeyCache<RuleKey> ruleKeyCache,
+      Optional<ThriftRuleKeyLogger> ruleKeyLogger) {
+    this(ruleKeyFieldLoader, hashLoader, ruleFinder, ruleKeyCache, ruleKeyLogger, Optional.empty());
   }
 
   public DefaultRuleKeyFactory(
@@ -85,22 +99,56 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
 
   private <HASH> Builder<HASH> newPopulatedBuilder(
       BuildRule buildRule, RuleKeyHasher<HASH> hasher) {
-    Builder<HASH> builder = new Builder<>(hasher);
+    return populate(new Builder<>(hasher), buildRule);
+  }
+
+  private <HASH> Builder<HASH> newPopulatedBuilder(
+      AddsToRuleKey appendable, RuleKeyHasher<HASH> hasher) {
+    return populate(new Builder<>(hasher), appendable);
+  }
+
+  private <HASH> Builder<HASH> populate(Builder<HASH> builder, BuildRule buildRule) {
     ruleKeyFieldLoader.setFields(builder, buildRule, RuleKeyType.DEFAULT);
     addDepsToRuleKey(buildRule, builder);
     return builder;
   }
 
-  private <HASH> Builder<HASH> newPopulatedBuilder(
-      AddsToRuleKey appendable, RuleKeyHasher<HASH> hasher) {
-    Builder<HASH> builder = new Builder<>(hasher);
+  private <HASH> Builder<HASH> populate(Builder<HASH> builder, AddsToRuleKey appendable) {
     AlterRuleKeys.amendKey(builder, appendable);
     return builder;
   }
 
+  private RuleKeyResult<RuleKey> computeKey(BuildRule buildRule) {
+    RuleKeyHasher<HashCode> hasher = ruleKeyFieldLoader.createHasher(ruleKeyLogger);
+    if (!profiler.isPresent()) {
+      return newPopulatedBuilder(buildRule, hasher).buildResult(RuleKey::new);
+    }
+    RuleKeyProfiler.Computation computation =
+        profiler.get().startComputation(buildRule.getType());
+    try {
+      return populate(new Builder<>(hasher, computation), buildRule).buildResult(RuleKey::new);
+    } finally {
+      computation.finish();
+    }
+  }
+
+  private RuleKeyResult<RuleKey> computeKey(AddsToRuleKey appendable) {
+    RuleKeyHasher<HashCode> hasher = ruleKeyFieldLoader.createHasher(ruleKeyLogger);
+    if (!profiler.isPresent()) {
+      return newPopulatedBuilder(appendable, hasher).buildResult(RuleKey::new);
+    }
+    RuleKeyProfiler.Computation computation =
+        profiler.get().startComputation(appendable.getClass().getName());
+    try {
+      return populate(new Builder<>(hasher, computation), appendable).buildResult(RuleKey::new);
+    } finally {
+      computation.finish();
+    }
+  }
+
   @VisibleForTesting
   public Builder<HashCode> newBuilderForTesting(BuildRule buildRule) {
-    return newPopulatedBuilder(buildRule, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+    return newPopulatedBuilder(buildRule, ruleKeyFieldLoader.createHasher(ruleKeyLogger));
   }
 
   @Nullable
@@ -111,19 +159,13 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
 
   @Override
   public RuleKey build(BuildRule buildRule) {
-    return ruleKeyCache.get(
-        buildRule,
-        rule ->
-            newPopulatedBuilder(rule, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger))
-                .buildResult(RuleKey::new));
+    profiler.ifPresent(p -> p.recordLookup(buildRule.getType()));
+    return ruleKeyCache.get(buildRule, this::computeKey);
   }
 
   private RuleKey buildAppendableKey(AddsToRuleKey appendable) {
-    return ruleKeyCache.get(
-        appendable,
-        app ->
-            newPopulatedBuilder(app, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger))
-                .buildResult(RuleKey::new));
+    profiler.ifPresent(p -> p.recordLookup(appendable.getClass().getName()));
+    return ruleKeyCache.get(appendable, this::computeKey);
   }
 
   @Override
@@ -158,23 +200,41 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
 
     private final ImmutableList.Builder<Object> deps = ImmutableList.builder();
     private final ImmutableList.Builder<RuleKeyInput> inputs = ImmutableList.builder();
+    @Nullable private final RuleKeyProfiler.Computation computation;
 
     public Builder(RuleKeyHasher<RULE_KEY> hasher) {
       super(ruleFinder, hashLoader, hasher);
+      this.computation = null;
+    }
+
+    private Builder(RuleKeyHasher<RULE_KEY> hasher, RuleKeyProfiler.Computation computation) {
+      super(
+          ruleFinder,
+          computation.wrap(hashLoader),
+          computation.newScopedHasher(new CountingRuleKeyHasher<>(hasher)));
+      this.computation = computation;
     }
 
     @Override
     protected RuleKeyBuilder<RULE_KEY> setBuildRule(BuildRule rule) {
       // Record the `BuildRule` as an immediate dep.
       deps.add(rule);
-      return setBuildRuleKey(DefaultRuleKeyFactory.this.build(rule));
+      RuleKey ruleKey;
+      try (Scope scope = dependencyScope()) {
+        ruleKey = DefaultRuleKeyFactory.this.build(rule);
+      }
+      return setBuildRuleKey(ruleKey);
     }
 
     @Override
     protected RuleKeyBuilder<RULE_KEY> setAddsToRuleKey(AddsToRuleKey appendable) {
       // Record the `AddsToRuleKey` as an immediate dep.
       deps.add(appendable);
-      return setAddsToRuleKey(DefaultRuleKeyFactory.this.buildAppendableKey(appendable));
+      RuleKey ruleKey;
+      try (Scope scope = dependencyScope()) {
+        ruleKey = DefaultRuleKeyFactory.this.buildAppendableKey(appendable);
+      }
+      return setAddsToRuleKey(ruleKey);
     }
 
     @Override
@@ -206,5 +266,9 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
     public <RESULT> RuleKeyResult<RESULT> buildResult(Function<RULE_KEY, RESULT> mapper) {
       return new RuleKeyResult<>(this.build(mapper), deps.build(), inputs.build());
     }
+
+    private Scope dependencyScope() {
+      return computation == null ? Scope.NOOP : computation.dependencyScope();
+    }
   }
 }
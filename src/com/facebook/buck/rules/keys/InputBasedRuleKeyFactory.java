@@ -81,7 +81,7 @@ public class InputBasedRuleKeyFactory implements RuleKeyFactory<RuleKey> {
 
   private Result<RuleKey> calculateRuleKeyAppendableKey(AddsToRuleKey appendable) {
     Builder<HashCode> subKeyBuilder =
-        new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
+        new Builder<>(ruleKeyFieldLoader.createHasher(ruleKeyLogger));
     AlterRuleKeys.amendKey(subKeyBuilder, appendable);
     return subKeyBuilder.buildResult(RuleKey::new);
   }
@@ -113,7 +113,7 @@ public class InputBasedRuleKeyFactory implements RuleKeyFactory<RuleKey> {
   private Builder<HashCode> newVerifyingBuilder(BuildRule rule) {
     Iterable<DependencyAggregation> aggregatedRules =
         Iterables.filter(rule.getBuildDeps(), DependencyAggregation.class);
-    return new Builder<HashCode>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger)) {
+    return new Builder<HashCode>(ruleKeyFieldLoader.createHasher(ruleKeyLogger)) {
       private boolean hasEffectiveDirectDep(BuildRule dep) {
         for (BuildRule aggregationRule : aggregatedRules) {
           if (aggregationRule.getBuildDeps().contains(dep)) {
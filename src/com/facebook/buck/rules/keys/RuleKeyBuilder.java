@@ -36,9 +36,11 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.log.thrift.rulekeys.FullRuleKey;
+import com.facebook.buck.rules.keys.config.RuleKeyHashFunction;
 import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ForwardingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.Murmur3RuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
@@ -90,10 +92,17 @@ public abstract class RuleKeyBuilder<RULE_KEY> extends AbstractRuleKeyBuilder<RU
       SourcePathRuleFinder ruleFinder,
       FileHashLoader hashLoader,
       CountingRuleKeyHasher<RULE_KEY> hasher) {
-    super(new DefaultRuleKeyScopedHasher<>(hasher));
+    this(ruleFinder, hashLoader, new DefaultRuleKeyScopedHasher<>(hasher));
+  }
+
+  protected RuleKeyBuilder(
+      SourcePathRuleFinder ruleFinder,
+      FileHashLoader hashLoader,
+      DefaultRuleKeyScopedHasher<RULE_KEY> scopedHasher) {
+    super(scopedHasher);
     this.ruleFinder = ruleFinder;
     this.hashLoader = hashLoader;
-    this.hasher = hasher;
+    this.hasher = scopedHasher.getHasher();
   }
 
   public RuleKeyBuilder(
@@ -108,7 +117,22 @@ public abstract class RuleKeyBuilder<RULE_KEY> extends AbstractRuleKeyBuilder<RU
   }
 
   static RuleKeyHasher<HashCode> createDefaultHasher(Optional<ThriftRuleKeyLogger> thriftLogger) {
-    RuleKeyHasher<HashCode> hasher = new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+    return createDefaultHasher(RuleKeyHashFunction.DEFAULT, thriftLogger);
+  }
+
+  static RuleKeyHasher<HashCode> createDefaultHasher(
+      RuleKeyHashFunction hashFunction, Optional<ThriftRuleKeyLogger> thriftLogger) {
+    RuleKeyHasher<HashCode> hasher;
+    switch (hashFunction) {
+      case SHA1:
+        hasher = new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+        break;
+      case MURMUR3_128:
+        hasher = new Murmur3RuleKeyHasher();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown rule key hash function: " + hashFunction);
+    }
     if (logger.isVerboseEnabled()) {
       hasher =
           new ForwardingRuleKeyHasher<HashCode, String>(hasher, new StringRuleKeyHasher()) {
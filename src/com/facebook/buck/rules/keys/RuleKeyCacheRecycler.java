@@ -16,23 +16,36 @@
 
 package com.facebook.buck.rules.keys;
 
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.actiongraph.ActionGraph;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.CacheStatsEvent;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
+import com.facebook.buck.util.cache.CacheStats;
+import com.facebook.buck.util.cache.CacheStatsTracker;
 import com.facebook.buck.util.cache.InstrumentingCacheStatsTracker;
 import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 
@@ -43,13 +56,21 @@ public class RuleKeyCacheRecycler<V> {
 
   private final TrackableRuleKeyCache<V> cache;
   private final ImmutableSet<ProjectFilesystem> watchedFilesystems;
+  private final Optional<RuleKeyCacheSnapshot<V>> snapshot;
 
   @Nullable private SettingsAffectingCache previousSettings = null;
 
+  // Fingerprints of the targets of the last build which calculated rule keys that haven't been
+  // written to the snapshot yet.
+  @Nullable private Function<BuildTarget, Optional<HashCode>> unsavedFingerprints = null;
+
   private RuleKeyCacheRecycler(
-      TrackableRuleKeyCache<V> cache, ImmutableSet<ProjectFilesystem> watchedFilesystems) {
+      TrackableRuleKeyCache<V> cache,
+      ImmutableSet<ProjectFilesystem> watchedFilesystems,
+      Optional<RuleKeyCacheSnapshot<V>> snapshot) {
     this.cache = cache;
     this.watchedFilesystems = watchedFilesystems;
+    this.snapshot = snapshot;
   }
 
   /**
@@ -62,8 +83,25 @@ public class RuleKeyCacheRecycler<V> {
       EventBus eventBus,
       TrackableRuleKeyCache<V> ruleKeyCache,
       ImmutableSet<ProjectFilesystem> watchedFilesystems) {
+    return createAndRegister(eventBus, ruleKeyCache, watchedFilesystems, Optional.empty());
+  }
+
+  /**
+   * @param eventBus {@link EventBus} which delivers watchman events.
+   * @param watchedFilesystems all {@link ProjectFilesystem}s which use watchman to receive events
+   *     when files are changed.
+   * @param snapshot the snapshot to look up rule keys missing from the cache in, and to write the
+   *     cache to in {@link #persistSnapshot()}.
+   * @return a new {@link RuleKeyCacheRecycler}.
+   */
+  public static <V> RuleKeyCacheRecycler<V> createAndRegister(
+      EventBus eventBus,
+      TrackableRuleKeyCache<V> ruleKeyCache,
+      ImmutableSet<ProjectFilesystem> watchedFilesystems,
+      Optional<RuleKeyCacheSnapshot<V>> snapshot) {
 
-    RuleKeyCacheRecycler<V> recycler = new RuleKeyCacheRecycler<>(ruleKeyCache, watchedFilesystems);
+    RuleKeyCacheRecycler<V> recycler =
+        new RuleKeyCacheRecycler<>(ruleKeyCache, watchedFilesystems, snapshot);
 
     // Subscribe the recycler to receive filesystem watch events.
     eventBus.register(recycler);
@@ -72,7 +110,7 @@ public class RuleKeyCacheRecycler<V> {
   }
 
   public static <V> RuleKeyCacheRecycler<V> create(TrackableRuleKeyCache<V> ruleKeyCache) {
-    return new RuleKeyCacheRecycler<>(ruleKeyCache, ImmutableSet.of());
+    return new RuleKeyCacheRecycler<>(ruleKeyCache, ImmutableSet.of(), Optional.empty());
   }
 
   @Subscribe
@@ -118,8 +156,15 @@ public class RuleKeyCacheRecycler<V> {
    */
   public RuleKeyCacheScope<V> withRecycledCache(
       BuckEventBus buckEventBus, SettingsAffectingCache currentSettings) {
+    Optional<Function<BuildTarget, Optional<HashCode>>> fingerprints =
+        snapshot.isPresent() ? currentSettings.getTargetFingerprints() : Optional.empty();
+    TrackableRuleKeyCache<V> scopeCache =
+        fingerprints.isPresent()
+            ? new SnapshotRuleKeyCache<>(
+                cache, snapshot.get(), fingerprints.get(), currentSettings.actionGraph)
+            : cache;
     return new EventPostingRuleKeyCacheScope<V>(
-        buckEventBus, new TrackedRuleKeyCache<>(cache, new InstrumentingCacheStatsTracker())) {
+        buckEventBus, new TrackedRuleKeyCache<>(scopeCache, new InstrumentingCacheStatsTracker())) {
 
       // Cache setup which is run before the caller gets access to the cache, at the time the scope
       // is allocated.
@@ -131,6 +176,7 @@ public class RuleKeyCacheRecycler<V> {
         if (!SettingsAffectingCache.areIdentical(previousSettings, currentSettings)) {
           LOG.debug("invalidating entire cache due to settings change");
           getCache().invalidateAll();
+          forgetUnsavedRuleKeys();
           scope.update("settings_change", true);
         } else {
           scope.update("settings_change", false);
@@ -151,6 +197,20 @@ public class RuleKeyCacheRecycler<V> {
         LOG.verbose(
             "invalidating unwatched filesystems (everything except %s)", watchedFilesystems);
         getCache().invalidateAllExceptFilesystems(watchedFilesystems);
+
+        if (snapshot.isPresent()) {
+          CacheStats snapshotStats = snapshot.get().getAndResetStats();
+          buckEventBus.post(new CacheStatsEvent("rule_key_cache_snapshot", snapshotStats));
+          scope.update("snapshot_hits", snapshotStats.getHitCount());
+          scope.update("snapshot_misses", snapshotStats.getMissCount());
+          scope.update("snapshot_mismatches", snapshotStats.getMissMatchCount());
+
+          // Writing the snapshot serializes the whole cache, so leave that to persistSnapshot()
+          // and only remember whether this build calculated rule keys the snapshot doesn't have.
+          if (fingerprints.isPresent() && getCache().getStats().getMissCount().orElse(0L) > 0) {
+            markUnsavedRuleKeys(fingerprints.get());
+          }
+        }
       }
     };
   }
@@ -169,19 +229,166 @@ public class RuleKeyCacheRecycler<V> {
     }
   }
 
+  private synchronized void markUnsavedRuleKeys(
+      Function<BuildTarget, Optional<HashCode>> fingerprints) {
+    unsavedFingerprints = fingerprints;
+  }
+
+  private synchronized void forgetUnsavedRuleKeys() {
+    unsavedFingerprints = null;
+  }
+
+  /**
+   * Writes the cached rule keys to the snapshot, if builds calculated any since it was last
+   * written. This serializes the whole cache, so it is meant to be called when the daemon shuts
+   * down rather than after every build.
+   */
+  public synchronized void persistSnapshot() {
+    if (snapshot.isPresent() && unsavedFingerprints != null) {
+      snapshot.get().write(cache.getCachedBuildRuleResults(), unsavedFingerprints);
+      unsavedFingerprints = null;
+    }
+  }
+
   public ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules() {
     return cache.getCachedBuildRules();
   }
 
+  /**
+   * Looks up the rule keys of build rules missing from the wrapped cache in a {@link
+   * RuleKeyCacheSnapshot} before calculating them.
+   */
+  private static class SnapshotRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
+
+    private final TrackableRuleKeyCache<V> delegate;
+    private final RuleKeyCacheSnapshot<V> snapshot;
+    private final Function<BuildTarget, Optional<HashCode>> fingerprints;
+    private final Supplier<ImmutableMap<String, BuildRule>> rules;
+
+    private SnapshotRuleKeyCache(
+        TrackableRuleKeyCache<V> delegate,
+        RuleKeyCacheSnapshot<V> snapshot,
+        Function<BuildTarget, Optional<HashCode>> fingerprints,
+        ActionGraph actionGraph) {
+      this.delegate = delegate;
+      this.snapshot = snapshot;
+      this.fingerprints = fingerprints;
+      this.rules =
+          Suppliers.memoize(
+              () -> {
+                Map<String, BuildRule> rules = new HashMap<>();
+                for (BuildRule rule : actionGraph.getNodes()) {
+                  rules.put(rule.getBuildTarget().toString(), rule);
+                }
+                return ImmutableMap.copyOf(rules);
+              });
+    }
+
+    @Nullable
+    @Override
+    public V get(BuildRule rule, CacheStatsTracker statsTracker) {
+      return delegate.get(rule, statsTracker);
+    }
+
+    @Override
+    public V get(
+        BuildRule rule,
+        Function<? super BuildRule, RuleKeyResult<V>> create,
+        CacheStatsTracker statsTracker) {
+      return delegate.get(
+          rule,
+          missing ->
+              fingerprints
+                  .apply(missing.getBuildTarget())
+                  .flatMap(
+                      fingerprint ->
+                          snapshot.get(
+                              missing,
+                              fingerprint,
+                              target -> Optional.ofNullable(rules.get().get(target)),
+                              dep -> get(dep, create, statsTracker)))
+                  .orElseGet(() -> create.apply(missing)),
+          statsTracker);
+    }
+
+    @Override
+    public V get(
+        AddsToRuleKey appendable,
+        Function<? super AddsToRuleKey, RuleKeyResult<V>> create,
+        CacheStatsTracker statsTracker) {
+      return delegate.get(appendable, create, statsTracker);
+    }
+
+    @Override
+    public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+      delegate.invalidateInputs(inputs, statsTracker);
+    }
+
+    @Override
+    public void invalidateAllExceptFilesystems(
+        ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker) {
+      delegate.invalidateAllExceptFilesystems(filesystems, statsTracker);
+    }
+
+    @Override
+    public void invalidateFilesystem(ProjectFilesystem filesystem, CacheStatsTracker statsTracker) {
+      delegate.invalidateFilesystem(filesystem, statsTracker);
+    }
+
+    @Override
+    public void invalidateAll(CacheStatsTracker statsTracker) {
+      delegate.invalidateAll(statsTracker);
+    }
+
+    @Override
+    public ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules() {
+      return delegate.getCachedBuildRules();
+    }
+
+    @Override
+    public ImmutableList<Map.Entry<BuildRule, RuleKeyResult<V>>> getCachedBuildRuleResults() {
+      return delegate.getCachedBuildRuleResults();
+    }
+  }
+
   /** Any external settings which, if changed, will cause the entire cache to be invalidated. */
   public static class SettingsAffectingCache {
 
     private final int ruleKeySeed;
     private final ActionGraph actionGraph;
+    private final Optional<Function<BuildTarget, Optional<HashCode>>> targetFingerprints;
 
     public SettingsAffectingCache(int ruleKeySeed, ActionGraph actionGraph) {
+      this(ruleKeySeed, actionGraph, Optional.empty());
+    }
+
+    /**
+     * @param targetFingerprints fingerprints of the definitions of build targets, which allow rule
+     *     keys to be looked up in a {@link RuleKeyCacheSnapshot}.
+     */
+    public SettingsAffectingCache(
+        int ruleKeySeed,
+        ActionGraph actionGraph,
+        Optional<Function<BuildTarget, Optional<HashCode>>> targetFingerprints) {
       this.ruleKeySeed = ruleKeySeed;
       this.actionGraph = actionGraph;
+      this.targetFingerprints = targetFingerprints;
+    }
+
+    /** @return the fingerprints of build targets, with the rule key seed mixed in. */
+    private Optional<Function<BuildTarget, Optional<HashCode>>> getTargetFingerprints() {
+      return targetFingerprints.map(
+          fingerprints ->
+              target ->
+                  fingerprints
+                      .apply(target)
+                      .map(
+                          fingerprint ->
+                              Hashing.sha1()
+                                  .newHasher()
+                                  .putInt(ruleKeySeed)
+                                  .putBytes(fingerprint.asBytes())
+                                  .hash()));
     }
 
     private static boolean areIdentical(
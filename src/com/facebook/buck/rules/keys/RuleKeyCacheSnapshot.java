@@ -0,0 +1,401 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.CacheStats;
+import com.facebook.buck.util.cache.ProjectFileHashCache;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A snapshot of the rule keys in a {@link RuleKeyCache} kept on disk, so that a new daemon can
+ * start from the rule keys the previous one calculated instead of calculating all of them again.
+ *
+ * <p>Entries are keyed by build target. Each records a fingerprint of the target's definition, the
+ * hashes of the files its rule key read and the rule keys of the rules it depends on, and is only
+ * used while all of those are unchanged. The whole snapshot is dropped when anything else that can
+ * change rule keys, such as the buck version or the configuration, is different.
+ */
+public class RuleKeyCacheSnapshot<V> {
+  private static final Logger LOG = Logger.get(RuleKeyCacheSnapshot.class);
+
+  private static final int MAGIC = 0x524b4353;
+  private static final int VERSION = 1;
+
+  private final ProjectFilesystem filesystem;
+  private final Path snapshotPath;
+  private final HashCode settingsHash;
+  private final ImmutableList<ProjectFileHashCache> hashCaches;
+  private final Function<V, HashCode> valueToHashCode;
+  private final Function<HashCode, V> valueFromHashCode;
+  private final Supplier<ConcurrentMap<String, Entry>> entries = Suppliers.memoize(this::load);
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong mismatches = new AtomicLong();
+
+  /**
+   * @param snapshotPath where the snapshot is kept, relative to {@code filesystem}.
+   * @param settingsHash a hash of everything outside of the target graph that can change rule
+   *     keys. A snapshot written with different settings is ignored.
+   * @param hashCaches the file hash caches to check the inputs of rule keys against.
+   */
+  public RuleKeyCacheSnapshot(
+      ProjectFilesystem filesystem,
+      Path snapshotPath,
+      HashCode settingsHash,
+      Iterable<? extends ProjectFileHashCache> hashCaches,
+      Function<V, HashCode> valueToHashCode,
+      Function<HashCode, V> valueFromHashCode) {
+    this.filesystem = filesystem;
+    this.snapshotPath = snapshotPath;
+    this.settingsHash = settingsHash;
+    this.hashCaches = ImmutableList.copyOf(hashCaches);
+    this.valueToHashCode = valueToHashCode;
+    this.valueFromHashCode = valueFromHashCode;
+  }
+
+  /**
+   * Looks up the rule key of {@code rule}. Entries which turn out to be out of date are dropped.
+   *
+   * @param fingerprint the current fingerprint of the rule's target.
+   * @param rules looks up the current rule for a build target.
+   * @param ruleKeys calculates the rule keys of the rules {@code rule} depends on.
+   * @return the result the rule key was calculated from, if the snapshot has an entry for the rule
+   *     whose fingerprint, inputs and deps are all still the same.
+   */
+  Optional<RuleKeyResult<V>> get(
+      BuildRule rule,
+      HashCode fingerprint,
+      Function<String, Optional<BuildRule>> rules,
+      Function<BuildRule, V> ruleKeys) {
+    String target = rule.getBuildTarget().toString();
+    Entry entry = entries.get().get(target);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return Optional.empty();
+    }
+    Optional<RuleKeyResult<V>> result = validate(entry, fingerprint, rules, ruleKeys);
+    if (result.isPresent()) {
+      hits.incrementAndGet();
+    } else {
+      LOG.verbose("dropping out of date rule key of %s", target);
+      entries.get().remove(target, entry);
+      mismatches.incrementAndGet();
+    }
+    return result;
+  }
+
+  private Optional<RuleKeyResult<V>> validate(
+      Entry entry,
+      HashCode fingerprint,
+      Function<String, Optional<BuildRule>> rules,
+      Function<BuildRule, V> ruleKeys) {
+    if (!entry.fingerprint.equals(fingerprint)) {
+      return Optional.empty();
+    }
+
+    ImmutableList.Builder<RuleKeyInput> inputs =
+        ImmutableList.builderWithExpectedSize(entry.inputs.size());
+    for (Input input : entry.inputs) {
+      Optional<ProjectFileHashCache> hashCache = getHashCache(input.root, input.path);
+      if (!hashCache.isPresent()) {
+        return Optional.empty();
+      }
+      Path path = hashCache.get().getFilesystem().getPath(input.path);
+      try {
+        if (!hashCache.get().willGet(path) || !hashCache.get().get(path).equals(input.hashCode)) {
+          return Optional.empty();
+        }
+      } catch (IOException e) {
+        return Optional.empty();
+      }
+      inputs.add(new ImmutableRuleKeyInput(hashCache.get().getFilesystem(), path));
+    }
+
+    ImmutableList.Builder<BuildRule> deps =
+        ImmutableList.builderWithExpectedSize(entry.deps.size());
+    for (Map.Entry<String, HashCode> dep : entry.deps.entrySet()) {
+      Optional<BuildRule> depRule = rules.apply(dep.getKey());
+      if (!depRule.isPresent()
+          || !valueToHashCode.apply(ruleKeys.apply(depRule.get())).equals(dep.getValue())) {
+        return Optional.empty();
+      }
+      deps.add(depRule.get());
+    }
+
+    return Optional.of(
+        new RuleKeyResult<>(valueFromHashCode.apply(entry.value), deps.build(), inputs.build()));
+  }
+
+  /**
+   * Adds the given results to the snapshot and writes it to disk. Entries for other rules are kept
+   * unless they were found to be out of date, since they're checked again before they're used.
+   *
+   * @param results the results rule keys were calculated from, with only {@link BuildRule}s as
+   *     deps.
+   * @param fingerprints the fingerprints of the targets of the rules.
+   */
+  synchronized void write(
+      Iterable<Map.Entry<BuildRule, RuleKeyResult<V>>> results,
+      Function<BuildTarget, Optional<HashCode>> fingerprints) {
+    Map<BuildRule, HashCode> values = new IdentityHashMap<>();
+    for (Map.Entry<BuildRule, RuleKeyResult<V>> result : results) {
+      values.put(result.getKey(), valueToHashCode.apply(result.getValue().result));
+    }
+    ConcurrentMap<String, Entry> allEntries = entries.get();
+    for (Map.Entry<BuildRule, RuleKeyResult<V>> result : results) {
+      BuildRule rule = result.getKey();
+      fingerprints
+          .apply(rule.getBuildTarget())
+          .flatMap(fingerprint -> toEntry(fingerprint, result.getValue(), values))
+          .ifPresent(entry -> allEntries.put(rule.getBuildTarget().toString(), entry));
+    }
+
+    Path absolutePath = filesystem.resolve(snapshotPath);
+    try {
+      Files.createDirectories(absolutePath.getParent());
+      rewrite(absolutePath, allEntries);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write rule keys to %s.", absolutePath);
+    }
+  }
+
+  private Optional<Entry> toEntry(
+      HashCode fingerprint, RuleKeyResult<V> result, Map<BuildRule, HashCode> values) {
+    List<Input> inputs = new ArrayList<>();
+    for (RuleKeyInput input : result.inputs) {
+      String root = input.getFilesystem().getRootPath().toString();
+      String path = input.getPath().toString();
+      // Only keep hashes that are still cached: they are the ones the rule key was calculated
+      // with, while hashing the file again may pick up a change made since.
+      Optional<HashCode> hashCode =
+          getHashCache(root, path)
+              .flatMap(hashCache -> hashCache.getIfPresent(input.getPath()));
+      if (!hashCode.isPresent()) {
+        return Optional.empty();
+      }
+      inputs.add(new Input(root, path, hashCode.get()));
+    }
+
+    Map<String, HashCode> deps = new LinkedHashMap<>();
+    for (Object dep : result.deps) {
+      HashCode depValue = values.get(dep);
+      if (depValue == null) {
+        return Optional.empty();
+      }
+      deps.put(((BuildRule) dep).getBuildTarget().toString(), depValue);
+    }
+
+    return Optional.of(
+        new Entry(
+            fingerprint,
+            valueToHashCode.apply(result.result),
+            ImmutableList.copyOf(inputs),
+            ImmutableMap.copyOf(deps)));
+  }
+
+  /**
+   * @return the number of rule keys served from the snapshot, of those it had no entry for and of
+   *     those whose entries were out of date since the last call.
+   */
+  CacheStats getAndResetStats() {
+    return CacheStats.builder()
+        .setHitCount(hits.getAndSet(0))
+        .setMissCount(misses.getAndSet(0))
+        .setMissMatchCount(mismatches.getAndSet(0))
+        .build();
+  }
+
+  private Optional<ProjectFileHashCache> getHashCache(String root, String path) {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      ProjectFilesystem cacheFilesystem = hashCache.getFilesystem();
+      if (cacheFilesystem.getRootPath().toString().equals(root)
+          && !hashCache.isIgnored(cacheFilesystem.getPath(path))) {
+        return Optional.of(hashCache);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private synchronized ConcurrentMap<String, Entry> load() {
+    ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<>();
+    Path absolutePath = filesystem.resolve(snapshotPath);
+    if (!Files.exists(absolutePath)) {
+      return loaded;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(absolutePath)))) {
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || !readHashCode(in).equals(settingsHash)) {
+        LOG.info("Ignoring rule keys in %s written with different settings.", absolutePath);
+        return loaded;
+      }
+      String[] roots = new String[in.readInt()];
+      for (int i = 0; i < roots.length; i++) {
+        roots[i] = in.readUTF();
+      }
+      int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        String target = in.readUTF();
+        HashCode fingerprint = readHashCode(in);
+        HashCode value = readHashCode(in);
+        int inputCount = in.readInt();
+        ImmutableList.Builder<Input> inputs = ImmutableList.builderWithExpectedSize(inputCount);
+        for (int j = 0; j < inputCount; j++) {
+          inputs.add(new Input(roots[in.readInt()], in.readUTF(), readHashCode(in)));
+        }
+        int depCount = in.readInt();
+        ImmutableMap.Builder<String, HashCode> deps = ImmutableMap.builder();
+        for (int j = 0; j < depCount; j++) {
+          deps.put(in.readUTF(), readHashCode(in));
+        }
+        loaded.put(target, new Entry(fingerprint, value, inputs.build(), deps.build()));
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Failed to read rule keys from %s.", absolutePath);
+      loaded.clear();
+    }
+    LOG.debug("Loaded %d rule keys from %s.", loaded.size(), absolutePath);
+    return loaded;
+  }
+
+  private void rewrite(Path absolutePath, Map<String, Entry> allEntries) throws IOException {
+    Map<String, Integer> roots = new LinkedHashMap<>();
+    for (Entry entry : allEntries.values()) {
+      for (Input input : entry.inputs) {
+        roots.putIfAbsent(input.root, roots.size());
+      }
+    }
+
+    Path tempPath = Files.createTempFile(absolutePath.getParent(), "rule_keys", ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeHashCode(out, settingsHash);
+        out.writeInt(roots.size());
+        for (String root : roots.keySet()) {
+          out.writeUTF(root);
+        }
+        // Entries may be dropped concurrently, so they're counted while they're written.
+        List<Map.Entry<String, Entry>> entriesToWrite = new ArrayList<>(allEntries.entrySet());
+        out.writeInt(entriesToWrite.size());
+        for (Map.Entry<String, Entry> entry : entriesToWrite) {
+          writeEntry(out, entry.getKey(), entry.getValue(), roots);
+        }
+      }
+      Files.move(
+          tempPath,
+          absolutePath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  private static void writeEntry(
+      DataOutputStream out, String target, Entry entry, Map<String, Integer> roots)
+      throws IOException {
+    out.writeUTF(target);
+    writeHashCode(out, entry.fingerprint);
+    writeHashCode(out, entry.value);
+    out.writeInt(entry.inputs.size());
+    for (Input input : entry.inputs) {
+      out.writeInt(roots.get(input.root));
+      out.writeUTF(input.path);
+      writeHashCode(out, input.hashCode);
+    }
+    out.writeInt(entry.deps.size());
+    for (Map.Entry<String, HashCode> dep : entry.deps.entrySet()) {
+      out.writeUTF(dep.getKey());
+      writeHashCode(out, dep.getValue());
+    }
+  }
+
+  private static void writeHashCode(DataOutputStream out, HashCode hashCode) throws IOException {
+    byte[] bytes = hashCode.asBytes();
+    out.writeByte(bytes.length);
+    out.write(bytes);
+  }
+
+  private static HashCode readHashCode(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedByte()];
+    in.readFully(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  /** The rule key of a build target, and what it was calculated from. */
+  private static final class Entry {
+    private final HashCode fingerprint;
+    private final HashCode value;
+    private final ImmutableList<Input> inputs;
+    private final ImmutableMap<String, HashCode> deps;
+
+    private Entry(
+        HashCode fingerprint,
+        HashCode value,
+        ImmutableList<Input> inputs,
+        ImmutableMap<String, HashCode> deps) {
+      this.fingerprint = fingerprint;
+      this.value = value;
+      this.inputs = inputs;
+      this.deps = deps;
+    }
+  }
+
+  /** A file a rule key read, by the root of its filesystem and its path relative to it. */
+  private static final class Input {
+    private final String root;
+    private final String path;
+    private final HashCode hashCode;
+
+    private Input(String root, String path, HashCode hashCode) {
+      this.root = root;
+      this.path = path;
+      this.hashCode = hashCode;
+    }
+  }
+}
@@ -18,9 +18,14 @@ package com.facebook.buck.rules.keys;
 
 import com.facebook.buck.core.module.BuckModuleHashStrategy;
 import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.RuleKeyHashFunction;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class RuleKeyFieldLoader {
 
@@ -30,10 +35,21 @@ public class RuleKeyFieldLoader {
     this.ruleKeyConfiguration = ruleKeyConfiguration;
   }
 
+  /** @return a hasher for rule keys, using the configured hash function. */
+  RuleKeyHasher<HashCode> createHasher(Optional<ThriftRuleKeyLogger> ruleKeyLogger) {
+    return RuleKeyBuilder.createDefaultHasher(
+        ruleKeyConfiguration.getHashFunction(), ruleKeyLogger);
+  }
+
   void setFields(AbstractRuleKeyBuilder<?> builder, BuildRule buildRule, RuleKeyType ruleKeyType) {
     // "." is not a valid first character for a field name, nor a valid character for rule attribute
     // name and so the following fields will never collide with other stuff.
     builder.setReflectively(".cache_key_seed", ruleKeyConfiguration.getSeed());
+    if (ruleKeyConfiguration.getHashFunction() != RuleKeyHashFunction.DEFAULT) {
+      // Keeps rule keys calculated with different hash functions apart, while leaving those
+      // calculated with the default one unchanged.
+      builder.setReflectively(".rule_key_hash_function", ruleKeyConfiguration.getHashFunction());
+    }
     builder.setReflectively(".target_name", buildRule.getBuildTarget().getFullyQualifiedName());
     builder.setReflectively(".build_rule_type", buildRule.getType());
     builder.setReflectively(".buck_core_key", ruleKeyConfiguration.getCoreKey());
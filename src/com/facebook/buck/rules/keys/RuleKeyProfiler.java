@@ -0,0 +1,334 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
+import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Records where the time computing rule keys goes, by the type of the rule or appendable and by
+ * field: how long computing them took, how many values were hashed into them, how many file hashes
+ * were loaded for them and how often they were found in the rule key cache.
+ *
+ * <p>Total times are inclusive: the total time of a key or field includes looking up the keys of
+ * the rules and appendables it refers to, and computing them if they were not cached yet. Self
+ * times leave those lookups out, so they add up to the time spent computing keys without counting
+ * nested keys several times. Wait times are the part of those lookups that was not spent computing
+ * the keys on the same thread: mostly waiting for keys that other threads were computing, and
+ * finding cached keys. The entries and file hash loads of nested keys are only counted for their
+ * own types.
+ */
+public class RuleKeyProfiler {
+
+  private final ConcurrentMap<String, TypeProfile> types = new ConcurrentHashMap<>();
+  private final ThreadLocal<Computation> currentComputation = new ThreadLocal<>();
+
+  /** Records that the key of a rule or appendable of the given type was asked for. */
+  void recordLookup(String type) {
+    getTypeProfile(type).lookups.increment();
+  }
+
+  /** Starts measuring the computation of a key of a rule or appendable of the given type. */
+  Computation startComputation(String type) {
+    return new Computation(getTypeProfile(type));
+  }
+
+  private TypeProfile getTypeProfile(String type) {
+    return types.computeIfAbsent(type, TypeProfile::new);
+  }
+
+  /**
+   * @return the self time spent computing the keys of the {@code limit} most expensive types, in
+   *     milliseconds.
+   */
+  public ImmutableMap<String, Long> getMillisByType(int limit) {
+    ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+    for (TypeProfile profile : getTypesByTime()) {
+      if (limit-- == 0) {
+        break;
+      }
+      builder.put(
+          profile.type, TimeUnit.NANOSECONDS.toMillis(profile.computations.selfNanos.longValue()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return a report of the types whose keys took the longest to compute, each followed by the
+   *     fields that took the longest to add to them.
+   */
+  public String getReport() {
+    List<TypeProfile> profiles = getTypesByTime();
+    long computed = 0;
+    long lookups = 0;
+    long selfNanos = 0;
+    long waitNanos = 0;
+    long fileHashLoads = 0;
+    for (TypeProfile profile : profiles) {
+      computed += profile.computations.count.longValue();
+      lookups += profile.lookups.longValue();
+      fileHashLoads += profile.computations.fileHashLoads.longValue();
+      selfNanos += profile.computations.selfNanos.longValue();
+      waitNanos += profile.computations.waitNanos.longValue();
+    }
+
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            Locale.US,
+            "%d keys computed in %.1f ms, %.1f ms waiting for other keys "
+                + "(%d lookups, %.1f%% hits, %d file hash loads)%n%n",
+            computed,
+            toMillis(selfNanos),
+            toMillis(waitNanos),
+            lookups,
+            hitRate(lookups, computed),
+            fileHashLoads));
+    report.append(
+        String.format(
+            Locale.US,
+            "%-60s %10s %10s %8s %12s %12s %12s %12s %12s%n",
+            "type / field",
+            "computed",
+            "lookups",
+            "hits",
+            "self (ms)",
+            "total (ms)",
+            "wait (ms)",
+            "entries",
+            "file hashes"));
+    for (TypeProfile profile : profiles) {
+      Stats stats = profile.computations;
+      long typeLookups = profile.lookups.longValue();
+      report.append(
+          String.format(
+              Locale.US,
+              "%-60s %10d %10d %7.1f%% %12.1f %12.1f %12.1f %12d %12d%n",
+              profile.type,
+              stats.count.longValue(),
+              typeLookups,
+              hitRate(typeLookups, stats.count.longValue()),
+              toMillis(stats.selfNanos.longValue()),
+              toMillis(stats.nanos.longValue()),
+              toMillis(stats.waitNanos.longValue()),
+              stats.entries.longValue(),
+              stats.fileHashLoads.longValue()));
+      for (Map.Entry<String, Stats> field : getFieldsByTime(profile)) {
+        Stats fieldStats = field.getValue();
+        report.append(
+            String.format(
+                Locale.US,
+                "  %-58s %10d %10s %8s %12.1f %12.1f %12.1f %12d %12d%n",
+                field.getKey(),
+                fieldStats.count.longValue(),
+                "",
+                "",
+                toMillis(fieldStats.selfNanos.longValue()),
+                toMillis(fieldStats.nanos.longValue()),
+                toMillis(fieldStats.waitNanos.longValue()),
+                fieldStats.entries.longValue(),
+                fieldStats.fileHashLoads.longValue()));
+      }
+    }
+    return report.toString();
+  }
+
+  private List<TypeProfile> getTypesByTime() {
+    List<TypeProfile> profiles = new ArrayList<>(types.values());
+    profiles.sort(
+        Comparator.comparingLong(
+                (TypeProfile profile) -> profile.computations.selfNanos.longValue())
+            .reversed()
+            .thenComparing(profile -> profile.type));
+    return profiles;
+  }
+
+  private static List<Map.Entry<String, Stats>> getFieldsByTime(TypeProfile profile) {
+    List<Map.Entry<String, Stats>> fields = new ArrayList<>(profile.fields.entrySet());
+    fields.sort(
+        Comparator.comparingLong(
+                (Map.Entry<String, Stats> field) -> field.getValue().selfNanos.longValue())
+            .reversed()
+            .thenComparing(Map.Entry::getKey));
+    return fields;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static double hitRate(long lookups, long computed) {
+    return lookups == 0 ? 0 : 100.0 * Math.max(0, lookups - computed) / lookups;
+  }
+
+  private static class Stats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder selfNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder fileHashLoads = new LongAdder();
+
+    void add(long nanos, long selfNanos, long waitNanos, long entries, long fileHashLoads) {
+      this.count.increment();
+      this.nanos.add(nanos);
+      this.selfNanos.add(selfNanos);
+      this.waitNanos.add(waitNanos);
+      this.entries.add(entries);
+      this.fileHashLoads.add(fileHashLoads);
+    }
+  }
+
+  private static class TypeProfile {
+    private final String type;
+    private final LongAdder lookups = new LongAdder();
+    private final Stats computations = new Stats();
+    private final ConcurrentMap<String, Stats> fields = new ConcurrentHashMap<>();
+
+    TypeProfile(String type) {
+      this.type = type;
+    }
+  }
+
+  /**
+   * Measures the computation of a single key. Like the builder it measures, it must only be used by
+   * the thread that started it, and it must be finished even if computing the key fails, so that
+   * the keys computed next on that thread are not taken for its dependencies.
+   */
+  class Computation {
+    private final TypeProfile profile;
+    @Nullable private final Computation parent;
+    private final long startNanos = System.nanoTime();
+    private long dependencyNanos = 0;
+    private long childNanos = 0;
+    private long waitNanos = 0;
+    private long fileHashLoads = 0;
+    private CountingRuleKeyHasher<?> hasher;
+
+    private Computation(TypeProfile profile) {
+      this.profile = profile;
+      this.parent = currentComputation.get();
+      currentComputation.set(this);
+    }
+
+    /** @return a loader that counts the file hashes loaded from {@code delegate}. */
+    FileHashLoader wrap(FileHashLoader delegate) {
+      return new FileHashLoader() {
+        @Override
+        public HashCode get(Path path) throws IOException {
+          fileHashLoads++;
+          return delegate.get(path);
+        }
+
+        @Override
+        public long getSize(Path path) throws IOException {
+          return delegate.getSize(path);
+        }
+
+        @Override
+        public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath)
+            throws IOException {
+          fileHashLoads++;
+          return delegate.getForArchiveMember(relativeArchivePath, memberPath);
+        }
+      };
+    }
+
+    /** @return a scoped hasher that measures each field that is added to {@code hasher}. */
+    <HASH> DefaultRuleKeyScopedHasher<HASH> newScopedHasher(CountingRuleKeyHasher<HASH> hasher) {
+      this.hasher = hasher;
+      return new DefaultRuleKeyScopedHasher<HASH>(hasher) {
+        private int depth = 0;
+
+        @Override
+        public Scope keyScope(String key) {
+          Scope scope = super.keyScope(key);
+          if (depth++ > 0) {
+            return () -> {
+              scope.close();
+              depth--;
+            };
+          }
+          long fieldStartNanos = System.nanoTime();
+          long startEntries = hasher.getCount();
+          long startFileHashLoads = fileHashLoads;
+          long startDependencyNanos = dependencyNanos;
+          long startWaitNanos = waitNanos;
+          return () -> {
+            scope.close();
+            depth--;
+            long nanos = System.nanoTime() - fieldStartNanos;
+            profile
+                .fields
+                .computeIfAbsent(key, k -> new Stats())
+                .add(
+                    nanos,
+                    nanos - (dependencyNanos - startDependencyNanos),
+                    waitNanos - startWaitNanos,
+                    hasher.getCount() - startEntries,
+                    fileHashLoads - startFileHashLoads);
+          };
+        }
+      };
+    }
+
+    /**
+     * @return a scope that measures looking up the key of a rule or appendable this key depends on.
+     */
+    Scope dependencyScope() {
+      long lookupStartNanos = System.nanoTime();
+      long startChildNanos = childNanos;
+      return () -> {
+        long lookupNanos = System.nanoTime() - lookupStartNanos;
+        dependencyNanos += lookupNanos;
+        waitNanos += lookupNanos - (childNanos - startChildNanos);
+      };
+    }
+
+    /** Records the computation, once the key was built or failed to build. */
+    void finish() {
+      long nanos = System.nanoTime() - startNanos;
+      profile.computations.add(
+          nanos,
+          nanos - dependencyNanos,
+          waitNanos,
+          hasher == null ? 0 : hasher.getCount(),
+          fileHashLoads);
+      if (parent == null) {
+        currentComputation.remove();
+      } else {
+        parent.childNanos += nanos;
+        currentComputation.set(parent);
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import com.google.common.collect.ImmutableMap;
+
+/** Carries the report of a {@link RuleKeyProfiler} at the end of a build. */
+public class RuleKeyProfilerReportEvent extends AbstractBuckEvent {
+
+  /** The number of types whose times are reported as trace counters. */
+  private static final int MAX_TRACED_TYPES = 20;
+
+  private final String report;
+  private final ImmutableMap<String, Long> millisByType;
+
+  protected RuleKeyProfilerReportEvent(
+      EventKey eventKey, String report, ImmutableMap<String, Long> millisByType) {
+    super(eventKey);
+    this.report = report;
+    this.millisByType = millisByType;
+  }
+
+  @Override
+  protected String getValueString() {
+    return report;
+  }
+
+  @Override
+  public String getEventName() {
+    return "RuleKeyProfilerReportEvent";
+  }
+
+  public String getReport() {
+    return report;
+  }
+
+  /** @return the time spent computing the keys of the most expensive types, in milliseconds. */
+  public ImmutableMap<String, Long> getMillisByType() {
+    return millisByType;
+  }
+
+  public static RuleKeyProfilerReportEvent of(RuleKeyProfiler profiler) {
+    return new RuleKeyProfilerReportEvent(
+        EventKey.unique(), profiler.getReport(), profiler.getMillisByType(MAX_TRACED_TYPES));
+  }
+}
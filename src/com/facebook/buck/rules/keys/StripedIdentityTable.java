@@ -0,0 +1,302 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import javax.annotation.Nullable;
+
+/**
+ * A concurrent map that compares its keys by identity, for caches with millions of entries.
+ *
+ * <p>The entries are kept in open addressed tables with linear probing, split into stripes that
+ * are locked independently. Unlike a {@link java.util.concurrent.ConcurrentHashMap} keyed by
+ * identity wrappers, neither lookups nor updates allocate, and an entry takes two slots of an array
+ * rather than a node and a wrapper object. Lookups are optimistic and only take the lock of their
+ * stripe if it was modified while they were reading it.
+ *
+ * @param <V> the type of the values.
+ */
+final class StripedIdentityTable<V> {
+
+  private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+  private final Stripe[] stripes;
+
+  StripedIdentityTable() {
+    this(Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  /** @param concurrency the number of threads expected to update the table at the same time. */
+  StripedIdentityTable(int concurrency) {
+    Preconditions.checkArgument(concurrency > 0);
+    int stripeCount = Integer.highestOneBit(Math.min(concurrency, 1 << 16) * 2 - 1);
+    stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = System.identityHashCode(key);
+    return h ^ (h >>> 16);
+  }
+
+  private Stripe stripeFor(int hash) {
+    return stripes[((hash * 0x9E3779B9) >>> 16) & (stripes.length - 1)];
+  }
+
+  /** @return the value of {@code key}, or null if it has none. */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V get(Object key) {
+    int hash = hash(key);
+    return (V) stripeFor(hash).get(key, hash);
+  }
+
+  boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Computes the value of {@code key} from its current value, or null if it has none, while holding
+   * the lock of its stripe. Like {@link java.util.concurrent.ConcurrentHashMap#compute}, the entry
+   * is removed if {@code remapping} returns null. {@code remapping} must not access the table.
+   *
+   * @return the new value of {@code key}.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V compute(Object key, BiFunction<Object, ? super V, ? extends V> remapping) {
+    int hash = hash(key);
+    return (V) stripeFor(hash).compute(key, hash, (BiFunction<Object, Object, Object>) remapping);
+  }
+
+  /** @return the value {@code key} had, or null if it had none. */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V remove(Object key) {
+    int hash = hash(key);
+    return (V) stripeFor(hash).remove(key, hash);
+  }
+
+  /** @return the number of entries, which may be stale if the table is modified concurrently. */
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.size;
+    }
+    return size;
+  }
+
+  void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.clear();
+    }
+  }
+
+  /**
+   * Calls {@code action} for the entries of each stripe in turn. The entries of a stripe are copied
+   * first, so {@code action} may access the table.
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(BiConsumer<Object, ? super V> action) {
+    for (Stripe stripe : stripes) {
+      Object[] entries = stripe.copyEntries();
+      for (int i = 0; i < entries.length; i += 2) {
+        action.accept(entries[i], (V) entries[i + 1]);
+      }
+    }
+  }
+
+  /**
+   * A hash table of keys and values, stored in adjacent slots of a single array. At most half the
+   * entries of the array are used, so probes stay short.
+   */
+  private static final class Stripe {
+    private final StampedLock lock = new StampedLock();
+    private Object[] table = new Object[INITIAL_STRIPE_CAPACITY * 2];
+    private volatile int size = 0;
+
+    @Nullable
+    Object get(Object key, int hash) {
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        Object value = find(table, key, hash);
+        if (lock.validate(stamp)) {
+          return value;
+        }
+      }
+      stamp = lock.readLock();
+      try {
+        return find(table, key, hash);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    /**
+     * Finds the value of {@code key} in {@code table}. Probes are bounded by the capacity of the
+     * table, so an optimistic read of a table that is being modified always terminates.
+     */
+    @Nullable
+    private static Object find(Object[] table, Object key, int hash) {
+      int mask = (table.length >> 1) - 1;
+      int index = hash & mask;
+      for (int probes = 0; probes <= mask; probes++) {
+        Object candidate = table[index << 1];
+        if (candidate == key) {
+          return table[(index << 1) + 1];
+        }
+        if (candidate == null) {
+          return null;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    /** @return the index of {@code key}, or of the empty slot it would be inserted at. */
+    private int indexOf(Object key, int hash) {
+      int mask = (table.length >> 1) - 1;
+      int index = hash & mask;
+      while (true) {
+        Object candidate = table[index << 1];
+        if (candidate == key || candidate == null) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+    }
+
+    @Nullable
+    Object compute(Object key, int hash, BiFunction<Object, Object, Object> remapping) {
+      long stamp = lock.writeLock();
+      try {
+        int index = indexOf(key, hash);
+        Object oldValue = table[(index << 1) + 1];
+        Object newValue = remapping.apply(key, oldValue);
+        if (newValue == null) {
+          if (oldValue != null) {
+            delete(index);
+          }
+        } else if (oldValue != null) {
+          table[(index << 1) + 1] = newValue;
+        } else {
+          table[index << 1] = key;
+          table[(index << 1) + 1] = newValue;
+          size++;
+          if (size * 4 > table.length) {
+            resize();
+          }
+        }
+        return newValue;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    @Nullable
+    Object remove(Object key, int hash) {
+      long stamp = lock.writeLock();
+      try {
+        int index = indexOf(key, hash);
+        Object value = table[(index << 1) + 1];
+        if (value != null) {
+          delete(index);
+        }
+        return value;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Removes the entry at {@code index}, moving later entries of the same probe sequence back into
+     * the gap, so that lookups never need to skip over deleted entries.
+     */
+    private void delete(int index) {
+      int mask = (table.length >> 1) - 1;
+      int gap = index;
+      int next = index;
+      while (true) {
+        next = (next + 1) & mask;
+        Object key = table[next << 1];
+        if (key == null) {
+          break;
+        }
+        int home = hash(key) & mask;
+        // The entry can fill the gap if the gap lies between its home slot and its current one.
+        if (((next - home) & mask) >= ((next - gap) & mask)) {
+          table[gap << 1] = key;
+          table[(gap << 1) + 1] = table[(next << 1) + 1];
+          gap = next;
+        }
+      }
+      table[gap << 1] = null;
+      table[(gap << 1) + 1] = null;
+      size--;
+    }
+
+    private void resize() {
+      Object[] oldTable = table;
+      Object[] newTable = new Object[oldTable.length * 2];
+      int mask = (newTable.length >> 1) - 1;
+      for (int i = 0; i < oldTable.length; i += 2) {
+        Object key = oldTable[i];
+        if (key != null) {
+          int index = hash(key) & mask;
+          while (newTable[index << 1] != null) {
+            index = (index + 1) & mask;
+          }
+          newTable[index << 1] = key;
+          newTable[(index << 1) + 1] = oldTable[i + 1];
+        }
+      }
+      table = newTable;
+    }
+
+    void clear() {
+      long stamp = lock.writeLock();
+      try {
+        table = new Object[INITIAL_STRIPE_CAPACITY * 2];
+        size = 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    Object[] copyEntries() {
+      long stamp = lock.readLock();
+      try {
+        Object[] entries = new Object[size * 2];
+        int count = 0;
+        for (int i = 0; i < table.length; i += 2) {
+          if (table[i] != null) {
+            entries[count++] = table[i];
+            entries[count++] = table[i + 1];
+          }
+        }
+        return entries;
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+  }
+}
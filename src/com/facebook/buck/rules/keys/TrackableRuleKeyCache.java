@@ -56,4 +56,10 @@ public interface TrackableRuleKeyCache<V> {
   void invalidateAll(CacheStatsTracker statsTracker);
 
   ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules();
+
+  /**
+   * @return the results the cached rule keys of build rules were calculated from, with the inputs
+   *     and deps of the appendables they depend on folded in.
+   */
+  ImmutableList<Map.Entry<BuildRule, RuleKeyResult<V>>> getCachedBuildRuleResults();
 }
@@ -37,4 +37,10 @@ abstract class AbstractRuleKeyConfiguration {
 
   @Value.Parameter
   public abstract BuckModuleHashStrategy getBuckModuleHashStrategy();
+
+  /** The hash function rule keys are calculated with. */
+  @Value.Default
+  public RuleKeyHashFunction getHashFunction() {
+    return RuleKeyHashFunction.DEFAULT;
+  }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys.config;
+
+/** Defines which hash function rule keys are calculated with. */
+public enum RuleKeyHashFunction {
+  /** 160-bit SHA-1 rule keys. */
+  SHA1,
+  /**
+   * 128-bit Murmur3 rule keys, which are several times faster to calculate than SHA-1 ones but
+   * aren't cryptographic.
+   */
+  MURMUR3_128;
+
+  public static final RuleKeyHashFunction DEFAULT = SHA1;
+}
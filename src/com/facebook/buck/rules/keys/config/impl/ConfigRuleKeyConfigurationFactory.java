@@ -23,19 +23,22 @@ import com.facebook.buck.core.module.BuckModuleManager;
 import com.facebook.buck.core.module.impl.DefaultBuckModuleHashStrategy;
 import com.facebook.buck.core.module.impl.NoOpBuckModuleHashStrategy;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.RuleKeyHashFunction;
 
 /** Creates {@link RuleKeyConfiguration} using information from {@link BuckConfig}. */
 public class ConfigRuleKeyConfigurationFactory {
 
   public static RuleKeyConfiguration create(
       BuckConfig buckConfig, BuckModuleManager moduleManager) {
-    long inputKeySizeLimit =
-        buckConfig.getView(BuildBuckConfig.class).getBuildInputRuleKeyFileSizeLimit();
+    BuildBuckConfig buildBuckConfig = buckConfig.getView(BuildBuckConfig.class);
+    long inputKeySizeLimit = buildBuckConfig.getBuildInputRuleKeyFileSizeLimit();
+    RuleKeyHashFunction hashFunction = buildBuckConfig.getRuleKeyHashFunction();
     return RuleKeyConfiguration.builder()
-        .setSeed(buckConfig.getView(BuildBuckConfig.class).getKeySeed())
+        .setSeed(buildBuckConfig.getKeySeed())
         .setCoreKey(getCoreKey(buckConfig))
         .setBuildInputRuleKeyFileSizeLimit(inputKeySizeLimit)
         .setBuckModuleHashStrategy(createBuckModuleHashStrategy(buckConfig, moduleManager))
+        .setHashFunction(hashFunction)
         .build();
   }
 
@@ -46,7 +46,8 @@ public class GuavaRuleKeyHasher implements RuleKeyHasher<HashCode> {
     return this;
   }
 
-  private GuavaRuleKeyHasher putStringified(byte type, String val) {
+  /** Hashes a string value of the given type, followed by its length and the type. */
+  protected GuavaRuleKeyHasher putStringified(byte type, String val) {
     return putBytes(type, val.getBytes(StandardCharsets.UTF_8));
   }
 
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys.hasher;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A {@link GuavaRuleKeyHasher} that hashes with 128-bit Murmur3 instead of SHA-1.
+ *
+ * <p>Strings are hashed as their UTF-16 chars rather than encoded to UTF-8 first, so that appending
+ * them to the rule key doesn't allocate. The streaming hasher buffers small values itself.
+ */
+public class Murmur3RuleKeyHasher extends GuavaRuleKeyHasher {
+
+  private final Hasher hasher;
+
+  public Murmur3RuleKeyHasher() {
+    this(Hashing.murmur3_128().newHasher());
+  }
+
+  private Murmur3RuleKeyHasher(Hasher hasher) {
+    super(hasher);
+    this.hasher = hasher;
+  }
+
+  @Override
+  protected Murmur3RuleKeyHasher putStringified(byte type, String val) {
+    hasher.putUnencodedChars(val);
+    hasher.putInt(val.length());
+    hasher.putByte(type);
+    return this;
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.support.state;
 
+import com.facebook.buck.artifact_cache.MemoryArtifactCacheStore;
+import com.facebook.buck.artifact_cache.NegativeLookupFilters;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
@@ -33,6 +35,7 @@ import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
+import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
@@ -74,6 +77,8 @@ public final class BuckGlobalState implements Closeable {
   private final VersionedTargetGraphCache versionedTargetGraphCache;
   private final ActionGraphCache actionGraphCache;
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
+  private final MemoryArtifactCacheStore memoryArtifactCacheStore;
+  private final NegativeLookupFilters negativeLookupFilters;
   private final ImmutableMap<Path, WatchmanCursor> cursor;
   private final KnownRuleTypesProvider knownRuleTypesProvider;
   private final Clock clock;
@@ -93,6 +98,8 @@ public final class BuckGlobalState implements Closeable {
       VersionedTargetGraphCache versionedTargetGraphCache,
       ActionGraphCache actionGraphCache,
       RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler,
+      MemoryArtifactCacheStore memoryArtifactCacheStore,
+      NegativeLookupFilters negativeLookupFilters,
       ImmutableMap<Path, WatchmanCursor> cursor,
       KnownRuleTypesProvider knownRuleTypesProvider,
       Clock clock,
@@ -109,6 +116,8 @@ public final class BuckGlobalState implements Closeable {
     this.versionedTargetGraphCache = versionedTargetGraphCache;
     this.actionGraphCache = actionGraphCache;
     this.defaultRuleKeyFactoryCacheRecycler = defaultRuleKeyFactoryCacheRecycler;
+    this.memoryArtifactCacheStore = memoryArtifactCacheStore;
+    this.negativeLookupFilters = negativeLookupFilters;
     this.cursor = cursor;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
     this.clock = clock;
@@ -170,6 +179,16 @@ public final class BuckGlobalState implements Closeable {
     return defaultRuleKeyFactoryCacheRecycler;
   }
 
+  /** @return store backing the in-memory artifact cache tier. */
+  public MemoryArtifactCacheStore getMemoryArtifactCacheStore() {
+    return memoryArtifactCacheStore;
+  }
+
+  /** @return the negative lookup filters of the remote artifact caches. */
+  public NegativeLookupFilters getNegativeLookupFilters() {
+    return negativeLookupFilters;
+  }
+
   public DaemonicParserState getDaemonicParserState() {
     return daemonicParserState;
   }
@@ -234,8 +253,22 @@ public final class BuckGlobalState implements Closeable {
     return usesWatchman;
   }
 
+  /**
+   * Writes the file hashes computed so far to the on-disk stores of the file hash caches that
+   * have one, so that they survive the daemon.
+   */
+  public void persistFileHashCaches() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof DefaultFileHashCache) {
+        ((DefaultFileHashCache) hashCache).persist();
+      }
+    }
+  }
+
   @Override
   public void close() {
+    defaultRuleKeyFactoryCacheRecycler.persistSnapshot();
+    persistFileHashCaches();
     shutdownPersistentWorkerPools();
     shutdownWebServer();
   }
@@ -17,6 +17,8 @@ package com.facebook.buck.support.state;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.MemoryArtifactCacheStore;
+import com.facebook.buck.artifact_cache.NegativeLookupFilters;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.cell.Cell;
@@ -41,6 +43,8 @@ import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.rules.keys.RuleKeyCacheSnapshot;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
@@ -53,8 +57,14 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
@@ -84,13 +94,20 @@ public class BuckGlobalStateFactory {
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
     for (Cell subCell : allCells) {
       WatchedFileHashCache watchedCache =
-          new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
+          new WatchedFileHashCache(
+              subCell.getFilesystem(),
+              buildBuckConfig.getFileHashCacheMode(),
+              buildBuckConfig.getJarMemberHashMode(),
+              buildBuckConfig.getFileHashCacheIoThreads());
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
     }
     hashCachesBuilder.add(
         DefaultFileHashCache.createBuckOutFileHashCache(
-            rootCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode()));
+            rootCell.getFilesystem(),
+            buildBuckConfig.getFileHashCacheMode(),
+            buildBuckConfig.getJarMemberHashMode(),
+            buildBuckConfig.getFileHashCacheIoThreads()));
     ImmutableList<ProjectFileHashCache> hashCaches = hashCachesBuilder.build();
 
     // Setup file list cache and file tree cache from all cells
@@ -112,8 +129,18 @@ public class BuckGlobalStateFactory {
     RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler =
         RuleKeyCacheRecycler.createAndRegister(
             fileEventBus,
-            new DefaultRuleKeyCache<>(),
-            RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
+            new DefaultRuleKeyCache<>(buildBuckConfig.getRuleKeyCacheSnapshot()),
+            RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet(),
+            buildBuckConfig.getRuleKeyCacheSnapshot()
+                ? Optional.of(createRuleKeyCacheSnapshot(rootCell, allCells, hashCaches))
+                : Optional.empty());
+
+    ArtifactCacheBuckConfig artifactCacheBuckConfig =
+        new ArtifactCacheBuckConfig(rootCell.getBuckConfig());
+    MemoryArtifactCacheStore memoryArtifactCacheStore =
+        new MemoryArtifactCacheStore(
+            artifactCacheBuckConfig.getMemoryCacheMaxSizeBytes(),
+            artifactCacheBuckConfig.getMemoryCacheMaxArtifactSizeBytes());
 
     Optional<WebServer> webServer;
     if (webServerToReuse.isPresent()) {
@@ -124,7 +151,7 @@ public class BuckGlobalStateFactory {
     if (webServer.isPresent()) {
       Optional<ArtifactCache> servedCache =
           ArtifactCaches.newServedCache(
-              new ArtifactCacheBuckConfig(rootCell.getBuckConfig()),
+              artifactCacheBuckConfig,
               target ->
                   unconfiguredBuildTargetFactory.create(rootCell.getCellPathResolver(), target),
               targetConfigurationSerializer,
@@ -158,6 +185,8 @@ public class BuckGlobalStateFactory {
         versionedTargetGraphCache,
         actionGraphCache,
         defaultRuleKeyFactoryCacheRecycler,
+        memoryArtifactCacheStore,
+        new NegativeLookupFilters(),
         cursor,
         knownRuleTypesProvider,
         clock,
@@ -179,6 +208,38 @@ public class BuckGlobalStateFactory {
             });
   }
 
+  /**
+   * Create the snapshot the rule key cache is restored from when the daemon starts, and written to
+   * when it shuts down.
+   */
+  private static RuleKeyCacheSnapshot<RuleKey> createRuleKeyCacheSnapshot(
+      Cell rootCell, ImmutableList<Cell> allCells, ImmutableList<ProjectFileHashCache> hashCaches) {
+    // Rule keys in a snapshot written by a different buck or with a different configuration or
+    // environment can't be trusted, as they may change rule keys in ways that aren't recorded in
+    // the inputs of rule keys.
+    Hasher settingsHasher = Hashing.sha1().newHasher();
+    settingsHasher.putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+    for (Cell cell :
+        ImmutableList.sortedCopyOf(
+            Comparator.comparing(cell -> cell.getRoot().toString()), allCells)) {
+      settingsHasher.putString(cell.getRoot().toString(), StandardCharsets.UTF_8);
+      settingsHasher.putBytes(
+          cell.getBuckConfig().getConfig().getOrderIndependentHashCode().asBytes());
+    }
+    for (Map.Entry<String, String> entry :
+        ImmutableSortedMap.copyOf(rootCell.getBuckConfig().getEnvironment()).entrySet()) {
+      settingsHasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+      settingsHasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+    }
+    return new RuleKeyCacheSnapshot<>(
+        rootCell.getFilesystem(),
+        rootCell.getFilesystem().getBuckPaths().getPersistentCacheDir().resolve("rule_keys"),
+        settingsHasher.hash(),
+        hashCaches,
+        RuleKey::getHashCode,
+        RuleKey::new);
+  }
+
   /** Create a number of instances of {@link DirectoryListCache}, one per each cell */
   private static LoadingCache<Path, FileTreeCache> createFileTreeCachePerCellMap(
       EventBus fileEventBus) {
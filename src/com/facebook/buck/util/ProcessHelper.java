@@ -149,6 +149,19 @@ public class ProcessHelper {
     }
   }
 
+  /**
+   * Gets the memory that is available on the system, in bytes, or {@link Long#MAX_VALUE} if it
+   * cannot be determined.
+   */
+  public long getAvailableMemory() {
+    try {
+      return OSHI.getHardware().getMemory().getAvailable();
+    } catch (Exception e) {
+      LOG.debug(e, "Cannot get the available memory.");
+      return Long.MAX_VALUE;
+    }
+  }
+
   /** Gets the native process identifier for the current process. */
   @Nullable
   public Long getPid() {
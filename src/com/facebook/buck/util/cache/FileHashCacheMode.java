@@ -22,6 +22,11 @@ public enum FileHashCacheMode {
   PREFIX_TREE,
   LIMITED_PREFIX_TREE,
   LIMITED_PREFIX_TREE_PARALLEL,
-  PARALLEL_COMPARISON;
+  PARALLEL_COMPARISON,
+  /**
+   * Like {@link #PREFIX_TREE}, but also keeps the hashes of files in an on-disk store, so that they
+   * are only validated with a stat rather than hashed again after the daemon restarts.
+   */
+  PERSISTENT_PREFIX_TREE;
   public static final FileHashCacheMode DEFAULT = PREFIX_TREE;
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+/** Defines how the hashes of the members of a jar are obtained. */
+public enum JarMemberHashMode {
+  /**
+   * Only use the digests Buck writes to the manifests of the jars it builds. Members of other jars
+   * have no hash.
+   */
+  MANIFEST,
+  /**
+   * Use the digests in the manifest where there are any, and hash the contents of the other
+   * members while streaming through the jar once.
+   */
+  CONTENTS,
+  /**
+   * Use the digests in the manifest where there are any, and derive the hashes of the other
+   * members from the CRCs and sizes in the central directory of the jar, without reading their
+   * contents.
+   */
+  CENTRAL_DIRECTORY;
+  public static final JarMemberHashMode DEFAULT = MANIFEST;
+}
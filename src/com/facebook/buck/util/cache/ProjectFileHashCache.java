@@ -20,9 +20,13 @@ import com.facebook.buck.core.io.ArchiveMemberPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.hashing.ProjectFileHashLoader;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.stream.Stream;
 
@@ -45,6 +49,23 @@ public interface ProjectFileHashCache extends ProjectFileHashLoader {
 
   void set(Path path, HashCode hashCode) throws IOException;
 
+  /**
+   * Return the {@link HashCode}s of all the given relative {@link Path}s. Implementations may load
+   * the hashes that are not cached yet in parallel.
+   *
+   * @throws IOException if any of the paths cannot be hashed. The hashes of the other paths may or
+   *     may not have been loaded.
+   */
+  default ImmutableMap<Path, HashCode> getAll(Collection<Path> paths) throws IOException {
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    for (Path path : paths) {
+      if (!hashes.containsKey(path)) {
+        hashes.put(path, get(path));
+      }
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
   default FileHashCacheVerificationResult verify() throws IOException {
     throw new RuntimeException(
         "ProjectFileHashCache class " + getClass().getName() + " does not support verification.");
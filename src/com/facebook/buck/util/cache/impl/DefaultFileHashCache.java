@@ -24,24 +24,41 @@ import com.facebook.buck.util.cache.FileHashCacheEngine;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.FileHashCacheVerificationResult;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarContentHasher;
 import com.facebook.buck.util.cache.JarHashCodeAndFileType;
+import com.facebook.buck.util.cache.JarMemberHashMode;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.hashing.PathHashing;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -53,14 +70,65 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   private final ProjectFilesystem projectFilesystem;
   private final Predicate<Path> ignoredPredicate;
 
+  private final Optional<PersistentFileHashStore> persistentStore;
+  private final JarMemberHashMode jarMemberHashMode;
+  private final JarMemberHashCache jarMemberHashes = new JarMemberHashCache();
+
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
+  /**
+   * The number of threads {@link #getAll} hashes files on unless configured with {@code
+   * build.file_hash_cache_io_threads}. Disks serve a handful of concurrent reads well, but more
+   * readers mostly add seeks and contend with the build.
+   */
+  public static final int DEFAULT_IO_THREADS =
+      Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+  /** The pools {@link #getAll} hashes files on, shared by all caches with the same size. */
+  private static final ConcurrentMap<Integer, ExecutorService> IO_EXECUTORS =
+      new ConcurrentHashMap<>();
+
+  private final int ioThreads;
+
   protected DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(
+        projectFilesystem,
+        ignoredPredicate,
+        fileHashCacheMode,
+        JarMemberHashMode.DEFAULT,
+        DEFAULT_IO_THREADS,
+        Optional.empty());
+  }
+
+  /**
+   * @param persistentStoreName the name of the store in the buck-out of {@code projectFilesystem}
+   *     that file hashes are kept in across daemons with {@link
+   *     FileHashCacheMode#PERSISTENT_PREFIX_TREE}. Caches without one only keep hashes in memory.
+   * @param ioThreads the number of threads {@link #getAll} hashes files on.
+   */
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      JarMemberHashMode jarMemberHashMode,
+      int ioThreads,
+      Optional<String> persistentStoreName) {
+    Preconditions.checkArgument(ioThreads > 0, "ioThreads must be positive: %s", ioThreads);
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.jarMemberHashMode = jarMemberHashMode;
+    this.ioThreads = ioThreads;
+    this.persistentStore =
+        fileHashCacheMode == FileHashCacheMode.PERSISTENT_PREFIX_TREE
+            ? persistentStoreName.map(
+                name ->
+                    new PersistentFileHashStore(
+                        projectFilesystem,
+                        projectFilesystem.getBuckPaths().getPersistentCacheDir().resolve(name)))
+            : Optional.empty();
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -104,6 +172,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         fileHashCacheEngine = LoadingCacheFileHashCache.createWithStats(hashLoader, sizeLoader);
         break;
       case PREFIX_TREE:
+      case PERSISTENT_PREFIX_TREE:
         fileHashCacheEngine =
             FileSystemMapFileHashCache.createWithStats(hashLoader, sizeLoader, projectFilesystem);
         break;
@@ -111,7 +180,11 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         fileHashCacheEngine =
             new StatsTrackingFileHashCacheEngine(
                 new LimitedFileHashCacheEngine(
-                    projectFilesystem, fileHashLoader, dirHashLoader, sizeLoader),
+                    projectFilesystem,
+                    fileHashLoader,
+                    dirHashLoader,
+                    sizeLoader,
+                    this::newJarContentHasher),
                 "limited");
         break;
       case LIMITED_PREFIX_TREE_PARALLEL:
@@ -120,7 +193,11 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
                 LoadingCacheFileHashCache.createWithStats(hashLoader, sizeLoader),
                 new StatsTrackingFileHashCacheEngine(
                     new LimitedFileHashCacheEngine(
-                        projectFilesystem, fileHashLoader, dirHashLoader, sizeLoader),
+                        projectFilesystem,
+                        fileHashLoader,
+                        dirHashLoader,
+                        sizeLoader,
+                        this::newJarContentHasher),
                     "limited"));
         break;
       default:
@@ -130,14 +207,42 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   public static DefaultFileHashCache createBuckOutFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
+    return createBuckOutFileHashCache(
+        projectFilesystem, fileHashCacheMode, JarMemberHashMode.DEFAULT, DEFAULT_IO_THREADS);
+  }
+
+  public static DefaultFileHashCache createBuckOutFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      JarMemberHashMode jarMemberHashMode,
+      int ioThreads) {
     return new DefaultFileHashCache(
-        projectFilesystem, (path) -> !isInBuckOut(projectFilesystem, path), fileHashCacheMode);
+        projectFilesystem,
+        (path) -> !isInBuckOut(projectFilesystem, path),
+        fileHashCacheMode,
+        jarMemberHashMode,
+        ioThreads,
+        Optional.of("buck_out_file_hashes"));
   }
 
   public static DefaultFileHashCache createDefaultFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
+    return createDefaultFileHashCache(
+        projectFilesystem, fileHashCacheMode, JarMemberHashMode.DEFAULT, DEFAULT_IO_THREADS);
+  }
+
+  public static DefaultFileHashCache createDefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      JarMemberHashMode jarMemberHashMode,
+      int ioThreads) {
     return new DefaultFileHashCache(
-        projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        jarMemberHashMode,
+        ioThreads,
+        Optional.empty());
   }
 
   /**
@@ -164,6 +269,14 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   public static ImmutableList<? extends ProjectFileHashCache> createOsRootDirectoriesCaches(
       ProjectFilesystemFactory projectFilesystemFactory, FileHashCacheMode fileHashCacheMode) {
+    return createOsRootDirectoriesCaches(
+        projectFilesystemFactory, fileHashCacheMode, DEFAULT_IO_THREADS);
+  }
+
+  public static ImmutableList<? extends ProjectFileHashCache> createOsRootDirectoriesCaches(
+      ProjectFilesystemFactory projectFilesystemFactory,
+      FileHashCacheMode fileHashCacheMode,
+      int ioThreads) {
     ImmutableList.Builder<ProjectFileHashCache> allCaches = ImmutableList.builder();
     for (Path root : FileSystems.getDefault().getRootDirectories()) {
       if (!root.toFile().exists()) {
@@ -180,7 +293,8 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       // rules (e.g. /usr/bin/gcc), and only serves to prevent rehashing the same file
       // multiple times in a single run.
       allCaches.add(
-          DefaultFileHashCache.createDefaultFileHashCache(projectFilesystem, fileHashCacheMode));
+          DefaultFileHashCache.createDefaultFileHashCache(
+              projectFilesystem, fileHashCacheMode, JarMemberHashMode.DEFAULT, ioThreads));
     }
 
     return allCaches.build();
@@ -196,14 +310,30 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     if (projectFilesystem.isDirectory(path)) {
       return getDirHashCode(path);
     } else if (path.toString().endsWith(".jar")) {
-      return JarHashCodeAndFileType.ofArchive(
-          getFileHashCode(path), new DefaultJarContentHasher(projectFilesystem, path));
+      HashCode hashCode = getFileHashCode(path);
+      return JarHashCodeAndFileType.ofArchive(hashCode, newJarContentHasher(path, hashCode));
     }
 
     return HashCodeAndFileType.ofFile(getFileHashCode(path));
   }
 
+  /**
+   * @return a hasher for the members of the jar at {@code path}, which reuses the member hashes
+   *     read before for a jar with the same {@code jarHash}.
+   */
+  private JarContentHasher newJarContentHasher(Path path, HashCode jarHash) {
+    return jarMemberHashes.wrap(
+        jarHash, new DefaultJarContentHasher(projectFilesystem, path, jarMemberHashMode));
+  }
+
   private HashCode getFileHashCode(Path path) throws IOException {
+    if (persistentStore.isPresent()) {
+      return persistentStore.get().get(path, this::computeFileHashCode);
+    }
+    return computeFileHashCode(path);
+  }
+
+  private HashCode computeFileHashCode(Path path) throws IOException {
     return projectFilesystem.computeSha1(path).asHashCode();
   }
 
@@ -259,6 +389,66 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     return fileHashCacheEngine.get(relativePath);
   }
 
+  /**
+   * Hashes the paths that are not cached yet in parallel, on a pool of threads dedicated to reading
+   * files, while the calling thread waits.
+   */
+  @Override
+  public ImmutableMap<Path, HashCode> getAll(Collection<Path> relativePaths) throws IOException {
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    List<Path> misses = new ArrayList<>();
+    for (Path relativePath : ImmutableSet.copyOf(relativePaths)) {
+      Preconditions.checkArgument(!relativePath.isAbsolute());
+      checkNotIgnored(relativePath);
+      HashCodeAndFileType cached = fileHashCacheEngine.getIfPresent(relativePath);
+      if (cached != null) {
+        hashes.put(relativePath, cached.getHashCode());
+      } else {
+        misses.add(relativePath);
+      }
+    }
+    if (misses.size() == 1) {
+      hashes.put(misses.get(0), get(misses.get(0)));
+    } else if (!misses.isEmpty()) {
+      List<Future<HashCode>> futures = new ArrayList<>(misses.size());
+      for (Path miss : misses) {
+        futures.add(getIoExecutor().submit(() -> get(miss)));
+      }
+      hashes.putAll(waitForAll(misses, futures));
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
+  /**
+   * Waits for all the hashes, so that none are still being loaded when an exception is thrown.
+   *
+   * @throws IOException the first failure to hash a path, if any.
+   */
+  private static Map<Path, HashCode> waitForAll(List<Path> paths, List<Future<HashCode>> futures)
+      throws IOException {
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    Throwable failure = null;
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        hashes.put(paths.get(i), futures.get(i).get());
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        futures.forEach(future -> future.cancel(true));
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while hashing files");
+      }
+    }
+    if (failure != null) {
+      Throwables.throwIfInstanceOf(failure, IOException.class);
+      Throwables.throwIfUnchecked(failure);
+      throw new RuntimeException(failure);
+    }
+    return hashes;
+  }
+
   @Override
   public long getSize(Path relativePath) throws IOException {
     Preconditions.checkArgument(!relativePath.isAbsolute());
@@ -300,9 +490,8 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       value =
           JarHashCodeAndFileType.ofArchive(
               hashCode,
-              new DefaultJarContentHasher(
-                  projectFilesystem,
-                  projectFilesystem.getPathRelativeToProjectRoot(relativePath).get()));
+              newJarContentHasher(
+                  projectFilesystem.getPathRelativeToProjectRoot(relativePath).get(), hashCode));
     } else {
       value = HashCodeAndFileType.ofFile(hashCode);
     }
@@ -339,6 +528,42 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   public List<AbstractBuckEvent> getStatsEvents() {
-    return fileHashCacheEngine.getStatsEvents();
+    if (!persistentStore.isPresent()) {
+      return fileHashCacheEngine.getStatsEvents();
+    }
+    return ImmutableList.<AbstractBuckEvent>builder()
+        .addAll(fileHashCacheEngine.getStatsEvents())
+        .addAll(persistentStore.get().getStatsEvents())
+        .build();
+  }
+
+  /** Writes the file hashes computed since the last call to the persistent store, if any. */
+  public void persist() {
+    persistentStore.ifPresent(PersistentFileHashStore::flush);
+  }
+
+  /**
+   * @return the pool {@link #getAll} hashes files on. Caches with the same number of threads share
+   *     one, and its threads exit when idle, so a daemon whose config changes does not keep the
+   *     threads of the old pool around.
+   */
+  private ExecutorService getIoExecutor() {
+    return IO_EXECUTORS.computeIfAbsent(
+        ioThreads,
+        threads -> {
+          ThreadPoolExecutor executor =
+              new ThreadPoolExecutor(
+                  threads,
+                  threads,
+                  60,
+                  TimeUnit.SECONDS,
+                  new LinkedBlockingQueue<>(),
+                  new ThreadFactoryBuilder()
+                      .setNameFormat("file-hash-io-%d")
+                      .setDaemon(true)
+                      .build());
+          executor.allowCoreThreadTimeOut(true);
+          return executor;
+        });
   }
 }
@@ -18,26 +18,48 @@ package com.facebook.buck.util.cache.impl;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
 import com.facebook.buck.util.cache.JarContentHasher;
+import com.facebook.buck.util.cache.JarMemberHashMode;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.annotation.Nullable;
 
 class DefaultJarContentHasher implements JarContentHasher {
 
+  /** The hash function of the digests {@link CustomJarOutputStream} writes to manifests. */
+  private static final HashFunction MEMBER_HASH_FUNCTION = Hashing.murmur3_128();
+
   private final ProjectFilesystem filesystem;
   private final Path jarRelativePath;
+  private final JarMemberHashMode jarMemberHashMode;
 
   public DefaultJarContentHasher(ProjectFilesystem filesystem, Path jarRelativePath) {
+    this(filesystem, jarRelativePath, JarMemberHashMode.DEFAULT);
+  }
+
+  public DefaultJarContentHasher(
+      ProjectFilesystem filesystem, Path jarRelativePath, JarMemberHashMode jarMemberHashMode) {
     Preconditions.checkState(!jarRelativePath.isAbsolute());
     this.filesystem = filesystem;
     this.jarRelativePath = jarRelativePath;
+    this.jarMemberHashMode = jarMemberHashMode;
   }
 
   @Override
@@ -47,6 +69,18 @@ class DefaultJarContentHasher implements JarContentHasher {
 
   @Override
   public ImmutableMap<Path, HashCodeAndFileType> getContentHashes() throws IOException {
+    switch (jarMemberHashMode) {
+      case MANIFEST:
+        return getManifestHashes();
+      case CONTENTS:
+        return getContentsHashes();
+      case CENTRAL_DIRECTORY:
+        return getCentralDirectoryHashes();
+    }
+    throw new IllegalStateException("Unsupported jar member hash mode: " + jarMemberHashMode);
+  }
+
+  private ImmutableMap<Path, HashCodeAndFileType> getManifestHashes() throws IOException {
     Manifest manifest = filesystem.getJarManifest(jarRelativePath);
     if (manifest == null) {
       throw new UnsupportedOperationException(
@@ -56,7 +90,77 @@ class DefaultJarContentHasher implements JarContentHasher {
               + " attributes for each file.");
     }
 
-    ImmutableMap.Builder<Path, HashCodeAndFileType> builder = ImmutableMap.builder();
+    return ImmutableMap.copyOf(getDigests(manifest));
+  }
+
+  /**
+   * Hashes the members of the jar in a single pass over it. Buck writes the manifest after the
+   * members it has digests for, so every member is hashed before it's known whether there is a
+   * digest for it.
+   */
+  private ImmutableMap<Path, HashCodeAndFileType> getContentsHashes() throws IOException {
+    Map<Path, HashCodeAndFileType> hashes = new HashMap<>();
+    @Nullable Manifest manifest = null;
+    byte[] buffer = new byte[8192];
+    try (ZipInputStream jar = new ZipInputStream(filesystem.newFileInputStream(jarRelativePath))) {
+      for (ZipEntry entry = jar.getNextEntry(); entry != null; entry = jar.getNextEntry()) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+          manifest = new Manifest(jar);
+          continue;
+        }
+        hashes.put(
+            Paths.get(entry.getName()), HashCodeAndFileType.ofFile(hashContents(jar, buffer)));
+      }
+    }
+    if (manifest != null) {
+      hashes.putAll(getDigests(manifest));
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
+  /**
+   * Derives the hashes of the members of the jar from the CRCs and sizes that the central directory
+   * records for them, which only reads the end of the jar. The manifest is read to use the digests
+   * in it instead, so that these members hash the same as in the other modes.
+   */
+  private ImmutableMap<Path, HashCodeAndFileType> getCentralDirectoryHashes() throws IOException {
+    Map<Path, HashCodeAndFileType> hashes = new HashMap<>();
+    try (JarFile jar = new JarFile(filesystem.resolve(jarRelativePath).toFile())) {
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (entry.isDirectory() || JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+          continue;
+        }
+        HashCode hashCode =
+            MEMBER_HASH_FUNCTION
+                .newHasher()
+                .putLong(entry.getCrc())
+                .putLong(entry.getSize())
+                .hash();
+        hashes.put(Paths.get(entry.getName()), HashCodeAndFileType.ofFile(hashCode));
+      }
+      Manifest manifest = jar.getManifest();
+      if (manifest != null) {
+        hashes.putAll(getDigests(manifest));
+      }
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
+  private static HashCode hashContents(InputStream inputStream, byte[] buffer) throws IOException {
+    Hasher hasher = MEMBER_HASH_FUNCTION.newHasher();
+    for (int read = inputStream.read(buffer); read != -1; read = inputStream.read(buffer)) {
+      hasher.putBytes(buffer, 0, read);
+    }
+    return hasher.hash();
+  }
+
+  private static Map<Path, HashCodeAndFileType> getDigests(Manifest manifest) {
+    Map<Path, HashCodeAndFileType> digests = new HashMap<>();
     for (Map.Entry<String, Attributes> nameAttributesEntry : manifest.getEntries().entrySet()) {
       Path memberPath = Paths.get(nameAttributesEntry.getKey());
       Attributes attributes = nameAttributesEntry.getValue();
@@ -68,9 +172,8 @@ class DefaultJarContentHasher implements JarContentHasher {
       HashCode memberHash = HashCode.fromString(hashStringValue);
       HashCodeAndFileType memberHashCodeAndFileType = HashCodeAndFileType.ofFile(memberHash);
 
-      builder.put(memberPath, memberHashCodeAndFileType);
+      digests.put(memberPath, memberHashCodeAndFileType);
     }
-
-    return builder.build();
+    return digests;
   }
 }
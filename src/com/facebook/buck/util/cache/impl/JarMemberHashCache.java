@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarContentHasher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Keeps the hashes of the members of jars by the hash of the jar itself. The hashes of the members
+ * of a jar only need to be read once, even if its path is invalidated because the jar was written
+ * again with the same contents, or the same jar is found at another path.
+ */
+class JarMemberHashCache {
+
+  private final Cache<HashCode, ImmutableMap<Path, HashCodeAndFileType>> memberHashes =
+      CacheBuilder.newBuilder().softValues().build();
+
+  /**
+   * @return a {@link JarContentHasher} that only asks {@code delegate} for the hashes of the
+   *     members of the jar with {@code jarHash} if they are not cached yet.
+   */
+  JarContentHasher wrap(HashCode jarHash, JarContentHasher delegate) {
+    return new JarContentHasher() {
+      @Override
+      public Path getJarRelativePath() {
+        return delegate.getJarRelativePath();
+      }
+
+      @Override
+      public ImmutableMap<Path, HashCodeAndFileType> getContentHashes() throws IOException {
+        // Not Cache#get, so that the exceptions of the delegate are passed on as they are.
+        ImmutableMap<Path, HashCodeAndFileType> contentHashes = memberHashes.getIfPresent(jarHash);
+        if (contentHashes == null) {
+          contentHashes = delegate.getContentHashes();
+          memberHashes.put(jarHash, contentHashes);
+        }
+        return contentHashes;
+      }
+    };
+  }
+}
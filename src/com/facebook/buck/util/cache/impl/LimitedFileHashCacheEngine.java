@@ -19,6 +19,7 @@ import com.facebook.buck.event.AbstractBuckEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.cache.FileHashCacheEngine;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarContentHasher;
 import com.facebook.buck.util.cache.JarHashCodeAndFileType;
 import com.facebook.buck.util.filesystem.FileSystemMap;
 import com.google.common.base.Preconditions;
@@ -35,6 +36,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
 import javax.annotation.Nullable;
 
 /**
@@ -76,7 +78,8 @@ class LimitedFileHashCacheEngine implements FileHashCacheEngine {
 
     private ImmutableMap<Path, HashCode> loadJarContentsHashes() {
       try {
-        return new DefaultJarContentHasher(filesystem, path)
+        return jarContentHasherFactory
+            .apply(path, getHashCodeAndFileType().getHashCode())
             .getContentHashes().entrySet().stream()
                 .collect(
                     ImmutableMap.toImmutableMap(
@@ -93,7 +96,7 @@ class LimitedFileHashCacheEngine implements FileHashCacheEngine {
           HashCode loadedValue = fileHashLoader.load(path);
           if (isArchive(path)) {
             return JarHashCodeAndFileType.ofArchive(
-                loadedValue, new DefaultJarContentHasher(filesystem, path));
+                loadedValue, jarContentHasherFactory.apply(path, loadedValue));
           }
           return HashCodeAndFileType.ofFile(loadedValue);
         case FILE_TYPE_DIRECTORY:
@@ -155,17 +158,24 @@ class LimitedFileHashCacheEngine implements FileHashCacheEngine {
   private final ValueLoader<HashCode> fileHashLoader;
   private final ValueLoader<HashCodeAndFileType> dirHashLoader;
   private final ValueLoader<Long> sizeLoader;
+  private final BiFunction<Path, HashCode, JarContentHasher> jarContentHasherFactory;
   private final FileSystemMap<Data> fileSystemMap;
 
+  /**
+   * @param jarContentHasherFactory creates the hasher for the members of the jar at a path, given
+   *     the hash of the jar.
+   */
   public LimitedFileHashCacheEngine(
       ProjectFilesystem filesystem,
       ValueLoader<HashCode> fileHashLoader,
       ValueLoader<HashCodeAndFileType> dirHashLoader,
-      ValueLoader<Long> sizeLoader) {
+      ValueLoader<Long> sizeLoader,
+      BiFunction<Path, HashCode, JarContentHasher> jarContentHasherFactory) {
     this.filesystem = filesystem;
     this.fileHashLoader = fileHashLoader;
     this.dirHashLoader = dirHashLoader;
     this.sizeLoader = sizeLoader;
+    this.jarContentHasherFactory = jarContentHasherFactory;
     this.fileSystemMap = new FileSystemMap<>(Data::new, filesystem);
   }
 
@@ -126,7 +126,14 @@ class LoadingCacheFileHashCache implements FileHashCacheEngine {
                 })
             .keySet();
     for (Path pathToInvalidate : pathsToInvalidate) {
-      invalidate(pathToInvalidate);
+      if (pathToInvalidate.startsWith(path)) {
+        invalidate(pathToInvalidate);
+      } else {
+        // Directories are hashed from the cached hashes of their children, so only the entries of
+        // the directories containing the path go, and the hashes of their other children stay.
+        loadingCache.invalidate(pathToInvalidate);
+        sizeCache.invalidate(pathToInvalidate);
+      }
     }
   }
 
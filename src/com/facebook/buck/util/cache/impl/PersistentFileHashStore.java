@@ -0,0 +1,358 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.FileHashCacheEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * An on-disk store of file hashes that outlives the daemon, so that a new daemon doesn't have to
+ * read and hash every file again before it can compute rule keys.
+ *
+ * <p>Hashes are keyed by path and validated against the file key (the device and inode on unix),
+ * the modification time and the size of the file, so that a stored hash is only used while a stat
+ * of the file matches what it was when the file was hashed.
+ *
+ * <p>The store is an append-only log of entries, with later entries for a path replacing earlier
+ * ones. It is memory-mapped when it's loaded, and rewritten from scratch once it's mostly made up
+ * of replaced entries or turns out to be cut short.
+ */
+public class PersistentFileHashStore {
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final int MAGIC = 0x46484153;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int HASH_SIZE = 20;
+  /** The size of an entry besides its path. */
+  private static final int ENTRY_SIZE = 8 + 8 + 8 + HASH_SIZE;
+
+  /**
+   * Files modified this shortly before they are hashed may be modified again without their
+   * modification time changing, so their hashes are only kept in memory.
+   */
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
+  /** The number of replaced entries the log may hold on top of the live ones. */
+  private static final long REWRITE_SLACK = 10000;
+
+  /** Loads the hash of a file on a miss. */
+  @FunctionalInterface
+  public interface HashLoader {
+    HashCode load(Path path) throws IOException;
+  }
+
+  private final ProjectFilesystem filesystem;
+  private final Path storePath;
+  private final Supplier<ConcurrentMap<String, Entry>> entries;
+  private final Queue<Map.Entry<String, Entry>> pendingEntries = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong statValidations = new AtomicLong();
+  private final AtomicLong statValidationNanoTime = new AtomicLong();
+  private final AtomicLong rehashes = new AtomicLong();
+  private final AtomicLong rehashNanoTime = new AtomicLong();
+
+  @GuardedBy("this")
+  private long entriesOnDisk = 0;
+
+  @GuardedBy("this")
+  private boolean needsRewrite = false;
+
+  @GuardedBy("this")
+  private long loadedEntries = 0;
+
+  @GuardedBy("this")
+  private long loadNanoTime = 0;
+
+  /**
+   * @param storePath the path of the store, relative to the root of {@code filesystem}. Paths are
+   *     stored relative to that root as well.
+   */
+  public PersistentFileHashStore(ProjectFilesystem filesystem, Path storePath) {
+    this.filesystem = filesystem;
+    this.storePath = storePath;
+    this.entries = Suppliers.memoize(this::load);
+  }
+
+  /**
+   * Returns the stored hash of {@code path} if the file is unchanged since it was hashed, and uses
+   * {@code loader} to hash it otherwise.
+   */
+  public HashCode get(Path path, HashLoader loader) throws IOException {
+    long start = System.nanoTime();
+    BasicFileAttributes attributes;
+    try {
+      attributes =
+          filesystem.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException | UnsupportedOperationException e) {
+      return loader.load(path);
+    }
+    // The target of a symlink may change without the link changing.
+    if (!attributes.isRegularFile()) {
+      return loader.load(path);
+    }
+
+    String key = path.toString();
+    Entry entry = entries.get().get(key);
+    if (entry != null && entry.matches(attributes)) {
+      statValidations.incrementAndGet();
+      statValidationNanoTime.addAndGet(System.nanoTime() - start);
+      return entry.hashCode;
+    }
+
+    HashCode hashCode = loader.load(path);
+    rehashes.incrementAndGet();
+    rehashNanoTime.addAndGet(System.nanoTime() - start);
+    long modificationTime = attributes.lastModifiedTime().toMillis();
+    if (hashCode.bits() == HASH_SIZE * 8
+        && System.currentTimeMillis() - modificationTime >= RACY_INTERVAL_MILLIS) {
+      entry = new Entry(getFileKey(attributes), modificationTime, attributes.size(), hashCode);
+      entries.get().put(key, entry);
+      pendingEntries.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+    }
+    return hashCode;
+  }
+
+  /** Writes the entries added since the last flush to disk. */
+  public synchronized void flush() {
+    if (pendingEntries.isEmpty() && !needsRewrite) {
+      return;
+    }
+    // Drain the pending entries before looking at the rest, so that any added concurrently are
+    // left for the next flush rather than lost.
+    List<Map.Entry<String, Entry>> newEntries = new ArrayList<>();
+    for (Map.Entry<String, Entry> entry = pendingEntries.poll();
+        entry != null;
+        entry = pendingEntries.poll()) {
+      newEntries.add(entry);
+    }
+    Path absolutePath = filesystem.resolve(storePath);
+    try {
+      Files.createDirectories(absolutePath.getParent());
+      ConcurrentMap<String, Entry> allEntries = entries.get();
+      if (needsRewrite
+          || entriesOnDisk + newEntries.size() > 2 * allEntries.size() + REWRITE_SLACK) {
+        rewrite(absolutePath, allEntries);
+      } else {
+        append(absolutePath, newEntries);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write file hashes to %s.", absolutePath);
+      needsRewrite = true;
+    }
+  }
+
+  /**
+   * @return events with the time spent loading the store, validating stored hashes and hashing
+   *     files again since the last call.
+   */
+  public List<AbstractBuckEvent> getStatsEvents() {
+    ImmutableList.Builder<AbstractBuckEvent> events = ImmutableList.builder();
+    synchronized (this) {
+      if (loadedEntries > 0) {
+        events.add(
+            new FileHashCacheEvent("persistent.load", loadNanoTime, loadNanoTime, loadedEntries));
+        loadedEntries = 0;
+      }
+    }
+    addStatsEvent(events, "persistent.stat_validation", statValidationNanoTime, statValidations);
+    addStatsEvent(events, "persistent.rehash", rehashNanoTime, rehashes);
+    return events.build();
+  }
+
+  private static void addStatsEvent(
+      ImmutableList.Builder<AbstractBuckEvent> events,
+      String subCategory,
+      AtomicLong nanoTime,
+      AtomicLong count) {
+    long dataPoints = count.getAndSet(0);
+    long totalNanoTime = nanoTime.getAndSet(0);
+    if (dataPoints > 0) {
+      events.add(new FileHashCacheEvent(subCategory, totalNanoTime, totalNanoTime, dataPoints));
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getEntriesOnDisk() {
+    return entriesOnDisk;
+  }
+
+  private synchronized ConcurrentMap<String, Entry> load() {
+    long start = System.nanoTime();
+    ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<>();
+    Path absolutePath = filesystem.resolve(storePath);
+    if (!Files.exists(absolutePath)) {
+      return loaded;
+    }
+    try (FileChannel channel = FileChannel.open(absolutePath, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < HEADER_SIZE
+          || buffer.getInt() != MAGIC
+          || buffer.getInt() != VERSION) {
+        LOG.info("Ignoring file hashes in %s written by a different version.", absolutePath);
+        needsRewrite = true;
+        return loaded;
+      }
+      long entriesRead = 0;
+      while (buffer.remaining() >= 4) {
+        int pathLength = buffer.getInt();
+        if (pathLength < 0 || buffer.remaining() < pathLength + ENTRY_SIZE) {
+          break;
+        }
+        byte[] pathBytes = new byte[pathLength];
+        buffer.get(pathBytes);
+        long fileKey = buffer.getLong();
+        long modificationTime = buffer.getLong();
+        long size = buffer.getLong();
+        byte[] hash = new byte[HASH_SIZE];
+        buffer.get(hash);
+        loaded.put(
+            new String(pathBytes, StandardCharsets.UTF_8),
+            new Entry(fileKey, modificationTime, size, HashCode.fromBytes(hash)));
+        entriesRead++;
+      }
+      if (buffer.hasRemaining()) {
+        // The last entry was cut short, so appending to the log would leave it unreadable.
+        LOG.info("File hashes in %s were cut short.", absolutePath);
+        needsRewrite = true;
+      }
+      entriesOnDisk = entriesRead;
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read file hashes from %s.", absolutePath);
+      loaded.clear();
+      needsRewrite = true;
+    }
+    loadedEntries = loaded.size();
+    loadNanoTime = System.nanoTime() - start;
+    return loaded;
+  }
+
+  @GuardedBy("this")
+  private void append(Path absolutePath, List<Map.Entry<String, Entry>> newEntries)
+      throws IOException {
+    boolean isNew = !Files.exists(absolutePath) || Files.size(absolutePath) == 0;
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(
+                    absolutePath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+      if (isNew) {
+        writeHeader(out);
+        entriesOnDisk = 0;
+      }
+      for (Map.Entry<String, Entry> entry : newEntries) {
+        writeEntry(out, entry.getKey(), entry.getValue());
+      }
+    }
+    entriesOnDisk += newEntries.size();
+  }
+
+  @GuardedBy("this")
+  private void rewrite(Path absolutePath, Map<String, Entry> allEntries) throws IOException {
+    Path tempPath = Files.createTempFile(absolutePath.getParent(), "file_hashes", ".tmp");
+    long written = 0;
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+        writeHeader(out);
+        for (Map.Entry<String, Entry> entry : allEntries.entrySet()) {
+          writeEntry(out, entry.getKey(), entry.getValue());
+          written++;
+        }
+      }
+      Files.move(
+          tempPath,
+          absolutePath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+    entriesOnDisk = written;
+    needsRewrite = false;
+  }
+
+  private static void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  private static void writeEntry(DataOutputStream out, String path, Entry entry)
+      throws IOException {
+    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(pathBytes.length);
+    out.write(pathBytes);
+    out.writeLong(entry.fileKey);
+    out.writeLong(entry.modificationTime);
+    out.writeLong(entry.size);
+    out.write(entry.hashCode.asBytes());
+  }
+
+  private static long getFileKey(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    return fileKey == null ? 0 : fileKey.hashCode();
+  }
+
+  private static final class Entry {
+    private final long fileKey;
+    private final long modificationTime;
+    private final long size;
+    private final HashCode hashCode;
+
+    private Entry(long fileKey, long modificationTime, long size, HashCode hashCode) {
+      this.fileKey = fileKey;
+      this.modificationTime = modificationTime;
+      this.size = size;
+      this.hashCode = hashCode;
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size()
+          && modificationTime == attributes.lastModifiedTime().toMillis()
+          && fileKey == getFileKey(attributes);
+    }
+  }
+}
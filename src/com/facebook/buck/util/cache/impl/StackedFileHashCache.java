@@ -24,12 +24,18 @@ import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -132,6 +138,30 @@ public class StackedFileHashCache implements FileHashCache {
     return found.get().getFirst().get(found.get().getSecond());
   }
 
+  /** Hands the paths to the inner caches that handle them, each in a single batch. */
+  @Override
+  public ImmutableMap<Path, HashCode> getAll(Collection<Path> paths) throws IOException {
+    Map<ProjectFileHashCache, Map<Path, Path>> pathsByCache = new IdentityHashMap<>();
+    for (Path path : paths) {
+      Optional<Pair<ProjectFileHashCache, Path>> found = lookup(path);
+      if (!found.isPresent()) {
+        throw new NoSuchFileException(path.toString());
+      }
+      pathsByCache
+          .computeIfAbsent(found.get().getFirst(), cache -> new LinkedHashMap<>())
+          .put(found.get().getSecond(), path);
+    }
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    for (Map.Entry<ProjectFileHashCache, Map<Path, Path>> entry : pathsByCache.entrySet()) {
+      Map<Path, Path> absolutePaths = entry.getValue();
+      entry
+          .getKey()
+          .getAll(absolutePaths.keySet())
+          .forEach((relativePath, hash) -> hashes.put(absolutePaths.get(relativePath), hash));
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
   @Override
   public long getSize(Path path) throws IOException {
     Optional<Pair<ProjectFileHashCache, Path>> found = lookup(path);
@@ -187,6 +217,23 @@ public class StackedFileHashCache implements FileHashCache {
         .get(path);
   }
 
+  @Override
+  public ImmutableMap<Path, HashCode> getAll(ProjectFilesystem filesystem, Collection<Path> paths)
+      throws IOException {
+    Map<ProjectFileHashCache, Set<Path>> pathsByCache = new IdentityHashMap<>();
+    for (Path path : paths) {
+      ProjectFileHashCache cache =
+          lookup(filesystem, path)
+              .orElseThrow(() -> new NoSuchFileException(filesystem.resolve(path).toString()));
+      pathsByCache.computeIfAbsent(cache, c -> new LinkedHashSet<>()).add(path);
+    }
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    for (Map.Entry<ProjectFileHashCache, Set<Path>> entry : pathsByCache.entrySet()) {
+      hashes.putAll(entry.getKey().getAll(entry.getValue()));
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
   @Override
   public HashCode getForArchiveMember(
       ProjectFilesystem filesystem, Path relativeArchivePath, Path memberPath) throws IOException {
@@ -18,19 +18,50 @@ package com.facebook.buck.util.cache.impl;
 
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.watchman.WatchmanContentHashEvent;
 import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.JarMemberHashMode;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
   private static final Logger LOG = Logger.get(WatchedFileHashCache.class);
 
+  /**
+   * Files that were cached until they changed, and whose hashes Watchman may report. Guarded by
+   * this.
+   */
+  private final Set<Path> invalidatedFiles = new HashSet<>();
+
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    this(
+        projectFilesystem,
+        fileHashCacheMode,
+        JarMemberHashMode.DEFAULT,
+        DefaultFileHashCache.DEFAULT_IO_THREADS);
+  }
+
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      JarMemberHashMode jarMemberHashMode,
+      int ioThreads) {
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        jarMemberHashMode,
+        ioThreads,
+        Optional.of("file_hashes"));
   }
 
   /**
@@ -43,14 +74,40 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     // Path event, remove the path from the cache as it has been changed, added or deleted.
     Path path = event.getPath().normalize();
     LOG.verbose("Invalidating %s", path);
+    if (fileHashCacheEngine.getIfPresent(path) != null) {
+      invalidatedFiles.add(path);
+    }
     fileHashCacheEngine.invalidateWithParents(path);
   }
 
+  /**
+   * Called with the hashes Watchman computed for changed files in a cell, after the events for
+   * their changes. Only the files this cache held before they changed are cached again, so that
+   * the cache doesn't grow with every file touched, e.g. by a source control update.
+   */
+  @Subscribe
+  public synchronized void onContentHashes(WatchmanContentHashEvent event) {
+    if (!event.getCellPath().equals(getFilesystem().getRootPath())) {
+      return;
+    }
+    int cached = 0;
+    for (Map.Entry<Path, HashCode> entry : event.getContentHashes().entrySet()) {
+      Path path = entry.getKey().normalize();
+      if (invalidatedFiles.contains(path) && !isIgnored(path)) {
+        set(path, entry.getValue());
+        cached++;
+      }
+    }
+    invalidatedFiles.clear();
+    LOG.verbose("Cached %d of %d hashes from watchman", cached, event.getContentHashes().size());
+  }
+
   @SuppressWarnings("unused")
   @Subscribe
   public synchronized void onFileSystemChange(WatchmanOverflowEvent event) {
     // Non-path change event, likely an overflow due to many change events: invalidate everything.
     LOG.debug("Invalidating all");
+    invalidatedFiles.clear();
     invalidateAll();
   }
 }
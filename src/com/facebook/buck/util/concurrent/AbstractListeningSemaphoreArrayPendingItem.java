@@ -25,4 +25,10 @@ abstract class AbstractListeningSemaphoreArrayPendingItem {
   public abstract SettableFuture<Void> getFuture();
 
   public abstract ResourceAmounts getResources();
+
+  /** Pending items with a higher priority get their resources first. */
+  public abstract long getPriority();
+
+  /** Pending items of the same priority get their resources in the order of their sequence. */
+  public abstract long getSequence();
 }
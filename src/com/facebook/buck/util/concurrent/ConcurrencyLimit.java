@@ -17,6 +17,7 @@
 package com.facebook.buck.util.concurrent;
 
 import com.google.common.base.Preconditions;
+import java.util.Optional;
 
 /** Amalgamation of parameters that control how many jobs we can run at once. */
 public class ConcurrencyLimit {
@@ -35,6 +36,13 @@ public class ConcurrencyLimit {
   public final ResourceAmounts defaultAmounts;
   /** Maximum resource amounts that are available on the system for all jobs to share. */
   public final ResourceAmounts maximumAmounts;
+  /** Holds back jobs that need memory while the system is running out of it, if present. */
+  public final Optional<SystemMemoryPressureCap> memoryPressureCap;
+  /**
+   * Maximum number of threads of a separate pool for jobs that spend most of their time blocked, if
+   * they should not take up the managed threads.
+   */
+  public final Optional<Integer> blockingThreadCount;
 
   public ConcurrencyLimit(
       int threadLimit,
@@ -42,16 +50,40 @@ public class ConcurrencyLimit {
       int managedThreadCount,
       ResourceAmounts defaultAmounts,
       ResourceAmounts maximumAmounts) {
+    this(
+        threadLimit,
+        resourceAllocationFairness,
+        managedThreadCount,
+        defaultAmounts,
+        maximumAmounts,
+        Optional.empty(),
+        Optional.empty());
+  }
+
+  public ConcurrencyLimit(
+      int threadLimit,
+      ResourceAllocationFairness resourceAllocationFairness,
+      int managedThreadCount,
+      ResourceAmounts defaultAmounts,
+      ResourceAmounts maximumAmounts,
+      Optional<SystemMemoryPressureCap> memoryPressureCap,
+      Optional<Integer> blockingThreadCount) {
     this.threadLimit = threadLimit;
     this.resourceAllocationFairness = resourceAllocationFairness;
     this.managedThreadCount = managedThreadCount;
     this.defaultAmounts = defaultAmounts;
     this.maximumAmounts = maximumAmounts;
+    this.memoryPressureCap = memoryPressureCap;
+    this.blockingThreadCount = blockingThreadCount;
 
     Preconditions.checkArgument(
         threadLimit <= managedThreadCount,
         "threadLimit (%d) should be <= managedThreadCount (%d)",
         threadLimit,
         managedThreadCount);
+    Preconditions.checkArgument(
+        !blockingThreadCount.isPresent() || blockingThreadCount.get() > 0,
+        "blockingThreadCount (%d) should be > 0",
+        blockingThreadCount.orElse(0));
   }
 }
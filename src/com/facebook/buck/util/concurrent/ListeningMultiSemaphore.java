@@ -20,26 +20,65 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types rather
  * than blocking.
+ *
+ * <p>The semaphore takes no locks. Used amounts are updated with compare-and-set, and acquisitions
+ * that have to wait are kept in a concurrent queue ordered by priority. Waiting acquisitions are
+ * handed their resources by one thread at a time: a thread that finds another one already handing
+ * them out leaves it a request to look at the queue again, instead of waiting for it.
  */
 public class ListeningMultiSemaphore {
 
-  private ResourceAmounts usedValues;
+  /** Orders pending items by priority, and pending items of the same priority by arrival. */
+  private static final Comparator<ListeningSemaphoreArrayPendingItem> PENDING_ORDER =
+      Comparator.comparingLong(ListeningSemaphoreArrayPendingItem::getPriority)
+          .reversed()
+          .thenComparingLong(ListeningSemaphoreArrayPendingItem::getSequence);
+
+  private final AtomicReference<ResourceAmounts> usedValues =
+      new AtomicReference<>(ResourceAmounts.zero());
   private final ResourceAmounts maximumValues;
-  private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
+  private final ConcurrentSkipListSet<ListeningSemaphoreArrayPendingItem> pending =
+      new ConcurrentSkipListSet<>(PENDING_ORDER);
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicLong nextSequence = new AtomicLong();
+
+  /**
+   * The number of requests to hand out resources to pending items that the thread handing them out
+   * has not looked at yet. The thread that raises it from zero hands them out until it is back to
+   * zero.
+   */
+  private final AtomicInteger processingRequests = new AtomicInteger();
+
   private final ResourceAllocationFairness fairness;
+  private final Optional<SystemMemoryPressureCap> memoryPressureCap;
 
   public ListeningMultiSemaphore(
       ResourceAmounts availableResources, ResourceAllocationFairness fairness) {
-    this.usedValues = ResourceAmounts.zero();
+    this(availableResources, fairness, Optional.empty());
+  }
+
+  /**
+   * @param memoryPressureCap if present, jobs that need memory wait while the system is running out
+   *     of memory, unless no other job holds resources.
+   */
+  public ListeningMultiSemaphore(
+      ResourceAmounts availableResources,
+      ResourceAllocationFairness fairness,
+      Optional<SystemMemoryPressureCap> memoryPressureCap) {
     this.maximumValues = availableResources;
     this.fairness = fairness;
+    this.memoryPressureCap = memoryPressureCap;
   }
 
   /**
@@ -52,19 +91,34 @@ public class ListeningMultiSemaphore {
    *     amounts, they will be capped to them.
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Void> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Void> acquire(ResourceAmounts resources) {
+    return acquire(resources, 0);
+  }
+
+  /**
+   * Like {@link #acquire(ResourceAmounts)}, but if the resources are not available right away, they
+   * are handed out before those of pending acquisitions with a lower priority. Pending acquisitions
+   * with the same priority get their resources in the order they were made.
+   */
+  public ListenableFuture<Void> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.zero())) {
       return Futures.immediateFuture(null);
     }
 
     resources = capResourceAmounts(resources);
-    if (!checkIfResourcesAvailable(resources)) {
-      SettableFuture<Void> pendingFuture = SettableFuture.create();
-      pending.add(ListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
-      return pendingFuture;
+    if (tryIncreaseUsedResources(resources)) {
+      return Futures.immediateFuture(null);
     }
-    increaseUsedResources(resources);
-    return Futures.immediateFuture(null);
+    SettableFuture<Void> pendingFuture = SettableFuture.create();
+    // Counted before it is queued, so that the queue length never goes below zero.
+    pendingCount.incrementAndGet();
+    pending.add(
+        ListeningSemaphoreArrayPendingItem.of(
+            pendingFuture, resources, priority, nextSequence.getAndIncrement()));
+    // Resources may have been released since they were found unavailable, by a release that did
+    // not see this item yet.
+    processPendingItems();
+    return pendingFuture;
   }
 
   /**
@@ -80,20 +134,38 @@ public class ListeningMultiSemaphore {
 
     resources = capResourceAmounts(resources);
     decreaseUsedResources(resources);
-    processPendingFutures(getPendingItemsThatCanBeProcessed());
+    if (pendingCount.get() > 0) {
+      processPendingItems();
+    }
+  }
+
+  /**
+   * Hands out resources to pending items, unless another thread is already doing so, in which case
+   * that thread is asked to look at the pending items again once it is done.
+   */
+  private void processPendingItems() {
+    if (processingRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int requests = 1;
+    do {
+      // Futures are completed while still handing out resources, so releases made by their
+      // listeners or for cancelled futures turn into further requests instead of recursing.
+      processPendingFutures(getPendingItemsThatCanBeProcessed());
+      requests = processingRequests.addAndGet(-requests);
+    } while (requests != 0);
   }
 
-  private synchronized ImmutableList<ListeningSemaphoreArrayPendingItem>
-      getPendingItemsThatCanBeProcessed() {
+  private ImmutableList<ListeningSemaphoreArrayPendingItem> getPendingItemsThatCanBeProcessed() {
     ImmutableList.Builder<ListeningSemaphoreArrayPendingItem> builder = ImmutableList.builder();
 
     Iterator<ListeningSemaphoreArrayPendingItem> iterator = pending.iterator();
     while (!getAvailableResources().equals(ResourceAmounts.zero()) && iterator.hasNext()) {
       ListeningSemaphoreArrayPendingItem item = iterator.next();
-      if (checkIfResourcesAvailable(item.getResources())) {
+      if (tryIncreaseUsedResources(item.getResources())) {
         builder.add(item);
-        increaseUsedResources(item.getResources());
         iterator.remove();
+        pendingCount.decrementAndGet();
       } else if (!fairnessAllowsReordering()) {
         break;
       }
@@ -101,16 +173,16 @@ public class ListeningMultiSemaphore {
     return builder.build();
   }
 
-  public synchronized ResourceAmounts getAvailableResources() {
-    return maximumValues.subtract(usedValues);
+  public ResourceAmounts getAvailableResources() {
+    return maximumValues.subtract(usedValues.get());
   }
 
-  public synchronized ResourceAmounts getMaximumValues() {
+  public ResourceAmounts getMaximumValues() {
     return maximumValues;
   }
 
-  public synchronized int getQueueLength() {
-    return pending.size();
+  public int getQueueLength() {
+    return pendingCount.get();
   }
 
   /**
@@ -126,28 +198,46 @@ public class ListeningMultiSemaphore {
         Math.min(amounts.getNetworkIO(), maximumValues.getNetworkIO()));
   }
 
-  private synchronized boolean checkIfResourcesAvailable(ResourceAmounts resources) {
+  /** Adds {@code resources} to the used amounts, if they are available. */
+  private boolean tryIncreaseUsedResources(ResourceAmounts resources) {
     Preconditions.checkState(
         resources.allValuesLessThanOrEqual(maximumValues),
         "Resource amounts (%s) must be capped to the maximum amounts (%s)",
         resources,
         maximumValues);
-    return usedValues.append(resources).allValuesLessThanOrEqual(maximumValues);
-  }
-
-  private synchronized void increaseUsedResources(ResourceAmounts resources) {
-    usedValues = usedValues.append(resources);
+    while (true) {
+      ResourceAmounts used = usedValues.get();
+      ResourceAmounts updated = used.append(resources);
+      if (!updated.allValuesLessThanOrEqual(maximumValues)) {
+        return false;
+      }
+      // A job is always let through when no other job holds resources, as no release would come to
+      // let it through later. Jobs admitted concurrently may each pass the cap before the other is
+      // counted, which is within the precision of its sampled available memory.
+      if (!used.equals(ResourceAmounts.zero())
+          && memoryPressureCap.isPresent()
+          && !memoryPressureCap.get().admits(resources)) {
+        return false;
+      }
+      if (usedValues.compareAndSet(used, updated)) {
+        memoryPressureCap.ifPresent(cap -> cap.onAdmitted(resources));
+        return true;
+      }
+    }
   }
 
-  private synchronized void decreaseUsedResources(ResourceAmounts resources) {
-    ResourceAmounts updatedAmounts = usedValues.subtract(resources);
-    Preconditions.checkArgument(
-        !updatedAmounts.containsValuesLessThan(ResourceAmounts.zero()),
-        "Cannot increase available resources by %s. Current: %s, Maximum: %s",
-        resources,
-        usedValues,
-        maximumValues);
-    usedValues = updatedAmounts;
+  private void decreaseUsedResources(ResourceAmounts resources) {
+    usedValues.updateAndGet(
+        used -> {
+          ResourceAmounts updatedAmounts = used.subtract(resources);
+          Preconditions.checkArgument(
+              !updatedAmounts.containsValuesLessThan(ResourceAmounts.zero()),
+              "Cannot increase available resources by %s. Current: %s, Maximum: %s",
+              resources,
+              used,
+              maximumValues);
+          return updatedAmounts;
+        });
   }
 
   private void processPendingFutures(ImmutableList<ListeningSemaphoreArrayPendingItem> items) {
@@ -99,6 +99,26 @@ public class MostExecutors {
         /* handler */ new ThreadPoolExecutor.DiscardPolicy());
   }
 
+  /**
+   * Creates an executor for jobs that spend most of their time blocked, whose threads are started
+   * as jobs come in, up to {@code maximumCount}, and stop once they have been idle for {@code
+   * keepAliveTime}. Jobs beyond the maximum wait for a thread to be free.
+   */
+  public static ExecutorService newElasticThreadExecutor(
+      ThreadFactory threadFactory, int maximumCount, long keepAliveTime, TimeUnit unit) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            /* corePoolSize */ maximumCount,
+            /* maximumPoolSize */ maximumCount,
+            keepAliveTime,
+            unit,
+            /* workQueue */ new LinkedBlockingQueue<Runnable>(),
+            /* threadFactory */ threadFactory,
+            /* handler */ new ThreadPoolExecutor.DiscardPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   /**
    * Shutdown {@code service} and wait for all it's tasks to terminate. In the event of {@link
    * InterruptedException}, propagate the interrupt to all tasks, wait for them to finish, then
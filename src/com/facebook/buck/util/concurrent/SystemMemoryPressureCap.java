@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds back jobs that need memory while the memory available on the system is running out, no
+ * matter how many memory resources {@link ListeningMultiSemaphore} has left. Memory resources are
+ * estimates, and jobs that were estimated to fit can still drive the system into swapping.
+ *
+ * <p>The available memory is sampled at most once per refresh interval. Memory of jobs admitted
+ * since the last sample is subtracted from it, as those jobs may not have allocated it yet.
+ */
+public class SystemMemoryPressureCap {
+
+  private final LongSupplier availableMemoryBytes;
+  private final long reservedBytes;
+  private final long refreshIntervalNanos;
+
+  private long lastSampleNanos;
+  private long lastAvailableBytes;
+  private long admittedSinceSampleBytes = 0;
+  private boolean sampled = false;
+
+  /**
+   * @param availableMemoryBytes returns the memory currently available on the system, in bytes.
+   * @param reservedBytes the memory to leave available to the rest of the system.
+   */
+  public SystemMemoryPressureCap(
+      LongSupplier availableMemoryBytes,
+      long reservedBytes,
+      long refreshInterval,
+      TimeUnit refreshIntervalUnit) {
+    Preconditions.checkArgument(reservedBytes >= 0);
+    this.availableMemoryBytes = availableMemoryBytes;
+    this.reservedBytes = reservedBytes;
+    this.refreshIntervalNanos = refreshIntervalUnit.toNanos(refreshInterval);
+  }
+
+  /** @return whether the system has enough memory left to start a job needing {@code amounts}. */
+  synchronized boolean admits(ResourceAmounts amounts) {
+    if (amounts.getMemory() == 0) {
+      return true;
+    }
+    long now = System.nanoTime();
+    if (!sampled || now - lastSampleNanos >= refreshIntervalNanos) {
+      lastAvailableBytes = availableMemoryBytes.getAsLong();
+      lastSampleNanos = now;
+      admittedSinceSampleBytes = 0;
+      sampled = true;
+    }
+    return toBytes(amounts) + admittedSinceSampleBytes + reservedBytes <= lastAvailableBytes;
+  }
+
+  /** Records that a job that needs {@code amounts} was started. */
+  synchronized void onAdmitted(ResourceAmounts amounts) {
+    admittedSinceSampleBytes += toBytes(amounts);
+  }
+
+  private static long toBytes(ResourceAmounts amounts) {
+    return amounts.getMemory() * ResourceAmountsEstimator.MEMORY_UNIT_BYTES;
+  }
+}
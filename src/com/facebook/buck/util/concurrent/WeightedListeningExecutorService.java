@@ -38,14 +38,39 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
   private final ListeningMultiSemaphore semaphore;
   private final ResourceAmounts defaultValues;
   private final ListeningExecutorService delegate;
+  private final ListeningExecutorService blockingDelegate;
+  private final long priority;
 
   public WeightedListeningExecutorService(
       ListeningMultiSemaphore semaphore,
       ResourceAmounts defaultValues,
       ListeningExecutorService delegate) {
+    this(semaphore, defaultValues, delegate, delegate);
+  }
+
+  /**
+   * @param blockingDelegate runs the jobs submitted through the service returned by {@link
+   *     #forBlockingWork()}.
+   */
+  public WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      ListeningExecutorService delegate,
+      ListeningExecutorService blockingDelegate) {
+    this(semaphore, defaultValues, delegate, blockingDelegate, 0);
+  }
+
+  private WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      ListeningExecutorService delegate,
+      ListeningExecutorService blockingDelegate,
+      long priority) {
     this.semaphore = semaphore;
     this.defaultValues = defaultValues;
     this.delegate = delegate;
+    this.blockingDelegate = blockingDelegate;
+    this.priority = priority;
   }
 
   /**
@@ -61,14 +86,47 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
     if (newDefaultAmounts.equals(defaultValues)) {
       return this;
     }
-    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate);
+    return new WeightedListeningExecutorService(
+        semaphore, newDefaultAmounts, delegate, blockingDelegate, priority);
+  }
+
+  /**
+   * Creates a new service whose jobs get their resources before those of jobs with a lower priority
+   * when they have to wait for them.
+   *
+   * @param newPriority the priority of the jobs submitted through the new service
+   * @return Service that uses the same semaphore, delegate and default resource amounts but with
+   *     the given priority.
+   */
+  public WeightedListeningExecutorService withPriority(long newPriority) {
+    if (newPriority == priority) {
+      return this;
+    }
+    return new WeightedListeningExecutorService(
+        semaphore, defaultValues, delegate, blockingDelegate, newPriority);
+  }
+
+  /**
+   * Creates a new service for jobs that spend most of their time blocked on processes or I/O. When
+   * a separate pool for blocking jobs was given, they run on it, so that it is their resource
+   * amounts rather than the threads of the delegate that limit how many of them run at once.
+   *
+   * @return Service that uses the same semaphore, default resource amounts and priority but runs
+   *     jobs on the pool for blocking jobs.
+   */
+  public WeightedListeningExecutorService forBlockingWork() {
+    if (blockingDelegate == delegate) {
+      return this;
+    }
+    return new WeightedListeningExecutorService(
+        semaphore, defaultValues, blockingDelegate, blockingDelegate, priority);
   }
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       Callable<T> callable, ResourceAmounts amounts) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, priority),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
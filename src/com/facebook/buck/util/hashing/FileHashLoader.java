@@ -18,9 +18,13 @@ package com.facebook.buck.util.hashing;
 
 import com.facebook.buck.core.io.ArchiveMemberPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public interface FileHashLoader {
 
@@ -53,4 +57,39 @@ public interface FileHashLoader {
   default long getSize(ProjectFilesystem filesystem, Path path) throws IOException {
     return getSize(filesystem.resolve(path));
   }
+
+  /**
+   * Return the {@link HashCode}s of all the given {@link Path}s. Implementations may load the
+   * hashes that are not cached yet in parallel, so callers that know all the paths they need up
+   * front should prefer this to calling {@link #get(Path)} for each of them.
+   *
+   * @throws IOException if any of the paths cannot be hashed. The hashes of the other paths may or
+   *     may not have been loaded.
+   */
+  default ImmutableMap<Path, HashCode> getAll(Collection<Path> paths) throws IOException {
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    for (Path path : paths) {
+      if (!hashes.containsKey(path)) {
+        hashes.put(path, get(path));
+      }
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
+
+  /**
+   * Return the {@link HashCode}s of all the given relative {@link Path}s under the given {@link
+   * ProjectFilesystem}, keyed by their relative paths.
+   *
+   * @see #getAll(Collection)
+   */
+  default ImmutableMap<Path, HashCode> getAll(ProjectFilesystem filesystem, Collection<Path> paths)
+      throws IOException {
+    Map<Path, HashCode> hashes = new LinkedHashMap<>();
+    for (Path path : paths) {
+      if (!hashes.containsKey(path)) {
+        hashes.put(path, get(filesystem, path));
+      }
+    }
+    return ImmutableMap.copyOf(hashes);
+  }
 }
@@ -19,12 +19,21 @@ package com.facebook.buck.util.hashing;
 import com.facebook.buck.io.file.FastPaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
 
 public class PathHashing {
   // Utility class, do not instantiate.
@@ -32,6 +41,21 @@ public class PathHashing {
 
   private static final Path EMPTY_PATH = Paths.get("");
 
+  /** The hash of a directory with no files under it, which contributes nothing to its parent. */
+  private static final HashCode EMPTY_DIRECTORY_HASH = Hashing.sha1().newHasher().hash();
+
+  /**
+   * Hashes the contents of {@code root}.
+   *
+   * <p>A directory is hashed from its immediate children: the path and contents hash of each file,
+   * and the path and hash of each subdirectory, as returned by {@code fileHashLoader}. When the
+   * loader is a cache, hashes of unchanged subdirectories are reused, so a change to a single file
+   * only requires rehashing the directories between it and {@code root}. Sibling subdirectories
+   * are hashed in parallel. Directories reached through symlinks are hashed file by file, since
+   * their cached hashes would not be invalidated by changes under the symlink target.
+   *
+   * @return the immediate children of {@code root}, relative to it.
+   */
   public static ImmutableSet<Path> hashPath(
       Hasher hasher,
       ProjectFileHashLoader fileHashLoader,
@@ -40,14 +64,76 @@ public class PathHashing {
       throws IOException {
     Preconditions.checkArgument(
         !root.equals(EMPTY_PATH), "Path to hash (%s) must not be empty", root);
-    ImmutableSet.Builder<Path> children = ImmutableSet.builder();
-    for (Path path : ImmutableSortedSet.copyOf(projectFilesystem.getFilesUnderPath(root))) {
-      FastPaths.hashPathFast(hasher, path);
-      if (!root.equals(path)) {
-        children.add(root.relativize(path));
+    if (!projectFilesystem.isDirectory(root)) {
+      hashFile(hasher, fileHashLoader, root);
+      return ImmutableSet.of();
+    }
+
+    ImmutableSortedSet<Path> children =
+        ImmutableSortedSet.copyOf(projectFilesystem.getDirectoryContents(root));
+    ImmutableList.Builder<Path> subdirectories = ImmutableList.builder();
+    for (Path child : children) {
+      if (projectFilesystem.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+        subdirectories.add(child);
+      }
+    }
+    Map<Path, HashCode> subdirectoryHashes =
+        hashSubdirectories(fileHashLoader, subdirectories.build());
+
+    ImmutableSet.Builder<Path> relativeChildren = ImmutableSet.builder();
+    for (Path child : children) {
+      relativeChildren.add(root.relativize(child));
+      HashCode subdirectoryHash = subdirectoryHashes.get(child);
+      if (subdirectoryHash != null) {
+        if (!subdirectoryHash.equals(EMPTY_DIRECTORY_HASH)) {
+          FastPaths.hashPathFast(hasher, child);
+          hasher.putBytes(subdirectoryHash.asBytes());
+        }
+      } else if (projectFilesystem.isDirectory(child)) {
+        for (Path path : ImmutableSortedSet.copyOf(projectFilesystem.getFilesUnderPath(child))) {
+          hashFile(hasher, fileHashLoader, path);
+        }
+      } else {
+        hashFile(hasher, fileHashLoader, child);
       }
-      hasher.putBytes(fileHashLoader.get(path).asBytes());
     }
-    return children.build();
+    return relativeChildren.build();
+  }
+
+  private static void hashFile(Hasher hasher, ProjectFileHashLoader fileHashLoader, Path path)
+      throws IOException {
+    FastPaths.hashPathFast(hasher, path);
+    hasher.putBytes(fileHashLoader.get(path).asBytes());
+  }
+
+  private static Map<Path, HashCode> hashSubdirectories(
+      ProjectFileHashLoader fileHashLoader, ImmutableList<Path> subdirectories)
+      throws IOException {
+    // Subtrees are only split up at the outermost directory being hashed: the loader may hold a
+    // lock on a directory while its subdirectories load, and a worker joining nested tasks could
+    // pick up work that waits on a lock it is keeping other workers from.
+    if (subdirectories.size() < 2 || ForkJoinTask.inForkJoinPool()) {
+      Map<Path, HashCode> hashes = new HashMap<>();
+      for (Path subdirectory : subdirectories) {
+        hashes.put(subdirectory, fileHashLoader.get(subdirectory));
+      }
+      return hashes;
+    }
+    try {
+      return subdirectories
+          .parallelStream()
+          .collect(
+              Collectors.toMap(
+                  subdirectory -> subdirectory,
+                  subdirectory -> {
+                    try {
+                      return fileHashLoader.get(subdirectory);
+                    } catch (IOException e) {
+                      throw new UncheckedIOException(e);
+                    }
+                  }));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
   }
 }
@@ -26,7 +26,9 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
@@ -35,6 +37,7 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Optional;
@@ -103,8 +106,83 @@ public class Untar extends Unarchiver {
       PatternsMatcher entriesToExclude,
       boolean writeSymlinksAfterCreatingFiles)
       throws IOException {
+    try (TarArchiveInputStream archiveStream =
+        getArchiveInputStream(new BufferedInputStream(Files.newInputStream(archiveFile)))) {
+      return extractEntries(
+          archiveStream,
+          filesystem,
+          filesystemRelativePath,
+          stripPath,
+          existingFileMode,
+          entriesToExclude,
+          writeSymlinksAfterCreatingFiles,
+          new LinkedHashSet<>());
+    } catch (CompressorException e) {
+      throw new IOException(
+          String.format("Could not get decompressor for archive at %s", archiveFile), e);
+    }
+  }
+
+  /**
+   * Extract an archive that is read from a stream, e.g. while it is being downloaded.
+   *
+   * <p>Entries are written out as soon as they are read. The stream is not closed, and is not
+   * necessarily read to its end, as trailing padding after the last entry is ignored. If the
+   * archive can't be extracted, the files that were written from it are deleted before throwing.
+   *
+   * @param archiveStream The stream to read the archive from
+   * @param filesystem The filesystem that will be extracted into
+   * @param existingFileMode How to handle existing files
+   * @return A list of paths to files that were created (not directories)
+   * @throws IOException If the archive could not be extracted for any reason
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    Set<Path> extractedPaths = new LinkedHashSet<>();
+    try (InputStream unclosableStream =
+            new FilterInputStream(archiveStream) {
+              @Override
+              public void close() {
+                // The caller owns the underlying stream.
+              }
+            };
+        TarArchiveInputStream tarStream =
+            getArchiveInputStream(new BufferedInputStream(unclosableStream))) {
+      return extractEntries(
+          tarStream,
+          filesystem,
+          filesystem.getPath(""),
+          Optional.empty(),
+          existingFileMode,
+          PatternsMatcher.EMPTY,
+          Platform.detect() == Platform.WINDOWS,
+          extractedPaths);
+    } catch (CompressorException e) {
+      throw new IOException("Could not get decompressor for archive stream", e);
+    } catch (IOException | RuntimeException e) {
+      for (Path path : extractedPaths) {
+        try {
+          filesystem.deleteFileAtPathIfExists(path);
+        } catch (IOException deleteException) {
+          e.addSuppressed(deleteException);
+        }
+      }
+      throw e;
+    }
+  }
+
+  private ImmutableSet<Path> extractEntries(
+      TarArchiveInputStream archiveStream,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPath,
+      ExistingFileMode existingFileMode,
+      PatternsMatcher entriesToExclude,
+      boolean writeSymlinksAfterCreatingFiles,
+      Set<Path> paths)
+      throws IOException {
 
-    ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
     HashSet<Path> dirsToTidy = new HashSet<>();
     TreeMap<Path, Long> dirCreationTimes = new TreeMap<>();
     DirectoryCreator creator = new DirectoryCreator(filesystem);
@@ -114,53 +192,49 @@ public class Untar extends Unarchiver {
     // all files are extracted, and /then/ try to do the links
     Map<Path, Path> windowsSymlinkMap = new HashMap<>();
 
-    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
-      TarArchiveEntry entry;
-      while ((entry = archiveStream.getNextTarEntry()) != null) {
-        String entryName = entry.getName();
-        if (entriesToExclude.matchesAny(entryName)) {
+    TarArchiveEntry entry;
+    while ((entry = archiveStream.getNextTarEntry()) != null) {
+      String entryName = entry.getName();
+      if (entriesToExclude.matchesAny(entryName)) {
+        continue;
+      }
+      Path destFile = Paths.get(entryName);
+      Path destPath;
+      if (stripPath.isPresent()) {
+        if (!destFile.startsWith(stripPath.get())) {
           continue;
         }
-        Path destFile = Paths.get(entryName);
-        Path destPath;
-        if (stripPath.isPresent()) {
-          if (!destFile.startsWith(stripPath.get())) {
-            continue;
-          }
-          destPath =
-              filesystemRelativePath.resolve(stripPath.get().relativize(destFile)).normalize();
-        } else {
-          destPath = filesystemRelativePath.resolve(destFile).normalize();
-        }
+        destPath = filesystemRelativePath.resolve(stripPath.get().relativize(destFile)).normalize();
+      } else {
+        destPath = filesystemRelativePath.resolve(destFile).normalize();
+      }
 
-        if (entry.isDirectory()) {
-          dirsToTidy.add(destPath);
-          mkdirs(creator, destPath);
-          dirCreationTimes.put(destPath, entry.getModTime().getTime());
-        } else if (entry.isSymbolicLink()) {
-          if (writeSymlinksAfterCreatingFiles) {
-            recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
-          } else {
-            writeSymbolicLink(creator, destPath, entry);
-          }
-          paths.add(destPath);
-          setAttributes(filesystem, destPath, entry);
-        } else if (entry.isFile()) {
-          writeFile(creator, archiveStream, destPath);
-          paths.add(destPath);
-          setAttributes(filesystem, destPath, entry);
+      if (entry.isDirectory()) {
+        dirsToTidy.add(destPath);
+        mkdirs(creator, destPath);
+        dirCreationTimes.put(destPath, entry.getModTime().getTime());
+      } else if (entry.isSymbolicLink()) {
+        // Paths are recorded before they are written, so that callers can clean up after a
+        // failure half way through writing one.
+        paths.add(destPath);
+        if (writeSymlinksAfterCreatingFiles) {
+          recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
+        } else {
+          writeSymbolicLink(creator, destPath, entry);
         }
+        setAttributes(filesystem, destPath, entry);
+      } else if (entry.isFile()) {
+        paths.add(destPath);
+        writeFile(creator, archiveStream, destPath);
+        setAttributes(filesystem, destPath, entry);
       }
-
-      writeWindowsSymlinks(creator, windowsSymlinkMap);
-    } catch (CompressorException e) {
-      throw new IOException(
-          String.format("Could not get decompressor for archive at %s", archiveFile), e);
     }
 
+    writeWindowsSymlinks(creator, windowsSymlinkMap);
+
     setDirectoryModificationTimes(filesystem, dirCreationTimes);
 
-    ImmutableSet<Path> filePaths = paths.build();
+    ImmutableSet<Path> filePaths = ImmutableSet.copyOf(paths);
     if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
       // Clean out directories of files that were not in the archive
       tidyDirectories(filesystem, dirsToTidy, filePaths);
@@ -168,9 +242,8 @@ public class Untar extends Unarchiver {
     return filePaths;
   }
 
-  private TarArchiveInputStream getArchiveInputStream(Path tarFile)
-      throws IOException, CompressorException {
-    BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
+  private TarArchiveInputStream getArchiveInputStream(BufferedInputStream inputStream)
+      throws CompressorException {
     if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
@@ -25,12 +25,14 @@ import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
+import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -216,6 +218,114 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  @Test
+  public void testKnownMissesAreAnsweredLocally() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    List<ImmutableList<RuleKey>> requestedRuleKeys = new ArrayList<>();
+    List<ImmutableSet<RuleKey>> checkedRuleKeys = new ArrayList<>();
+    NegativeLookupFilter filter = new NegativeLookupFilter(100, 300);
+
+    try (RequestedKeyRecordingAsynchronousCache cache =
+        new RequestedKeyRecordingAsynchronousCache(
+            service, filesystem, requestedRuleKeys, checkedRuleKeys, 3, 3, true)) {
+      cache.setNegativeLookupFilter(filter);
+
+      RuleKey present = new RuleKey(HashCode.fromInt(0));
+      RuleKey missing = new RuleKey(HashCode.fromInt(6));
+      RuleKey otherMissing = new RuleKey(HashCode.fromInt(7));
+      cache.multiContainsAsync(ImmutableSet.of(missing, otherMissing));
+      service.run();
+      assertEquals(1, checkedRuleKeys.size());
+      assertTrue(filter.isKnownMiss(missing));
+      assertTrue(filter.isKnownMiss(otherMissing));
+
+      ListenableFuture<CacheResult> result =
+          cache.fetchAsync(null, missing, LazyPath.ofInstance(filesystem.getPath("path")));
+      assertTrue(result.isDone());
+      assertEquals(CacheResultType.MISS, result.get().getType());
+
+      ListenableFuture<ImmutableMap<RuleKey, CacheResult>> containsResults =
+          cache.multiContainsAsync(ImmutableSet.of(present, missing, otherMissing));
+      service.run();
+      assertEquals(CacheResultType.HIT, containsResults.get().get(present).getType());
+      assertEquals(CacheResultType.MISS, containsResults.get().get(missing).getType());
+      assertEquals(CacheResultType.MISS, containsResults.get().get(otherMissing).getType());
+
+      // Only the key that wasn't known to be missing should have been sent to the cache.
+      assertEquals(2, checkedRuleKeys.size());
+      MoreAsserts.assertIterablesEquals(ImmutableList.of(present), checkedRuleKeys.get(1));
+      assertEquals(0, requestedRuleKeys.size());
+    }
+  }
+
+  @Test
+  public void testMultiStoreBatchesQueuedStores() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<ImmutableList<RuleKey>> storedRuleKeys = new ArrayList<>();
+
+    try (StoreRecordingAsynchronousCache cache =
+        new StoreRecordingAsynchronousCache(service, filesystem, storedRuleKeys, 3)) {
+      List<ListenableFuture<Void>> results = new ArrayList<>();
+      List<RuleKey> keys = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        RuleKey key = new RuleKey(HashCode.fromInt(i));
+        keys.add(key);
+        results.add(storeArtifact(cache, filesystem, key, "path" + i));
+      }
+
+      service.run();
+
+      for (ListenableFuture<Void> future : results) {
+        assertTrue(future.isDone());
+        future.get();
+      }
+      assertEquals(
+          ImmutableList.of(
+              ImmutableList.of(keys.get(0), keys.get(1), keys.get(2)),
+              ImmutableList.of(keys.get(3), keys.get(4))),
+          storedRuleKeys);
+    }
+  }
+
+  @Test
+  public void testMultiStoreFallsBackToStoreOnErrors() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<ImmutableList<RuleKey>> storedRuleKeys = new ArrayList<>();
+
+    try (StoreRecordingAsynchronousCache cache =
+        new StoreRecordingAsynchronousCache(service, filesystem, storedRuleKeys, 2)) {
+      cache.failMultiStore = true;
+      List<ListenableFuture<Void>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(
+            storeArtifact(cache, filesystem, new RuleKey(HashCode.fromInt(i)), "path" + i));
+      }
+
+      service.run();
+
+      for (ListenableFuture<Void> future : results) {
+        future.get();
+      }
+      // Every artifact is stored on its own, and batching stops after three failed batches.
+      assertEquals(8, storedRuleKeys.size());
+      assertTrue(storedRuleKeys.stream().allMatch(keys -> keys.size() == 1));
+      assertEquals(3, cache.failedMultiStoreCount);
+    }
+  }
+
+  private static ListenableFuture<Void> storeArtifact(
+      ArtifactCache cache, ProjectFilesystem filesystem, RuleKey key, String path)
+      throws IOException {
+    filesystem.writeContentsToPath(path, filesystem.getPath(path));
+    return cache.store(
+        ArtifactInfo.builder().addRuleKeys(key).build(),
+        BorrowablePath.borrowablePath(filesystem.getPath(path)));
+  }
+
   private static class NoOpEventListener implements AbstractAsynchronousCache.CacheEventListener {
     @Override
     public AbstractAsynchronousCache.StoreEvents storeScheduled(
@@ -244,6 +354,9 @@ public class AbstractAsynchronousCacheTest {
       };
     }
 
+    @Override
+    public void fetchFiltered(@Nullable BuildTarget target, RuleKey ruleKey) {}
+
     @Override
     public CacheEventListener.MultiFetchRequestEvents multiFetchStarted(
         ImmutableList<BuildTarget> targets, ImmutableList<RuleKey> keys) {
@@ -263,6 +376,88 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  private static class StoreRecordingAsynchronousCache extends AbstractAsynchronousCache {
+    private final List<ImmutableList<RuleKey>> storedRuleKeys;
+    private final int multiStoreLimit;
+    private boolean failMultiStore;
+    private int failedMultiStoreCount;
+
+    public StoreRecordingAsynchronousCache(
+        ExplicitRunExecutorService service,
+        ProjectFilesystem filesystem,
+        List<ImmutableList<RuleKey>> storedRuleKeys,
+        int multiStoreLimit) {
+      super(
+          "fake",
+          ArtifactCacheMode.http,
+          CacheReadMode.READWRITE,
+          service,
+          service,
+          new NoOpEventListener(),
+          Optional.empty(),
+          filesystem);
+      this.storedRuleKeys = storedRuleKeys;
+      this.multiStoreLimit = multiStoreLimit;
+    }
+
+    @Override
+    protected StoreResult storeImpl(ArtifactInfo info, Path file) {
+      storedRuleKeys.add(ImmutableList.copyOf(info.getRuleKeys()));
+      return StoreResult.builder().setWasStoreSuccessful(true).build();
+    }
+
+    @Override
+    protected int getMultiStoreLimit() {
+      return multiStoreLimit;
+    }
+
+    @Override
+    protected MultiStoreResult multiStoreImpl(ImmutableList<Pair<ArtifactInfo, Path>> artifacts)
+        throws IOException {
+      if (failMultiStore) {
+        failedMultiStoreCount++;
+        throw new IOException("multiStore failed");
+      }
+      storedRuleKeys.add(
+          artifacts.stream()
+              .flatMap(artifact -> artifact.getFirst().getRuleKeys().stream())
+              .collect(ImmutableList.toImmutableList()));
+      MultiStoreResult.Builder result = MultiStoreResult.builder();
+      for (int i = 0; i < artifacts.size(); i++) {
+        result.addResults(StoreResult.builder().setWasStoreSuccessful(true).build());
+      }
+      return result.build();
+    }
+
+    @Override
+    protected FetchResult fetchImpl(
+        @Nullable BuildTarget target,
+        RuleKey ruleKey,
+        LazyPath output,
+        Optional<ArtifactSink> sink) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected MultiContainsResult multiContainsImpl(ImmutableSet<RuleKey> ruleKeys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected CacheDeleteResult deleteImpl(List<RuleKey> ruleKeys) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected MultiFetchResult multiFetchImpl(
+        Iterable<AbstractAsynchronousCache.FetchRequest> requests) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {}
+  }
+
   private static class RequestedKeyRecordingAsynchronousCache extends AbstractAsynchronousCache {
     private final ImmutableSet<RuleKey> matching =
         IntStream.rangeClosed(0, 5)
@@ -273,6 +468,7 @@ public class AbstractAsynchronousCacheTest {
     private int multiFetchLimit;
     private int concurrency;
     private boolean isMultiCheckEnabled;
+    private Optional<NegativeLookupFilter> negativeLookupFilter = Optional.empty();
 
     public RequestedKeyRecordingAsynchronousCache(
         ExplicitRunExecutorService service,
@@ -300,7 +496,10 @@ public class AbstractAsynchronousCacheTest {
 
     @Override
     protected FetchResult fetchImpl(
-        @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+        @Nullable BuildTarget target,
+        RuleKey ruleKey,
+        LazyPath output,
+        Optional<ArtifactSink> sink) {
       requestedRuleKeys.add(ImmutableList.of(ruleKey));
       return hit();
     }
@@ -367,5 +566,14 @@ public class AbstractAsynchronousCacheTest {
     protected boolean isMultiCheckEnabled() {
       return isMultiCheckEnabled;
     }
+
+    public void setNegativeLookupFilter(NegativeLookupFilter negativeLookupFilter) {
+      this.negativeLookupFilter = Optional.of(negativeLookupFilter);
+    }
+
+    @Override
+    protected Optional<NegativeLookupFilter> getNegativeLookupFilter() {
+      return negativeLookupFilter;
+    }
   }
 }
@@ -102,7 +102,10 @@ public class AbstractNetworkCacheTest {
                 .build()) {
           @Override
           protected FetchResult fetchImpl(
-              @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+              @Nullable BuildTarget target,
+              RuleKey ruleKey,
+              LazyPath output,
+              Optional<ArtifactSink> sink) {
             return null;
           }
 
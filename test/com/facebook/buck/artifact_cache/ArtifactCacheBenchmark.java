@@ -0,0 +1,335 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.httpserver.WebServer;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.slb.SingleUriService;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures fetch, store and multiContains on every artifact cache backend, for a range of artifact
+ * sizes. The http backend talks to the cache served by buck's own web server on a local port, so
+ * its numbers include the protocol and loopback overhead but not a real network.
+ *
+ * <p>{@link #main} runs the suite once per thread count in {@link #THREAD_COUNTS} and writes the
+ * results of each run as JSON, so that runs on different revisions can be compared. Any other JMH
+ * option may be passed on the command line, e.g. {@code -p backend=dir,http} to only run some of
+ * the backends.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArtifactCacheBenchmark {
+
+  private static final int[] THREAD_COUNTS = {1, 4, 16};
+
+  /** Number of artifacts stored before the fetch and multiContains benchmarks run. */
+  private static final int STORED_ARTIFACT_COUNT = 256;
+
+  /** Number of keys in each multiContains call, half of which are in the cache. */
+  private static final int MULTI_CONTAINS_BATCH_SIZE = 32;
+
+  /**
+   * Caps the size of the local caches, so that long store benchmarks trim the cache rather than
+   * fill the disk. Keep it well above the size of the pre-stored artifacts so they survive.
+   */
+  private static final long MAX_CACHE_SIZE_BYTES = 1024L * 1024 * 1024;
+
+  /** The cache under test, along with artifacts already stored in it. */
+  public abstract static class AbstractCacheState {
+    private Path root;
+    private ProjectFilesystem filesystem;
+    private BuckEventBus eventBus;
+    private ListeningExecutorService executor;
+    private Optional<WebServer> webServer = Optional.empty();
+    ArtifactCache cache;
+    Path artifact;
+    ImmutableList<RuleKey> storedKeys;
+    ImmutableList<RuleKey> missingKeys;
+
+    protected abstract String getBackend();
+
+    protected abstract int getArtifactSize();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+      root = Files.createTempDirectory("artifact-cache-benchmark");
+      filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+      eventBus = BuckEventBusForTests.newInstance();
+      executor = MoreExecutors.newDirectExecutorService();
+      cache = createCache();
+
+      byte[] data = new byte[getArtifactSize()];
+      new Random(data.length).nextBytes(data);
+      artifact = root.resolve("artifact");
+      Files.write(artifact, data);
+
+      ImmutableList.Builder<RuleKey> stored = ImmutableList.builder();
+      ImmutableList.Builder<RuleKey> missing = ImmutableList.builder();
+      for (int i = 0; i < STORED_ARTIFACT_COUNT; i++) {
+        RuleKey ruleKey = randomRuleKey();
+        Futures.getUnchecked(
+            cache.store(
+                ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+                BorrowablePath.notBorrowablePath(artifact)));
+        stored.add(ruleKey);
+        missing.add(randomRuleKey());
+      }
+      storedKeys = stored.build();
+      missingKeys = missing.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+      cache.close();
+      if (webServer.isPresent()) {
+        webServer.get().stop();
+      }
+      executor.shutdown();
+      MostFiles.deleteRecursively(root);
+    }
+
+    private ArtifactCache createCache() throws Exception {
+      switch (getBackend()) {
+        case "dir":
+          return createDirCache("dir-cache");
+        case "sqlite":
+          return new SQLiteArtifactCache(
+              "sqlite",
+              filesystem,
+              Files.createDirectories(root.resolve("sqlite-cache")),
+              eventBus,
+              Optional.of(MAX_CACHE_SIZE_BYTES),
+              Optional.empty(),
+              CacheReadMode.READWRITE);
+        case "http":
+          return createHttpCache();
+        case "two_level":
+          return new TwoLevelArtifactCacheDecorator(
+              createDirCache("dir-cache"), filesystem, eventBus, true, 0L, Optional.empty());
+        case "multi":
+          return new MultiArtifactCache(
+              ImmutableList.of(createDirCache("dir-cache"), createHttpCache()));
+        default:
+          throw new IllegalArgumentException("Unknown artifact cache backend: " + getBackend());
+      }
+    }
+
+    private ArtifactCache createDirCache(String cacheDir) throws IOException {
+      return new DirArtifactCache(
+          getBackend(),
+          filesystem,
+          filesystem.getPath(cacheDir),
+          CacheReadMode.READWRITE,
+          Optional.of(MAX_CACHE_SIZE_BYTES),
+          executor);
+    }
+
+    private ArtifactCache createHttpCache() throws Exception {
+      WebServer server = new WebServer(/* port */ 0, filesystem);
+      server.updateAndStartIfNeeded(Optional.of(createDirCache("served-cache")));
+      webServer = Optional.of(server);
+
+      URI uri = URI.create(String.format("http://127.0.0.1:%d/", server.getPort()));
+      SingleUriService service = new SingleUriService(uri, new OkHttpClient());
+      CellPathResolver cellPathResolver = TestCellPathResolver.get(filesystem);
+      return new HttpArtifactCache(
+          NetworkCacheArgs.builder()
+              .setCacheName("http")
+              .setCacheMode(ArtifactCacheMode.http)
+              .setRepository("benchmark")
+              .setScheduleType("benchmark")
+              .setFetchClient(service)
+              .setStoreClient(service)
+              .setCacheReadMode(CacheReadMode.READWRITE)
+              .setTargetConfigurationSerializer(
+                  TargetConfigurationSerializerForTests.create(cellPathResolver))
+              .setUnconfiguredBuildTargetFactory(
+                  target ->
+                      new ParsingUnconfiguredBuildTargetViewFactory()
+                          .create(cellPathResolver, target))
+              .setProjectFilesystem(filesystem)
+              .setBuckEventBus(eventBus)
+              .setHttpWriteExecutorService(executor)
+              .setHttpFetchExecutorService(executor)
+              .setErrorTextTemplate("{cache_name} failed: {error_message}")
+              .setErrorTextLimit(100)
+              .build());
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class CacheState extends AbstractCacheState {
+    @Param({"dir", "sqlite", "http", "two_level", "multi"})
+    public String backend;
+
+    @Param({"1024", "65536", "1048576"})
+    public int artifactSize;
+
+    @Override
+    protected String getBackend() {
+      return backend;
+    }
+
+    @Override
+    protected int getArtifactSize() {
+      return artifactSize;
+    }
+  }
+
+  /** The backends that implement multiContains. */
+  @State(Scope.Benchmark)
+  public static class MultiContainsCacheState extends AbstractCacheState {
+    @Param({"dir", "http", "two_level", "multi"})
+    public String backend;
+
+    @Param({"1024", "65536", "1048576"})
+    public int artifactSize;
+
+    @Override
+    protected String getBackend() {
+      return backend;
+    }
+
+    @Override
+    protected int getArtifactSize() {
+      return artifactSize;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private Path outputPath;
+    private LazyPath output;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      outputPath = Files.createTempFile("artifact-cache-benchmark", ".output");
+      output = LazyPath.ofInstance(outputPath);
+      next = ThreadLocalRandom.current().nextInt(STORED_ARTIFACT_COUNT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(outputPath);
+    }
+
+    private int next() {
+      next = (next + 1) % STORED_ARTIFACT_COUNT;
+      return next;
+    }
+  }
+
+  @Benchmark
+  public CacheResult fetch(CacheState cacheState, ThreadState threadState) {
+    RuleKey ruleKey = cacheState.storedKeys.get(threadState.next());
+    return Futures.getUnchecked(cacheState.cache.fetchAsync(null, ruleKey, threadState.output));
+  }
+
+  @Benchmark
+  public void store(CacheState cacheState) {
+    Futures.getUnchecked(
+        cacheState.cache.store(
+            ArtifactInfo.builder().addRuleKeys(randomRuleKey()).build(),
+            BorrowablePath.notBorrowablePath(cacheState.artifact)));
+  }
+
+  @Benchmark
+  public ImmutableMap<RuleKey, CacheResult> multiContains(
+      MultiContainsCacheState cacheState, ThreadState threadState) {
+    ImmutableSet.Builder<RuleKey> ruleKeys = ImmutableSet.builder();
+    for (int i = 0; i < MULTI_CONTAINS_BATCH_SIZE / 2; i++) {
+      int index = threadState.next();
+      ruleKeys.add(cacheState.storedKeys.get(index));
+      ruleKeys.add(cacheState.missingKeys.get(index));
+    }
+    return Futures.getUnchecked(cacheState.cache.multiContainsAsync(ruleKeys.build()));
+  }
+
+  private static RuleKey randomRuleKey() {
+    byte[] bytes = new byte[20];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    return new RuleKey(HashCode.fromBytes(bytes));
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    for (int threads : THREAD_COUNTS) {
+      Options options =
+          new OptionsBuilder()
+              .parent(commandLineOptions)
+              .include(ArtifactCacheBenchmark.class.getName())
+              .threads(threads)
+              .resultFormat(ResultFormatType.JSON)
+              .result(String.format("artifact-cache-benchmark-%d-threads.json", threads))
+              .build();
+      new Runner(options).run();
+    }
+  }
+}
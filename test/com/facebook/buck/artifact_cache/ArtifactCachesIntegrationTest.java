@@ -678,7 +678,11 @@ public class ArtifactCachesIntegrationTest {
         managerScope,
         "test://",
         "myhostname",
-        clientCertificateHandler);
+        clientCertificateHandler,
+        new MemoryArtifactCacheStore(
+            cacheConfig.getMemoryCacheMaxSizeBytes(),
+            cacheConfig.getMemoryCacheMaxArtifactSizeBytes()),
+        new NegativeLookupFilters());
   }
 
   class NotFoundHandler extends AbstractHandler {
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
@@ -24,16 +25,20 @@ import com.facebook.buck.core.cell.CellPathResolver;
 import com.facebook.buck.core.cell.TestCellPathResolver;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.event.FakeBuckEventListener;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
 import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.nio.file.Paths;
 import java.util.Optional;
@@ -253,6 +258,74 @@ public class ArtifactCachesTest {
     managerScope.close();
   }
 
+  @Test
+  public void testCreateMemoryTierInFrontOfOtherCaches() throws Exception {
+    ArtifactCacheBuckConfig cacheConfig =
+        ArtifactCacheBuckConfigTest.createFromText("[cache]", "mode = memory, dir, http");
+    ProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    BuckEventBus buckEventBus = BuckEventBusForTests.newInstance();
+    ArtifactCache artifactCache =
+        newArtifactCache(cacheConfig, projectFilesystem, buckEventBus, Optional.empty())
+            .newInstance();
+
+    assertThat(artifactCache, Matchers.instanceOf(TwoLevelArtifactCacheDecorator.class));
+    ArtifactCache memoryCache = ((TwoLevelArtifactCacheDecorator) artifactCache).getDelegate();
+    assertThat(memoryCache, Matchers.instanceOf(MemoryArtifactCacheDecorator.class));
+    assertThat(
+        ((MemoryArtifactCacheDecorator) memoryCache).getDelegate(),
+        Matchers.instanceOf(MultiArtifactCache.class));
+    artifactCache.close();
+    managerScope.close();
+  }
+
+  @Test
+  public void testCreateRemoteCacheOnlySkipsMemoryTier() throws Exception {
+    ArtifactCacheBuckConfig cacheConfig =
+        ArtifactCacheBuckConfigTest.createFromText("[cache]", "mode = memory, dir, http");
+    ProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    BuckEventBus buckEventBus = BuckEventBusForTests.newInstance();
+    ArtifactCache artifactCache =
+        newArtifactCache(cacheConfig, projectFilesystem, buckEventBus, Optional.empty())
+            .remoteOnlyInstance(false, false);
+    assertThat(stripDecorators(artifactCache), Matchers.instanceOf(HttpArtifactCache.class));
+    artifactCache.close();
+    managerScope.close();
+  }
+
+  @Test
+  public void testCloseReportsMemoryTierStatisticsOfTheCommand() throws Exception {
+    ArtifactCacheBuckConfig cacheConfig =
+        ArtifactCacheBuckConfigTest.createFromText("[cache]", "mode = memory, dir");
+    ProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    BuckEventBus buckEventBus = BuckEventBusForTests.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    buckEventBus.register(listener);
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(10, 10);
+    RuleKey first = new RuleKey("aaaa");
+    RuleKey second = new RuleKey("bbbb");
+    MemoryArtifactCacheStore.Entry entry =
+        new MemoryArtifactCacheStore.Entry(ImmutableMap.of(), new byte[6]);
+    // Activity from an earlier command is not reported.
+    store.put(first, entry);
+    store.get(first);
+
+    ArtifactCaches artifactCaches =
+        newArtifactCache(cacheConfig, projectFilesystem, buckEventBus, Optional.empty(), store);
+    store.get(first);
+    store.get(second);
+    store.put(second, entry);
+    artifactCaches.close();
+
+    MemoryArtifactCacheSummaryEvent summary =
+        Iterables.getOnlyElement(
+            Iterables.filter(listener.getEvents(), MemoryArtifactCacheSummaryEvent.class));
+    assertEquals(1, summary.getHitCount());
+    assertEquals(1, summary.getMissCount());
+    assertEquals(1, summary.getEvictionCount());
+    assertEquals(1, summary.getEntryCount());
+    managerScope.close();
+  }
+
   private static ArtifactCache stripDecorators(ArtifactCache artifactCache) {
     if (artifactCache instanceof LoggingArtifactCacheDecorator) {
       LoggingArtifactCacheDecorator cacheDecorator = (LoggingArtifactCacheDecorator) artifactCache;
@@ -275,6 +348,22 @@ public class ArtifactCachesTest {
       ProjectFilesystem projectFilesystem,
       BuckEventBus buckEventBus,
       Optional<String> wifiSsid) {
+    return newArtifactCache(
+        cacheConfig,
+        projectFilesystem,
+        buckEventBus,
+        wifiSsid,
+        new MemoryArtifactCacheStore(
+            cacheConfig.getMemoryCacheMaxSizeBytes(),
+            cacheConfig.getMemoryCacheMaxArtifactSizeBytes()));
+  }
+
+  private ArtifactCaches newArtifactCache(
+      ArtifactCacheBuckConfig cacheConfig,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      Optional<String> wifiSsid,
+      MemoryArtifactCacheStore memoryCacheStore) {
     CellPathResolver cellPathResolver = TestCellPathResolver.get(projectFilesystem);
     return new ArtifactCaches(
         cacheConfig,
@@ -290,6 +379,8 @@ public class ArtifactCachesTest {
         managerScope,
         "test://",
         "hostname",
-        ClientCertificateHandler.fromConfiguration(cacheConfig));
+        ClientCertificateHandler.fromConfiguration(cacheConfig),
+        memoryCacheStore,
+        new NegativeLookupFilters());
   }
 }
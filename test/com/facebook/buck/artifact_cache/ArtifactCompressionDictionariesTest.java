@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.github.luben.zstd.Zstd;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ArtifactCompressionDictionariesTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey RULE_KEY = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+  private ProjectFilesystem filesystem;
+  private byte[] trainedDictionary;
+  private ArtifactCompressionDictionary dictionary;
+  private ArtifactCompressionDictionaries dictionaries;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    byte[][] samples = new byte[1000][];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = sampleContent(i);
+    }
+    byte[] buffer = new byte[16 * 1024];
+    trainedDictionary = Arrays.copyOf(buffer, (int) Zstd.trainFromBuffer(samples, buffer));
+    dictionary = new ArtifactCompressionDictionary("java_library", trainedDictionary);
+    dictionaries = new ArtifactCompressionDictionaries(ImmutableMap.of("java_library", dictionary));
+  }
+
+  @Test
+  public void dictionaryCompressedArtifactsAreSmallerAndReadable() throws IOException {
+    Path file = filesystem.getPath("file");
+    byte[] content = sampleContent(5000);
+    filesystem.writeBytesToPath(content, file);
+
+    Path plain = tmp.getRoot().resolve("plain.tar.zst");
+    Path compressed = tmp.getRoot().resolve("compressed.tar.zst");
+    ArtifactUploader.compress(filesystem, ImmutableList.of(file), plain, Optional.empty());
+    long uncompressedSize =
+        ArtifactUploader.compress(
+            filesystem, ImmutableList.of(file), compressed, Optional.of(dictionary));
+
+    assertTrue(uncompressedSize > content.length);
+    assertTrue(Files.size(compressed) < Files.size(plain));
+    ImmutableMap<String, String> metadata =
+        ImmutableMap.of(ArtifactCompressionDictionaries.METADATA_KEY, "" + dictionary.getId());
+    assertArrayEquals(content, readOnlyEntry(metadata, compressed));
+    assertArrayEquals(content, readOnlyEntry(ImmutableMap.of(), plain));
+  }
+
+  @Test(expected = IOException.class)
+  public void artifactsCompressedWithUnknownDictionariesAreRejected() throws IOException {
+    Path file = filesystem.getPath("file");
+    filesystem.writeBytesToPath(sampleContent(1), file);
+    Path compressed = tmp.getRoot().resolve("compressed.tar.zst");
+    ArtifactUploader.compress(
+        filesystem, ImmutableList.of(file), compressed, Optional.of(dictionary));
+
+    readOnlyEntry(
+        ImmutableMap.of(ArtifactCompressionDictionaries.METADATA_KEY, "" + dictionary.getId()),
+        compressed,
+        ArtifactCompressionDictionaries.empty());
+  }
+
+  @Test
+  public void uploadsRecordTheirDictionaryInMetadata() throws IOException {
+    Path file = filesystem.getPath("file");
+    filesystem.writeBytesToPath(sampleContent(1), file);
+    List<ArtifactInfo> stored = new ArrayList<>();
+    ArtifactCache cache =
+        new NoopArtifactCache() {
+          @Override
+          public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+            stored.add(info);
+            return Futures.immediateFuture(null);
+          }
+        };
+    ImmutableMap<String, String> metadata =
+        ImmutableMap.of("key", "value", ArtifactCompressionDictionaries.METADATA_KEY, "1234");
+
+    ImmutableList<Optional<ArtifactCompressionDictionary>> compressionDictionaries =
+        ImmutableList.of(Optional.of(dictionary), Optional.empty());
+    for (Optional<ArtifactCompressionDictionary> compressionDictionary : compressionDictionaries) {
+      ArtifactUploader.performUploadToArtifactCache(
+          ImmutableSet.of(RULE_KEY),
+          cache,
+          BuckEventBusForTests.newInstance(),
+          metadata,
+          ImmutableSortedSet.of(file),
+          BuildTargetFactory.newInstance("//foo:bar"),
+          filesystem,
+          1000,
+          compressionDictionary);
+    }
+
+    assertEquals(ImmutableSet.of(RULE_KEY), stored.get(0).getRuleKeys());
+    assertEquals(
+        ImmutableMap.of(
+            "key", "value", ArtifactCompressionDictionaries.METADATA_KEY, "" + dictionary.getId()),
+        stored.get(0).getMetadata());
+    // A dictionary recorded in the metadata of a fetched artifact doesn't carry over.
+    assertEquals(ImmutableSet.of(RULE_KEY), stored.get(1).getRuleKeys());
+    assertEquals(ImmutableMap.of("key", "value"), stored.get(1).getMetadata());
+  }
+
+  @Test
+  public void onlyArtifactsWithKnownOrNoDictionariesCanBeDecompressed() {
+    ImmutableMap<String, String> withDictionary =
+        ImmutableMap.of(ArtifactCompressionDictionaries.METADATA_KEY, "" + dictionary.getId());
+
+    assertTrue(dictionaries.canDecompress(withDictionary));
+    assertTrue(dictionaries.canDecompress(ImmutableMap.of()));
+    assertFalse(ArtifactCompressionDictionaries.empty().canDecompress(withDictionary));
+    assertTrue(ArtifactCompressionDictionaries.empty().canDecompress(ImmutableMap.of()));
+  }
+
+  @Test
+  public void loadsDictionariesNamedAfterRuleTypes() throws IOException {
+    Path directory = tmp.newFolder("dictionaries");
+    Files.write(directory.resolve("java_library.dict"), trainedDictionary);
+    Files.write(directory.resolve("genrule.dict"), "not a dictionary".getBytes());
+    Files.write(directory.resolve("README"), "not a dictionary either".getBytes());
+
+    ArtifactCompressionDictionaries loaded = ArtifactCompressionDictionaries.load(directory);
+
+    assertEquals(dictionary.getId(), loaded.getForRuleType("java_library").get().getId());
+    assertFalse(loaded.getForRuleType("genrule").isPresent());
+  }
+
+  private byte[] readOnlyEntry(ImmutableMap<String, String> metadata, Path archive)
+      throws IOException {
+    return readOnlyEntry(metadata, archive, dictionaries);
+  }
+
+  private static byte[] readOnlyEntry(
+      ImmutableMap<String, String> metadata,
+      Path archive,
+      ArtifactCompressionDictionaries dictionaries)
+      throws IOException {
+    try (InputStream in = Files.newInputStream(archive);
+        TarArchiveInputStream tar =
+            new TarArchiveInputStream(dictionaries.newDecompressingStream(metadata, in))) {
+      tar.getNextTarEntry();
+      return ByteStreams.toByteArray(tar);
+    }
+  }
+
+  private static byte[] sampleContent(int seed) {
+    StringBuilder content = new StringBuilder();
+    content.append("package com.example.generated;\n\n");
+    content.append(String.format("public class Generated%d {\n", seed));
+    for (int i = 0; i < 5; i++) {
+      content.append(
+          String.format(
+              "  private final String field%d = \"value%d\";\n", (seed + i) % 7, seed * i));
+    }
+    content.append("  @Override\n  public String toString() {\n    return getClass().getName();");
+    content.append("\n  }\n}\n");
+    return content.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
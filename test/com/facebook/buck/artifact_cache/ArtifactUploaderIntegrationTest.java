@@ -54,7 +54,8 @@ public class ArtifactUploaderIntegrationTest {
         ImmutableSortedSet.of(),
         BUILD_TARGET,
         new FakeProjectFilesystem(),
-        1000);
+        1000,
+        Optional.empty());
 
     assertTrue(
         cacheDir
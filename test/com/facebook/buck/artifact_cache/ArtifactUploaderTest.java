@@ -44,6 +44,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -130,7 +131,8 @@ public class ArtifactUploaderTest {
         ImmutableSortedSet.of(dir, file, dirFile, metadataFile),
         BUILD_TARGET,
         filesystem,
-        1000);
+        1000,
+        Optional.empty());
 
     assertTrue(stored.get());
   }
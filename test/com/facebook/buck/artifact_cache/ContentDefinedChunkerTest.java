@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class ContentDefinedChunkerTest {
+
+  private final ContentDefinedChunker chunker = new ContentDefinedChunker(64, 256, 1024);
+
+  @Test
+  public void chunksAddUpToTheInput() throws IOException {
+    byte[] data = randomBytes(100_000, 1);
+    List<byte[]> chunks = split(data);
+
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    for (byte[] chunk : chunks) {
+      assertTrue(chunk.length <= 1024);
+      joined.write(chunk);
+    }
+    assertArrayEquals(data, joined.toByteArray());
+    for (byte[] chunk : chunks.subList(0, chunks.size() - 1)) {
+      assertTrue(chunk.length >= 64);
+    }
+  }
+
+  @Test
+  public void boundariesFollowTheContentAfterAnInsertion() throws IOException {
+    byte[] data = randomBytes(100_000, 2);
+    byte[] edited = new byte[data.length + 10];
+    System.arraycopy(data, 0, edited, 10, data.length);
+
+    Set<String> originalChunks = new HashSet<>();
+    for (byte[] chunk : split(data)) {
+      originalChunks.add(Arrays.toString(chunk));
+    }
+    List<byte[]> editedChunks = split(edited);
+    int sharedChunks = 0;
+    for (byte[] chunk : editedChunks) {
+      if (originalChunks.contains(Arrays.toString(chunk))) {
+        sharedChunks++;
+      }
+    }
+
+    // Only the chunks around the insertion differ.
+    assertTrue(sharedChunks >= editedChunks.size() - 2);
+  }
+
+  @Test
+  public void cutsChunksAtTheMaximumSize() throws IOException {
+    List<byte[]> chunks = split(new byte[2500]);
+
+    assertEquals(3, chunks.size());
+    assertEquals(1024, chunks.get(0).length);
+    assertEquals(452, chunks.get(2).length);
+  }
+
+  private List<byte[]> split(byte[] data) throws IOException {
+    List<byte[]> chunks = new ArrayList<>();
+    chunker.split(
+        new ByteArrayInputStream(data),
+        (buffer, length) -> chunks.add(Arrays.copyOf(buffer, length)));
+    return chunks;
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DeduplicatingArtifactCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey RULE_KEY = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey OTHER_RULE_KEY =
+      new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final ImmutableMap<String, String> METADATA = ImmutableMap.of("key", "value");
+
+  private final ContentDefinedChunker chunker = new ContentDefinedChunker(64, 256, 1024);
+  private ProjectFilesystem filesystem;
+  private InMemoryArtifactCache delegate;
+  private DeduplicatingArtifactCacheDecorator cache;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    delegate = new InMemoryArtifactCache();
+    cache =
+        new DeduplicatingArtifactCacheDecorator(
+            delegate, filesystem, Optional.empty(), chunker, 1024);
+  }
+
+  @Test
+  public void storedArtifactsAreReassembled() throws IOException {
+    byte[] data = randomBytes(20_000, 1);
+    store(RULE_KEY, data);
+
+    assertTrue(delegate.getArtifactCount() > 2);
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(METADATA, result.getMetadata());
+    assertEquals(data.length, result.getArtifactSizeBytes());
+    assertArrayEquals(data, Files.readAllBytes(output.get()));
+  }
+
+  @Test
+  public void streamedArtifactsAreReassembled() throws IOException {
+    byte[] data = randomBytes(20_000, 2);
+    store(RULE_KEY, data);
+
+    FakeArtifactSink sink = new FakeArtifactSink();
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output, sink));
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(METADATA, result.getMetadata());
+    assertArrayEquals(data, sink.getPayload().get());
+    assertFalse(Files.exists(output.get()));
+  }
+
+  @Test
+  public void similarArtifactsShareChunks() throws IOException {
+    byte[] data = randomBytes(20_000, 3);
+    store(RULE_KEY, data);
+    int artifactCount = delegate.getArtifactCount();
+
+    byte[] edited = data.clone();
+    edited[10_000]++;
+    store(OTHER_RULE_KEY, edited);
+
+    // The chunk list and the few chunks around the edit are all that is added.
+    assertTrue(delegate.getArtifactCount() - artifactCount <= 4);
+    assertTrue(cache.getDeduplicationRatio() > 1.5);
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    Futures.getUnchecked(cache.fetchAsync(null, OTHER_RULE_KEY, output));
+    assertArrayEquals(edited, Files.readAllBytes(output.get()));
+  }
+
+  @Test
+  public void compressedArtifactsAreChunkedByTheirContents() throws IOException {
+    // Compressible, so that an edit changes the compressed bytes after it.
+    byte[] data = new byte[40_000];
+    Random random = new Random(7);
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('a' + random.nextInt(4));
+    }
+    store(RULE_KEY, compress(data));
+    int artifactCount = delegate.getArtifactCount();
+
+    byte[] edited = data.clone();
+    edited[20_000]++;
+    store(OTHER_RULE_KEY, compress(edited));
+
+    assertTrue(delegate.getArtifactCount() - artifactCount <= 4);
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    Futures.getUnchecked(cache.fetchAsync(null, OTHER_RULE_KEY, output));
+    try (InputStream in = new ZstdCompressorInputStream(Files.newInputStream(output.get()))) {
+      assertArrayEquals(edited, ByteStreams.toByteArray(in));
+    }
+  }
+
+  @Test
+  public void smallArtifactsAreStoredWhole() throws IOException {
+    byte[] data = randomBytes(100, 4);
+    store(RULE_KEY, data);
+
+    assertEquals(1, delegate.getArtifactCount());
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    CacheResult result = Futures.getUnchecked(delegate.fetchAsync(null, RULE_KEY, output));
+    assertEquals(METADATA, result.getMetadata());
+    assertArrayEquals(data, Files.readAllBytes(output.get()));
+  }
+
+  @Test
+  public void missingChunksAreMisses() throws IOException {
+    byte[] data = randomBytes(20_000, 5);
+    store(RULE_KEY, data);
+    List<RuleKey> chunkKeys = new ArrayList<>();
+    chunker.split(
+        new ByteArrayInputStream(data),
+        (buffer, length) ->
+            chunkKeys.add(new RuleKey(Hashing.sha1().hashBytes(buffer, 0, length) + "cdc0")));
+    delegate.deleteAsync(ImmutableList.of(chunkKeys.get(chunkKeys.size() / 2)));
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+
+    assertEquals(CacheResultType.MISS, result.getType());
+  }
+
+  @Test
+  public void chunksAreStoredInTheDirCache() throws IOException {
+    cache =
+        new DeduplicatingArtifactCacheDecorator(
+            new DirArtifactCache(
+                "dir",
+                filesystem,
+                filesystem.getPath("cache"),
+                CacheReadMode.READWRITE,
+                Optional.empty(),
+                MoreExecutors.newDirectExecutorService()),
+            filesystem,
+            Optional.empty(),
+            chunker,
+            1024);
+    byte[] data = randomBytes(20_000, 6);
+    store(RULE_KEY, data);
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+
+    assertEquals(METADATA, result.getMetadata());
+    assertArrayEquals(data, Files.readAllBytes(output.get()));
+  }
+
+  private void store(RuleKey ruleKey, byte[] data) throws IOException {
+    Path artifact = tmp.newFile();
+    Files.write(artifact, data);
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(METADATA).build(),
+            BorrowablePath.notBorrowablePath(artifact)));
+  }
+
+  private static byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream out = new ZstdCompressorOutputStream(compressed)) {
+      out.write(data);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+}
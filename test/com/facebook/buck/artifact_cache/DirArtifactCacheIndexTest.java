@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DirArtifactCacheIndexTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = tmpDir.newFolder();
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedFirst() throws IOException {
+    Path a = root.resolve("a");
+    Path b = root.resolve("b");
+    Path c = root.resolve("c");
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(root, noFiles())) {
+      index.recordStore(a, 10);
+      index.recordStore(b, 10);
+      index.recordStore(c, 10);
+      index.recordAccess(a);
+
+      assertEquals(30, index.getTotalSizeBytes());
+      assertEquals(ImmutableList.of(), index.selectForEviction(30, 0));
+      assertEquals(ImmutableList.of(b, c), index.selectForEviction(25, 10));
+      // Selected files stay in the index until their removal is recorded.
+      assertEquals(30, index.getTotalSizeBytes());
+      index.recordRemovals(ImmutableList.of(b, c));
+      assertEquals(ImmutableList.of(a), index.getEntriesLeastRecentlyUsedFirst());
+      assertEquals(10, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void stateSurvivesReopening() throws IOException {
+    Path a = root.resolve("a");
+    Path b = root.resolve("b");
+    Path c = root.resolve("c");
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(root, noFiles())) {
+      index.recordStore(a, 1);
+      index.recordStore(b, 2);
+      index.recordStore(c, 4);
+      index.recordRemoval(b);
+      index.recordAccess(a);
+    }
+
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(root, failIfScanned())) {
+      assertEquals(ImmutableList.of(c, a), index.getEntriesLeastRecentlyUsedFirst());
+      assertEquals(5, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void buildsIndexFromExistingCacheContents() throws IOException {
+    Path old = root.resolve("old");
+    Path recent = root.resolve("recent");
+    Files.write(old, "old".getBytes(UTF_8));
+    Files.write(recent, "recent".getBytes(UTF_8));
+    Files.setAttribute(old, "lastAccessTime", FileTime.fromMillis(0));
+    Files.setAttribute(recent, "lastAccessTime", FileTime.fromMillis(1000));
+
+    try (DirArtifactCacheIndex index =
+        DirArtifactCacheIndex.open(root, () -> ImmutableList.of(recent, old))) {
+      assertEquals(ImmutableList.of(old, recent), index.getEntriesLeastRecentlyUsedFirst());
+      assertEquals(9, index.getTotalSizeBytes());
+    }
+    assertTrue(Files.exists(root.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME)));
+  }
+
+  @Test
+  public void truncatedRecordIsDropped() throws IOException {
+    Path a = root.resolve("a");
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(root, noFiles())) {
+      index.recordStore(a, 1);
+    }
+    // Simulate a crash half way through writing a record.
+    Files.write(
+        root.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME),
+        new byte[] {'P', 0, 5, 'b'},
+        StandardOpenOption.APPEND);
+
+    try (DirArtifactCacheIndex index = DirArtifactCacheIndex.open(root, failIfScanned())) {
+      assertEquals(ImmutableList.of(a), index.getEntriesLeastRecentlyUsedFirst());
+    }
+  }
+
+  @Test
+  public void corruptIndexIsRebuilt() throws IOException {
+    Path a = root.resolve("a");
+    Files.write(a, "a".getBytes(UTF_8));
+    Files.write(root.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME), "garbage".getBytes(UTF_8));
+
+    try (DirArtifactCacheIndex index =
+        DirArtifactCacheIndex.open(root, () -> ImmutableList.of(a))) {
+      assertEquals(ImmutableList.of(a), index.getEntriesLeastRecentlyUsedFirst());
+      assertEquals(1, index.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void indexesSharingACacheSeeEachOthersChanges() throws IOException {
+    Path a = root.resolve("a");
+    Path b = root.resolve("b");
+    Path c = root.resolve("c");
+    try (DirArtifactCacheIndex first = DirArtifactCacheIndex.open(root, noFiles());
+        DirArtifactCacheIndex second = DirArtifactCacheIndex.open(root, failIfScanned())) {
+      first.recordStore(a, 10);
+      second.recordStore(b, 10);
+      first.recordStore(c, 10);
+
+      // The second index learns about the files stored by the first before evicting.
+      assertEquals(ImmutableList.of(a), second.selectForEviction(25, 20));
+      second.recordRemovals(ImmutableList.of(a));
+      first.recordRemoval(b);
+      assertEquals(ImmutableList.of(c), first.getEntriesLeastRecentlyUsedFirst());
+      assertEquals(ImmutableList.of(c), second.selectForEviction(5, 0));
+      second.recordRemovals(ImmutableList.of(c));
+      assertEquals(ImmutableList.of(), first.selectForEviction(5, 0));
+      assertEquals(0, first.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void compactedLogIsReplayedByOtherIndexes() throws IOException {
+    try (DirArtifactCacheIndex first = DirArtifactCacheIndex.open(root, noFiles());
+        DirArtifactCacheIndex second = DirArtifactCacheIndex.open(root, failIfScanned())) {
+      Path a = root.resolve("a");
+      // Enough records about a single file to get the log compacted.
+      for (int i = 0; i < 20_000; i++) {
+        first.recordStore(a, i);
+      }
+      // All 20,000 records would take 240,000 bytes.
+      assertTrue(Files.size(root.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME)) < 150_000);
+
+      Path b = root.resolve("b");
+      second.recordStore(b, 1);
+      assertEquals(ImmutableList.of(a, b), second.getEntriesLeastRecentlyUsedFirst());
+      assertEquals(20_000, second.getTotalSizeBytes());
+    }
+  }
+
+  @Test
+  public void recognizesIndexFiles() {
+    assertTrue(
+        DirArtifactCacheIndex.isIndexFile(root, root.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME)));
+    assertTrue(
+        DirArtifactCacheIndex.isIndexFile(
+            root, root.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME + ".tmp")));
+    assertFalse(
+        DirArtifactCacheIndex.isIndexFile(
+            root, root.resolve("ab").resolve(DirArtifactCacheIndex.INDEX_FILE_NAME)));
+  }
+
+  private static Supplier<List<Path>> noFiles() {
+    return ImmutableList::of;
+  }
+
+  private static Supplier<List<Path>> failIfScanned() {
+    return () -> {
+      throw new AssertionError("Cache directory should not be scanned");
+    };
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.artifact_cache;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
@@ -56,6 +57,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.List;
 import java.util.Optional;
@@ -152,6 +154,38 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleX, new BuildRuleForTest(fileX));
   }
 
+  @Test
+  public void testCacheFetchStreamsArtifactToSink() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Path output = tmpDir.getRoot().resolve("output");
+
+    dirArtifactCache = newDirArtifactCache(Optional.empty(), CacheReadMode.READWRITE);
+
+    Files.write(fileX, "x".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("00000000000000000000000000000000");
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).putMetadata("key", "value").build(),
+        BorrowablePath.notBorrowablePath(fileX));
+
+    FakeArtifactSink sink = new FakeArtifactSink();
+    CacheResult result =
+        Futures.getUnchecked(
+            dirArtifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(output), sink));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableMap.of("key", "value"), result.getMetadata());
+    assertEquals(Optional.of(1L), result.artifactSizeBytes());
+    assertArrayEquals("x".getBytes(UTF_8), sink.getPayload().get());
+    assertFalse(Files.exists(output));
+
+    // A sink that declines the payload gets the artifact copied out as usual.
+    result =
+        Futures.getUnchecked(
+            dirArtifactCache.fetchAsync(
+                null, ruleKeyX, LazyPath.ofInstance(output), new FakeArtifactSink(false)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals("x", new String(Files.readAllBytes(output), UTF_8));
+  }
+
   @Test
   public void testCacheContainsMiss() throws IOException {
     Path fileX = tmpDir.newFile("x");
@@ -826,6 +860,102 @@ public class DirArtifactCacheTest {
             .getType());
   }
 
+  @Test
+  public void testIndexedCacheEvictsLeastRecentlyUsed() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Path fileY = tmpDir.newFile("y");
+    Path fileZ = tmpDir.newFile("z");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+    Files.write(fileZ, "z".getBytes(UTF_8));
+
+    RuleKey ruleKeyX = new RuleKey("aaaa");
+    RuleKey ruleKeyY = new RuleKey("bbbb");
+    RuleKey ruleKeyZ = new RuleKey("cccc");
+
+    // Same sizing as testDeleteAfterStoreIfFull, but recency comes from the index rather than
+    // from file access times.
+    dirArtifactCache = newIndexedDirArtifactCache(/* maxCacheSizeBytes */ Optional.of(9L));
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(fileY));
+
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(fileX)))
+            .getType());
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyY, LazyPath.ofInstance(fileY)))
+            .getType());
+    dirArtifactCache.close();
+
+    // Reopening the cache picks up the existing index instead of scanning the directory.
+    dirArtifactCache = newIndexedDirArtifactCache(/* maxCacheSizeBytes */ Optional.of(9L));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyZ).build(),
+        BorrowablePath.notBorrowablePath(fileZ));
+
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyY, LazyPath.ofInstance(fileY)))
+            .getType());
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyZ, LazyPath.ofInstance(fileZ)))
+            .getType());
+    assertFalse(
+        dirArtifactCache
+            .getAllFilesInCache()
+            .contains(cacheDir.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME)));
+    assertTrue(Files.exists(cacheDir.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME)));
+  }
+
+  @Test
+  public void testIndexIsBuiltFromExistingCache() throws IOException {
+    Path fileW = cacheDir.resolve("11").resolve("11").resolve("w");
+    Path fileX = cacheDir.resolve("22").resolve("22").resolve("x");
+    Files.createDirectories(fileW.getParent());
+    Files.createDirectories(fileX.getParent());
+    Files.write(fileW, "w".getBytes(UTF_8));
+    Files.write(fileX, "xxx".getBytes(UTF_8));
+    Files.setAttribute(fileW, "lastAccessTime", FileTime.fromMillis(9000));
+    Files.setAttribute(fileX, "lastAccessTime", FileTime.fromMillis(0));
+
+    dirArtifactCache = newIndexedDirArtifactCache(Optional.of(3L));
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(ImmutableList.of(fileW), dirArtifactCache.getAllFilesInCache());
+  }
+
+  @Test
+  public void testContainsHitsCountAsAccesses() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, "x".getBytes(UTF_8));
+    RuleKey ruleKeyX = new RuleKey("aaaa");
+
+    dirArtifactCache = newDirArtifactCache(Optional.of(1024L), CacheReadMode.READWRITE);
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    Path artifactPath = dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.empty());
+    Files.setAttribute(artifactPath, "lastAccessTime", FileTime.fromMillis(0));
+
+    Futures.getUnchecked(dirArtifactCache.multiContainsAsync(ImmutableSet.of(ruleKeyX)));
+
+    assertTrue(
+        Files.readAttributes(artifactPath, BasicFileAttributes.class).lastAccessTime().toMillis()
+            > 0);
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException {
     Path fileX = tmpDir.newFile("x");
@@ -910,6 +1040,18 @@ public class DirArtifactCacheTest {
     }
   }
 
+  private DirArtifactCache newIndexedDirArtifactCache(Optional<Long> maxCacheSizeBytes)
+      throws IOException {
+    return new DirArtifactCache(
+        "dir",
+        projectFilesystem,
+        cacheDir,
+        CacheReadMode.READWRITE,
+        maxCacheSizeBytes,
+        MoreExecutors.newDirectExecutorService(),
+        /* indexEnabled */ true);
+  }
+
   private DirArtifactCache newDirArtifactCache(
       Optional<Long> maxCacheSizeBytes, CacheReadMode cacheReadMode) throws IOException {
     return new DirArtifactCache(
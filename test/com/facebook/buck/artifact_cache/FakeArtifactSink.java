@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/** {@link ArtifactSink} that keeps the last payload it accepted in memory. */
+public class FakeArtifactSink implements ArtifactSink {
+  private final boolean acceptPayloads;
+  @Nullable private byte[] payload;
+  private int acceptCount;
+  private int discardCount;
+
+  public FakeArtifactSink() {
+    this(true);
+  }
+
+  public FakeArtifactSink(boolean acceptPayloads) {
+    this.acceptPayloads = acceptPayloads;
+  }
+
+  @Override
+  public boolean accept(ImmutableMap<String, String> metadata, InputStream payload)
+      throws IOException {
+    if (!acceptPayloads) {
+      return false;
+    }
+    acceptCount++;
+    this.payload = ByteStreams.toByteArray(payload);
+    return true;
+  }
+
+  @Override
+  public void discard() {
+    discardCount++;
+    payload = null;
+  }
+
+  public Optional<byte[]> getPayload() {
+    return Optional.ofNullable(payload);
+  }
+
+  public int getAcceptCount() {
+    return acceptCount;
+  }
+
+  public int getDiscardCount() {
+    return discardCount;
+  }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -32,6 +33,8 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -244,4 +247,78 @@ public class HttpArtifactCacheBinaryProtocolTest {
     byte[] expectedBytes = BaseEncoding.base64().decode(base64EncodedData);
     assertThat(byteArrayOutputStream.toByteArray(), Matchers.equalTo(expectedBytes));
   }
+
+  @Test
+  public void testMultiContainsRequestAndResponse() throws IOException {
+    ImmutableSet<RuleKey> ruleKeys =
+        ImmutableSet.of(
+            new RuleKey("00000000010000000000008000000000"),
+            new RuleKey("90000000000000000000008000000005"));
+
+    byte[] request = HttpArtifactCacheBinaryProtocol.createMultiContainsRequest(ruleKeys);
+    assertThat(
+        HttpArtifactCacheBinaryProtocol.readMultiContainsRequest(
+            new DataInputStream(new ByteArrayInputStream(request))),
+        Matchers.contains(ruleKeys.toArray()));
+
+    byte[] response =
+        HttpArtifactCacheBinaryProtocol.createMultiContainsResponse(ImmutableList.of(true, false));
+    assertThat(
+        HttpArtifactCacheBinaryProtocol.readMultiContainsResponse(
+            new DataInputStream(new ByteArrayInputStream(response))),
+        Matchers.contains(true, false));
+  }
+
+  @Test
+  public void testMultiStoreRequestAndResponse() throws IOException {
+    RuleKey ruleKey = new RuleKey("00000000010000000000008000000000");
+    RuleKey ruleKey2 = new RuleKey("90000000000000000000008000000005");
+    ImmutableList<String> data = ImmutableList.of("data", "other data");
+
+    HttpArtifactCacheBinaryProtocol.MultiStoreRequest multiStoreRequest =
+        new HttpArtifactCacheBinaryProtocol.MultiStoreRequest(
+            ImmutableList.of(
+                new HttpArtifactCacheBinaryProtocol.StoreRequest(
+                    ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+                    ByteSource.wrap(data.get(0).getBytes(Charsets.UTF_8))),
+                new HttpArtifactCacheBinaryProtocol.StoreRequest(
+                    ArtifactInfo.builder()
+                        .addRuleKeys(ruleKey2)
+                        .setMetadata(ImmutableMap.of("metaKey", "metaValue"))
+                        .build(),
+                    ByteSource.wrap(data.get(1).getBytes(Charsets.UTF_8)))));
+
+    ByteArrayOutputStream requestOutputStream = new ByteArrayOutputStream();
+    ImmutableList<StoreWriteResult> writeResults = multiStoreRequest.write(requestOutputStream);
+    assertThat(writeResults, Matchers.hasSize(2));
+    assertThat(
+        (long) requestOutputStream.size(), Matchers.equalTo(multiStoreRequest.getContentLength()));
+
+    List<StoreResponseReadResult> readResults = new ArrayList<>();
+    List<String> payloads = new ArrayList<>();
+    HttpArtifactCacheBinaryProtocol.readMultiStoreRequest(
+        new DataInputStream(new ByteArrayInputStream(requestOutputStream.toByteArray())),
+        storeRequest -> {
+          ByteArrayOutputStream payload = new ByteArrayOutputStream();
+          readResults.add(HttpArtifactCacheBinaryProtocol.readStoreRequest(storeRequest, payload));
+          payloads.add(new String(payload.toByteArray(), Charsets.UTF_8));
+        });
+
+    assertThat(payloads, Matchers.equalTo(data));
+    assertThat(readResults.get(0).getRuleKeys(), Matchers.contains(ruleKey));
+    assertThat(readResults.get(1).getRuleKeys(), Matchers.contains(ruleKey2));
+    assertThat(
+        readResults.get(1).getMetadata(),
+        Matchers.equalTo(ImmutableMap.of("metaKey", "metaValue")));
+    assertThat(
+        readResults.get(1).getActualHashCode(),
+        Matchers.equalTo(readResults.get(1).getExpectedHashCode()));
+
+    byte[] response =
+        HttpArtifactCacheBinaryProtocol.createMultiStoreResponse(ImmutableList.of(false, true));
+    assertThat(
+        HttpArtifactCacheBinaryProtocol.readMultiStoreResponse(
+            new DataInputStream(new ByteArrayInputStream(response))),
+        Matchers.contains(false, true));
+  }
 }
@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -49,6 +50,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -191,6 +193,89 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchKnownMissIsAnsweredLocally() throws Exception {
+    List<String> requestedPaths = new ArrayList<>();
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              requestedPaths.add(path);
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .code(HttpURLConnection.HTTP_NOT_FOUND)
+                      .body(createDummyBody())
+                      .protocol(Protocol.HTTP_1_1)
+                      .request(requestBuilder.url(SERVER + path).build())
+                      .message("")
+                      .build());
+            }));
+    NegativeLookupFilter filter = new NegativeLookupFilter(10, 300);
+    argsBuilder.setNegativeLookupFilter(filter);
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    LazyPath output = LazyPath.ofInstance(Paths.get("output/file"));
+
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey, output)).getType());
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey, output)).getType());
+
+    assertEquals(1, requestedPaths.size());
+    assertTrue(filter.isKnownMiss(ruleKey));
+    cache.close();
+  }
+
+  @Test
+  public void testMultiContains() throws Exception {
+    RuleKey present = new RuleKey("00000000000000000000000000000000");
+    RuleKey missing = new RuleKey("90000000000000000000000000000000");
+    List<ImmutableSet<RuleKey>> requestedKeys = new ArrayList<>();
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              assertEquals("POST", request.method());
+              assertEquals("/artifacts/contains", path);
+              Buffer requestBody = new Buffer();
+              request.body().writeTo(requestBody);
+              ImmutableSet<RuleKey> keys =
+                  HttpArtifactCacheBinaryProtocol.readMultiContainsRequest(
+                      new DataInputStream(requestBody.inputStream()));
+              requestedKeys.add(keys);
+              ImmutableList<Boolean> containedKeys =
+                  keys.stream().map(present::equals).collect(ImmutableList.toImmutableList());
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          ResponseBody.create(
+                              OCTET_STREAM,
+                              HttpArtifactCacheBinaryProtocol.createMultiContainsResponse(
+                                  containedKeys)))
+                      .protocol(Protocol.HTTP_1_1)
+                      .request(request)
+                      .message("")
+                      .build());
+            }));
+    NegativeLookupFilter filter = new NegativeLookupFilter(10, 300);
+    argsBuilder.setNegativeLookupFilter(filter);
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(cache.multiContainsAsync(ImmutableSet.of(present, missing)));
+    assertEquals(CacheResultType.CONTAINS, results.get(present).getType());
+    assertEquals(CacheResultType.MISS, results.get(missing).getType());
+
+    // The missing key is remembered, so only the present one is checked again.
+    Futures.getUnchecked(cache.multiContainsAsync(ImmutableSet.of(present, missing)));
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(present, missing), ImmutableSet.of(present)),
+        requestedKeys);
+    cache.close();
+  }
+
   @Test
   public void testFetchOK() throws Exception {
     Path output = Paths.get("output/file");
@@ -230,6 +315,83 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchStreamsPayloadToSink() throws Exception {
+    Path output = Paths.get("output/file");
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    List<Response> responseList = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build();
+              responseList.add(response);
+              return new OkHttpResponseWrapper(response);
+            }));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    FakeArtifactSink sink = new FakeArtifactSink();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(output), sink));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertArrayEquals(data.getBytes(Charsets.UTF_8), sink.getPayload().get());
+    assertEquals(0, sink.getDiscardCount());
+    assertFalse(filesystem.exists(output));
+    assertTrue("response wasn't fully read!", responseList.get(0).body().source().exhausted());
+    cache.close();
+  }
+
+  @Test
+  public void testFetchFallsBackToOutputWhenSinkDeclines() throws Exception {
+    Path output = Paths.get("output/file");
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build());
+            }));
+
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(
+                null, ruleKey, LazyPath.ofInstance(output), new FakeArtifactSink(false)));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    cache.close();
+  }
+
   @Test
   public void testFetchUrl() {
     RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
@@ -330,6 +492,39 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchBadChecksumDiscardsStreamedPayload() throws Exception {
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(new byte[0]),
+                              "data"))
+                      .message("")
+                      .build());
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    FakeArtifactSink sink = new FakeArtifactSink();
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(Paths.get("output/file")), sink));
+    assertEquals(CacheResultType.ERROR, result.getType());
+    assertEquals(1, sink.getAcceptCount());
+    assertEquals(1, sink.getDiscardCount());
+    assertFalse(sink.getPayload().isPresent());
+    cache.close();
+  }
+
   @Test
   public void testFetchExtraPayload() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -456,6 +651,64 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testMultiStore() throws Exception {
+    RuleKey ruleKey1 = new RuleKey("00000000000000000000000000000000");
+    RuleKey ruleKey2 = new RuleKey("11111111111111111111111111111111");
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path output1 = Paths.get("output/file1");
+    Path output2 = Paths.get("output/file2");
+    filesystem.writeContentsToPath("data1", output1);
+    filesystem.writeContentsToPath("data2", output2);
+    List<RuleKey> storedRuleKeys = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setMultiStoreLimit(2);
+    argsBuilder.setStoreClient(
+        withMakeRequest(
+            ((path, requestBuilder) -> {
+              assertEquals("/artifacts/multi_store", path);
+              Request request = requestBuilder.url(SERVER).build();
+              Buffer buf = new Buffer();
+              request.body().writeTo(buf);
+              assertEquals(request.body().contentLength(), buf.size());
+
+              HttpArtifactCacheBinaryProtocol.readMultiStoreRequest(
+                  new DataInputStream(buf.inputStream()),
+                  storeRequest ->
+                      storedRuleKeys.addAll(
+                          HttpArtifactCacheBinaryProtocol.readStoreRequest(
+                                  storeRequest, ByteStreams.nullOutputStream())
+                              .getRuleKeys()));
+
+              Response response =
+                  new Response.Builder()
+                      .body(
+                          ResponseBody.create(
+                              OCTET_STREAM,
+                              HttpArtifactCacheBinaryProtocol.createMultiStoreResponse(
+                                  ImmutableList.of(true, false))))
+                      .code(HttpURLConnection.HTTP_OK)
+                      .protocol(Protocol.HTTP_1_1)
+                      .request(request)
+                      .message("")
+                      .build();
+              return new OkHttpResponseWrapper(response);
+            })));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    assertEquals(2, cache.getMultiStoreLimit());
+    ImmutableList<StoreResult> results =
+        cache
+            .multiStoreImpl(
+                ImmutableList.of(
+                    new Pair<>(ArtifactInfo.builder().addRuleKeys(ruleKey1).build(), output1),
+                    new Pair<>(ArtifactInfo.builder().addRuleKeys(ruleKey2).build(), output2)))
+            .getResults();
+    assertEquals(ImmutableList.of(ruleKey1, ruleKey2), storedRuleKeys);
+    assertEquals(Optional.of(true), results.get(0).getWasStoreSuccessful());
+    assertEquals(Optional.of(false), results.get(1).getWasStoreSuccessful());
+    cache.close();
+  }
+
   @Test
   public void testStoreMultipleKeys() throws Exception {
     RuleKey ruleKey1 = new RuleKey("00000000000000000000000000000000");
@@ -31,17 +31,27 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 
 public class InMemoryArtifactCache implements ArtifactCache {
   private final Map<RuleKey, Artifact> artifacts = Maps.newConcurrentMap();
-  private final ListeningExecutorService service =
-      MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+  private final ListeningExecutorService service;
+
+  public InMemoryArtifactCache() {
+    this(MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor()));
+  }
+
+  /** @param service runs the fetches, e.g. a direct executor to complete them before returning. */
+  public InMemoryArtifactCache(ListeningExecutorService service) {
+    this.service = service;
+  }
 
   public int getArtifactCount() {
     return artifacts.size();
@@ -54,7 +64,13 @@ public class InMemoryArtifactCache implements ArtifactCache {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       BuildTarget target, RuleKey ruleKey, LazyPath output) {
-    return service.submit(() -> fetch(ruleKey, output));
+    return service.submit(() -> fetch(ruleKey, output, Optional.empty()));
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      BuildTarget target, RuleKey ruleKey, LazyPath output, ArtifactSink sink) {
+    return service.submit(() -> fetch(ruleKey, output, Optional.of(sink)));
   }
 
   @Override
@@ -62,13 +78,16 @@ public class InMemoryArtifactCache implements ArtifactCache {
     // Async requests are not supported by InMemoryArtifactCache, so do nothing
   }
 
-  private CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+  private CacheResult fetch(RuleKey ruleKey, LazyPath output, Optional<ArtifactSink> sink) {
     Artifact artifact = artifacts.get(ruleKey);
     if (artifact == null) {
       return CacheResult.miss();
     }
     try {
-      Files.write(output.get(), artifact.data);
+      if (!sink.isPresent()
+          || !sink.get().accept(artifact.metadata, new ByteArrayInputStream(artifact.data))) {
+        Files.write(output.get(), artifact.data);
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
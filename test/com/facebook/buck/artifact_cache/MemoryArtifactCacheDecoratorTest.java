@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MemoryArtifactCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey RULE_KEY = new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey OTHER_RULE_KEY =
+      new RuleKey("1111111111111111111111111111111111111111");
+  private static final byte[] DATA = "data".getBytes(StandardCharsets.UTF_8);
+  private static final ImmutableMap<String, String> METADATA = ImmutableMap.of("key", "value");
+
+  @Test
+  public void storedArtifactsAreFetchedFromMemory() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    try (MemoryArtifactCacheDecorator cache =
+        new MemoryArtifactCacheDecorator(delegate, new MemoryArtifactCacheStore(1024, 1024))) {
+      Path artifact = tmp.newFile();
+      Files.write(artifact, DATA);
+      Futures.getUnchecked(
+          cache.store(
+              ArtifactInfo.builder().addRuleKeys(RULE_KEY).setMetadata(METADATA).build(),
+              BorrowablePath.borrowablePath(artifact)));
+      delegate.deleteAsync(ImmutableList.of(RULE_KEY));
+
+      // The directory of the output doesn't have to exist yet.
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("out").resolve("output"));
+      CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+
+      assertEquals(CacheResultType.HIT, result.getType());
+      assertEquals(Optional.of(ArtifactCacheMode.memory), result.cacheMode());
+      assertEquals(METADATA, result.getMetadata());
+      assertArrayEquals(DATA, Files.readAllBytes(output.get()));
+    }
+  }
+
+  @Test
+  public void fetchedArtifactsAreKeptInMemory() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(
+        ArtifactInfo.builder().addRuleKeys(RULE_KEY).setMetadata(METADATA).build(), DATA);
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(1024, 1024);
+    try (MemoryArtifactCacheDecorator cache = new MemoryArtifactCacheDecorator(delegate, store)) {
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      CacheResult first = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+      assertEquals(Optional.of(ArtifactCacheMode.dir), first.cacheMode());
+
+      delegate.deleteAsync(ImmutableList.of(RULE_KEY));
+      Files.delete(output.get());
+      CacheResult second = Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+
+      assertEquals(Optional.of(ArtifactCacheMode.memory), second.cacheMode());
+      assertArrayEquals(DATA, Files.readAllBytes(output.get()));
+      assertEquals(1, store.getHitCount());
+      assertEquals(1, store.getMissCount());
+    }
+  }
+
+  @Test
+  public void streamedArtifactsAreKeptInMemory() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(
+        ArtifactInfo.builder().addRuleKeys(RULE_KEY).setMetadata(METADATA).build(), DATA);
+    try (MemoryArtifactCacheDecorator cache =
+        new MemoryArtifactCacheDecorator(delegate, new MemoryArtifactCacheStore(1024, 1024))) {
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      FakeArtifactSink firstSink = new FakeArtifactSink();
+      Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output, firstSink));
+      assertArrayEquals(DATA, firstSink.getPayload().get());
+
+      delegate.deleteAsync(ImmutableList.of(RULE_KEY));
+      FakeArtifactSink secondSink = new FakeArtifactSink();
+      CacheResult result =
+          Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output, secondSink));
+
+      assertEquals(Optional.of(ArtifactCacheMode.memory), result.cacheMode());
+      assertArrayEquals(DATA, secondSink.getPayload().get());
+      assertFalse(Files.exists(output.get()));
+    }
+  }
+
+  @Test
+  public void largeArtifactsAreNotKeptInMemory() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(), DATA);
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(1024, DATA.length - 1);
+    try (MemoryArtifactCacheDecorator cache = new MemoryArtifactCacheDecorator(delegate, store)) {
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output));
+      Futures.getUnchecked(cache.fetchAsync(null, RULE_KEY, output, new FakeArtifactSink()));
+
+      assertEquals(0, store.getEntryCount());
+    }
+  }
+
+  @Test
+  public void multiContainsChecksMemoryFirst() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    try (MemoryArtifactCacheDecorator cache =
+        new MemoryArtifactCacheDecorator(delegate, new MemoryArtifactCacheStore(1024, 1024))) {
+      Path artifact = tmp.newFile();
+      Files.write(artifact, DATA);
+      cache.store(
+          ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(),
+          BorrowablePath.borrowablePath(artifact));
+      delegate.deleteAsync(ImmutableList.of(RULE_KEY));
+
+      ImmutableMap<RuleKey, CacheResult> results =
+          Futures.getUnchecked(cache.multiContainsAsync(ImmutableSet.of(RULE_KEY, OTHER_RULE_KEY)));
+
+      assertEquals(CacheResultType.CONTAINS, results.get(RULE_KEY).getType());
+      assertEquals(Optional.of(ArtifactCacheMode.memory), results.get(RULE_KEY).cacheMode());
+      assertEquals(CacheResultType.MISS, results.get(OTHER_RULE_KEY).getType());
+    }
+  }
+
+  @Test
+  public void deleteRemovesArtifactsFromMemory() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(1024, 1024);
+    try (MemoryArtifactCacheDecorator cache = new MemoryArtifactCacheDecorator(delegate, store)) {
+      Path artifact = tmp.newFile();
+      Files.write(artifact, DATA);
+      cache.store(
+          ArtifactInfo.builder().addRuleKeys(RULE_KEY).build(),
+          BorrowablePath.notBorrowablePath(artifact));
+      assertTrue(store.contains(RULE_KEY));
+
+      Futures.getUnchecked(cache.deleteAsync(ImmutableList.of(RULE_KEY)));
+
+      assertFalse(store.contains(RULE_KEY));
+      assertFalse(delegate.hasArtifact(RULE_KEY));
+    }
+  }
+}
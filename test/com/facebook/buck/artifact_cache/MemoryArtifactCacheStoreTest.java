@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+public class MemoryArtifactCacheStoreTest {
+
+  private static final RuleKey KEY_A = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey KEY_B = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey KEY_C = new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+
+  @Test
+  public void evictsLeastRecentlyUsedEntries() {
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(30, 30);
+    store.put(KEY_A, entryOfSize(10));
+    store.put(KEY_B, entryOfSize(10));
+    store.put(KEY_C, entryOfSize(10));
+    store.get(KEY_A);
+
+    store.put(KEY_B, entryOfSize(15));
+
+    assertTrue(store.contains(KEY_A));
+    assertTrue(store.contains(KEY_B));
+    assertFalse(store.contains(KEY_C));
+    assertEquals(25, store.getSizeBytes());
+    assertEquals(1, store.getEvictionCount());
+  }
+
+  @Test
+  public void ignoresEntriesThatAreTooBig() {
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(30, 10);
+    store.put(KEY_A, entryOfSize(10));
+    store.put(KEY_B, entryOfSize(11));
+
+    assertTrue(store.contains(KEY_A));
+    assertFalse(store.contains(KEY_B));
+    assertEquals(10, store.getSizeBytes());
+  }
+
+  @Test
+  public void countsMetadataTowardsSize() {
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(30, 30);
+    store.put(KEY_A, new MemoryArtifactCacheStore.Entry(ImmutableMap.of("k", "v"), new byte[10]));
+
+    assertEquals(14, store.getSizeBytes());
+  }
+
+  @Test
+  public void tracksHitsAndMisses() {
+    MemoryArtifactCacheStore store = new MemoryArtifactCacheStore(30, 30);
+    store.put(KEY_A, entryOfSize(10));
+    store.get(KEY_A);
+    store.get(KEY_A);
+    store.get(KEY_B);
+
+    assertEquals(2, store.getHitCount());
+    assertEquals(1, store.getMissCount());
+  }
+
+  private static MemoryArtifactCacheStore.Entry entryOfSize(int size) {
+    return new MemoryArtifactCacheStore.Entry(ImmutableMap.of(), new byte[size]);
+  }
+}
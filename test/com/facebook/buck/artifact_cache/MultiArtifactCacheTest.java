@@ -399,6 +399,31 @@ public class MultiArtifactCacheTest {
     multiArtifactCache.close();
   }
 
+  @Test
+  public void cacheFetchStreamsOnlyArtifactsThatAreNotPropagated() throws Exception {
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    InMemoryArtifactCache cache2 = new InMemoryArtifactCache();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, cache2));
+    LazyPath output = LazyPath.ofInstance(tmp.newFile());
+
+    // An artifact found in the second cache has to be written to output to be stored in the first.
+    cache2.store(ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(), new byte[] {1});
+    FakeArtifactSink sink = new FakeArtifactSink();
+    CacheResult result =
+        Futures.getUnchecked(multiArtifactCache.fetchAsync(null, dummyRuleKey, output, sink));
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(sink.getAcceptCount(), Matchers.equalTo(0));
+    assertThat(cache1.hasArtifact(dummyRuleKey), Matchers.is(true));
+
+    // Now that the first cache has it, it is streamed from there.
+    result = Futures.getUnchecked(multiArtifactCache.fetchAsync(null, dummyRuleKey, output, sink));
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(sink.getAcceptCount(), Matchers.equalTo(1));
+
+    multiArtifactCache.close();
+  }
+
   @Test
   public void cacheAsyncFetchPushesMetadataToHigherCache() throws Exception {
     InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class NegativeLookupFilterTest {
+
+  private static final RuleKey KEY_A = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey KEY_B = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey KEY_C = new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+
+  @Test
+  public void remembersMissesUntilTheKeyIsFound() {
+    NegativeLookupFilter filter = new NegativeLookupFilter(10, 300);
+    filter.recordResult(KEY_A, CacheResult.miss());
+    filter.recordResult(KEY_B, CacheResult.error("http", ArtifactCacheMode.http, "error"));
+
+    assertTrue(filter.isKnownMiss(KEY_A));
+    assertFalse(filter.isKnownMiss(KEY_B));
+
+    filter.recordResult(KEY_A, CacheResult.contains("http", ArtifactCacheMode.http));
+
+    assertFalse(filter.isKnownMiss(KEY_A));
+  }
+
+  @Test
+  public void forgetsMissesForStoredKeys() {
+    NegativeLookupFilter filter = new NegativeLookupFilter(10, 300);
+    filter.recordResult(KEY_A, CacheResult.miss());
+    filter.recordResult(KEY_B, CacheResult.miss());
+
+    filter.recordPresent(ImmutableList.of(KEY_A));
+
+    assertFalse(filter.isKnownMiss(KEY_A));
+    assertTrue(filter.isKnownMiss(KEY_B));
+  }
+
+  @Test
+  public void evictsOldestMissesWhenFull() {
+    NegativeLookupFilter filter = new NegativeLookupFilter(2, 300);
+    filter.recordResult(KEY_A, CacheResult.miss());
+    filter.recordResult(KEY_B, CacheResult.miss());
+    filter.recordResult(KEY_C, CacheResult.miss());
+
+    assertFalse(filter.isKnownMiss(KEY_A));
+    assertTrue(filter.isKnownMiss(KEY_B));
+    assertTrue(filter.isKnownMiss(KEY_C));
+  }
+
+  @Test
+  public void forgetsMissesAfterMaxAge() {
+    AtomicLong nanos = new AtomicLong();
+    NegativeLookupFilter filter =
+        new NegativeLookupFilter(
+            10,
+            300,
+            new Ticker() {
+              @Override
+              public long read() {
+                return nanos.get();
+              }
+            });
+    filter.recordResult(KEY_A, CacheResult.miss());
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(299));
+    assertTrue(filter.isKnownMiss(KEY_A));
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertFalse(filter.isKnownMiss(KEY_A));
+  }
+
+  @Test
+  public void filtersAreKeptPerCacheUntilTheirSettingsChange() {
+    NegativeLookupFilters filters = new NegativeLookupFilters();
+    URI url = URI.create("http://localhost:8080");
+    NegativeLookupFilter filter = filters.getFilter(ArtifactCacheMode.http, url, 10, 300);
+    filter.recordResult(KEY_A, CacheResult.miss());
+
+    assertSame(filter, filters.getFilter(ArtifactCacheMode.http, url, 10, 300));
+    assertNotSame(filter, filters.getFilter(ArtifactCacheMode.thrift_over_http, url, 10, 300));
+
+    NegativeLookupFilter resized = filters.getFilter(ArtifactCacheMode.http, url, 20, 300);
+    assertNotSame(filter, resized);
+    assertFalse(resized.isKnownMiss(KEY_A));
+  }
+
+  @Test
+  public void warmUpChecksKeysInBatches() throws Exception {
+    InMemoryArtifactCache cache = new InMemoryArtifactCache();
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(KEY_A).build(),
+        "data".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(
+        2,
+        NegativeLookupFilter.warmUp(cache, ImmutableSet.of(KEY_A, KEY_B, KEY_C), 2).get().size());
+  }
+}
@@ -31,6 +31,7 @@ import com.google.caliper.Benchmark;
 import com.google.caliper.Param;
 import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -42,6 +43,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -54,7 +56,7 @@ public class SQLiteArtifactCacheBenchmark {
   @Param({"1000", "10000", "100000"})
   private int opCount = 100;
 
-  @Param({"5", "10"})
+  @Param({"1", "2", "4", "8", "16"})
   private int threadCount = 2;
 
   private static final Random random = new Random(12345);
@@ -70,7 +72,6 @@ public class SQLiteArtifactCacheBenchmark {
   private Path largeFile;
 
   private Path cacheDir;
-  private LazyPath output;
   private SQLiteArtifactCache artifactCache;
   private ListeningExecutorService executor;
 
@@ -87,13 +88,13 @@ public class SQLiteArtifactCacheBenchmark {
     }
 
     cacheDir = tmpDir.newFolder();
-    output = LazyPath.ofInstance(cacheDir.resolve(".output"));
 
     setUpBenchmark();
   }
 
   @BeforeExperiment
   private void setUpBenchmark() throws IOException, SQLException {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
     artifactCache = cache(Optional.of(1024 * 1024 * 1024L));
     byte[] randomRuleKey = new byte[16];
 
@@ -143,6 +144,7 @@ public class SQLiteArtifactCacheBenchmark {
   @Ignore
   @Test
   public void testSingleThreaded() {
+    executor.shutdown();
     executor = MoreExecutors.newDirectExecutorService();
     runAllBenchmarks();
   }
@@ -150,7 +152,6 @@ public class SQLiteArtifactCacheBenchmark {
   @Ignore
   @Test
   public void testMultiThreaded() {
-    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
     runAllBenchmarks();
   }
 
@@ -161,35 +162,62 @@ public class SQLiteArtifactCacheBenchmark {
     benchArtifactFetch();
   }
 
+  /**
+   * Splits {@code count} operations evenly across {@code threadCount} tasks on the executor and
+   * waits for all of them, so that throughput can be compared across thread counts.
+   */
+  private void runConcurrently(int count, IntConsumer operation) {
+    List<ListenableFuture<?>> futures = new ArrayList<>(threadCount);
+    for (int thread = 0; thread < threadCount; thread++) {
+      int first = thread;
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = first; i < count; i += threadCount) {
+                  operation.accept(i);
+                }
+              }));
+    }
+    Futures.getUnchecked(Futures.allAsList(futures));
+  }
+
   @Benchmark
   private void benchMetadataStore() {
-    for (ArtifactInfo info : metadataInfo) {
-      artifactCache.store(info, BorrowablePath.notBorrowablePath(emptyFile));
-    }
+    runConcurrently(
+        metadataInfo.size(),
+        i -> artifactCache.store(metadataInfo.get(i), BorrowablePath.notBorrowablePath(emptyFile)));
   }
 
   @Benchmark
   private void benchMetadataFetch() {
-    for (RuleKey key : ruleKeys) {
-      Futures.getUnchecked(artifactCache.fetchAsync(null, key, output));
-    }
+    runConcurrently(
+        ruleKeys.size(),
+        i ->
+            Futures.getUnchecked(
+                artifactCache.fetchAsync(null, ruleKeys.get(i), outputForThread())));
   }
 
   @Benchmark
   private void benchArtifactStore() {
-    for (int i = 0; i < contentInfo.size() / 2; i++) {
-      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(inlinedFile));
-    }
-
-    for (int i = contentInfo.size() / 2; i < contentInfo.size(); i++) {
-      artifactCache.store(contentInfo.get(i), BorrowablePath.notBorrowablePath(largeFile));
-    }
+    runConcurrently(
+        contentInfo.size(),
+        i ->
+            artifactCache.store(
+                contentInfo.get(i),
+                BorrowablePath.notBorrowablePath(
+                    i < contentInfo.size() / 2 ? inlinedFile : largeFile)));
   }
 
   @Benchmark
   private void benchArtifactFetch() {
-    for (RuleKey key : ruleKeys) {
-      Futures.getUnchecked(artifactCache.fetchAsync(null, key, output));
-    }
+    runConcurrently(
+        contentHashes.size(),
+        i ->
+            Futures.getUnchecked(
+                artifactCache.fetchAsync(null, contentHashes.get(i), outputForThread())));
+  }
+
+  private LazyPath outputForThread() {
+    return LazyPath.ofInstance(cacheDir.resolve(".output-" + Thread.currentThread().getId()));
   }
 }
@@ -46,7 +46,12 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
@@ -388,6 +393,67 @@ public class SQLiteArtifactCacheTest {
     assertThat(filesNotDeleted, Matchers.hasItem(contentHashC));
   }
 
+  @Test
+  public void testAccessTimesAreFlushedBeforeEviction() throws Exception {
+    // Large enough for one file artifact, but not for two.
+    artifactCache = cache(Optional.of(9 * MAX_INLINED_BYTES / 5));
+
+    writeFileArtifact(fileA);
+    writeFileArtifact(fileB);
+
+    artifactCache.insertContent(
+        contentHashA,
+        BorrowablePath.notBorrowablePath(fileA),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(3))));
+    artifactCache.insertContent(
+        contentHashB,
+        BorrowablePath.notBorrowablePath(fileB),
+        Timestamp.from(Instant.now().minus(Duration.ofDays(2))));
+
+    // Fetching A makes it more recently used than B, even though its access time is only written
+    // to the database lazily.
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(artifactCache.fetchAsync(null, contentHashA, output)).getType());
+
+    artifactCache.removeOldContent().get();
+    assertThat(artifactCache.directoryFileContentHashes(), Matchers.contains(contentHashA));
+  }
+
+  @Test
+  public void testConcurrentFetches() throws Exception {
+    artifactCache = cache(Optional.empty());
+    writeInlinedArtifact(fileA);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+
+    int threadCount = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        LazyPath threadOutput = LazyPath.ofInstance(cacheDir.resolve(".output" + i));
+        results.add(
+            executor.submit(
+                () -> {
+                  for (int j = 0; j < 100; j++) {
+                    CacheResult result =
+                        Futures.getUnchecked(
+                            artifactCache.fetchAsync(null, contentHashA, threadOutput));
+                    if (result.getType() != CacheResultType.HIT) {
+                      return false;
+                    }
+                  }
+                  return true;
+                }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException, SQLException {
     artifactCache = cache(Optional.empty());
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
 
@@ -28,6 +29,7 @@ import com.facebook.buck.testutil.TemporaryPaths;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -102,6 +104,32 @@ public class TwoLevelArtifactCacheDecoratorTest {
     }
   }
 
+  @Test
+  public void testStreamingFetchSkipsFirstLevelEntries() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        TwoLevelArtifactCacheDecorator twoLevelCache =
+            new TwoLevelArtifactCacheDecorator(
+                inMemoryArtifactCache,
+                TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()),
+                BuckEventBusForTests.newInstance(),
+                /* performTwoLevelStores */ true,
+                /* minimumTwoLevelStoredArtifactSize */ 0L,
+                /* maximumTwoLevelStoredArtifactSize */ Optional.empty())) {
+      LazyPath dummyFile = LazyPath.ofInstance(tmp.newFile());
+      Files.write(dummyFile.get(), "data".getBytes(StandardCharsets.UTF_8));
+      twoLevelCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(dummyFile.get()));
+
+      FakeArtifactSink sink = new FakeArtifactSink();
+      CacheResult cacheResult =
+          Futures.getUnchecked(twoLevelCache.fetchAsync(null, dummyRuleKey, dummyFile, sink));
+      assertThat(cacheResult.getType(), Matchers.equalTo(CacheResultType.HIT));
+      assertThat(sink.getAcceptCount(), Matchers.equalTo(1));
+      assertArrayEquals("data".getBytes(StandardCharsets.UTF_8), sink.getPayload().get());
+    }
+  }
+
   private void testStoreThresholds(int artifactSize, int expectedArtifactsInCache)
       throws IOException {
     try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
@@ -16,10 +16,17 @@
 
 package com.facebook.buck.cli;
 
+import static org.junit.Assert.assertThat;
+
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -53,4 +60,40 @@ public class CommandThreadManagerTest {
               });
     }
   }
+
+  @Test
+  public void blockingWorkRunsOnSeparatePool() throws Exception {
+    ConcurrencyLimit concurrencyLimit =
+        new ConcurrencyLimit(
+            /* threadLimit */ 1,
+            ResourceAllocationFairness.FAIR,
+            /* managedThreadCount */ 1,
+            ResourceAmountsEstimator.DEFAULT_AMOUNTS,
+            ResourceAmountsEstimator.DEFAULT_MAXIMUM_AMOUNTS.withCpu(2),
+            Optional.empty(),
+            /* blockingThreadCount */ Optional.of(2));
+
+    try (CommandThreadManager pool = new CommandThreadManager("Test", concurrencyLimit)) {
+      WeightedListeningExecutorService service = pool.getWeightedListeningExecutorService();
+      CountDownLatch blockingStarted = new CountDownLatch(1);
+      CountDownLatch unblock = new CountDownLatch(1);
+      ListenableFuture<String> blocking =
+          service
+              .forBlockingWork()
+              .submit(
+                  () -> {
+                    blockingStarted.countDown();
+                    unblock.await();
+                    return Thread.currentThread().getName();
+                  });
+      blockingStarted.await(1, TimeUnit.MINUTES);
+
+      // The only managed thread is still free while the blocking job waits.
+      assertThat(
+          service.submit(() -> Thread.currentThread().getName()).get(1, TimeUnit.MINUTES),
+          Matchers.startsWith("Test-0"));
+      unblock.countDown();
+      assertThat(blocking.get(1, TimeUnit.MINUTES), Matchers.startsWith("Test-blocking-"));
+    }
+  }
 }
@@ -48,6 +48,26 @@ public class BuildBuckConfigTest {
     assertThat(buckConfig.getNumThreads(42), Matchers.equalTo(42));
   }
 
+  @Test
+  public void testFileHashCacheIoThreadsFromBuckConfig() {
+    BuildBuckConfig buckConfig =
+        FakeBuckConfig.builder()
+            .setSections(
+                ImmutableMap.of("build", ImmutableMap.of("file_hash_cache_io_threads", "3")))
+            .build()
+            .getView(BuildBuckConfig.class);
+    assertThat(buckConfig.getFileHashCacheIoThreads(), Matchers.equalTo(3));
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void testFileHashCacheIoThreadsMustBePositive() {
+    FakeBuckConfig.builder()
+        .setSections(ImmutableMap.of("build", ImmutableMap.of("file_hash_cache_io_threads", "0")))
+        .build()
+        .getView(BuildBuckConfig.class)
+        .getFileHashCacheIoThreads();
+  }
+
   @Test
   public void testBuildThreadsRatioSanityCheck() {
     BuildBuckConfig buckConfig =
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.cache.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.FakeArtifactSink;
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ArtifactPrefetcherTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:bar");
+  private static final RuleKey KEY_A = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey KEY_B = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey KEY_MISSING =
+      new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+  private static final RuleKey KEY_PARENT = new RuleKey("dddddddddddddddddddddddddddddddddddddddd");
+  private static final byte[] DATA = "data".getBytes(StandardCharsets.UTF_8);
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void fetchesAreServedFromPrefetchedArtifacts() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_A).build(), DATA);
+    ArtifactPrefetcher prefetcher = newPrefetcher(delegate, 10, 1024);
+
+    assertTrue(prefetcher.prefetch(TARGET, filesystem, KEY_A));
+    waitForPendingFetches(delegate);
+    delegate.deleteAsync(ImmutableList.of(KEY_A));
+    // Prefetched artifacts are kept in buck-out, next to the artifacts they are moved to.
+    Path tmpDir = filesystem.resolve(filesystem.getBuckPaths().getTmpDir());
+    assertEquals(1, tmpDir.toFile().list().length);
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    CacheResult result =
+        Futures.getUnchecked(prefetcher.getCache().fetchAsync(TARGET, KEY_A, output));
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertArrayEquals(DATA, Files.readAllBytes(output.get()));
+    assertEquals(1, prefetcher.getHitCount());
+  }
+
+  @Test
+  public void prefetchedArtifactsAreStreamedToSinks() throws IOException {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_A).build(), DATA);
+    ArtifactPrefetcher prefetcher = newPrefetcher(delegate, 10, 1024);
+    prefetcher.prefetch(TARGET, filesystem, KEY_A);
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    FakeArtifactSink sink = new FakeArtifactSink();
+    Futures.getUnchecked(prefetcher.getCache().fetchAsync(TARGET, KEY_A, output, sink));
+
+    assertArrayEquals(DATA, sink.getPayload().get());
+    assertFalse(Files.exists(output.get()));
+  }
+
+  @Test
+  public void prefetchingStopsWhenTooManyArtifactsAreHeld() {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_A).build(), DATA);
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_B).build(), DATA);
+    ArtifactPrefetcher prefetcher = newPrefetcher(delegate, 10, DATA.length);
+
+    assertTrue(prefetcher.prefetch(TARGET, filesystem, KEY_A));
+    waitForPendingFetches(delegate);
+    assertFalse(prefetcher.prefetch(TARGET, filesystem, KEY_A));
+    assertFalse(prefetcher.prefetch(TARGET, filesystem, KEY_B));
+    assertEquals(1, prefetcher.getPrefetchCount());
+  }
+
+  @Test
+  public void unusedArtifactsAreReportedAsWasted() {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_A).build(), DATA);
+    ArtifactPrefetcher prefetcher = newPrefetcher(delegate, 10, 1024);
+    prefetcher.prefetch(TARGET, filesystem, KEY_A);
+    prefetcher.prefetch(TARGET, filesystem, KEY_B);
+    waitForPendingFetches(delegate);
+
+    prefetcher.close();
+
+    assertEquals(0, prefetcher.getHitCount());
+    assertEquals(DATA.length, prefetcher.getWastedBytes());
+    assertFalse(prefetcher.prefetch(TARGET, filesystem, KEY_B));
+  }
+
+  @Test
+  public void keysReportedMissingAreNotPrefetched() {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_A).build(), DATA);
+    ArtifactPrefetcher prefetcher = newPrefetcher(delegate, 10, 1024);
+
+    prefetcher.prefetchAll(
+        KEY_PARENT,
+        ImmutableList.of(
+            new ArtifactPrefetcher.Request(TARGET, filesystem, KEY_A),
+            new ArtifactPrefetcher.Request(TARGET, filesystem, KEY_B)));
+
+    assertEquals(1, prefetcher.getPrefetchCount());
+  }
+
+  @Test
+  public void artifactsAreDroppedWhenTheirDependentHits() {
+    InMemoryArtifactCache delegate = new InMemoryArtifactCache();
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_A).build(), DATA);
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_B).build(), DATA);
+    delegate.store(ArtifactInfo.builder().addRuleKeys(KEY_PARENT).build(), DATA);
+    ArtifactPrefetcher prefetcher = newPrefetcher(delegate, 10, DATA.length);
+    prefetcher.prefetchAll(
+        KEY_PARENT, ImmutableList.of(new ArtifactPrefetcher.Request(TARGET, filesystem, KEY_A)));
+    waitForPendingFetches(delegate);
+    assertFalse(prefetcher.prefetch(TARGET, filesystem, KEY_B));
+
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+    Futures.getUnchecked(prefetcher.getCache().fetchAsync(TARGET, KEY_PARENT, output));
+
+    assertEquals(DATA.length, prefetcher.getWastedBytes());
+    assertTrue(prefetcher.prefetch(TARGET, filesystem, KEY_B));
+  }
+
+  /** The cache runs its fetches one at a time, so a new one only completes after the others. */
+  private void waitForPendingFetches(InMemoryArtifactCache delegate) {
+    LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("unused"));
+    Futures.getUnchecked(delegate.fetchAsync(TARGET, KEY_MISSING, output));
+  }
+
+  private static ArtifactPrefetcher newPrefetcher(
+      InMemoryArtifactCache delegate, int maxPendingFetches, long maxHeldBytes) {
+    return new ArtifactPrefetcher(
+        delegate, BuckEventBusForTests.newInstance(), maxPendingFetches, maxHeldBytes);
+  }
+}
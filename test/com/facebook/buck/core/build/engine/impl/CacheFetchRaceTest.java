@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CacheFetchRaceTest {
+
+  @Test
+  public void fetchThatClaimsFirstKeepsTheOutputsOnAHit() {
+    CacheFetchRace race = new CacheFetchRace();
+
+    assertTrue(race.claimForFetch());
+    assertFalse(race.claimForLocalBuild());
+    // A retried fetch may write the outputs again.
+    assertTrue(race.claimForFetch());
+    race.fetchFinished(true);
+
+    assertEquals(CacheFetchRace.State.FETCHED, race.getState());
+    assertFalse(race.claimForLocalBuild());
+  }
+
+  @Test
+  public void fetchThatMissesLeavesTheOutputsToTheLocalBuild() {
+    CacheFetchRace race = new CacheFetchRace();
+
+    assertTrue(race.claimForFetch());
+    race.fetchFinished(false);
+
+    assertTrue(race.claimForLocalBuild());
+    assertEquals(CacheFetchRace.State.BUILDING_LOCALLY, race.getState());
+  }
+
+  @Test
+  public void localBuildThatClaimsFirstKeepsTheOutputs() {
+    CacheFetchRace race = new CacheFetchRace();
+
+    assertTrue(race.claimForLocalBuild());
+    assertFalse(race.claimForFetch());
+    race.fetchFinished(true);
+
+    assertEquals(CacheFetchRace.State.BUILDING_LOCALLY, race.getState());
+    assertTrue(race.claimForLocalBuild());
+  }
+}
@@ -19,9 +19,12 @@ package com.facebook.buck.core.build.engine.impl;
 import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
 import com.facebook.buck.core.build.distributed.synchronization.RemoteBuildRuleCompletionWaiter;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
+import com.facebook.buck.core.build.engine.config.ArtifactPrefetchInfo;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
 import com.facebook.buck.core.build.engine.delegate.LocalCachingBuildEngineDelegate;
+import com.facebook.buck.core.build.engine.schedule.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.engine.schedule.SpeculativeBuildPolicy;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.cell.TestCellPathResolver;
@@ -58,6 +61,9 @@ public class CachingBuildEngineFactory {
   private BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver;
   private ResourceAwareSchedulingInfo resourceAwareSchedulingInfo =
       ResourceAwareSchedulingInfo.NON_AWARE_SCHEDULING_INFO;
+  private ArtifactPrefetchInfo artifactPrefetchInfo = ArtifactPrefetchInfo.DISABLED;
+  private Optional<BuildRuleDurationHistory> ruleDurationHistory = Optional.empty();
+  private Optional<SpeculativeBuildPolicy> speculativeBuildPolicy = Optional.empty();
   private boolean logBuildRuleFailuresInline = true;
   private BuildInfoStoreManager buildInfoStoreManager;
   private final RemoteBuildRuleCompletionWaiter remoteBuildRuleCompletionWaiter;
@@ -125,6 +131,24 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setArtifactPrefetchInfo(
+      ArtifactPrefetchInfo artifactPrefetchInfo) {
+    this.artifactPrefetchInfo = artifactPrefetchInfo;
+    return this;
+  }
+
+  public CachingBuildEngineFactory setRuleDurationHistory(
+      BuildRuleDurationHistory ruleDurationHistory) {
+    this.ruleDurationHistory = Optional.of(ruleDurationHistory);
+    return this;
+  }
+
+  public CachingBuildEngineFactory setSpeculativeBuildPolicy(
+      Optional<SpeculativeBuildPolicy> speculativeBuildPolicy) {
+    this.speculativeBuildPolicy = speculativeBuildPolicy;
+    return this;
+  }
+
   public CachingBuildEngineFactory setCustomBuildRuleStrategy(BuildRuleStrategy strategy) {
     this.customBuildRuleStrategy = Optional.of(strategy);
     return this;
@@ -156,6 +180,10 @@ public class CachingBuildEngineFactory {
           ruleKeyFactories.get(),
           remoteBuildRuleCompletionWaiter,
           resourceAwareSchedulingInfo,
+          artifactPrefetchInfo,
+          ruleDurationHistory,
+          Optional.empty(),
+          speculativeBuildPolicy,
           RuleKeyDiagnostics.nop(),
           logBuildRuleFailuresInline,
           Optional.empty());
@@ -174,6 +202,10 @@ public class CachingBuildEngineFactory {
         targetConfigurationSerializer,
         buildInfoStoreManager,
         resourceAwareSchedulingInfo,
+        artifactPrefetchInfo,
+        ruleDurationHistory,
+        Optional.empty(),
+        speculativeBuildPolicy,
         logBuildRuleFailuresInline,
         RuleKeyFactories.of(
             TestRuleKeyConfigurationFactory.create(),
@@ -35,12 +35,16 @@ import com.facebook.buck.core.build.engine.BuildRuleSuccessType;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngineTest.CommonFixture;
+import com.facebook.buck.core.build.engine.schedule.BuildRuleDurationHistory;
+import com.facebook.buck.core.build.engine.schedule.SpeculativeBuildPolicy;
+import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.model.InternalFlavor;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.impl.NoopBuildRule;
 import com.facebook.buck.core.rules.pipeline.RulePipelineState;
@@ -59,10 +63,12 @@ import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -90,6 +96,7 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
   private InitializableFromDiskRule dependent;
   private ArtifactCache artifactCache;
   private BuildRuleSuccessType lastSuccessType;
+  private Optional<SpeculativeBuildPolicy> speculativeBuildPolicy;
 
   private final PipelineType pipelineType;
 
@@ -223,6 +230,7 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
     rootRule.value = 0;
     artifactCache = new InMemoryArtifactCache();
     lastSuccessType = null;
+    speculativeBuildPolicy = Optional.empty();
     doClean();
   }
 
@@ -237,9 +245,15 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
           case BUILT_LOCALLY:
             testBuiltLocally();
             break;
+          case BUILT_LOCALLY_RACING_CACHE:
+            testBuiltLocallyRacingCache();
+            break;
           case FETCHED_FROM_CACHE:
             testFetchedFromCache();
             break;
+          case FETCHED_FROM_CACHE_RACING_LOCAL_BUILD:
+            testFetchedFromCacheRacingLocalBuild();
+            break;
           case MATCHING_RULE_KEY:
             testMatchingRuleKey();
             break;
@@ -341,6 +355,37 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
         secondState);
   }
 
+  @Test
+  public void testFetchedFromCacheRacingLocalBuild() throws Exception {
+    Assume.assumeTrue(
+        "Rules built in a pipeline don't race their fetches.", pipelineType == PipelineType.NONE);
+    // Fetches complete before the build engine gets to building the rule, so they always win.
+    artifactCache = new InMemoryArtifactCache(MoreExecutors.newDirectExecutorService());
+    speculativeBuildPolicy = Optional.of(createSlowCacheSpeculativeBuildPolicy());
+    // write to cache
+    String newContent = "new content";
+    writeDepfileInput(newContent);
+    // populate cache
+    assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, doBuild().getSuccess());
+    doClean();
+
+    writeDepfileInput(DEPFILE_INPUT_CONTENT);
+    assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, doBuild().getSuccess());
+    assertTrue(buildRule.isInitializedFromDisk());
+    Object firstState = buildRule.getBuildOutputInitializer().getBuildOutput();
+
+    writeDepfileInput(newContent);
+    assertEquals(
+        BuildRuleSuccessType.FETCHED_FROM_CACHE_RACING_LOCAL_BUILD, doBuild().getSuccess());
+    assertTrue(buildRule.isInitializedFromDisk());
+    Object secondState = buildRule.getBuildOutputInitializer().getBuildOutput();
+
+    assertNotEquals(
+        "Fetching from cache should invalidate InitializableFromDisk state.",
+        firstState,
+        secondState);
+  }
+
   @Test
   public void testFetchedFromCacheInputBased() throws Exception {
     // write to cache
@@ -414,6 +459,31 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
         "Building locally should invalidate InitializableFromDisk state.", firstState, secondState);
   }
 
+  @Test
+  public void testBuiltLocallyRacingCache() throws Exception {
+    Assume.assumeTrue(
+        "Rules built in a pipeline don't race their fetches.", pipelineType == PipelineType.NONE);
+    speculativeBuildPolicy = Optional.of(createSlowCacheSpeculativeBuildPolicy());
+    assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, doBuild().getSuccess());
+    assertTrue(buildRule.isInitializedFromDisk());
+    Object firstState = buildRule.getBuildOutputInitializer().getBuildOutput();
+
+    // The rule was built before, so its duration and output size are known and it races the fetch.
+    writeDepfileInput("new content");
+    assertEquals(BuildRuleSuccessType.BUILT_LOCALLY_RACING_CACHE, doBuild().getSuccess());
+    assertTrue(buildRule.isInitializedFromDisk());
+    RuleKey ruleKey =
+        new DefaultRuleKeyFactory(CachingBuildEngineTest.FIELD_LOADER, fileHashCache, graphBuilder)
+            .build(buildRule);
+    assertFalse(
+        "Rules built while their artifact was fetched should not be uploaded.",
+        ((InMemoryArtifactCache) artifactCache).hasArtifact(ruleKey));
+    Object secondState = buildRule.getBuildOutputInitializer().getBuildOutput();
+
+    assertNotEquals(
+        "Building locally should invalidate InitializableFromDisk state.", firstState, secondState);
+  }
+
   @Test(timeout = 10000)
   public void testBuildLocallyWithImmediateRemoteSynchronization() throws Exception {
     RemoteBuildRuleSynchronizer synchronizer = createRemoteBuildRuleSynchronizer();
@@ -567,6 +637,18 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
         .build();
   }
 
+  /** @return a policy that expects every fetch to take far longer than these rules to build. */
+  private SpeculativeBuildPolicy createSlowCacheSpeculativeBuildPolicy() {
+    SpeculativeBuildPolicy policy =
+        new SpeculativeBuildPolicy(
+            BuildRuleDurationHistory.load(tmp.getRoot().resolve("rule_durations")),
+            /* budgetMillis */ 60000,
+            /* maxRuleMillis */ 60000);
+    policy.recordMiss(60000);
+    policy.recordHit(1, 60000);
+    return policy;
+  }
+
   private RemoteBuildRuleSynchronizer createRemoteBuildRuleSynchronizer() {
     // Allow only up to 2 very quick backoffs.
     return new RemoteBuildRuleSynchronizer(
@@ -591,6 +673,9 @@ public class CachingBuildEngineInitializableFromDiskTest extends CommonFixture {
     fileHashCache.invalidateAll();
     try (CachingBuildEngine cachingBuildEngine =
         cachingBuildEngineFactory(synchronizer)
+            // Only deep builds have the deps of a rule that races its fetch.
+            .setBuildMode(speculativeBuildPolicy.isPresent() ? BuildType.DEEP : BuildType.SHALLOW)
+            .setSpeculativeBuildPolicy(speculativeBuildPolicy)
             .setDepFiles(DepFiles.CACHE)
             .setRuleKeyFactories(
                 RuleKeyFactories.of(
@@ -37,6 +37,7 @@ import static org.junit.Assert.fail;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactSink;
 import com.facebook.buck.artifact_cache.CacheDeleteResult;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
@@ -550,7 +551,8 @@ public class CachingBuildEngineTest {
               artifactCache.fetchAsync(
                   eq(buildRule.getBuildTarget()),
                   eq(defaultRuleKeyFactory.build(buildRule)),
-                  isA(LazyPath.class)))
+                  isA(LazyPath.class),
+                  isA(ArtifactSink.class)))
           .andDelegateTo(new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata));
 
       BuildEngineBuildContext buildContext =
@@ -641,7 +643,8 @@ public class CachingBuildEngineTest {
               artifactCache.fetchAsync(
                   eq(buildRule.getBuildTarget()),
                   eq(defaultRuleKeyFactory.build(buildRule)),
-                  isA(LazyPath.class)))
+                  isA(LazyPath.class),
+                  isA(ArtifactSink.class)))
           .andDelegateTo(new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries, metadata));
 
       BuildEngineBuildContext buildContext =
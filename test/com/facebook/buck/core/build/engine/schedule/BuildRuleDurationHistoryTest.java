@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BuildRuleDurationHistoryTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path historyPath;
+
+  @Before
+  public void setUp() {
+    historyPath = tmp.getRoot().resolve("buck-out/persistent_cache/rule_durations");
+  }
+
+  @Test
+  public void recordedDurationsSurviveSaveAndLoad() {
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    history.record(rule, 1200);
+    history.save();
+
+    BuildRuleDurationHistory loaded = BuildRuleDurationHistory.load(historyPath);
+    assertEquals(Optional.of(1200L), loaded.getRecordedMillis(rule));
+    assertEquals(1200, loaded.getEstimatedMillis(new FakeBuildRule("//:other")));
+  }
+
+  @Test
+  public void newDurationsAreAveragedWithRecordedOnes() {
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    history.record(rule, 100);
+    history.record(rule, 200);
+
+    assertEquals(Optional.of(150L), history.getRecordedMillis(rule));
+  }
+
+  @Test
+  public void unrecordedRulesAreEstimatedFromTheirType() {
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(historyPath);
+    history.record(new FakeBuildRule("//:a"), 100);
+    history.record(new FakeBuildRule("//:b"), 300);
+
+    BuildRule unrecorded = new FakeBuildRule("//:c");
+    assertEquals(Optional.empty(), history.getRecordedMillis(unrecorded));
+    assertEquals(200, history.getEstimatedMillis(unrecorded));
+    assertEquals(
+        BuildRuleDurationHistory.UNKNOWN_RULE_MILLIS,
+        history.getEstimatedMillis(new OtherFakeBuildRule("//:d")));
+  }
+
+  @Test
+  public void durationsOfAnotherRuleTypeAreIgnored() {
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(historyPath);
+    history.record(new FakeBuildRule("//:rule"), 100);
+
+    BuildRule changedRule = new OtherFakeBuildRule("//:rule");
+    assertEquals(Optional.empty(), history.getRecordedMillis(changedRule));
+    assertEquals(
+        BuildRuleDurationHistory.UNKNOWN_RULE_MILLIS, history.getEstimatedMillis(changedRule));
+
+    history.record(changedRule, 500);
+    assertEquals(Optional.of(500L), history.getRecordedMillis(changedRule));
+  }
+
+  @Test
+  public void unmodifiedHistoryIsNotWritten() {
+    BuildRuleDurationHistory.load(historyPath).save();
+    assertFalse(Files.exists(historyPath));
+  }
+
+  @Test
+  public void corruptHistoryIsTreatedAsEmpty() throws Exception {
+    Files.createDirectories(historyPath.getParent());
+    Files.write(historyPath, new byte[] {1, 2, 3});
+
+    BuildRuleDurationHistory history = BuildRuleDurationHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    assertEquals(Optional.empty(), history.getRecordedMillis(rule));
+
+    history.record(rule, 10);
+    history.save();
+    assertTrue(BuildRuleDurationHistory.load(historyPath).getRecordedMillis(rule).isPresent());
+  }
+
+  private static class OtherFakeBuildRule extends FakeBuildRule {
+    OtherFakeBuildRule(String target) {
+      super(BuildTargetFactory.newInstance(target));
+    }
+  }
+}
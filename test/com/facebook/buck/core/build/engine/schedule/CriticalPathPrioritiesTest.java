@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.action.BuildEngineAction;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import java.util.SortedSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CriticalPathPrioritiesTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private BuildRuleDurationHistory history;
+  private CriticalPathPriorities priorities;
+
+  @Before
+  public void setUp() {
+    history = BuildRuleDurationHistory.load(tmp.getRoot().resolve("rule_durations"));
+    priorities = new CriticalPathPriorities(new BuildDepsCache(), history);
+  }
+
+  @Test
+  public void rulesArePrioritizedByTheirRemainingChain() {
+    BuildRule base = rule("//:base", 30);
+    BuildRule middle = rule("//:middle", 20, base);
+    BuildRule top = rule("//:top", 10, middle);
+
+    priorities.addTopLevelRule(top);
+
+    assertEquals(10, priorities.getRemainingMillis(top));
+    assertEquals(30, priorities.getRemainingMillis(middle));
+    assertEquals(60, priorities.getRemainingMillis(base));
+  }
+
+  @Test
+  public void sharedDepsTakeTheLongestChain() {
+    BuildRule base = rule("//:base", 1);
+    BuildRule slow = rule("//:slow", 100, base);
+    BuildRule fast = rule("//:fast", 5, base);
+    BuildRule top = rule("//:top", 10, slow, fast);
+
+    priorities.addTopLevelRule(top);
+
+    assertEquals(110, priorities.getRemainingMillis(slow));
+    assertEquals(15, priorities.getRemainingMillis(fast));
+    assertEquals(111, priorities.getRemainingMillis(base));
+    assertEquals(
+        ImmutableList.of(base.getBuildTarget(), slow.getBuildTarget(), top.getBuildTarget()),
+        getTargets(priorities.getPredictedCriticalPath()));
+  }
+
+  @Test
+  public void laterTopLevelRulesLengthenTheChainsOfSharedDeps() {
+    BuildRule base = rule("//:base", 1);
+    BuildRule lib = rule("//:lib", 2, base);
+    BuildRule quickTop = rule("//:quick", 3, lib);
+    BuildRule slowTop = rule("//:slow", 50, lib);
+
+    priorities.addTopLevelRule(quickTop);
+    assertEquals(6, priorities.getRemainingMillis(base));
+
+    priorities.addTopLevelRule(slowTop);
+    assertEquals(52, priorities.getRemainingMillis(lib));
+    assertEquals(53, priorities.getRemainingMillis(base));
+    assertEquals(
+        ImmutableList.of(base.getBuildTarget(), lib.getBuildTarget(), slowTop.getBuildTarget()),
+        getTargets(priorities.getPredictedCriticalPath()));
+  }
+
+  @Test
+  public void rulesOutsideOfTheBuildHaveNoPriority() {
+    priorities.addTopLevelRule(rule("//:top", 10));
+    assertEquals(0, priorities.getRemainingMillis(rule("//:other", 10)));
+  }
+
+  private BuildRule rule(String target, long millis, BuildRule... deps) {
+    BuildRule rule = new FakeBuildRule(target, deps);
+    history.record(rule, millis);
+    return rule;
+  }
+
+  private static ImmutableList<BuildTarget> getTargets(
+      ImmutableList<PredictedCriticalPathEntry> path) {
+    return path.stream()
+        .map(PredictedCriticalPathEntry::getTarget)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private static class BuildDepsCache implements RuleDepsCache {
+    @Override
+    public SortedSet<BuildRule> get(BuildRule rule) {
+      return rule.getBuildDeps();
+    }
+
+    @Override
+    public SortedSet<BuildRule> getRuntimeDeps(BuildRule rule) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedSet<BuildEngineAction> get(BuildEngineAction buildEngineAction) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedSet<BuildEngineAction> getRuntimeDeps(BuildEngineAction buildEngineAction) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
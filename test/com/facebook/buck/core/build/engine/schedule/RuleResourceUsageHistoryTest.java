@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.ProcessResourceConsumption;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
+import com.facebook.buck.util.perf.ProcessTracker.ProcessResourceConsumptionEvent;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RuleResourceUsageHistoryTest {
+
+  private static final long MEMORY_UNIT = ResourceAmountsEstimator.MEMORY_UNIT_BYTES;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path historyPath;
+
+  @Before
+  public void setUp() {
+    historyPath = tmp.getRoot().resolve("buck-out/persistent_cache/rule_resource_usage");
+  }
+
+  @Test
+  public void usageIsConvertedToResourceAmounts() {
+    ResourceAmounts amounts =
+        RuleResourceUsageHistory.toResourceAmounts(
+            new RuleResourceUsageHistory.Usage(
+                1000,
+                3000,
+                5 * MEMORY_UNIT + 1,
+                RuleResourceUsageHistory.DISK_IO_UNIT_BYTES_PER_SECOND * 2));
+
+    assertEquals(ResourceAmounts.of(3, 6, 2, 0), amounts);
+  }
+
+  @Test
+  public void rulesThatUsedLittleAreGivenTheDefaultCpuAndMemory() {
+    ResourceAmounts amounts =
+        RuleResourceUsageHistory.toResourceAmounts(new RuleResourceUsageHistory.Usage(0, 0, 0, 0));
+
+    assertEquals(
+        ResourceAmounts.of(
+            1,
+            ResourceAmountsEstimator.DEFAULT_MEMORY_AMOUNT,
+            0,
+            ResourceAmountsEstimator.DEFAULT_NETWORK_IO_AMOUNT),
+        amounts);
+  }
+
+  @Test
+  public void processesAreAttributedThroughTheirContext() {
+    RuleResourceUsageHistory history = RuleResourceUsageHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+
+    history.processFinished(processEvent(rule, 1000, 4 * MEMORY_UNIT));
+    history.processFinished(processEvent(rule, 1000, 8 * MEMORY_UNIT));
+    history.processFinished(
+        new ProcessResourceConsumptionEvent(
+            "other",
+            Optional.empty(),
+            Optional.empty(),
+            Optional.of(consumption(100000, 100 * MEMORY_UNIT))));
+    history.recordLocalBuild(rule, 1000, 0);
+    history.commitPendingUsage();
+
+    ResourceAmounts amounts = history.getEstimatedAmounts(rule).get();
+    assertEquals(2, amounts.getCpu());
+    assertEquals(8, amounts.getMemory());
+  }
+
+  @Test
+  public void processesOfRulesThatWereNotBuiltLocallyAreDropped() {
+    RuleResourceUsageHistory history = RuleResourceUsageHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+
+    history.processFinished(processEvent(rule, 1000, MEMORY_UNIT));
+    history.save();
+
+    assertEquals(Optional.empty(), history.getEstimatedAmounts(rule));
+    assertFalse(Files.exists(historyPath));
+  }
+
+  @Test
+  public void usageSurvivesSaveAndLoad() {
+    RuleResourceUsageHistory history = RuleResourceUsageHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    history.recordProcess(rule.getFullyQualifiedName(), consumption(4000, 3 * MEMORY_UNIT));
+    history.recordLocalBuild(rule, 1000, 0);
+    history.save();
+
+    RuleResourceUsageHistory loaded = RuleResourceUsageHistory.load(historyPath);
+    assertEquals(ResourceAmounts.of(4, 3, 0, 0), loaded.getEstimatedAmounts(rule).get());
+    assertEquals(
+        "Targets that were never built are estimated from their type.",
+        ResourceAmounts.of(4, 3, 0, 0),
+        loaded.getEstimatedAmounts(new FakeBuildRule("//:other")).get());
+  }
+
+  @Test
+  public void onlyTheLastSamplesOfATargetAreKept() {
+    RuleResourceUsageHistory history = RuleResourceUsageHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    for (int i = 0; i < RuleResourceUsageHistory.SAMPLES_PER_RULE + 2; i++) {
+      history.recordProcess(rule.getFullyQualifiedName(), consumption(10000, MEMORY_UNIT));
+      history.recordLocalBuild(rule, 1000, 0);
+      history.commitPendingUsage();
+    }
+    for (int i = 0; i < RuleResourceUsageHistory.SAMPLES_PER_RULE; i++) {
+      history.recordLocalBuild(rule, 1000, 2000);
+      history.commitPendingUsage();
+    }
+
+    assertEquals(
+        ImmutableMap.of(rule.getFullyQualifiedName(), RuleResourceUsageHistory.SAMPLES_PER_RULE),
+        history.getSampleCounts());
+    assertEquals(2, history.getEstimatedAmounts(rule).get().getCpu());
+  }
+
+  @Test
+  public void corruptHistoryIsTreatedAsEmpty() throws Exception {
+    Files.createDirectories(historyPath.getParent());
+    Files.write(historyPath, new byte[] {1, 2, 3});
+
+    RuleResourceUsageHistory history = RuleResourceUsageHistory.load(historyPath);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    assertEquals(Optional.empty(), history.getEstimatedAmounts(rule));
+
+    history.recordLocalBuild(rule, 10, 10);
+    history.save();
+    assertTrue(RuleResourceUsageHistory.load(historyPath).getEstimatedAmounts(rule).isPresent());
+  }
+
+  private static ProcessResourceConsumptionEvent processEvent(
+      BuildRule rule, long cpuMillis, long memResident) {
+    return new ProcessResourceConsumptionEvent(
+        "javac",
+        Optional.empty(),
+        Optional.of(
+            ImmutableMap.of(
+                RuleResourceUsageHistory.BUILD_TARGET_CONTEXT_KEY, rule.getFullyQualifiedName())),
+        Optional.of(consumption(cpuMillis, memResident)));
+  }
+
+  private static ProcessResourceConsumption consumption(long cpuMillis, long memResident) {
+    return ProcessResourceConsumption.of(memResident, memResident, 0, 0, 0, cpuMillis, 0, 0, 0);
+  }
+}
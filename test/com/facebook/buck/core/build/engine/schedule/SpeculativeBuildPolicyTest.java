@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.core.build.engine.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.util.OptionalLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SpeculativeBuildPolicyTest {
+
+  private static final double DELTA = 0.001;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private BuildRuleDurationHistory history;
+
+  @Before
+  public void setUp() {
+    history =
+        BuildRuleDurationHistory.load(
+            tmp.getRoot().resolve("buck-out/persistent_cache/rule_durations"));
+  }
+
+  @Test
+  public void fetchesAreNotPredictedBeforeAnyHit() {
+    SpeculativeBuildPolicy policy = new SpeculativeBuildPolicy(history, 10000, 2000);
+    policy.recordMiss(50);
+
+    assertFalse(policy.predictFetchMillis(1000).isPresent());
+  }
+
+  @Test
+  public void fetchesTakeTheLatencyOfMissesPlusTheTransferOfHits() {
+    SpeculativeBuildPolicy policy = new SpeculativeBuildPolicy(history, 10000, 2000);
+    policy.recordMiss(100);
+    // 1000 bytes transferred in the 400ms after the latency.
+    policy.recordHit(1000, 500);
+
+    assertEquals(100 + 2000 * 0.4, policy.predictFetchMillis(2000).getAsDouble(), DELTA);
+  }
+
+  @Test
+  public void cheapRulesWithSlowFetchesAreBuiltWithinTheBudget() {
+    SpeculativeBuildPolicy policy = new SpeculativeBuildPolicy(history, 500, 2000);
+    BuildRule first = new FakeBuildRule("//:first");
+    BuildRule second = new FakeBuildRule("//:second");
+    history.record(first, 200);
+    history.record(second, 400);
+    // 1 byte per ms.
+    policy.recordHit(1000, 1000);
+
+    assertEquals(OptionalLong.of(200), policy.reserve(first, 5000));
+    // Only 300ms of the budget are left.
+    assertEquals(OptionalLong.empty(), policy.reserve(second, 5000));
+    policy.refund(200);
+    assertEquals(OptionalLong.of(400), policy.reserve(second, 5000));
+  }
+
+  @Test
+  public void rulesAreOnlyBuiltWhenTheFetchIsExpectedToTakeMuchLonger() {
+    SpeculativeBuildPolicy policy = new SpeculativeBuildPolicy(history, 10000, 2000);
+    BuildRule rule = new FakeBuildRule("//:rule");
+    history.record(rule, 200);
+    policy.recordHit(1000, 1000);
+
+    assertEquals(
+        OptionalLong.empty(),
+        policy.reserve(rule, (long) (SpeculativeBuildPolicy.MIN_FETCH_TO_BUILD_RATIO * 200) - 1));
+    assertEquals(
+        OptionalLong.of(200),
+        policy.reserve(rule, (long) (SpeculativeBuildPolicy.MIN_FETCH_TO_BUILD_RATIO * 200)));
+  }
+
+  @Test
+  public void expensiveAndUnrecordedRulesAreNotBuilt() {
+    SpeculativeBuildPolicy policy = new SpeculativeBuildPolicy(history, 100000, 2000);
+    BuildRule expensive = new FakeBuildRule("//:expensive");
+    history.record(expensive, 3000);
+    policy.recordHit(1, 1000);
+
+    assertEquals(OptionalLong.empty(), policy.reserve(expensive, 1000000));
+    assertEquals(OptionalLong.empty(), policy.reserve(new FakeBuildRule("//:new"), 1000000));
+  }
+}
@@ -17,7 +17,9 @@
 package com.facebook.buck.core.resources;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.BuckConfigTestUtils;
@@ -28,6 +30,7 @@ import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -76,4 +79,41 @@ public class ResourcesConfigTest {
     }
     assertThat("IllegalArgumentException should be thrown", Matchers.equalTo(""));
   }
+
+  @Test
+  public void testMemoryPressureReserve() throws IOException {
+    Reader reader =
+        new StringReader(
+            Joiner.on('\n')
+                .join(
+                    "[resources]",
+                    "resource_aware_scheduling_enabled = true",
+                    "memory_pressure_reserve = 2GB"));
+    BuckConfig config = BuckConfigTestUtils.createWithDefaultFilesystem(temporaryFolder, reader);
+    ResourcesConfig resourcesConfig = config.getView(ResourcesConfig.class);
+    assertEquals(Optional.of(2L * 1024 * 1024 * 1024), resourcesConfig.getMemoryPressureReserve());
+    assertTrue(resourcesConfig.getConcurrencyLimit().memoryPressureCap.isPresent());
+    assertFalse(resourcesConfig.isLearnedResourceAmountsEnabled());
+  }
+
+  @Test
+  public void testBlockingThreadCountRequiresResourceAwareScheduling() throws IOException {
+    BuckConfig config =
+        BuckConfigTestUtils.createWithDefaultFilesystem(
+            temporaryFolder, new StringReader("[resources]\nblocking_thread_count = 64"));
+    assertEquals(Optional.empty(), config.getView(ResourcesConfig.class).getBlockingThreadCount());
+
+    config =
+        BuckConfigTestUtils.createWithDefaultFilesystem(
+            temporaryFolder,
+            new StringReader(
+                Joiner.on('\n')
+                    .join(
+                        "[resources]",
+                        "resource_aware_scheduling_enabled = true",
+                        "blocking_thread_count = 64")));
+    ResourcesConfig resourcesConfig = config.getView(ResourcesConfig.class);
+    assertEquals(Optional.of(64), resourcesConfig.getBlockingThreadCount());
+    assertEquals(Optional.of(64), resourcesConfig.getConcurrencyLimit().blockingThreadCount);
+  }
 }
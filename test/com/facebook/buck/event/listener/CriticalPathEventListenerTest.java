@@ -19,17 +19,26 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import com.facebook.buck.core.build.engine.schedule.ImmutablePredictedCriticalPathEntry;
+import com.facebook.buck.core.build.engine.schedule.PredictedCriticalPathEvent;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.event.CommandEvent;
 import com.facebook.buck.event.listener.CriticalPathEventListener.CriticalPathNode;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.ExitCode;
 import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.OptionalLong;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
@@ -123,6 +132,34 @@ public class CriticalPathEventListenerTest {
     assertCriticalPathPair(iterator.next(), "d", 4, 7, "f");
   }
 
+  @SuppressWarnings("unused")
+  @Test
+  public void predictedCriticalPathIsComparedWithTheActualOne() throws Exception {
+    Path outputPath = tmp.getRoot().resolve("critical_path.log");
+    listener = new CriticalPathEventListener(outputPath);
+    BuildRule c = execRule("c", 2);
+    BuildRule b = execRule("b", 8, c);
+    BuildRule a = execRule("a", 1, b);
+    BuildRule d = new FakeBuildRule("//:d");
+
+    listener.subscribe(
+        PredictedCriticalPathEvent.of(
+            ImmutableList.of(
+                new ImmutablePredictedCriticalPathEntry(c.getBuildTarget(), c.getType(), 3),
+                new ImmutablePredictedCriticalPathEntry(d.getBuildTarget(), d.getType(), 4))));
+    listener.commandFinished(
+        CommandEvent.finished(
+            CommandEvent.started("build", ImmutableList.of(), OptionalLong.empty(), 1),
+            ExitCode.SUCCESS));
+
+    List<String> lines = Files.readAllLines(outputPath);
+    assertThat(
+        lines,
+        Matchers.hasItem("Predicted critical path: 7 ms estimated, actual critical path: 11 ms"));
+    assertThat(lines, Matchers.hasItem(Matchers.matchesPattern("\\s+3\\s+2\\s+yes\\s.*//:c")));
+    assertThat(lines, Matchers.hasItem(Matchers.matchesPattern("\\s+4\\s+-\\s+no\\s.*//:d")));
+  }
+
   private BuildRule cachedRule(String buildTargetName, BuildRule... buildRules) {
     return execRule(buildTargetName, 0, buildRules);
   }
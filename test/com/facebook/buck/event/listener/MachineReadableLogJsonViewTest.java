@@ -234,7 +234,10 @@ public class MachineReadableLogJsonViewTest {
             + "\"totalCacheHits\":3,\"totalCacheErrors\":3,"
             + "\"totalCacheMisses\":0,\"totalCacheIgnores\":5,\"totalCacheBytes\":3,\""
             + "totalCacheLocalKeyUnchangedHits\":0,"
-            + "\"successUploadCount\":2,\"failureUploadCount\":0}");
+            + "\"successUploadCount\":2,\"failureUploadCount\":0,"
+            + "\"totalPrefetchHits\":0,\"totalPrefetchWastedBytes\":0,"
+            + "\"totalMemoryCacheHits\":0,\"totalMemoryCacheMisses\":0,"
+            + "\"totalMemoryCacheEvictions\":0,\"totalNegativeLookupFilterHits\":0}");
   }
 
   private void assertJsonEquals(String expected, String actual) {
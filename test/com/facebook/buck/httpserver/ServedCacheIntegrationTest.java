@@ -21,12 +21,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.ClientCertificateHandler;
 import com.facebook.buck.artifact_cache.DirArtifactCacheTestUtil;
+import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
+import com.facebook.buck.artifact_cache.MemoryArtifactCacheStore;
+import com.facebook.buck.artifact_cache.NegativeLookupFilters;
 import com.facebook.buck.artifact_cache.TestArtifactCaches;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.core.cell.CellPathResolver;
@@ -51,10 +55,13 @@ import com.facebook.buck.io.filesystem.impl.DefaultProjectFilesystemFactory;
 import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
 import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.concurrent.ExplicitRunExecutorService;
 import com.facebook.buck.util.environment.Architecture;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -65,6 +72,9 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -176,6 +186,35 @@ public class ServedCacheIntegrationTest {
         projectFilesystem.readFileIfItExists(fetchedContents).get(), Matchers.equalTo(A_FILE_DATA));
   }
 
+  @Test
+  public void testMultiContainsFromServedDircache() throws Exception {
+    webServer = new WebServer(/* port */ 0, projectFilesystem);
+    webServer.updateAndStartIfNeeded(Optional.of(dirCache));
+
+    ArtifactCache serverBackedCache =
+        createArtifactCache(
+            createMockLocalConfig(
+                "[cache]",
+                "mode = http",
+                String.format("http_url = http://127.0.0.1:%d/", webServer.getPort()),
+                "negative_lookup_filter_enabled = true"));
+
+    RuleKey missingRuleKey = new RuleKey("1111111111111111111111111111111111111111");
+    ImmutableMap<RuleKey, CacheResult> results =
+        Futures.getUnchecked(
+            serverBackedCache.multiContainsAsync(ImmutableSet.of(A_FILE_RULE_KEY, missingRuleKey)));
+    assertThat(results.get(A_FILE_RULE_KEY).getType(), Matchers.is(CacheResultType.CONTAINS));
+    assertThat(results.get(missingRuleKey).getType(), Matchers.is(CacheResultType.MISS));
+
+    // The missing key is now answered without asking the server, which we verify by stopping it.
+    webServer.stop();
+    CacheResult cacheResult =
+        Futures.getUnchecked(
+            serverBackedCache.fetchAsync(
+                null, missingRuleKey, LazyPath.ofInstance(tmpDir.newFile())));
+    assertThat(cacheResult.getType(), Matchers.is(CacheResultType.MISS));
+  }
+
   private static class ThrowAfterXBytesStream extends FilterInputStream {
     private final long bytesToThrowAfter;
     private long bytesRead = 0L;
@@ -460,6 +499,66 @@ public class ServedCacheIntegrationTest {
         projectFilesystem.readFileIfItExists(fetchedContents.get()).get(), Matchers.equalTo(data));
   }
 
+  @Test
+  public void testMultiStoreAndFetch() throws Exception {
+    webServer = new WebServer(/* port */ 0, projectFilesystem);
+    webServer.updateAndStartIfNeeded(
+        ArtifactCaches.newServedCache(
+            createMockLocalConfig(
+                "[cache]",
+                "dir = test-cache",
+                "serve_local_cache = true",
+                "served_local_cache_mode = readwrite"),
+            unconfiguredBuildTargetFactory,
+            targetConfigurationSerializer,
+            projectFilesystem));
+
+    List<Optional<Integer>> storeBatchSizes = new ArrayList<>();
+    buckEventBus.register(
+        new Object() {
+          @Subscribe
+          public void storeFinished(HttpArtifactCacheEvent.Finished event) {
+            if (event.getOperation() == ArtifactCacheEvent.Operation.STORE) {
+              storeBatchSizes.add(event.getStoreData().getBatchSize());
+            }
+          }
+        });
+    ExplicitRunExecutorService writeExecutorService = new ExplicitRunExecutorService();
+    ArtifactCache serverBackedCache =
+        createArtifactCache(
+            createMockLocalConfig(
+                "[cache]",
+                "mode = http",
+                String.format("http_url = http://127.0.0.1:%d/", webServer.getPort()),
+                "http_multi_store_limit = 2"),
+            writeExecutorService);
+
+    ImmutableMap<RuleKey, String> artifacts =
+        ImmutableMap.of(
+            new RuleKey("00111222333444"), "first artifact",
+            new RuleKey("00111222333555"), "second artifact");
+    for (Map.Entry<RuleKey, String> artifact : artifacts.entrySet()) {
+      Path dataPath = tmpDir.newFile();
+      projectFilesystem.writeContentsToPath(artifact.getValue(), dataPath);
+      serverBackedCache.store(
+          ArtifactInfo.builder().addRuleKeys(artifact.getKey()).build(),
+          BorrowablePath.notBorrowablePath(dataPath));
+    }
+    writeExecutorService.run();
+    assertThat(storeBatchSizes, Matchers.contains(Optional.of(2), Optional.of(2)));
+
+    for (Map.Entry<RuleKey, String> artifact : artifacts.entrySet()) {
+      LazyPath fetchedContents = LazyPath.ofInstance(tmpDir.newFile());
+      CacheResult cacheResult =
+          Futures.getUnchecked(
+              serverBackedCache.fetchAsync(null, artifact.getKey(), fetchedContents));
+      assertThat(cacheResult.getType().isSuccess(), Matchers.is(true));
+      assertThat(
+          projectFilesystem.readFileIfItExists(fetchedContents.get()).get(),
+          Matchers.equalTo(artifact.getValue()));
+    }
+  }
+
   @Test
   public void testStoreDisabled() throws Exception {
     webServer = new WebServer(/* port */ 0, projectFilesystem);
@@ -557,6 +656,11 @@ public class ServedCacheIntegrationTest {
   }
 
   private ArtifactCache createArtifactCache(ArtifactCacheBuckConfig buckConfig) {
+    return createArtifactCache(buckConfig, DIRECT_EXECUTOR_SERVICE);
+  }
+
+  private ArtifactCache createArtifactCache(
+      ArtifactCacheBuckConfig buckConfig, ListeningExecutorService httpWriteExecutorService) {
     return new ArtifactCaches(
             buckConfig,
             buckEventBus,
@@ -564,14 +668,18 @@ public class ServedCacheIntegrationTest {
             TargetConfigurationSerializerForTests.create(cellPathResolver),
             projectFilesystem,
             Optional.empty(),
-            DIRECT_EXECUTOR_SERVICE,
+            httpWriteExecutorService,
             DIRECT_EXECUTOR_SERVICE,
             DIRECT_EXECUTOR_SERVICE,
             DIRECT_EXECUTOR_SERVICE,
             managerScope,
             "test://",
             "hostname",
-            ClientCertificateHandler.fromConfiguration(buckConfig))
+            ClientCertificateHandler.fromConfiguration(buckConfig),
+            new MemoryArtifactCacheStore(
+                buckConfig.getMemoryCacheMaxSizeBytes(),
+                buckConfig.getMemoryCacheMaxArtifactSizeBytes()),
+            new NegativeLookupFilters())
         .newInstance();
   }
 }
@@ -47,6 +47,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import java.io.ByteArrayInputStream;
@@ -72,6 +73,7 @@ import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -766,4 +768,15 @@ public class DefaultProjectFilesystemTest {
 
     filesystem.computeSha1(Paths.get("afakefile.txt"));
   }
+
+  @Test
+  public void testComputeShaOfLargeFile() throws IOException {
+    byte[] contents = new byte[3 * 1024 * 1024 + 17];
+    new Random(42).nextBytes(contents);
+    filesystem.writeBytesToPath(contents, Paths.get("large.bin"));
+
+    assertEquals(
+        Hashing.sha1().hashBytes(contents),
+        filesystem.computeSha1(Paths.get("large.bin")).asHashCode());
+  }
 }
@@ -42,6 +42,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -65,6 +66,8 @@ public class WatchmanWatcherTest {
   private static final List<Object> FAKE_UUID_QUERY = FAKE_QUERY.toList("n:buckduuid");
   private static final List<Object> FAKE_CLOCK_QUERY = FAKE_QUERY.toList("c:0:0");
 
+  private static final String SHA1 = "0123456789abcdef0123456789abcdef01234567";
+
   private static final Path FAKE_SECONDARY_ROOT = Paths.get("/fake/secondary").toAbsolutePath();
   private static final WatchmanQuery FAKE_SECONDARY_QUERY =
       new ImmutableWatchmanQuery("/fake/SECONDARY", ImmutableMap.of());
@@ -578,6 +581,77 @@ public class WatchmanWatcherTest {
     assertEquals(1, eventBuffer.filterEventsByClass(WatchmanOverflowEvent.class).size());
   }
 
+  @Test
+  public void watchmanQueryRequestsContentHashesIfSupported() {
+    WatchmanQuery query =
+        WatchmanWatcher.createQuery(
+            ProjectWatch.of("/path/to/repo", Optional.empty()),
+            ImmutableSet.of(),
+            ImmutableSet.of(Capability.CONTENT_SHA1HEX));
+
+    assertThat(
+        query.toList(""),
+        hasItem(
+            hasEntry(
+                "fields",
+                ImmutableList.of("name", "exists", "new", "type", "content.sha1hex"))));
+  }
+
+  @Test
+  public void contentHashesOfChangedFilesArePosted() throws IOException, InterruptedException {
+    ImmutableMap<String, Object> watchmanOutput =
+        ImmutableMap.of(
+            "files",
+            ImmutableList.of(
+                ImmutableMap.<String, Object>of("name", "foo/hashed", "content.sha1hex", SHA1),
+                ImmutableMap.<String, Object>of(
+                    "name", "foo/declined", "content.sha1hex", ImmutableMap.of("error", "large")),
+                ImmutableMap.<String, Object>of("name", "foo/deleted", "exists", false)));
+    WatchmanWatcher watcher = createWatcher(eventBus, watchmanOutput);
+    watcher.postEvents(
+        BuckEventBusForTests.newInstance(FakeClock.doNotCare()),
+        WatchmanWatcher.FreshInstanceAction.NONE);
+
+    WatchmanContentHashEvent event = eventBuffer.getOnlyEvent(WatchmanContentHashEvent.class);
+    assertEquals(
+        ImmutableMap.of(Paths.get("foo/hashed"), HashCode.fromString(SHA1)),
+        event.getContentHashes());
+    assertEquals(3, eventBuffer.filterEventsByClass(WatchmanPathEvent.class).size());
+  }
+
+  @Test
+  public void freshInstancesDoNotQueryContentHashes() throws IOException, InterruptedException {
+    WatchmanQuery query =
+        new ImmutableWatchmanQuery(
+            "/fake/root",
+            ImmutableMap.of(
+                "empty_on_fresh_instance",
+                true,
+                "fields",
+                ImmutableList.of("name", "exists", "new", "type", "content.sha1hex")));
+    // Any other query would fail.
+    FakeWatchmanClient client =
+        new FakeWatchmanClient(
+            0 /* queryElapsedTimeNanos */,
+            ImmutableMap.of(
+                query.toList("n:buckduuid"), ImmutableMap.of("is_fresh_instance", true)));
+    WatchmanWatcher watcher =
+        new WatchmanWatcher(
+            eventBus,
+            () -> client,
+            10000 /* timeout */,
+            ImmutableMap.of(FAKE_ROOT, query),
+            ImmutableMap.of(FAKE_ROOT, new WatchmanCursor("n:buckduuid")),
+            /* numThreads */ 1);
+
+    watcher.postEvents(
+        BuckEventBusForTests.newInstance(FakeClock.doNotCare()),
+        WatchmanWatcher.FreshInstanceAction.POST_OVERFLOW_EVENT);
+
+    assertEquals(1, eventBuffer.filterEventsByClass(WatchmanOverflowEvent.class).size());
+    assertTrue(eventBuffer.filterEventsByClass(WatchmanContentHashEvent.class).isEmpty());
+  }
+
   @Test
   public void whenWatchmanReportsZeroFilesChangedThenPostEvent()
       throws IOException, InterruptedException {
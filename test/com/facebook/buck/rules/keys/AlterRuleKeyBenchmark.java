@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.testutil.DummyFileHashCache;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import java.lang.reflect.Field;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures reading {@link AddToRuleKey} fields through reflection, both on their own and as part of
+ * building a rule key. This is the baseline to compare other ways of reading them against.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class AlterRuleKeyBenchmark {
+
+  private Appendable appendable;
+  private ImmutableList<ValueExtractor> valueExtractors;
+  private ImmutableCollection<AlterRuleKey> alterRuleKeys;
+  private SourcePathRuleFinder ruleFinder;
+  private FileHashLoader hashLoader;
+  private RuleKeyFactory<RuleKey> ruleKeyFactory;
+
+  @Setup
+  public void setUp() {
+    appendable = new Appendable();
+
+    ImmutableList.Builder<ValueExtractor> builder = ImmutableList.builder();
+    for (Field field : Appendable.class.getDeclaredFields()) {
+      if (field.getAnnotation(AddToRuleKey.class) != null) {
+        field.setAccessible(true);
+        builder.add(new FieldValueExtractor(field));
+      }
+    }
+    valueExtractors = builder.build();
+    alterRuleKeys = new ReflectiveAlterKeyLoader().load(Appendable.class);
+
+    ruleFinder = new TestActionGraphBuilder();
+    hashLoader = new DummyFileHashCache();
+    ruleKeyFactory = new TestDefaultRuleKeyFactory(hashLoader, ruleFinder);
+  }
+
+  @Benchmark
+  public void extractValues(Blackhole blackhole) {
+    for (ValueExtractor valueExtractor : valueExtractors) {
+      blackhole.consume(valueExtractor.getValue(appendable));
+    }
+  }
+
+  @Benchmark
+  public RuleKey buildRuleKey() {
+    RuleKeyBuilder<?> builder = new UncachedRuleKeyBuilder(ruleFinder, hashLoader, ruleKeyFactory);
+    for (AlterRuleKey alterRuleKey : alterRuleKeys) {
+      alterRuleKey.amendKey(builder, appendable);
+    }
+    return builder.build(hashCode -> new RuleKey(hashCode.toString()));
+  }
+
+  /** A rule key appendable with fields of the kinds rules commonly add to their rule keys. */
+  private static class Appendable implements AddsToRuleKey {
+    @AddToRuleKey private final String name = "name";
+    @AddToRuleKey private final int count = 42;
+    @AddToRuleKey private final boolean flag = true;
+    @AddToRuleKey private final long size = 1L << 40;
+    @AddToRuleKey private final Optional<String> optional = Optional.of("optional");
+    @AddToRuleKey private final Optional<String> absent = Optional.empty();
+
+    @AddToRuleKey
+    private final ImmutableList<String> flags = ImmutableList.of("-O2", "-g", "-Wall", "-Werror");
+
+    @AddToRuleKey private final ImmutableList<Integer> numbers = ImmutableList.of(1, 2, 3, 4, 5);
+    @AddToRuleKey private final String platform = "linux-x86_64";
+    @AddToRuleKey private final String version = "1.0";
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(AlterRuleKeyBenchmark.class.getName())
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.cache.CacheStatsTracker;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures populating, querying and invalidating a {@link DefaultRuleKeyCache} holding the keys of
+ * a large number of appendables. Run with {@code -prof gc} to see how much each operation
+ * allocates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class DefaultRuleKeyCacheBenchmark {
+
+  private static final int NODE_COUNT = 100_000;
+  private static final int NODES_PER_INPUT = 4;
+
+  private final CacheStatsTracker statsTracker = new NoOpCacheStatsTracker();
+
+  private List<Appendable> appendables;
+  private List<RuleKeyResult<RuleKey>> results;
+  private ImmutableList<RuleKeyInput> inputs;
+  private Function<AddsToRuleKey, RuleKeyResult<RuleKey>> create;
+  private DefaultRuleKeyCache<RuleKey> populatedCache;
+
+  @Setup
+  public void setUp() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    RuleKey ruleKey = new RuleKey("a94a8fe5ccb19ba61c4c0873d391e987982fbbd3");
+    appendables = new ArrayList<>(NODE_COUNT);
+    results = new ArrayList<>(NODE_COUNT);
+    ImmutableList.Builder<RuleKeyInput> inputsBuilder = ImmutableList.builder();
+
+    for (int i = 0; i < NODE_COUNT; i++) {
+      appendables.add(new Appendable(i));
+
+      // Depend on a couple of earlier nodes, so that invalidations spread up the graph.
+      ImmutableList.Builder<Object> deps = ImmutableList.builder();
+      if (i > 0) {
+        deps.add(appendables.get(i - 1));
+        deps.add(appendables.get(i / 2));
+      }
+      ImmutableList<RuleKeyInput> nodeInputs = ImmutableList.of();
+      if (i % NODES_PER_INPUT == 0) {
+        RuleKeyInput input =
+            new ImmutableRuleKeyInput(filesystem, Paths.get("module" + i / 100, "Source" + i));
+        inputsBuilder.add(input);
+        nodeInputs = ImmutableList.of(input);
+      }
+      results.add(new RuleKeyResult<>(ruleKey, deps.build(), nodeInputs));
+    }
+    inputs = inputsBuilder.build();
+    create = appendable -> results.get(((Appendable) appendable).index);
+
+    populatedCache = new DefaultRuleKeyCache<>();
+    for (Appendable appendable : appendables) {
+      populatedCache.get(appendable, create, statsTracker);
+    }
+  }
+
+  private void populate(DefaultRuleKeyCache<RuleKey> cache, Blackhole blackhole) {
+    for (Appendable appendable : appendables) {
+      blackhole.consume(cache.get(appendable, create, statsTracker));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void populate(Blackhole blackhole) {
+    populate(new DefaultRuleKeyCache<>(), blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void lookup(Blackhole blackhole) {
+    populate(populatedCache, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NODE_COUNT)
+  public void populateAndInvalidate(Blackhole blackhole) {
+    DefaultRuleKeyCache<RuleKey> cache = new DefaultRuleKeyCache<>();
+    populate(cache, blackhole);
+    cache.invalidateInputs(inputs, statsTracker);
+  }
+
+  private static class Appendable implements AddsToRuleKey {
+    private final int index;
+
+    private Appendable(int index) {
+      this.index = index;
+    }
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(DefaultRuleKeyCacheBenchmark.class.getName())
+                .build())
+        .run();
+  }
+}
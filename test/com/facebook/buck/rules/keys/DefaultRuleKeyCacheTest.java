@@ -16,6 +16,7 @@
 
 package com.facebook.buck.rules.keys;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -63,6 +64,19 @@ public class DefaultRuleKeyCacheTest {
         });
   }
 
+  @Test
+  public void testResultsAreOnlyKeptWhenRequested() {
+    for (boolean keepResults : new boolean[] {false, true}) {
+      DefaultRuleKeyCache<String> internalCache = new DefaultRuleKeyCache<>(keepResults);
+      TrackedRuleKeyCache<String> cache =
+          new TrackedRuleKeyCache<>(internalCache, new InstrumentingCacheStatsTracker());
+      TestRule rule = new TestRule();
+      cache.get(rule, r -> new RuleKeyResult<>("", ImmutableList.of(), ImmutableList.of()));
+      assertTrue(internalCache.isCached(rule));
+      assertEquals(keepResults ? 1 : 0, internalCache.getCachedBuildRuleResults().size());
+    }
+  }
+
   @Test
   public void testInvalidateInputToCachedRule() {
     DefaultRuleKeyCache<String> internalCache = new DefaultRuleKeyCache<>();
@@ -37,6 +37,7 @@ import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.keys.RuleKeyDiagnostics.Result;
+import com.facebook.buck.rules.keys.config.RuleKeyHashFunction;
 import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.testutil.DummyFileHashCache;
@@ -120,6 +121,55 @@ public class DefaultRuleKeyFactoryTest {
     assertThat(result.diagKey, Matchers.containsString("cake-walk"));
   }
 
+  @Test
+  public void ruleKeysDependOnTheConfiguredHashFunction() {
+    BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
+    SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
+    BuildRule rule = new EmptyFakeBuildRule(target);
+
+    RuleKey sha1Key =
+        new DefaultRuleKeyFactory(
+                new RuleKeyFieldLoader(
+                    TestRuleKeyConfigurationFactory.createWithHashFunction(
+                        RuleKeyHashFunction.SHA1)),
+                new DummyFileHashCache(),
+                ruleFinder)
+            .build(rule);
+    RuleKey murmur3Key =
+        new DefaultRuleKeyFactory(
+                new RuleKeyFieldLoader(
+                    TestRuleKeyConfigurationFactory.createWithHashFunction(
+                        RuleKeyHashFunction.MURMUR3_128)),
+                new DummyFileHashCache(),
+                ruleFinder)
+            .build(rule);
+
+    assertEquals(
+        new TestDefaultRuleKeyFactory(new DummyFileHashCache(), ruleFinder).build(rule), sha1Key);
+    assertNotEquals(sha1Key, murmur3Key);
+    assertEquals(32, murmur3Key.toString().length());
+  }
+
+  @Test
+  public void nonDefaultHashFunctionsAreAddedToRuleKeys() {
+    BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
+    SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
+    BuildRule rule = new EmptyFakeBuildRule(target);
+
+    for (RuleKeyHashFunction hashFunction : RuleKeyHashFunction.values()) {
+      DefaultRuleKeyFactory factory =
+          new DefaultRuleKeyFactory(
+              new RuleKeyFieldLoader(
+                  TestRuleKeyConfigurationFactory.createWithHashFunction(hashFunction)),
+              new DummyFileHashCache(),
+              ruleFinder);
+      Result<RuleKey, String> result = factory.buildForDiagnostics(rule, new StringRuleKeyHasher());
+      assertEquals(
+          hashFunction != RuleKeyHashFunction.DEFAULT,
+          result.diagKey.contains(".rule_key_hash_function"));
+    }
+  }
+
   @Test
   public void shouldAllowAFieldToBeStringified() {
     BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.actiongraph.ActionGraph;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.FakeProjectFileHashCache;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.CacheStats;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.hash.HashCode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RuleKeyCacheSnapshotTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final Path SNAPSHOT_PATH = Paths.get("buck-out/persistent_cache/rule_keys");
+  private static final HashCode SETTINGS = HashCode.fromString("5e771465");
+  private static final HashCode FINGERPRINT = HashCode.fromString("f1");
+
+  private ProjectFilesystem filesystem;
+  private Map<Path, HashCode> fileHashes;
+  private FakeProjectFileHashCache hashCache;
+  private Path input;
+  private BuildRule dep;
+  private BuildRule rule;
+  private Map<String, String> ruleKeys;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    input = filesystem.getPath("Input.java");
+    fileHashes = new HashMap<>();
+    fileHashes.put(input, HashCode.fromString("0a"));
+    hashCache = new FakeProjectFileHashCache(filesystem, fileHashes);
+    dep = new FakeBuildRule(BuildTargetFactory.newInstance("//:dep"));
+    rule = new FakeBuildRule(BuildTargetFactory.newInstance("//:rule"));
+    ruleKeys = new HashMap<>();
+    ruleKeys.put("//:dep", "d0");
+    ruleKeys.put("//:rule", "e0");
+  }
+
+  @Test
+  public void ruleKeysAreReadBackWithTheirInputsAndDeps() {
+    writeSnapshot();
+
+    RuleKeyCacheSnapshot<String> snapshot = newSnapshot(SETTINGS);
+    Optional<RuleKeyResult<String>> result = getRule(snapshot, FINGERPRINT);
+
+    assertEquals("e0", result.get().result);
+    assertEquals(ImmutableList.of(dep), result.get().deps);
+    assertEquals(
+        ImmutableList.of(new ImmutableRuleKeyInput(filesystem, input)), result.get().inputs);
+    assertEquals(Optional.of(1L), snapshot.getAndResetStats().getHitCount());
+  }
+
+  @Test
+  public void ruleKeysWithChangedInputsAreNotUsed() {
+    writeSnapshot();
+    fileHashes.put(input, HashCode.fromString("0b"));
+
+    RuleKeyCacheSnapshot<String> snapshot = newSnapshot(SETTINGS);
+
+    assertFalse(getRule(snapshot, FINGERPRINT).isPresent());
+    assertEquals(Optional.of(1L), snapshot.getAndResetStats().getMissMatchCount());
+  }
+
+  @Test
+  public void ruleKeysOfChangedTargetsAreNotUsed() {
+    writeSnapshot();
+
+    RuleKeyCacheSnapshot<String> snapshot = newSnapshot(SETTINGS);
+
+    assertFalse(getRule(snapshot, HashCode.fromString("f2")).isPresent());
+    assertEquals(Optional.of(1L), snapshot.getAndResetStats().getMissMatchCount());
+  }
+
+  @Test
+  public void ruleKeysWithChangedDepsAreNotUsed() {
+    writeSnapshot();
+    ruleKeys.put("//:dep", "d1");
+
+    RuleKeyCacheSnapshot<String> snapshot = newSnapshot(SETTINGS);
+
+    assertFalse(getRule(snapshot, FINGERPRINT).isPresent());
+    assertEquals(Optional.of(1L), snapshot.getAndResetStats().getMissMatchCount());
+  }
+
+  @Test
+  public void snapshotsWrittenWithDifferentSettingsAreIgnored() {
+    writeSnapshot();
+
+    RuleKeyCacheSnapshot<String> snapshot = newSnapshot(HashCode.fromString("5e771466"));
+
+    assertFalse(getRule(snapshot, FINGERPRINT).isPresent());
+    CacheStats stats = snapshot.getAndResetStats();
+    assertEquals(Optional.of(0L), stats.getHitCount());
+    assertEquals(Optional.of(1L), stats.getMissCount());
+  }
+
+  @Test
+  public void recyclerOnlyWritesSnapshotWhenPersisted() {
+    RuleKeyCacheRecycler<String> recycler =
+        RuleKeyCacheRecycler.createAndRegister(
+            new EventBus(),
+            new DefaultRuleKeyCache<>(true),
+            ImmutableSet.of(filesystem),
+            Optional.of(newSnapshot(SETTINGS)));
+    RuleKeyCacheRecycler.SettingsAffectingCache settings =
+        new RuleKeyCacheRecycler.SettingsAffectingCache(
+            0,
+            new ActionGraph(ImmutableList.of(dep, rule)),
+            Optional.of(target -> Optional.of(FINGERPRINT)));
+
+    recycler.withRecycledCache(
+        BuckEventBusForTests.newInstance(),
+        settings,
+        cache ->
+            cache.get(dep, r -> new RuleKeyResult<>("d0", ImmutableList.of(), ImmutableList.of())));
+    assertFalse(Files.exists(filesystem.resolve(SNAPSHOT_PATH)));
+
+    recycler.persistSnapshot();
+    assertTrue(Files.exists(filesystem.resolve(SNAPSHOT_PATH)));
+  }
+
+  private void writeSnapshot() {
+    DefaultRuleKeyCache<String> cache = new DefaultRuleKeyCache<>(true);
+    Function<BuildRule, RuleKeyResult<String>> create =
+        r ->
+            r == rule
+                ? new RuleKeyResult<>(
+                    "e0",
+                    ImmutableList.of(dep),
+                    ImmutableList.of(new ImmutableRuleKeyInput(filesystem, input)))
+                : new RuleKeyResult<>("d0", ImmutableList.of(), ImmutableList.of());
+    cache.get(dep, create, new NoOpCacheStatsTracker());
+    cache.get(rule, create, new NoOpCacheStatsTracker());
+
+    newSnapshot(SETTINGS)
+        .write(cache.getCachedBuildRuleResults(), target -> Optional.of(FINGERPRINT));
+  }
+
+  private RuleKeyCacheSnapshot<String> newSnapshot(HashCode settings) {
+    return new RuleKeyCacheSnapshot<>(
+        filesystem,
+        SNAPSHOT_PATH,
+        settings,
+        ImmutableList.of(hashCache),
+        HashCode::fromString,
+        HashCode::toString);
+  }
+
+  private Optional<RuleKeyResult<String>> getRule(
+      RuleKeyCacheSnapshot<String> snapshot, HashCode fingerprint) {
+    ImmutableMap<String, BuildRule> rules = ImmutableMap.of("//:dep", dep, "//:rule", rule);
+    return snapshot.get(
+        rule,
+        fingerprint,
+        target -> Optional.ofNullable(rules.get(target)),
+        r -> ruleKeys.get(r.getBuildTarget().toString()));
+  }
+}
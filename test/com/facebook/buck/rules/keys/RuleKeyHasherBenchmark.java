@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.rules.keys.config.RuleKeyHashFunction;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how many default rule keys per second can be computed for a large synthetic action
+ * graph with each of the supported rule key hash functions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class RuleKeyHasherBenchmark {
+
+  private static final int RULE_COUNT = 5000;
+  private static final int SOURCES_PER_RULE = 8;
+
+  @Param({"SHA1", "MURMUR3_128"})
+  public RuleKeyHashFunction hashFunction;
+
+  private RuleKeyFieldLoader ruleKeyFieldLoader;
+  private FakeFileHashCache hashCache;
+  private ActionGraphBuilder graphBuilder;
+  private List<BuildRule> rules;
+
+  @Setup
+  public void setUp() {
+    ruleKeyFieldLoader =
+        new RuleKeyFieldLoader(
+            TestRuleKeyConfigurationFactory.createWithHashFunction(hashFunction));
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Map<Path, HashCode> fileHashes = new HashMap<>();
+    hashCache = new FakeFileHashCache(fileHashes);
+    graphBuilder = new TestActionGraphBuilder();
+    rules = new ArrayList<>(RULE_COUNT);
+
+    for (int i = 0; i < RULE_COUNT; i++) {
+      BuildTarget target = BuildTargetFactory.newInstance("//module" + i / 100 + ":rule" + i);
+
+      ImmutableList.Builder<SourcePath> srcs = ImmutableList.builder();
+      for (int j = 0; j < SOURCES_PER_RULE; j++) {
+        Path path = Paths.get("module" + i / 100, "rule" + i, "Source" + j + ".java");
+        fileHashes.put(
+            filesystem.resolve(path),
+            Hashing.sha1().hashString(path.toString(), StandardCharsets.UTF_8));
+        srcs.add(PathSourcePath.of(filesystem, path));
+      }
+
+      // Depend on a few earlier rules, so that the graph is deep as well as wide.
+      ImmutableList.Builder<SourcePath> deps = ImmutableList.builder();
+      for (int dep : new int[] {i - 1, i / 2, i / 3, i - 100}) {
+        if (dep >= 0 && dep < i) {
+          deps.add(rules.get(dep).getSourcePathToOutput());
+        }
+      }
+
+      rules.add(graphBuilder.addToIndex(new SyntheticRule(target, srcs.build(), deps.build())));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RULE_COUNT)
+  public void buildRuleKeys(Blackhole blackhole) {
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(ruleKeyFieldLoader, hashCache, graphBuilder);
+    for (BuildRule rule : rules) {
+      blackhole.consume(factory.build(rule));
+    }
+  }
+
+  /** A rule with the kinds of fields compilation rules commonly add to their rule keys. */
+  private static class SyntheticRule extends FakeBuildRule {
+    @AddToRuleKey private final ImmutableList<SourcePath> srcs;
+    @AddToRuleKey private final ImmutableList<SourcePath> deps;
+
+    @AddToRuleKey
+    private final ImmutableList<String> flags =
+        ImmutableList.of("-source", "8", "-target", "8", "-encoding", "utf-8", "-g");
+
+    @AddToRuleKey private final String platform = "linux-x86_64";
+    @AddToRuleKey private final boolean debug = true;
+
+    private final SourcePath output;
+
+    private SyntheticRule(
+        BuildTarget target, ImmutableList<SourcePath> srcs, ImmutableList<SourcePath> deps) {
+      super(target);
+      this.srcs = srcs;
+      this.deps = deps;
+      this.output =
+          ExplicitBuildTargetSourcePath.of(
+              target, Paths.get("buck-out/gen", target.getShortName() + ".jar"));
+    }
+
+    @Override
+    public SourcePath getSourcePathToOutput() {
+      return output;
+    }
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(RuleKeyHasherBenchmark.class.getName())
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RuleKeyProfilerTest {
+
+  private static final long SLOW_HASH_MILLIS = 100;
+
+  private ProjectFilesystem filesystem;
+  private ImmutableMap<Path, HashCode> hashes;
+  private FakeFileHashCache hashCache;
+  private TestActionGraphBuilder graphBuilder;
+  private SourceRule source;
+  private DependentRule first;
+  private DependentRule second;
+
+  @Before
+  public void setUp() {
+    filesystem = new FakeProjectFilesystem();
+    PathSourcePath src = FakeSourcePath.of(filesystem, "Source.java");
+    hashes =
+        ImmutableMap.of(
+            filesystem.resolve(src.getRelativePath()),
+            HashCode.fromString("a94a8fe5ccb19ba61c4c0873d391e987982fbbd3"));
+    hashCache = new FakeFileHashCache(hashes);
+    graphBuilder = new TestActionGraphBuilder();
+    source = graphBuilder.addToIndex(new SourceRule("//:source", src));
+    first = graphBuilder.addToIndex(new DependentRule("//:first", source));
+    second = graphBuilder.addToIndex(new DependentRule("//:second", source));
+  }
+
+  @Test
+  public void profilingDoesNotChangeRuleKeys() {
+    DefaultRuleKeyFactory profiledFactory = newFactory(Optional.of(new RuleKeyProfiler()));
+    DefaultRuleKeyFactory factory = newFactory(Optional.empty());
+
+    for (BuildRule rule : new BuildRule[] {source, first, second}) {
+      assertEquals(factory.build(rule), profiledFactory.build(rule));
+    }
+  }
+
+  @Test
+  public void reportCountsComputationsLookupsAndFileHashLoadsByType() {
+    RuleKeyProfiler profiler = new RuleKeyProfiler();
+    DefaultRuleKeyFactory factory = newFactory(Optional.of(profiler));
+    factory.build(first);
+    factory.build(second);
+
+    String report = profiler.getReport();
+
+    // The source rule was computed for the first rule, and found in the cache for the second one.
+    String[] sourceLine = findLine(report, "source_rule");
+    assertEquals("1", sourceLine[1]);
+    assertEquals("2", sourceLine[2]);
+    assertEquals("50.0%", sourceLine[3]);
+    assertEquals("1", sourceLine[8]);
+
+    // Only total times are inclusive, the file hash of the source rule is not counted again for the
+    // rules that depend on it.
+    String[] dependentLine = findLine(report, "dependent_rule");
+    assertEquals("2", dependentLine[1]);
+    assertEquals("2", dependentLine[2]);
+    assertEquals("0.0%", dependentLine[3]);
+    assertEquals("0", dependentLine[8]);
+
+    String[] srcLine = findLine(report, "src");
+    assertEquals("1", srcLine[1]);
+    assertEquals("1", srcLine[6]);
+    String[] flagLine = findLine(report, "flag");
+    assertEquals("2", flagLine[1]);
+    assertEquals("0", flagLine[6]);
+
+    assertTrue(report, report.startsWith("3 keys computed"));
+  }
+
+  @Test
+  public void selfTimesLeaveOutTheKeysOfDependencies() {
+    hashCache =
+        new FakeFileHashCache(hashes) {
+          @Override
+          public HashCode get(Path path) throws IOException {
+            Uninterruptibles.sleepUninterruptibly(SLOW_HASH_MILLIS, TimeUnit.MILLISECONDS);
+            return super.get(path);
+          }
+        };
+    RuleKeyProfiler profiler = new RuleKeyProfiler();
+    newFactory(Optional.of(profiler)).build(first);
+
+    String report = profiler.getReport();
+
+    String[] sourceLine = findLine(report, "source_rule");
+    assertThat(Double.parseDouble(sourceLine[4]), greaterThanOrEqualTo((double) SLOW_HASH_MILLIS));
+
+    // The source rule was computed on the same thread, so looking it up is not waiting.
+    String[] dependentLine = findLine(report, "dependent_rule");
+    double dependentSelf = Double.parseDouble(dependentLine[4]);
+    double dependentTotal = Double.parseDouble(dependentLine[5]);
+    assertThat(dependentTotal, greaterThanOrEqualTo((double) SLOW_HASH_MILLIS));
+    assertThat(dependentSelf, lessThan((double) SLOW_HASH_MILLIS));
+    assertThat(Double.parseDouble(dependentLine[6]), lessThan((double) SLOW_HASH_MILLIS));
+
+    // The headline adds up self times, so the source rule is only counted once.
+    double reported = Double.parseDouble(report.split("\\s+")[4]);
+    assertThat(reported, lessThan(Double.parseDouble(sourceLine[4]) + dependentTotal));
+  }
+
+  @Test
+  public void millisByTypeIsLimitedToTheMostExpensiveTypes() {
+    RuleKeyProfiler profiler = new RuleKeyProfiler();
+    newFactory(Optional.of(profiler)).build(first);
+
+    assertEquals(2, profiler.getMillisByType(10).size());
+    assertEquals(1, profiler.getMillisByType(1).size());
+  }
+
+  private DefaultRuleKeyFactory newFactory(Optional<RuleKeyProfiler> profiler) {
+    return new DefaultRuleKeyFactory(
+        new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create()),
+        hashCache,
+        graphBuilder,
+        new TrackedRuleKeyCache<>(new DefaultRuleKeyCache<>(), new NoOpCacheStatsTracker()),
+        Optional.empty(),
+        profiler);
+  }
+
+  private static String[] findLine(String report, String name) {
+    for (String line : report.split("\n")) {
+      String[] columns = line.trim().split("\\s+");
+      if (columns[0].equals(name)) {
+        return columns;
+      }
+    }
+    throw new AssertionError("No line for " + name + " in:\n" + report);
+  }
+
+  private static class SourceRule extends EmptyFakeBuildRule {
+    @AddToRuleKey private final SourcePath src;
+
+    SourceRule(String target, SourcePath src) {
+      super(BuildTargetFactory.newInstance(target));
+      this.src = src;
+    }
+
+    @Override
+    public String getType() {
+      return "source_rule";
+    }
+  }
+
+  private static class DependentRule extends EmptyFakeBuildRule {
+    @AddToRuleKey private final BuildRule dep;
+    @AddToRuleKey private final String flag = "-g";
+
+    DependentRule(String target, BuildRule dep) {
+      super(BuildTargetFactory.newInstance(target));
+      this.dep = dep;
+    }
+
+    @Override
+    public String getType() {
+      return "dependent_rule";
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StripedIdentityTableTest {
+
+  @Test
+  public void keysAreComparedByIdentity() {
+    StripedIdentityTable<String> table = new StripedIdentityTable<>(1);
+    String key = new String("key");
+    String equalKey = new String("key");
+
+    table.compute(key, (k, value) -> "value");
+
+    assertEquals("value", table.get(key));
+    assertNull(table.get(equalKey));
+    assertFalse(table.containsKey(equalKey));
+  }
+
+  @Test
+  public void computeUpdatesAndRemovesEntries() {
+    StripedIdentityTable<Integer> table = new StripedIdentityTable<>(4);
+    Object key = new Object();
+
+    assertEquals(1, (int) table.compute(key, (k, value) -> value == null ? 1 : value + 1));
+    assertEquals(2, (int) table.compute(key, (k, value) -> value == null ? 1 : value + 1));
+    assertEquals(1, table.size());
+
+    assertNull(table.compute(key, (k, value) -> null));
+    assertFalse(table.containsKey(key));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  public void behavesLikeAnIdentityMapThroughGrowthAndRemovals() {
+    // A single stripe, so that removals have to move the entries of long probe sequences.
+    StripedIdentityTable<Integer> table = new StripedIdentityTable<>(1);
+    Map<Object, Integer> expected = new IdentityHashMap<>();
+    List<Object> keys = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      keys.add(new Object());
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < 50000; i++) {
+      Object key = keys.get(random.nextInt(keys.size()));
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), table.remove(key));
+      } else {
+        int value = i;
+        expected.put(key, value);
+        table.compute(key, (k, old) -> value);
+      }
+    }
+
+    assertEquals(expected.size(), table.size());
+    for (Object key : keys) {
+      assertEquals(expected.get(key), table.get(key));
+    }
+    Map<Object, Integer> visited = new IdentityHashMap<>();
+    table.forEach(visited::put);
+    assertEquals(expected.size(), visited.size());
+    for (Map.Entry<Object, Integer> entry : visited.entrySet()) {
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+    }
+
+    table.clear();
+    assertEquals(0, table.size());
+    for (Object key : keys) {
+      assertNull(table.get(key));
+    }
+  }
+
+  @Test
+  public void concurrentUpdatesAreNotLost() throws Exception {
+    StripedIdentityTable<Integer> table = new StripedIdentityTable<>(2);
+    List<Object> keys = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add(new Object());
+    }
+    int threads = 4;
+    int rounds = 50;
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int round = 0; round < rounds; round++) {
+                    for (Object key : keys) {
+                      table.compute(key, (k, value) -> value == null ? 1 : value + 1);
+                      assertTrue(table.containsKey(key));
+                    }
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (Object key : keys) {
+      assertEquals(threads * rounds, (int) table.get(key));
+    }
+  }
+}
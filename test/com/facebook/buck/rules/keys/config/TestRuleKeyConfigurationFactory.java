@@ -38,4 +38,14 @@ public class TestRuleKeyConfigurationFactory {
         .setBuckModuleHashStrategy(new NoOpBuckModuleHashStrategy())
         .build();
   }
+
+  public static RuleKeyConfiguration createWithHashFunction(RuleKeyHashFunction hashFunction) {
+    return RuleKeyConfiguration.builder()
+        .setSeed(0)
+        .setCoreKey(BuckVersion.getVersion())
+        .setBuildInputRuleKeyFileSizeLimit(Long.MAX_VALUE)
+        .setBuckModuleHashStrategy(new NoOpBuckModuleHashStrategy())
+        .setHashFunction(hashFunction)
+        .build();
+  }
 }
@@ -28,10 +28,12 @@ import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarMemberHashMode;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
 import com.facebook.buck.util.zip.CustomZipOutputStream;
 import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import java.io.ByteArrayInputStream;
@@ -41,11 +43,14 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
 import org.hamcrest.Matchers;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Assume;
@@ -134,6 +139,62 @@ public class DefaultFileHashCacheTest {
     cache.get(filesystem.getPath("hello.java"));
   }
 
+  @Test
+  public void getAllHashesEachPathOnceAndMatchesGet() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      Path path = Paths.get("file" + i);
+      filesystem.writeContentsToPath("contents " + i, path);
+      paths.add(path);
+    }
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    cache.get(paths.get(0));
+    paths.add(paths.get(1));
+
+    ImmutableMap<Path, HashCode> hashes = cache.getAll(paths);
+
+    assertEquals(20, hashes.size());
+    DefaultFileHashCache otherCache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    for (Path path : paths) {
+      assertEquals(otherCache.get(path), hashes.get(path));
+      assertTrue(cache.getIfPresent(path).isPresent());
+    }
+  }
+
+  @Test
+  public void getAllWithASingleIoThreadHashesEveryPath() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Path path = Paths.get("file" + i);
+      filesystem.writeContentsToPath("contents " + i, path);
+      paths.add(path);
+    }
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(
+            filesystem, fileHashCacheMode, JarMemberHashMode.DEFAULT, 1);
+
+    ImmutableMap<Path, HashCode> hashes = cache.getAll(paths);
+
+    assertEquals(5, hashes.size());
+    for (Path path : paths) {
+      assertEquals(cache.get(path), hashes.get(path));
+    }
+  }
+
+  @Test
+  public void getAllOfMissingPathThrows() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    filesystem.writeContentsToPath("contents", Paths.get("present"));
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    expectedException.expect(Exception.class);
+    cache.getAll(ImmutableList.of(Paths.get("present"), Paths.get("missing")));
+  }
+
   @Test
   public void whenPathsArePutThenInvalidateAllRemovesThem() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -182,6 +243,23 @@ public class DefaultFileHashCacheTest {
     assertFalse(cache.getIfPresent(child2).isPresent());
   }
 
+  @Test
+  public void emptyDirectoriesDoNotChangeTheHashOfTheirParent() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+
+    Path dir = filesystem.getPath("dir");
+    filesystem.mkdirs(dir);
+    filesystem.writeContentsToPath("class File {}", dir.resolve("File.java"));
+    HashCode dirHash = cache.get(dir);
+
+    filesystem.mkdirs(dir.resolve("empty/nested"));
+    cache.invalidate(dir);
+
+    assertEquals(dirHash, cache.get(dir));
+  }
+
   @Test
   public void whenJarMemberWithHashInManifestIsQueriedThenCacheCorrectlyObtainsIt()
       throws IOException {
@@ -273,6 +351,93 @@ public class DefaultFileHashCacheTest {
     cache.getForArchiveMember(abiJarPath, memberPath);
   }
 
+  @Test
+  public void whenJarMembersAreHashedFromContentsThenUnhashedMembersAreHashed()
+      throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(
+            filesystem,
+            fileHashCacheMode,
+            JarMemberHashMode.CONTENTS,
+            DefaultFileHashCache.DEFAULT_IO_THREADS);
+
+    Path jarPath = Paths.get("test-abi.jar");
+    try (CustomJarOutputStream jar =
+        ZipOutputStreams.newJarOutputStream(filesystem.newFileOutputStream(jarPath))) {
+      jar.setEntryHashingEnabled(true);
+      jar.writeEntry(
+          "SomeClass.class",
+          new ByteArrayInputStream("Some contents".getBytes(StandardCharsets.UTF_8)));
+      jar.setEntryHashingEnabled(false);
+      jar.writeEntry(
+          "Unhashed.txt",
+          new ByteArrayInputStream("Other contents".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    assertEquals(
+        Hashing.murmur3_128().hashString("Some contents", StandardCharsets.UTF_8),
+        cache.getForArchiveMember(jarPath, Paths.get("SomeClass.class")));
+    assertEquals(
+        Hashing.murmur3_128().hashString("Other contents", StandardCharsets.UTF_8),
+        cache.getForArchiveMember(jarPath, Paths.get("Unhashed.txt")));
+  }
+
+  @Test
+  public void whenJarWithoutManifestIsHashedFromCentralDirectoryThenMembersAreHashed()
+      throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(
+            filesystem,
+            fileHashCacheMode,
+            JarMemberHashMode.CENTRAL_DIRECTORY,
+            DefaultFileHashCache.DEFAULT_IO_THREADS);
+
+    Path jarPath = Paths.get("no-manifest.jar");
+    Path memberPath = Paths.get("Empty.class");
+    byte[] contents = "Contents".getBytes(StandardCharsets.UTF_8);
+    try (JarOutputStream jar = new JarOutputStream(filesystem.newFileOutputStream(jarPath))) {
+      jar.putNextEntry(new JarEntry(memberPath.toString()));
+      jar.write(contents);
+      jar.closeEntry();
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+    HashCode expected =
+        Hashing.murmur3_128().newHasher().putLong(crc.getValue()).putLong(contents.length).hash();
+    assertEquals(expected, cache.getForArchiveMember(jarPath, memberPath));
+  }
+
+  @Test
+  public void whenJarIsSetWithAKnownHashThenItsMembersAreNotReadAgain() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createDefaultFileHashCache(
+            filesystem,
+            fileHashCacheMode,
+            JarMemberHashMode.CONTENTS,
+            DefaultFileHashCache.DEFAULT_IO_THREADS);
+
+    Path jarPath = Paths.get("lib.jar");
+    Path memberPath = Paths.get("Empty.class");
+    try (JarOutputStream jar = new JarOutputStream(filesystem.newFileOutputStream(jarPath))) {
+      jar.putNextEntry(new JarEntry(memberPath.toString()));
+      jar.write("Contents".getBytes(StandardCharsets.UTF_8));
+      jar.closeEntry();
+    }
+    HashCode jarHash = cache.get(jarPath);
+    HashCode memberHash = cache.getForArchiveMember(jarPath, memberPath);
+
+    // The jar is no longer readable, so its member hashes can only come from the cache.
+    filesystem.writeBytesToPath(new byte[] {1, 2, 3}, jarPath);
+    cache.invalidate(jarPath);
+    cache.set(jarPath, jarHash);
+
+    assertEquals(memberHash, cache.getForArchiveMember(jarPath, memberPath));
+  }
+
   @Test
   public void getSizeOfMissingPathThrows() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.FileHashCacheEvent;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final Path STORE_PATH = Paths.get("buck-out/persistent_cache/file_hashes");
+
+  private ProjectFilesystem filesystem;
+  private AtomicInteger hashes;
+  private PersistentFileHashStore.HashLoader loader;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    hashes = new AtomicInteger();
+    loader =
+        path -> {
+          hashes.incrementAndGet();
+          return filesystem.computeSha1(path).asHashCode();
+        };
+  }
+
+  @Test
+  public void hashesOfUnchangedFilesSurviveTheStore() throws IOException {
+    Path file = writeOldFile("File.java", "class File {}");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    HashCode hashCode = store.get(file, loader);
+    store.flush();
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+
+    assertEquals(hashCode, reloaded.get(file, loader));
+    assertEquals(1, hashes.get());
+    assertEquals(
+        ImmutableMap.of(
+            "file_hash_cache_invalidation.persistent.load", 1L,
+            "file_hash_cache_invalidation.persistent.stat_validation", 1L),
+        getDataPointCounts(reloaded));
+  }
+
+  @Test
+  public void changedFilesAreHashedAgain() throws IOException {
+    Path file = writeOldFile("File.java", "class File {}");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(file, loader);
+    store.flush();
+    writeOldFile("File.java", "class File { int field; }");
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+
+    assertEquals(filesystem.computeSha1(file).asHashCode(), reloaded.get(file, loader));
+    assertEquals(2, hashes.get());
+    assertEquals(
+        ImmutableMap.of(
+            "file_hash_cache_invalidation.persistent.load", 1L,
+            "file_hash_cache_invalidation.persistent.rehash", 1L),
+        getDataPointCounts(reloaded));
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotStored() throws IOException {
+    Path file = Paths.get("File.java");
+    filesystem.writeContentsToPath("class File {}", file);
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(file, loader);
+    store.flush();
+
+    new PersistentFileHashStore(filesystem, STORE_PATH).get(file, loader);
+
+    assertEquals(2, hashes.get());
+  }
+
+  @Test
+  public void storesThatWereCutShortAreRewritten() throws IOException {
+    Path first = writeOldFile("First.java", "class First {}");
+    Path second = writeOldFile("Second.java", "class Second {}");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(first, loader);
+    store.get(second, loader);
+    store.flush();
+    try (FileChannel channel =
+        FileChannel.open(filesystem.resolve(STORE_PATH), StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+
+    PersistentFileHashStore truncated = new PersistentFileHashStore(filesystem, STORE_PATH);
+    truncated.get(first, loader);
+    truncated.get(second, loader);
+    truncated.flush();
+    assertEquals(3, hashes.get());
+    assertEquals(2, truncated.getEntriesOnDisk());
+
+    PersistentFileHashStore rewritten = new PersistentFileHashStore(filesystem, STORE_PATH);
+    rewritten.get(first, loader);
+    rewritten.get(second, loader);
+    assertEquals(3, hashes.get());
+  }
+
+  private Path writeOldFile(String name, String contents) throws IOException {
+    Path file = Paths.get(name);
+    filesystem.writeContentsToPath(contents, file);
+    Files.setLastModifiedTime(
+        filesystem.resolve(file),
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+    return file;
+  }
+
+  private static ImmutableMap<String, Long> getDataPointCounts(PersistentFileHashStore store) {
+    ImmutableMap.Builder<String, Long> counts = ImmutableMap.builder();
+    for (AbstractBuckEvent event : store.getStatsEvents()) {
+      FileHashCacheEvent fileHashCacheEvent = (FileHashCacheEvent) event;
+      counts.put(fileHashCacheEvent.getCategory(), fileHashCacheEvent.getDataPointsCount());
+    }
+    return counts.build();
+  }
+}
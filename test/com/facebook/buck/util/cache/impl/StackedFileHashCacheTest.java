@@ -16,6 +16,7 @@
 
 package com.facebook.buck.util.cache.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.io.ArchiveMemberPath;
@@ -30,6 +31,8 @@ import com.facebook.buck.util.config.ConfigBuilder;
 import com.facebook.buck.util.zip.CustomJarOutputStream;
 import com.facebook.buck.util.zip.ZipOutputStreams;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -174,6 +177,36 @@ public class StackedFileHashCacheTest {
     assertTrue(innerCache2.willGet(path));
   }
 
+  @Test
+  public void getAllUsesTheCacheOfEachPath() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    ProjectFilesystem filesystem2 = TestProjectFilesystems.createProjectFilesystem(tmp2.getRoot());
+    Path path = Paths.get("hello.txt");
+    Path path2 = Paths.get("world.txt");
+    filesystem.writeContentsToPath("hello", path);
+    filesystem2.writeContentsToPath("world", path2);
+    ProjectFileHashCache innerCache =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem, fileHashCacheMode);
+    ProjectFileHashCache innerCache2 =
+        DefaultFileHashCache.createDefaultFileHashCache(filesystem2, fileHashCacheMode);
+    StackedFileHashCache cache =
+        new StackedFileHashCache(ImmutableList.of(innerCache, innerCache2));
+
+    ImmutableMap<Path, HashCode> hashes =
+        cache.getAll(ImmutableList.of(filesystem.resolve(path), filesystem2.resolve(path2)));
+
+    assertEquals(
+        ImmutableMap.of(
+            filesystem.resolve(path),
+            innerCache.get(path),
+            filesystem2.resolve(path2),
+            innerCache2.get(path2)),
+        hashes);
+    assertEquals(
+        ImmutableMap.of(path2, innerCache2.get(path2)),
+        cache.getAll(filesystem2, ImmutableList.of(path2)));
+  }
+
   @Test
   public void usesSecondCacheForArchivePathAbsolutePath() throws IOException {
     Path path = Paths.get("world.jar");
@@ -17,6 +17,7 @@
 package com.facebook.buck.util.cache.impl;
 
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
@@ -25,6 +26,7 @@ import static org.junit.Assert.assertTrue;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.io.watchman.ImmutableWatchmanContentHashEvent;
 import com.facebook.buck.io.watchman.ImmutableWatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.ImmutableWatchmanPathEvent;
 import com.facebook.buck.io.watchman.WatchmanEvent.Kind;
@@ -33,6 +35,7 @@ import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.HashCodeAndFileType;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import java.io.File;
 import java.io.IOException;
@@ -123,6 +126,32 @@ public class WatchedFileHashCacheTest {
         nullValue());
   }
 
+  @Test
+  public void whenNotifiedOfChangeEventOnlyDirectoriesAboveThePathAreRehashed()
+      throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    Path dir = Paths.get("dir");
+    Path changedDir = dir.resolve("changed");
+    Path unchangedDir = dir.resolve("unchanged");
+    Path changed = changedDir.resolve("File.java");
+    filesystem.mkdirs(changedDir);
+    filesystem.writeContentsToPath("class File {}", changed);
+    filesystem.mkdirs(unchangedDir);
+    filesystem.writeContentsToPath("class File {}", unchangedDir.resolve("File.java"));
+
+    HashCode dirHash = cache.get(dir);
+    HashCode unchangedDirHash = cache.get(unchangedDir);
+    filesystem.writeContentsToPath("class File { int field; }", changed);
+    cache.onFileSystemChange(
+        ImmutableWatchmanPathEvent.of(filesystem.getRootPath(), Kind.MODIFY, changed));
+
+    assertFalse(cache.getIfPresent(dir).isPresent());
+    assertFalse(cache.getIfPresent(changedDir).isPresent());
+    assertEquals(unchangedDirHash, cache.getIfPresent(unchangedDir).get());
+    assertNotEquals(dirHash, cache.get(dir));
+  }
+
   @Test
   public void whenNotifiedOfDeleteEventCacheEntryIsRemoved() throws IOException {
     ProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -239,4 +268,53 @@ public class WatchedFileHashCacheTest {
     assertFalse(cache.willGet(filesystem.getPath("buck-out/file.txt")));
     assertTrue(cache.willGet(filesystem.getPath("file.txt")));
   }
+
+  @Test
+  public void contentHashesFromWatchmanAreCachedWithoutReadingFiles() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    Path path = filesystem.getPath("SomeClass.java");
+    filesystem.writeContentsToPath("class SomeClass {}", path);
+    HashCode watchmanHash = HashCode.fromString("0123456789abcdef0123456789abcdef01234567");
+    cache.get(path);
+
+    cache.onFileSystemChange(
+        ImmutableWatchmanPathEvent.of(filesystem.getRootPath(), Kind.MODIFY, path));
+    cache.onContentHashes(
+        new ImmutableWatchmanContentHashEvent(
+            filesystem.getRootPath(), ImmutableMap.of(path, watchmanHash)));
+
+    assertEquals(watchmanHash, cache.get(path));
+  }
+
+  @Test
+  public void contentHashesOfFilesThatWereNotCachedAreDropped() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    Path path = filesystem.getPath("SomeClass.java");
+    HashCode watchmanHash = HashCode.fromString("0123456789abcdef0123456789abcdef01234567");
+
+    cache.onFileSystemChange(
+        ImmutableWatchmanPathEvent.of(filesystem.getRootPath(), Kind.CREATE, path));
+    cache.onContentHashes(
+        new ImmutableWatchmanContentHashEvent(
+            filesystem.getRootPath(), ImmutableMap.of(path, watchmanHash)));
+
+    assertFalse(cache.getIfPresent(path).isPresent());
+  }
+
+  @Test
+  public void contentHashesOfOtherCellsAreIgnored() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    Path path = filesystem.getPath("SomeClass.java");
+    filesystem.writeContentsToPath("class SomeClass {}", path);
+    HashCode watchmanHash = HashCode.fromString("0123456789abcdef0123456789abcdef01234567");
+
+    cache.onContentHashes(
+        new ImmutableWatchmanContentHashEvent(
+            filesystem.getRootPath().resolve("other_cell"), ImmutableMap.of(path, watchmanHash)));
+
+    assertFalse(cache.getIfPresent(path).isPresent());
+  }
 }
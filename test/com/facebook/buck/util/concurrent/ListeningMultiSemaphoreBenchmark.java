@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures many threads acquiring and releasing a shared {@link ListeningMultiSemaphore}, the way
+ * build threads do for every step when resource-aware scheduling is on. Run with {@code -t} set to
+ * the number of cores of the machine to see how the semaphore holds up under contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class ListeningMultiSemaphoreBenchmark {
+
+  private static final ResourceAmounts STEP_AMOUNTS = ResourceAmounts.of(1, 1, 0, 0);
+  private static final ResourceAmounts LARGE_STEP_AMOUNTS = ResourceAmounts.of(4, 8, 1, 0);
+
+  @Param({"FAIR", "FAST"})
+  public ResourceAllocationFairness fairness;
+
+  private ListeningMultiSemaphore ampleSemaphore;
+  private ListeningMultiSemaphore scarceSemaphore;
+
+  @Setup
+  public void setUp() {
+    int threads = Runtime.getRuntime().availableProcessors();
+    // Enough for every thread to acquire at once, so nothing ever waits.
+    ampleSemaphore =
+        new ListeningMultiSemaphore(
+            ResourceAmounts.of(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0), fairness);
+    // Enough for a few threads only, so that most acquisitions wait for a release.
+    scarceSemaphore =
+        new ListeningMultiSemaphore(
+            ResourceAmounts.of(Math.max(4, threads / 2), Math.max(8, threads), 1, 0), fairness);
+  }
+
+  private static void acquireAndRelease(ListeningMultiSemaphore semaphore, ResourceAmounts amounts)
+      throws ExecutionException, InterruptedException {
+    ListenableFuture<Void> future = semaphore.acquire(amounts);
+    future.get();
+    semaphore.release(amounts);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void acquireWithoutWaiting() throws ExecutionException, InterruptedException {
+    acquireAndRelease(ampleSemaphore, STEP_AMOUNTS);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void acquireWithWaiting() throws ExecutionException, InterruptedException {
+    acquireAndRelease(scarceSemaphore, STEP_AMOUNTS);
+  }
+
+  @Benchmark
+  @Group("mixedAmounts")
+  @GroupThreads(3)
+  public void acquireSmall() throws ExecutionException, InterruptedException {
+    acquireAndRelease(scarceSemaphore, STEP_AMOUNTS);
+  }
+
+  @Benchmark
+  @Group("mixedAmounts")
+  @GroupThreads(1)
+  public void acquireLarge() throws ExecutionException, InterruptedException {
+    acquireAndRelease(scarceSemaphore, LARGE_STEP_AMOUNTS);
+  }
+
+  /** Reads the semaphore the way status reporting does, while other threads acquire it. */
+  @Benchmark
+  @Group("readWhileAcquiring")
+  @GroupThreads(3)
+  public void acquireWhileRead() throws ExecutionException, InterruptedException {
+    acquireAndRelease(ampleSemaphore, STEP_AMOUNTS);
+  }
+
+  @Benchmark
+  @Group("readWhileAcquiring")
+  @GroupThreads(1)
+  public int readQueueLengthAndAvailable() {
+    return ampleSemaphore.getQueueLength() + ampleSemaphore.getAvailableResources().getCpu();
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ListeningMultiSemaphoreBenchmark.class.getName())
+                .build())
+        .run();
+  }
+}
@@ -19,7 +19,17 @@ import static org.hamcrest.junit.MatcherAssert.assertThat;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -202,6 +212,103 @@ public class ListeningMultiSemaphoreTest {
     assertThat(second.isDone(), Matchers.equalTo(true));
   }
 
+  @Test
+  public void pendingItemsWithHigherPriorityAreProcessedFirst() {
+    ListeningMultiSemaphore semaphore = getFairListeningMultiSemaphore(amountsOfCpu(1));
+    semaphore.acquire(amountsOfCpu(1));
+
+    ListenableFuture<Void> low = semaphore.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Void> firstHigh = semaphore.acquire(amountsOfCpu(1), 10);
+    ListenableFuture<Void> secondHigh = semaphore.acquire(amountsOfCpu(1), 10);
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(3));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(firstHigh.isDone(), Matchers.equalTo(true));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(false));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(true));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(low.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void memoryPressureHoldsBackJobsNeedingMemory() {
+    AtomicLong availableMemory = new AtomicLong(0);
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(
+            amountsOfCpuAndMemory(4, 10),
+            ResourceAllocationFairness.FAIR,
+            Optional.of(
+                new SystemMemoryPressureCap(availableMemory::get, 0, 0, TimeUnit.SECONDS)));
+
+    // Nothing holds resources yet, so the first job is let through anyway.
+    ListenableFuture<Void> first = semaphore.acquire(amountsOfCpuAndMemory(1, 1));
+    assertThat(first.isDone(), Matchers.equalTo(true));
+
+    ListenableFuture<Void> cpuOnly = semaphore.acquire(amountsOfCpu(1));
+    assertThat(cpuOnly.isDone(), Matchers.equalTo(true));
+
+    ListenableFuture<Void> second = semaphore.acquire(amountsOfCpuAndMemory(1, 1));
+    assertThat(second.isDone(), Matchers.equalTo(false));
+
+    availableMemory.set(ResourceAmountsEstimator.MEMORY_UNIT_BYTES);
+    semaphore.release(amountsOfCpu(1));
+    assertThat(second.isDone(), Matchers.equalTo(true));
+  }
+
+  @Test
+  public void concurrentAcquisitionsNeverExceedMaximumAmounts() throws Exception {
+    for (ResourceAllocationFairness fairness : ResourceAllocationFairness.values()) {
+      ResourceAmounts maximum = amountsOfCpuAndMemory(4, 6);
+      ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(maximum, fairness);
+      AtomicInteger cpuInUse = new AtomicInteger();
+      AtomicInteger memoryInUse = new AtomicInteger();
+      int threads = 8;
+      int rounds = 2000;
+
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          int seed = t;
+          futures.add(
+              executor.submit(
+                  () -> {
+                    Random random = new Random(seed);
+                    for (int round = 0; round < rounds; round++) {
+                      ResourceAmounts amounts =
+                          amountsOfCpuAndMemory(1 + random.nextInt(3), random.nextInt(3));
+                      semaphore.acquire(amounts, random.nextInt(3)).get(1, TimeUnit.MINUTES);
+                      assertThat(
+                          cpuInUse.addAndGet(amounts.getCpu()),
+                          Matchers.lessThanOrEqualTo(maximum.getCpu()));
+                      assertThat(
+                          memoryInUse.addAndGet(amounts.getMemory()),
+                          Matchers.lessThanOrEqualTo(maximum.getMemory()));
+                      cpuInUse.addAndGet(-amounts.getCpu());
+                      memoryInUse.addAndGet(-amounts.getMemory());
+                      semaphore.release(amounts);
+                    }
+                    return null;
+                  }));
+        }
+        for (Future<?> future : futures) {
+          future.get(1, TimeUnit.MINUTES);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+
+      assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+      assertThat(semaphore.getAvailableResources(), Matchers.equalTo(maximum));
+    }
+  }
+
   private ListeningMultiSemaphore getFairListeningMultiSemaphore(ResourceAmounts values) {
     return new ListeningMultiSemaphore(values, ResourceAllocationFairness.FAIR);
   }
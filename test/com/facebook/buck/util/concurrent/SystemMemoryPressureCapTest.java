@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class SystemMemoryPressureCapTest {
+
+  private static final long UNIT = ResourceAmountsEstimator.MEMORY_UNIT_BYTES;
+
+  @Test
+  public void jobsWithoutMemoryAreAlwaysAdmitted() {
+    SystemMemoryPressureCap cap = new SystemMemoryPressureCap(() -> 0, UNIT, 0, TimeUnit.SECONDS);
+    assertTrue(cap.admits(ResourceAmounts.of(4, 0, 1, 1)));
+  }
+
+  @Test
+  public void reservedMemoryIsLeftToTheSystem() {
+    SystemMemoryPressureCap cap =
+        new SystemMemoryPressureCap(() -> 3 * UNIT, UNIT, 0, TimeUnit.SECONDS);
+    assertTrue(cap.admits(ResourceAmounts.of(1, 2, 0, 0)));
+    assertFalse(cap.admits(ResourceAmounts.of(1, 3, 0, 0)));
+  }
+
+  @Test
+  public void memoryOfJobsAdmittedSinceTheLastSampleIsCounted() {
+    AtomicLong available = new AtomicLong(4 * UNIT);
+    SystemMemoryPressureCap cap =
+        new SystemMemoryPressureCap(available::get, 0, 1, TimeUnit.HOURS);
+    ResourceAmounts twoUnits = ResourceAmounts.of(1, 2, 0, 0);
+
+    assertTrue(cap.admits(twoUnits));
+    cap.onAdmitted(twoUnits);
+    assertTrue(cap.admits(twoUnits));
+    cap.onAdmitted(twoUnits);
+    // The sample is not refreshed yet, so more memory becoming available is not seen either.
+    available.set(100 * UNIT);
+    assertFalse(cap.admits(twoUnits));
+  }
+
+  @Test
+  public void availableMemoryIsSampledAgainAfterTheRefreshInterval() {
+    AtomicLong available = new AtomicLong(0);
+    SystemMemoryPressureCap cap =
+        new SystemMemoryPressureCap(available::get, 0, 0, TimeUnit.SECONDS);
+    ResourceAmounts oneUnit = ResourceAmounts.of(1, 1, 0, 0);
+
+    assertFalse(cap.admits(oneUnit));
+    available.set(UNIT);
+    assertTrue(cap.admits(oneUnit));
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.util.concurrent;
 
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -94,6 +95,44 @@ public class WeightedListeningExecutorServiceTest {
     assertThat(semaphore.getAvailableResources(), Matchers.equalTo(ResourceAmounts.of(1, 0, 0, 0)));
   }
 
+  @Test
+  public void blockingWorkRunsOnBlockingDelegateWithTheSameResources() {
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(
+            ResourceAmounts.of(1, 0, 0, 0), ResourceAllocationFairness.FAIR);
+    ExplicitRunExecutorService delegate = new ExplicitRunExecutorService();
+    ExplicitRunExecutorService blockingDelegate = new ExplicitRunExecutorService();
+    WeightedListeningExecutorService service =
+        new WeightedListeningExecutorService(
+            semaphore, ResourceAmounts.of(1, 0, 0, 0), delegate, blockingDelegate);
+
+    AtomicBoolean blocking =
+        submitSetBool(service.forBlockingWork().withPriority(1), ResourceAmounts.of(1, 0, 0, 0));
+    AtomicBoolean other = submitSetBool(service, ResourceAmounts.of(1, 0, 0, 0));
+    delegate.run();
+    assertFalse(blocking.get());
+    assertFalse(other.get());
+
+    blockingDelegate.run();
+    assertTrue(blocking.get());
+    assertFalse("Resources are shared with jobs that are not blocking.", other.get());
+
+    delegate.run();
+    assertTrue(other.get());
+    assertThat(semaphore.getAvailableResources(), Matchers.equalTo(ResourceAmounts.of(1, 0, 0, 0)));
+  }
+
+  @Test
+  public void blockingWorkRunsOnDelegateWithoutBlockingDelegate() {
+    WeightedListeningExecutorService service =
+        new WeightedListeningExecutorService(
+            new ListeningMultiSemaphore(
+                ResourceAmounts.of(1, 0, 0, 0), ResourceAllocationFairness.FAIR),
+            ResourceAmounts.of(1, 0, 0, 0),
+            newDirectExecutorService());
+    assertSame(service, service.forBlockingWork());
+  }
+
   private AtomicBoolean submitSetBool(
       WeightedListeningExecutorService service, ResourceAmounts amounts) {
     AtomicBoolean bool = new AtomicBoolean(false);
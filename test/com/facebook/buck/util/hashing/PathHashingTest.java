@@ -126,4 +126,30 @@ public class PathHashingTest {
 
     assertThat(hasher1.hash(), equalTo(hasher2.hash()));
   }
+
+  @Test
+  public void subdirectoriesAreHashedFromTheirLoadedHashes() throws IOException {
+    SettableFakeClock clock = new SettableFakeClock(1000, 0);
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem(clock);
+    filesystem.touch(Paths.get("foo/foo.txt"));
+    filesystem.touch(Paths.get("foo/sub/bar.txt"));
+
+    Hasher hasher1 = Hashing.sha1().newHasher();
+    PathHashing.hashPath(
+        hasher1,
+        FakeProjectFileHashCache.createFromStrings(
+            filesystem, ImmutableMap.of("foo/foo.txt", "abcdef", "foo/sub", "abcdef")),
+        filesystem,
+        Paths.get("foo"));
+
+    Hasher hasher2 = Hashing.sha1().newHasher();
+    PathHashing.hashPath(
+        hasher2,
+        FakeProjectFileHashCache.createFromStrings(
+            filesystem, ImmutableMap.of("foo/foo.txt", "abcdef", "foo/sub", "123456")),
+        filesystem,
+        Paths.get("foo"));
+
+    assertThat(hasher1.hash(), not(equalTo(hasher2.hash())));
+  }
 }
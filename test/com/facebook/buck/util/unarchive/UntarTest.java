@@ -29,8 +29,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
@@ -38,6 +41,7 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.hamcrest.Matchers;
@@ -322,6 +326,92 @@ public class UntarTest {
     assertExecutable(expectedPaths.subList(1, expectedPaths.size()), false);
   }
 
+  @Test
+  public void extractsFilesFromStreamWithoutClosingIt() throws IOException {
+    AtomicBoolean closed = new AtomicBoolean();
+    ImmutableSet<Path> unarchivedFiles;
+    try (InputStream archiveStream =
+        new FilterInputStream(Files.newInputStream(getTestFilePath(".tar.gz"))) {
+          @Override
+          public void close() throws IOException {
+            closed.set(true);
+            super.close();
+          }
+        }) {
+      unarchivedFiles =
+          Untar.gzipUnarchiver()
+              .extractArchive(
+                  archiveStream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      Assert.assertFalse(closed.get());
+    }
+
+    Assert.assertThat(
+        unarchivedFiles,
+        Matchers.containsInAnyOrder(
+            Paths.get("root", "echo.sh"),
+            Paths.get("root", "alternative", "Main.java"),
+            Paths.get("root", "alternative", "Link.java"),
+            Paths.get("root", "src", "com", "facebook", "buck", "Main.java"),
+            Paths.get("root_sibling", "Other.java")));
+    assertOutputFileExists(Paths.get("root", "echo.sh"), echoDotSh);
+    assertOutputFileExists(Paths.get("root_sibling", "Other.java"), otherDotJava);
+    assertOutputDirExists(Paths.get("root", "empty_dir"));
+  }
+
+  @Test
+  public void deletesFilesExtractedFromStreamIfItFails() throws IOException {
+    // Fails half way through the header of the last entry, root_sibling/Other.java.
+    long failAfterBytes = 7200;
+    try (InputStream archiveStream =
+        new FilterInputStream(Files.newInputStream(getTestFilePath(".tar"))) {
+          private long position = 0;
+
+          @Override
+          public int read() throws IOException {
+            failIfPastLimit();
+            int read = super.read();
+            if (read >= 0) {
+              position++;
+            }
+            return read;
+          }
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            failIfPastLimit();
+            int read = super.read(b, off, (int) Math.min(len, failAfterBytes - position));
+            if (read > 0) {
+              position += read;
+            }
+            return read;
+          }
+
+          private void failIfPastLimit() throws IOException {
+            if (position >= failAfterBytes) {
+              throw new IOException("Connection reset");
+            }
+          }
+        }) {
+      Untar.tarUnarchiver()
+          .extractArchive(
+              archiveStream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      Assert.fail("Expected the extraction to fail.");
+    } catch (IOException e) {
+      Assert.assertEquals("Connection reset", e.getMessage());
+    }
+
+    for (Path path :
+        ImmutableList.of(
+            Paths.get("root", "echo.sh"),
+            Paths.get("root", "alternative", "Main.java"),
+            Paths.get("root", "alternative", "Link.java"),
+            Paths.get("root", "src", "com", "facebook", "buck", "Main.java"))) {
+      Assert.assertFalse(
+          String.format("Expected %s to be deleted", path),
+          Files.exists(tmpFolder.getRoot().resolve(path), LinkOption.NOFOLLOW_LINKS));
+    }
+  }
+
   @Test
   public void extractsFilesWithStrippedPrefix() throws IOException {
     ArchiveFormat format = ArchiveFormat.TAR;